@@ -24,6 +24,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
+import java.util.List;
 
 import org.apache.felix.framework.ext.FelixBundleContext;
 import org.osgi.framework.AdminPermission;
@@ -168,6 +169,28 @@ class BundleContextImpl implements FelixBundleContext
         return result;
     }
 
+    public List<Bundle> installBundles(List<String> locations)
+        throws BundleException
+    {
+        checkValidity();
+
+        List<Bundle> result = m_felix.installBundles(m_bundle, locations);
+
+        Object sm = System.getSecurityManager();
+        if (sm != null)
+        {
+            // Do check the bundles again in case that they were installed
+            // already.
+            for (Bundle bundle : result)
+            {
+                ((SecurityManager) sm).checkPermission(
+                    new AdminPermission(bundle, AdminPermission.LIFECYCLE));
+            }
+        }
+
+        return result;
+    }
+
     public Bundle getBundle(long id)
     {
         checkValidity();
@@ -38,6 +38,8 @@ import java.util.Set;
 import java.util.StringTokenizer;
 
 import org.apache.felix.framework.cache.BundleArchive;
+import org.apache.felix.framework.util.LockStatistics;
+import org.apache.felix.framework.util.LookupStatistics;
 import org.apache.felix.framework.util.SecurityManagerEx;
 import org.apache.felix.framework.util.ShrinkableCollection;
 import org.apache.felix.framework.util.StringMap;
@@ -81,6 +83,9 @@ class BundleImpl implements Bundle, BundleRevisions
     // Used for bundle locking.
     private int m_lockCount = 0;
     private Thread m_lockThread = null;
+    private final LockStatistics m_lockStatistics = new LockStatistics();
+    // Revision parsed ahead of being added to the framework state.
+    private BundleRevision m_parsedRevision = null;
 
     /**
      * This constructor is used by the system bundle (i.e., the framework),
@@ -99,6 +104,19 @@ class BundleImpl implements Bundle, BundleRevisions
     }
 
     BundleImpl(Felix felix, Bundle installingBundle, BundleArchive archive) throws Exception
+    {
+        this(felix, installingBundle, archive, true);
+    }
+
+    /**
+     * Creates a bundle for the specified archive. If <tt>install</tt> is
+     * <tt>false</tt>, the manifest is only parsed and the resulting revision
+     * is not added to the framework state until
+     * {@link #installParsedRevision()} is called, which allows several
+     * bundles to be parsed concurrently without holding the global lock.
+    **/
+    BundleImpl(Felix felix, Bundle installingBundle, BundleArchive archive, boolean install)
+        throws Exception
     {
         __m_felix = felix;
         m_archive = archive;
@@ -109,8 +127,16 @@ class BundleImpl implements Bundle, BundleRevisions
         m_context = null;
         m_installingBundle = installingBundle;
 
-        BundleRevision revision = createRevision(false);
-        addRevision(revision);
+        BundleRevision revision = parseRevision();
+        if (install)
+        {
+            checkCollisions(revision, false);
+            addRevision(revision);
+        }
+        else
+        {
+            m_parsedRevision = revision;
+        }
     }
 
     // This method exists because the system bundle extends BundleImpl
@@ -173,6 +199,13 @@ class BundleImpl implements Bundle, BundleRevisions
             // Close the revision's content.
             ((BundleRevisionImpl) br).close();
         }
+
+        // Close the revision of a bundle that was never installed.
+        if (m_parsedRevision != null)
+        {
+            ((BundleRevisionImpl) m_parsedRevision).close();
+            m_parsedRevision = null;
+        }
     }
 
 // Called when refreshing a bundle. Must clean up dependencies beforehand.
@@ -1092,6 +1125,20 @@ class BundleImpl implements Bundle, BundleRevisions
         {
             return (A) this;
         }
+        else if (type == LockStatistics.class)
+        {
+            return (A) m_lockStatistics;
+        }
+        else if (type == LookupStatistics.class)
+        {
+            if (m_state == Bundle.UNINSTALLED)
+            {
+                return null;
+            }
+            BundleWiring wiring = m_revisions.get(0).getWiring();
+            return (wiring instanceof BundleWiringImpl)
+                ? (A) ((BundleWiringImpl) wiring).getLookupStatistics() : null;
+        }
         else if (type == BundleWiring.class)
         {
             if (m_state == Bundle.UNINSTALLED)
@@ -1228,19 +1275,45 @@ class BundleImpl implements Bundle, BundleRevisions
         }
     }
 
+    /**
+     * Adds the revision parsed by a bundle that was created without being
+     * installed to the framework state, after checking that its symbolic
+     * name and version do not collide with an installed bundle. Must be
+     * called while holding the global lock.
+    **/
+    synchronized void installParsedRevision() throws Exception
+    {
+        checkCollisions(m_parsedRevision, false);
+        addRevision(m_parsedRevision);
+        m_parsedRevision = null;
+    }
+
     private BundleRevision createRevision(boolean isUpdate) throws Exception
+    {
+        BundleRevision revision = parseRevision();
+        checkCollisions(revision, isUpdate);
+        return revision;
+    }
+
+    private BundleRevision parseRevision() throws Exception
     {
         // Get and parse the manifest from the most recent revision and
         // create an associated revision object for it.
         Map headerMap = m_archive.getCurrentRevision().getManifestHeader();
 
         // Create the bundle revision instance.
-        BundleRevisionImpl revision = new BundleRevisionImpl(
+        return new BundleRevisionImpl(
             this,
             Long.toString(getBundleId())
                 + "." + m_archive.getCurrentRevisionNumber().toString(),
             headerMap,
             m_archive.getCurrentRevision().getContent());
+    }
+
+    private void checkCollisions(BundleRevision br, boolean isUpdate)
+        throws Exception
+    {
+        BundleRevisionImpl revision = (BundleRevisionImpl) br;
 
         // For R4 bundles, verify that the bundle symbolic name + version
         // is unique unless this check has been disabled.
@@ -1307,8 +1380,6 @@ class BundleImpl implements Bundle, BundleRevisions
                     + symName + ':' + bundleVersion, BundleException.DUPLICATE_BUNDLE_ERROR);
             }
         }
-
-        return revision;
     }
 
     synchronized ProtectionDomain getProtectionDomain()
@@ -1364,6 +1435,11 @@ class BundleImpl implements Bundle, BundleRevisions
         }
     }
 
+    LockStatistics getLockStatistics()
+    {
+        return m_lockStatistics;
+    }
+
     BundleContext _getBundleContext()
     {
         return m_context;
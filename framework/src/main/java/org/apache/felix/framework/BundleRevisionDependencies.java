@@ -269,7 +269,9 @@ class BundleRevisionDependencies
         for (BundleRevision rev : revs)
         {
             BundleWiring wiring = rev.getWiring();
-            if (wiring != null)
+            // A disposed wiring no longer reports its wires, but its
+            // dependencies are removed before it is disposed.
+            if ((wiring != null) && wiring.isInUse())
             {
                 for (BundleWire bw : wiring.getRequiredWires(null))
                 {
@@ -34,6 +34,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -49,6 +50,7 @@ import org.apache.felix.framework.resolver.ResourceNotFoundException;
 import org.apache.felix.framework.util.CompoundEnumeration;
 import org.apache.felix.framework.util.FelixConstants;
 import org.apache.felix.framework.util.ImmutableList;
+import org.apache.felix.framework.util.LookupStatistics;
 import org.apache.felix.framework.util.SecurityManagerEx;
 import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.util.manifestparser.ManifestParser;
@@ -152,6 +154,19 @@ public class BundleWiringImpl implements BundleWiring
     // Flag indicating whether this wiring has been disposed.
     private volatile boolean m_isDisposed = false;
 
+    // Class and resource names that were not found in this wiring's static
+    // package sources or content; null if the cache is disabled.
+    private final LookupCache<Boolean> m_classMisses;
+    private final LookupCache<Boolean> m_resourceMisses;
+    // The revisions providing class and resource names from required
+    // bundles or, for resources, from this wiring's content; null if the
+    // cache is disabled. Names of imported packages are not cached, since
+    // their source is known from the imported packages already.
+    private final LookupCache<BundleRevision> m_classSources;
+    private final LookupCache<BundleRevision> m_resourceSources;
+
+    private final LookupStatistics m_lookupStatistics = new LookupStatistics();
+
     BundleWiringImpl(
         Logger logger, Map configMap, StatefulResolver resolver,
         BundleRevisionImpl revision, List<BundleRevision> fragments,
@@ -447,6 +462,26 @@ public class BundleWiringImpl implements BundleWiring
         m_useLocalURLs =
             (m_configMap.get(FelixConstants.USE_LOCALURLS_PROP) == null)
                 ? false : true;
+
+        int cacheSize = 256;
+        String s = (String) m_configMap.get(FelixConstants.WIRING_LOOKUP_CACHE_SIZE_PROP);
+        if (s != null)
+        {
+            try
+            {
+                cacheSize = Integer.parseInt(s.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                m_logger.log(m_revision.getBundle(), Logger.LOG_WARNING,
+                    "Invalid value for " + FelixConstants.WIRING_LOOKUP_CACHE_SIZE_PROP
+                    + ": " + s);
+            }
+        }
+        m_classMisses = (cacheSize > 0) ? new LookupCache<Boolean>(cacheSize) : null;
+        m_resourceMisses = (cacheSize > 0) ? new LookupCache<Boolean>(cacheSize) : null;
+        m_classSources = (cacheSize > 0) ? new LookupCache<BundleRevision>(cacheSize) : null;
+        m_resourceSources = (cacheSize > 0) ? new LookupCache<BundleRevision>(cacheSize) : null;
     }
 
     private static List<List<String>> parsePkgFilters(BundleCapability cap, String filtername)
@@ -476,6 +511,10 @@ public class BundleWiringImpl implements BundleWiring
 
     public synchronized void dispose()
     {
+        if (m_isDisposed)
+        {
+            return;
+        }
         if (m_fragmentContents != null)
         {
             for (Content content : m_fragmentContents)
@@ -485,6 +524,28 @@ public class BundleWiringImpl implements BundleWiring
         }
         m_classLoader = null;
         m_isDisposed = true;
+        clearLookupCache();
+    }
+
+    private void clearLookupCache()
+    {
+        if (m_classMisses != null)
+        {
+            m_classMisses.clear();
+            m_resourceMisses.clear();
+            m_classSources.clear();
+            m_resourceSources.clear();
+        }
+    }
+
+    /**
+     * Returns the statistics of the class and resource lookups delegated
+     * by this wiring, excluding lookups answered by its class loader.
+     * @return the lookup statistics.
+    **/
+    public LookupStatistics getLookupStatistics()
+    {
+        return m_lookupStatistics;
     }
 
 // TODO: OSGi R4.3 - This really shouldn't be public, but it is needed by the
@@ -647,6 +708,7 @@ public class BundleWiringImpl implements BundleWiring
         // to cause any issues.
         m_wires = ImmutableList.newInstance(wires);
         m_importedPkgs = importedPkgs;
+        clearLookupCache();
     }
 
     public BundleRevision getResource()
@@ -1460,6 +1522,7 @@ public class BundleWiringImpl implements BundleWiring
         }
         if (requestSet.add(name))
         {
+            long start = System.nanoTime();
             try
             {
                 // Get the package of the target class/resource.
@@ -1496,13 +1559,41 @@ public class BundleWiringImpl implements BundleWiring
                     }
                 }
 
-                // Look in the revision's imports. Note that the search may
-                // be aborted if this method throws an exception, otherwise
-                // it continues if a null is returned.
-                result = searchImports(pkgName, name, isClass);
+                // If the revision providing the name is already known, then
+                // go straight to it.
+                LookupCache<BundleRevision> sources =
+                    (isClass) ? m_classSources : m_resourceSources;
+                BundleRevision source = (sources != null) ? sources.get(name) : null;
+                if (source != null)
+                {
+                    result = searchSource(source, name, isClass);
+                    if (result != null)
+                    {
+                        m_lookupStatistics.sourceHit();
+                        return result;
+                    }
+                }
+
+                // If the name was already not found in the revision's imports,
+                // required bundles and class path, then go straight to its
+                // dynamic imports, unless the package was imported since.
+                LookupCache<Boolean> misses = (isClass) ? m_classMisses : m_resourceMisses;
+                boolean isKnownMiss = (misses != null) && (misses.get(name) != null)
+                    && !m_importedPkgs.containsKey(pkgName);
+                if (isKnownMiss)
+                {
+                    m_lookupStatistics.missHit();
+                }
+                else
+                {
+                    // Look in the revision's imports. Note that the search may
+                    // be aborted if this method throws an exception, otherwise
+                    // it continues if a null is returned.
+                    result = searchImports(pkgName, name, isClass);
+                }
 
                 // If not found, try the revision's own class path.
-                if (result == null)
+                if ((result == null) && !isKnownMiss)
                 {
                     if (isClass)
                     {
@@ -1521,18 +1612,34 @@ public class BundleWiringImpl implements BundleWiring
                     else
                     {
                         result = (Object) m_revision.getResourceLocal(name);
+                        // Classes defined by this wiring are found by its
+                        // class loader before delegating, so only resources
+                        // found in its content are remembered.
+                        if ((result != null) && (sources != null))
+                        {
+                            sources.put(name, m_revision);
+                        }
                     }
 
-                    // If still not found, then try the revision's dynamic imports.
-                    if (result == null)
+                    // Remember the miss, unless the package is required from
+                    // other bundles whose own dynamic imports may change.
+                    if ((result == null) && (misses != null)
+                        && !m_requiredPkgs.containsKey(pkgName))
                     {
-                        result = searchDynamicImports(pkgName, name, isClass);
+                        misses.put(name, Boolean.TRUE);
                     }
                 }
+
+                // If still not found, then try the revision's dynamic imports.
+                if (result == null)
+                {
+                    result = searchDynamicImports(pkgName, name, isClass);
+                }
             }
             finally
             {
                 requestSet.remove(name);
+                m_lookupStatistics.lookedUp(System.nanoTime() - start);
             }
         }
         else
@@ -1600,6 +1707,14 @@ public class BundleWiringImpl implements BundleWiring
                         : (Object) ((BundleWiringImpl) p.getWiring()).getResourceByDelegation(name);
                     if (result != null)
                     {
+                        // Remember the provider, so later lookups of the
+                        // name skip the providers before it.
+                        LookupCache<BundleRevision> sources =
+                            (isClass) ? m_classSources : m_resourceSources;
+                        if (sources != null)
+                        {
+                            sources.put(name, p);
+                        }
                         return result;
                     }
                 }
@@ -1616,6 +1731,36 @@ public class BundleWiringImpl implements BundleWiring
         return null;
     }
 
+    /**
+     * Looks up the name in the revision known to provide it, which is either
+     * a required bundle or this wiring's own revision. Returns null if the
+     * name is not found there, so the caller falls back to a full search.
+    **/
+    private Object searchSource(BundleRevision source, String name, boolean isClass)
+    {
+        if (source == m_revision)
+        {
+            return m_revision.getResourceLocal(name);
+        }
+        BundleWiringImpl wiring = (BundleWiringImpl) source.getWiring();
+        if (wiring == null)
+        {
+            return null;
+        }
+        if (!isClass)
+        {
+            return wiring.getResourceByDelegation(name);
+        }
+        try
+        {
+            return wiring.getClassByDelegation(name);
+        }
+        catch (ClassNotFoundException ex)
+        {
+            return null;
+        }
+    }
+
     private Object searchDynamicImports(
         final String pkgName, final String name, final boolean isClass)
         throws ClassNotFoundException, ResourceNotFoundException
@@ -2566,6 +2711,41 @@ public class BundleWiringImpl implements BundleWiring
         return url;
     }
 
+    /**
+     * A bounded set of names that evicts the least recently used name when
+     * it is full.
+    **/
+    private static class LookupCache<V>
+    {
+        private final Map<String, V> m_names;
+
+        LookupCache(final int size)
+        {
+            m_names = new LinkedHashMap<String, V>(16, 0.75f, true)
+            {
+                protected boolean removeEldestEntry(Map.Entry<String, V> eldest)
+                {
+                    return size() > size;
+                }
+            };
+        }
+
+        synchronized V get(String name)
+        {
+            return m_names.get(name);
+        }
+
+        synchronized void put(String name, V value)
+        {
+            m_names.put(name, value);
+        }
+
+        synchronized void clear()
+        {
+            m_names.clear();
+        }
+    }
+
     private static class ResourceSource implements Comparable<ResourceSource>
     {
         public final String m_resource;
@@ -22,6 +22,15 @@ import java.io.*;
 import java.net.*;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.felix.framework.BundleWiringImpl.BundleClassLoader;
 import org.apache.felix.framework.ServiceRegistry.ServiceRegistryCallbacks;
@@ -29,13 +38,17 @@ import org.apache.felix.framework.cache.BundleArchive;
 import org.apache.felix.framework.cache.BundleCache;
 import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.ext.BatchInstallException;
 import org.apache.felix.framework.ext.SecurityProvider;
 import org.apache.felix.framework.resolver.ResolveException;
+import org.apache.felix.framework.resolver.ResolverWire;
 import org.apache.felix.framework.util.EventDispatcher;
 import org.apache.felix.framework.util.FelixConstants;
 import org.apache.felix.framework.util.ListenerInfo;
+import org.apache.felix.framework.util.LockStatistics;
 import org.apache.felix.framework.util.MapToDictionary;
 import org.apache.felix.framework.util.SecureAction;
+import org.apache.felix.framework.util.ServiceEventStatistics;
 import org.apache.felix.framework.util.ShrinkableCollection;
 import org.apache.felix.framework.util.StringMap;
 import org.apache.felix.framework.util.ThreadGate;
@@ -94,9 +107,20 @@ public class Felix extends BundleImpl implements Framework
     // Resolver and resolver state.
     private final StatefulResolver m_resolver;
 
-    // Lock object used to determine if an individual bundle
-    // lock or the global lock can be acquired.
-    private final Object[] m_bundleLock = new Object[0];
+    // Lock guarding the state of the individual bundle locks and the
+    // global lock. Threads waiting for a bundle lock wait on the condition
+    // of the bundle's stripe, so releasing a bundle lock or changing the
+    // state of a bundle only wakes the threads waiting for bundles of the
+    // same stripe instead of every waiting thread. This only avoids
+    // spurious wakeups: every acquire and release of a bundle lock or the
+    // global lock still goes through this one lock, and releasing the
+    // global lock or waiting to promote a bundle lock wakes every stripe.
+    private final ReentrantLock m_bundleLock = new ReentrantLock();
+    private final Condition[] m_bundleLockStripes = new Condition[BUNDLE_LOCK_STRIPES];
+    // Condition on which threads wait for the global lock.
+    private final Condition m_globalLockCondition = m_bundleLock.newCondition();
+    // Contention statistics of the global lock.
+    private final LockStatistics m_globalLockStatistics = new LockStatistics();
     // Keeps track of threads wanting to acquire the global lock.
     private final List m_globalLockWaitersList = new ArrayList();
     // The thread currently holding the global lock.
@@ -113,16 +137,27 @@ public class Felix extends BundleImpl implements Framework
     // to help avoid deadlock this lock as priority 1 and should
     // be acquired before locks with lower priority.
     private final Object[] m_installRequestLock_Priority1 = new Object[0];
+    // This lock must be acquired to modify m_installedBundles or
+    // m_uninstalledBundles; it is only held while the copies are made,
+    // so installing and uninstalling bundles does not need the global
+    // lock to publish them. To help avoid deadlock this lock has
+    // priority 2 and the global lock and bundle locks must not be
+    // acquired while holding it.
+    private final Object[] m_installedBundlesLock_Priority2 = new Object[0];
 
     // Contains two maps, one mapping a String bundle location to a bundle
     // and the other mapping a Long bundle identifier to a bundle.
-    // CONCURRENCY: Access guarded by the global lock for writes,
+    // CONCURRENCY: Access guarded by the installed bundles lock for writes,
     // but no lock for reads since it is copy on write.
     private volatile Map[] m_installedBundles;
     private static final int LOCATION_MAP_IDX = 0;
     private static final int IDENTIFIER_MAP_IDX = 1;
+
+    // Number of conditions on which threads wait for bundle locks.
+    private static final int BUNDLE_LOCK_STRIPES = 64;
+
     // An array of uninstalled bundles before a refresh occurs.
-    // CONCURRENCY: Access guarded by the global lock for writes,
+    // CONCURRENCY: Access guarded by the installed bundles lock for writes,
     // but no lock for reads since it is copy on write.
     private volatile List<BundleImpl> m_uninstalledBundles;
     // Object to keep track of dependencies among bundle revisions.
@@ -141,6 +176,12 @@ public class Felix extends BundleImpl implements Framework
     // Keep track of bundles currently being processed by start level thread.
     private final SortedSet<StartLevelTuple> m_startLevelBundles =
         new TreeSet<StartLevelTuple>();
+    // Number of threads used to start bundles with the same start level.
+    private final int m_startLevelThreads;
+    // Number of threads used to cache and parse the bundles of a batch install.
+    private final int m_installThreads;
+    // Number of threads used to dispose the wirings of refreshed bundles.
+    private final int m_refreshThreads;
 
     // Local bundle cache.
     private BundleCache m_cache = null;
@@ -292,6 +333,101 @@ public class Felix extends BundleImpl implements Framework
      *       to consult the default java securtiy policy if no security extension
      *       is present. The default value is "<tt>false</tt>".
      *   </li>
+     *   <li><tt>felix.eventdispatcher.threads</tt> - The number of threads
+     *       this framework instance uses to deliver asynchronous bundle and
+     *       framework events. Events are still delivered in order to each
+     *       listener, but a slow listener no longer delays delivery to other
+     *       listeners. The default value is zero, which means all framework
+     *       instances in the VM share a single event dispatch thread.
+     *   </li>
+     *   <li><tt>felix.startlevel.threads</tt> - The number of threads used
+     *       to start bundles with the same start level concurrently when the
+     *       framework start level is raised. Bundles with a higher start
+     *       level are only started once all bundles with a lower start level
+     *       have been started. The default value is zero, which means bundles
+     *       are started one after another.
+     *   </li>
+     *   <li><tt>felix.install.threads</tt> - The number of threads used
+     *       to copy bundles into the cache and parse their manifests when
+     *       several bundles are installed at once through
+     *       <tt>FelixBundleContext.installBundles()</tt>. The bundles are
+     *       added to the framework together once all of them are parsed.
+     *       The default value is the number of available processors.
+     *   </li>
+     *   <li><tt>felix.refresh.threads</tt> - The number of threads used
+     *       to dispose the wirings of refreshed bundles. When greater than
+     *       one, the refreshed bundles are stopped starting with the bundles
+     *       no other refreshed bundle depends on, their wirings are disposed
+     *       concurrently and the bundles are restarted in the reverse order.
+     *       Stopping and restarting still happens on the refreshing thread.
+     *       The default value is zero, which means bundles are refreshed one
+     *       after another.
+     *   </li>
+     *   <li><tt>felix.service.indices</tt> - A comma-delimited list of service
+     *       properties to index by exact value in addition to
+     *       <tt>objectClass</tt>. Joining several property names with
+     *       '<tt>+</tt>' defines a composite index, which is used for filters
+     *       that test all of its properties for equality. The default value
+     *       is empty.
+     *   </li>
+     *   <li><tt>felix.service.range.indices</tt> - A comma-delimited list of
+     *       service properties to index by sorted value, which speeds up
+     *       less-than and greater-than filters, such as those on
+     *       <tt>service.ranking</tt>. The default value is empty.
+     *   </li>
+     *   <li><tt>felix.resolver.indices</tt> - A comma-delimited list of
+     *       capability attributes to index by exact value for all capability
+     *       namespaces, using the same syntax as <tt>felix.service.indices</tt>.
+     *       The default value is empty.
+     *   </li>
+     *   <li><tt>felix.resolver.range.indices</tt> - A comma-delimited list of
+     *       capability attributes to index by sorted value for all capability
+     *       namespaces, such as <tt>version</tt>. The default value is empty.
+     *   </li>
+     *   <li><tt>felix.resolver.snapshot</tt> - Flag to indicate whether the
+     *       wirings of the resolved bundles are saved in the bundle cache when
+     *       the framework shuts down and restored when it is started again,
+     *       instead of resolving the bundles again. The snapshot is discarded
+     *       if any of its bundles or the system bundle capabilities changed.
+     *       The default value is "<tt>false</tt>".
+     *   </li>
+     *   <li><tt>felix.resolver.parallelism</tt> - The number of threads the
+     *       resolver uses to calculate the uses constraints and check the
+     *       package space consistency of the bundles being resolved. The
+     *       resolution result does not depend on the number of threads. The
+     *       default value is <tt>1</tt>, which means package spaces are
+     *       calculated on the resolving thread.
+     *   </li>
+     *   <li><tt>felix.resolver.listener</tt> - An instance of
+     *       <tt>org.apache.felix.framework.resolver.ResolverListener</tt> that
+     *       is notified about every resolve operation, for example a
+     *       <tt>ResolverStatistics</tt> instance that counts candidate
+     *       permutations and times consistency checks.
+     *   </li>
+     *   <li><tt>felix.resolver.trace</tt> - The name of a file to which the
+     *       resolver appends a trace of every resolve operation, with one JSON
+     *       object per line listing the checked candidate permutations and
+     *       the uses constraint violations that caused backtracking. The
+     *       default value is empty, which disables tracing.
+     *   </li>
+     *   <li><tt>felix.resolver.timeout</tt> - The time in milliseconds a
+     *       resolve operation may spend searching for a consistent candidate
+     *       permutation. When it is exceeded, the resolver fails with the
+     *       last uses constraint violation it found, or leaves out the
+     *       optional bundle that caused it and resolves the others. The
+     *       default value is <tt>0</tt>, which means there is no limit.
+     *   </li>
+     *   <li><tt>felix.resolver.permutations</tt> - The number of candidate
+     *       permutations a resolve operation may check, with the same effect
+     *       as <tt>felix.resolver.timeout</tt> when it is exceeded. The
+     *       default value is <tt>0</tt>, which means there is no limit.
+     *   </li>
+     *   <li><tt>felix.wiring.lookup.cache.size</tt> - The number of class and
+     *       resource names that each bundle wiring remembers as not found in
+     *       its imports, required bundles and content, so repeated failed
+     *       lookups skip straight to dynamic imports. The default value is
+     *       <tt>256</tt>; zero disables the cache.
+     *   </li>
      * </ul>
      * <p>
      * The <a href="Main.html"><tt>Main</tt></a> class implements some
@@ -401,10 +537,75 @@ public class Felix extends BundleImpl implements Framework
             {
                 fireServiceEvent(event, oldProps);
             }
-        });
+        }, m_configMap);
 
         // Create event dispatcher.
-        m_dispatcher = new EventDispatcher(m_logger, m_registry);
+        int poolSize = 0;
+        try
+        {
+            String threads =
+                (String) m_configMap.get(FelixConstants.EVENTDISPATCHER_THREADS_PROP);
+            poolSize = (threads == null) ? 0 : Integer.parseInt(threads.trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            m_logger.log(Logger.LOG_WARNING,
+                "Invalid value for " + FelixConstants.EVENTDISPATCHER_THREADS_PROP
+                + ", using the shared event dispatch thread.");
+        }
+        m_dispatcher = new EventDispatcher(m_logger, m_registry, poolSize);
+
+        // Determine how many bundles with the same start level can be
+        // started concurrently.
+        int startLevelThreads = 0;
+        try
+        {
+            String threads =
+                (String) m_configMap.get(FelixConstants.STARTLEVEL_THREADS_PROP);
+            startLevelThreads = (threads == null) ? 0 : Integer.parseInt(threads.trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            m_logger.log(Logger.LOG_WARNING,
+                "Invalid value for " + FelixConstants.STARTLEVEL_THREADS_PROP
+                + ", starting bundles sequentially.");
+        }
+        m_startLevelThreads = startLevelThreads;
+
+        // Determine how many bundles of a batch install can be cached
+        // and parsed concurrently.
+        int installThreads = Runtime.getRuntime().availableProcessors();
+        try
+        {
+            String threads =
+                (String) m_configMap.get(FelixConstants.INSTALL_THREADS_PROP);
+            installThreads = (threads == null)
+                ? installThreads : Integer.parseInt(threads.trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            m_logger.log(Logger.LOG_WARNING,
+                "Invalid value for " + FelixConstants.INSTALL_THREADS_PROP
+                + ", using one thread per processor.");
+        }
+        m_installThreads = installThreads;
+
+        // Determine how many threads dispose the wirings of refreshed
+        // bundles.
+        int refreshThreads = 0;
+        try
+        {
+            String threads =
+                (String) m_configMap.get(FelixConstants.REFRESH_THREADS_PROP);
+            refreshThreads = (threads == null) ? 0 : Integer.parseInt(threads.trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            m_logger.log(Logger.LOG_WARNING,
+                "Invalid value for " + FelixConstants.REFRESH_THREADS_PROP
+                + ", refreshing bundles sequentially.");
+        }
+        m_refreshThreads = refreshThreads;
 
         // Create framework wiring object.
         m_fwkWiring = new FrameworkWiringImpl(this, m_registry);
@@ -500,6 +701,14 @@ public class Felix extends BundleImpl implements Framework
         {
             return (A) m_fwkStartLevel;
         }
+        else if (type == LockStatistics.class)
+        {
+            return (A) m_globalLockStatistics;
+        }
+        else if (type == ServiceEventStatistics.class)
+        {
+            return (A) m_dispatcher.getServiceEventStatistics();
+        }
         return super.adapt(type);
     }
 
@@ -767,6 +976,10 @@ public class Felix extends BundleImpl implements Framework
                     }
                 }
 
+                // Restore the wirings of the cached bundles from the last
+                // session, if they were saved.
+                restoreResolverSnapshot();
+
                 // Now that we have loaded all cached bundles and have determined the
                 // max bundle ID of cached bundles, we need to try to load the next
                 // bundle ID from persistent storage. In case of failure, we should
@@ -825,13 +1038,7 @@ public class Felix extends BundleImpl implements Framework
                             catch (Exception ex)
                             {
                                 ((BundleImpl) bundle).close();
-                                maps = new Map[] {
-                                    new HashMap<String, BundleImpl>(m_installedBundles[LOCATION_MAP_IDX]),
-                                    new TreeMap<Long, BundleImpl>(m_installedBundles[IDENTIFIER_MAP_IDX])
-                                };
-                                maps[LOCATION_MAP_IDX].remove(((BundleImpl) bundle)._getLocation());
-                                maps[IDENTIFIER_MAP_IDX].remove(new Long(((BundleImpl) bundle).getBundleId()));
-                                m_installedBundles = maps;
+                                removeInstalledBundle((BundleImpl) bundle);
 
                                 m_logger.log(
                                     Logger.LOG_ERROR,
@@ -1214,126 +1421,78 @@ public class Felix extends BundleImpl implements Framework
             int high = (isLowering) ? m_activeStartLevel : m_targetStartLevel;
             m_activeStartLevel = (isLowering) ? high : low;
 
-            // Process bundles and stop or start them accordingly.
-            while (bundlesRemaining)
+            // If configured, bundles with the same start level are started
+            // concurrently when raising the start level.
+            ExecutorService executor = null;
+            if (!isLowering && (m_startLevelThreads > 1))
             {
-                StartLevelTuple tuple;
+                executor = Executors.newFixedThreadPool(
+                    m_startLevelThreads, new StartLevelThreadFactory());
+            }
 
-                // Remove our tuple to be processed while holding the queue lock
-                // and update the active start level accordingly, which allows
-                // us to determine in startBundle() if concurrent requests to
-                // start a bundle should be handled synchronously or just added
-                // to the queue and handled asynchronously.
-                synchronized (m_startLevelBundles)
+            try
+            {
+                // Process bundles and stop or start them accordingly.
+                while (bundlesRemaining)
                 {
-                    if (isLowering)
-                    {
-                        tuple = m_startLevelBundles.last();
-                    }
-                    else
+                    if (executor != null)
                     {
-                        tuple = m_startLevelBundles.first();
+                        bundlesRemaining = startBundlesConcurrently(executor, low, high);
+                        // If the start level thread was interrupted, then the
+                        // remaining bundles are processed one after another.
+                        if (Thread.currentThread().isInterrupted())
+                        {
+                            executor.shutdown();
+                            executor = null;
+                        }
+                        continue;
                     }
 
-                    if ((tuple.m_level >= low) && (tuple.m_level <= high))
-                    {
-                        m_activeStartLevel = tuple.m_level;
-                    }
-                }
+                    StartLevelTuple tuple;
 
-                // Ignore the system bundle, since its start() and
-                // stop() methods get called explicitly in Felix.start()
-                // and Felix.stop(), respectively.
-                if (tuple.m_bundle.getBundleId() != 0)
-                {
-                    // Lock the current bundle.
-                    try
-                    {
-                        acquireBundleLock(tuple.m_bundle,
-                            Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
-                            | Bundle.STARTING | Bundle.STOPPING);
-                    }
-                    catch (IllegalStateException ex)
+                    // Remove our tuple to be processed while holding the queue lock
+                    // and update the active start level accordingly, which allows
+                    // us to determine in startBundle() if concurrent requests to
+                    // start a bundle should be handled synchronously or just added
+                    // to the queue and handled asynchronously.
+                    synchronized (m_startLevelBundles)
                     {
-                        // Ignore if the bundle has been uninstalled.
-                        if (tuple.m_bundle.getState() != Bundle.UNINSTALLED)
+                        if (isLowering)
                         {
-                            fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex);
-                            m_logger.log(tuple.m_bundle,
-                                Logger.LOG_ERROR,
-                                "Error locking " + tuple.m_bundle._getLocation(), ex);
+                            tuple = m_startLevelBundles.last();
                         }
                         else
                         {
-                            synchronized (m_startLevelBundles)
-                            {
-                                m_startLevelBundles.remove(tuple);
-                                bundlesRemaining = !m_startLevelBundles.isEmpty();
-                            }
+                            tuple = m_startLevelBundles.first();
                         }
-                        continue;
-                    }
 
-                    try
-                    {
-                        // Start the bundle if necessary.
-                        // Note that we only attempt to start the bundle if
-                        // its start level is equal to the active start level,
-                        // which means we assume lower bundles are in the state
-                        // they should be in (i.e., we won't attempt to restart
-                        // them if they previously failed to start).
-                        if (!isLowering
-                            && (((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
-                                || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
-                                && (tuple.m_level == m_activeStartLevel)))
-                        {
-                            try
-                            {
-// TODO: LAZY - Not sure if this is the best way...
-                                int options = Bundle.START_TRANSIENT;
-                                options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
-                                    ? options | Bundle.START_ACTIVATION_POLICY
-                                    : options;
-                                startBundle(tuple.m_bundle, options);
-                            }
-                            catch (Throwable th)
-                            {
-                                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
-                                m_logger.log(tuple.m_bundle,
-                                    Logger.LOG_ERROR,
-                                    "Error starting " + tuple.m_bundle._getLocation(), th);
-                            }
-                        }
-                        // Stop the bundle if necessary.
-                        else if (isLowering
-                            && (((tuple.m_bundle.getState() == Bundle.ACTIVE)
-                                || (tuple.m_bundle.getState() == Bundle.STARTING))
-                                && (tuple.m_level == m_activeStartLevel)))
+                        if ((tuple.m_level >= low) && (tuple.m_level <= high))
                         {
-                            try
-                            {
-                                stopBundle(tuple.m_bundle, false);
-                            }
-                            catch (Throwable th)
-                            {
-                                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
-                                m_logger.log(tuple.m_bundle,
-                                    Logger.LOG_ERROR,
-                                    "Error stopping " + tuple.m_bundle._getLocation(), th);
-                            }
+                            m_activeStartLevel = tuple.m_level;
                         }
                     }
-                    finally
+
+                    // Ignore the system bundle, since its start() and
+                    // stop() methods get called explicitly in Felix.start()
+                    // and Felix.stop(), respectively.
+                    if ((tuple.m_bundle.getBundleId() != 0)
+                        && !processStartLevelTuple(tuple, isLowering))
                     {
-                        // Always release bundle lock.
-                        releaseBundleLock(tuple.m_bundle);
+                        continue;
                     }
-                }
 
-                synchronized (m_startLevelBundles)
+                    synchronized (m_startLevelBundles)
+                    {
+                        m_startLevelBundles.remove(tuple);
+                        bundlesRemaining = !m_startLevelBundles.isEmpty();
+                    }
+                }
+            }
+            finally
+            {
+                if (executor != null)
                 {
-                    m_startLevelBundles.remove(tuple);
-                    bundlesRemaining = !m_startLevelBundles.isEmpty();
+                    executor.shutdown();
                 }
             }
 
@@ -1364,6 +1523,251 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    /**
+     * Starts or stops the bundle of the specified tuple according to the
+     * active start level while holding the bundle lock. This is called by
+     * the start level thread and, when bundles are started concurrently,
+     * by its worker threads.
+     * @param tuple the bundle and start level to process.
+     * @param isLowering whether the start level is lowering.
+     * @return <tt>false</tt> if the bundle could not be locked and needs to
+     *         be processed again, otherwise <tt>true</tt>.
+    **/
+    private boolean processStartLevelTuple(StartLevelTuple tuple, boolean isLowering)
+    {
+        // Lock the current bundle.
+        try
+        {
+            acquireBundleLock(tuple.m_bundle,
+                Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
+                | Bundle.STARTING | Bundle.STOPPING);
+        }
+        catch (IllegalStateException ex)
+        {
+            // Ignore if the bundle has been uninstalled.
+            if (tuple.m_bundle.getState() == Bundle.UNINSTALLED)
+            {
+                return true;
+            }
+            fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex);
+            m_logger.log(tuple.m_bundle,
+                Logger.LOG_ERROR,
+                "Error locking " + tuple.m_bundle._getLocation(), ex);
+            return false;
+        }
+
+        try
+        {
+            // Start the bundle if necessary.
+            // Note that we only attempt to start the bundle if
+            // its start level is equal to the active start level,
+            // which means we assume lower bundles are in the state
+            // they should be in (i.e., we won't attempt to restart
+            // them if they previously failed to start).
+            if (!isLowering
+                && (((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
+                    || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
+                    && (tuple.m_level == m_activeStartLevel)))
+            {
+                try
+                {
+// TODO: LAZY - Not sure if this is the best way...
+                    int options = Bundle.START_TRANSIENT;
+                    options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
+                        ? options | Bundle.START_ACTIVATION_POLICY
+                        : options;
+                    startBundle(tuple.m_bundle, options);
+                }
+                catch (Throwable th)
+                {
+                    fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
+                    m_logger.log(tuple.m_bundle,
+                        Logger.LOG_ERROR,
+                        "Error starting " + tuple.m_bundle._getLocation(), th);
+                }
+            }
+            // Stop the bundle if necessary.
+            else if (isLowering
+                && (((tuple.m_bundle.getState() == Bundle.ACTIVE)
+                    || (tuple.m_bundle.getState() == Bundle.STARTING))
+                    && (tuple.m_level == m_activeStartLevel)))
+            {
+                try
+                {
+                    stopBundle(tuple.m_bundle, false);
+                }
+                catch (Throwable th)
+                {
+                    fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
+                    m_logger.log(tuple.m_bundle,
+                        Logger.LOG_ERROR,
+                        "Error stopping " + tuple.m_bundle._getLocation(), th);
+                }
+            }
+        }
+        finally
+        {
+            // Always release bundle lock.
+            releaseBundleLock(tuple.m_bundle);
+        }
+        return true;
+    }
+
+    /**
+     * Starts the bundles of the lowest start level in the start level queue
+     * concurrently on the specified executor and waits for all of them to
+     * be processed before removing them from the queue, so bundles with a
+     * higher start level are only started once all bundles of this start
+     * level have been started. The bundles to start are resolved together first, so
+     * the starting bundles do not compete for the global lock to resolve.
+     * If the calling thread is interrupted, this method still waits for the
+     * bundles being started and returns with the interrupt flag set.
+     * @param executor the executor to start the bundles on.
+     * @param low the lowest start level being processed.
+     * @param high the highest start level being processed.
+     * @return <tt>true</tt> if there are bundles remaining in the queue.
+    **/
+    private boolean startBundlesConcurrently(
+        ExecutorService executor, int low, int high)
+    {
+        final List<StartLevelTuple> tuples = new ArrayList<StartLevelTuple>();
+        int level;
+        synchronized (m_startLevelBundles)
+        {
+            level = m_startLevelBundles.first().m_level;
+            for (StartLevelTuple tuple : m_startLevelBundles)
+            {
+                if (tuple.m_level != level)
+                {
+                    break;
+                }
+                tuples.add(tuple);
+            }
+
+            // Bundles outside of the processed range are left as they are.
+            if ((level < low) || (level > high))
+            {
+                m_startLevelBundles.removeAll(tuples);
+                return !m_startLevelBundles.isEmpty();
+            }
+            m_activeStartLevel = level;
+        }
+
+        // Only bundles which are going to be started are resolved, like
+        // starting them one by one would do.
+        List<Bundle> unresolved = new ArrayList<Bundle>();
+        for (StartLevelTuple tuple : tuples)
+        {
+            if ((tuple.m_bundle.getBundleId() != 0)
+                && (tuple.m_bundle.getState() == Bundle.INSTALLED)
+                && ((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
+                    || (tuple.m_bundle.getPersistentState() == Bundle.STARTING)))
+            {
+                unresolved.add(tuple.m_bundle);
+            }
+        }
+        if (!unresolved.isEmpty())
+        {
+            resolveBundles(unresolved);
+        }
+
+        final Map<Bundle, Long> times =
+            Collections.synchronizedMap(new HashMap<Bundle, Long>());
+        List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(tuples.size());
+        for (final StartLevelTuple tuple : tuples)
+        {
+            if (tuple.m_bundle.getBundleId() != 0)
+            {
+                tasks.add(new Callable<Object>()
+                {
+                    public Object call()
+                    {
+                        // Bundles which could not be locked are left in
+                        // the queue and processed again.
+                        long start = System.nanoTime();
+                        if (processStartLevelTuple(tuple, false))
+                        {
+                            times.put(tuple.m_bundle, System.nanoTime() - start);
+                        }
+                        return null;
+                    }
+                });
+            }
+        }
+        long start = System.nanoTime();
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(tasks.size());
+        for (Callable<Object> task : tasks)
+        {
+            futures.add(executor.submit(task));
+        }
+
+        // Always wait for the started bundles, even if the calling thread
+        // is interrupted, so no bundle is left starting halfway. Bundles
+        // whose start is pending are processed again on the next iteration.
+        boolean interrupted = false;
+        for (Future<Object> future : futures)
+        {
+            while (true)
+            {
+                try
+                {
+                    future.get();
+                    break;
+                }
+                catch (InterruptedException ex)
+                {
+                    interrupted = true;
+                }
+                catch (ExecutionException ex)
+                {
+                    m_logger.log(Logger.LOG_ERROR,
+                        "Unable to process start level.", ex.getCause());
+                    break;
+                }
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (m_logger.getLogLevel() >= Logger.LOG_DEBUG)
+        {
+            List<Map.Entry<Bundle, Long>> entries =
+                new ArrayList<Map.Entry<Bundle, Long>>(times.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<Bundle, Long>>()
+            {
+                public int compare(Map.Entry<Bundle, Long> e1, Map.Entry<Bundle, Long> e2)
+                {
+                    return e2.getValue().compareTo(e1.getValue());
+                }
+            });
+            StringBuffer sb = new StringBuffer("Processed ");
+            sb.append(times.size()).append(" bundles at start level ").append(level)
+                .append(" in ").append(elapsed / 1000000).append(" ms:");
+            for (Map.Entry<Bundle, Long> entry : entries)
+            {
+                sb.append("\n  ").append(entry.getKey()).append(": ")
+                    .append(entry.getValue().longValue() / 1000000).append(" ms");
+            }
+            m_logger.log(Logger.LOG_DEBUG, sb.toString());
+        }
+
+        synchronized (m_startLevelBundles)
+        {
+            for (StartLevelTuple tuple : tuples)
+            {
+                if ((tuple.m_bundle.getBundleId() == 0)
+                    || times.containsKey(tuple.m_bundle))
+                {
+                    m_startLevelBundles.remove(tuple);
+                }
+            }
+            return !m_startLevelBundles.isEmpty();
+        }
+    }
+
     /**
      * Returns the start level into which newly installed bundles will
      * be placed by default; this method implements functionality for
@@ -1950,9 +2354,9 @@ public class Felix extends BundleImpl implements Framework
             // so queue this bundle to the start level bundle queue for the start
             // level thread and return, except for transient starts which are
             // queued but processed synchronously.
-            // Note: Don't queue starts from the start level thread, otherwise
-            // we'd never get anything started.
-            if (!Thread.currentThread().getName().equals(FrameworkStartLevelImpl.THREAD_NAME))
+            // Note: Don't queue starts from the start level thread or its
+            // worker threads, otherwise we'd never get anything started.
+            if (!Thread.currentThread().getName().startsWith(FrameworkStartLevelImpl.THREAD_NAME))
             {
                 synchronized (m_startLevelBundles)
                 {
@@ -2643,42 +3047,20 @@ public class Felix extends BundleImpl implements Framework
                 }
             }
 
-            // Remove the bundle from the installed map.
-            BundleImpl target = null;
-            // Acquire global lock.
-            boolean locked = acquireGlobalLock();
-            if (!locked)
-            {
-                // If the calling thread holds bundle locks, then we might not
-                // be able to get the global lock.
-                throw new IllegalStateException(
-                    "Unable to acquire global lock to remove bundle.");
-            }
-            try
+            // Remove the bundle from the installed map and put it in
+            // the uninstalled bundle array.
+            BundleImpl target;
+            synchronized (m_installedBundlesLock_Priority2)
             {
-                // Use a copy-on-write approach to remove the bundle
-                // from the installed maps.
-                Map[] maps = new Map[] {
-                    new HashMap<String, BundleImpl>(m_installedBundles[LOCATION_MAP_IDX]),
-                    new TreeMap<Long, BundleImpl>(m_installedBundles[IDENTIFIER_MAP_IDX])
-                };
-                target = (BundleImpl) maps[LOCATION_MAP_IDX].remove(bundle._getLocation());
+                target = removeInstalledBundle(bundle);
                 if (target != null)
                 {
-                    maps[IDENTIFIER_MAP_IDX].remove(new Long(target.getBundleId()));
-                    m_installedBundles = maps;
-
                     // Set the bundle's persistent state to uninstalled.
                     bundle.setPersistentStateUninstalled();
 
-                    // Put bundle in uninstalled bundle array.
                     rememberUninstalledBundle(bundle);
                 }
             }
-            finally
-            {
-                releaseGlobalLock();
-            }
 
             if (target == null)
             {
@@ -2705,8 +3087,9 @@ public class Felix extends BundleImpl implements Framework
         // Fire UNINSTALLED event without holding the lock.
         fireBundleEvent(BundleEvent.UNINSTALLED, bundle);
 
-        // Acquire global lock to check if we should auto-refresh.
-        boolean locked = acquireGlobalLock();
+        // Acquire global lock to check if we should auto-refresh, unless
+        // the bundle is still used anyway.
+        boolean locked = !m_dependencies.hasDependents(bundle) && acquireGlobalLock();
         if (locked)
         {
             try
@@ -2799,15 +3182,7 @@ public class Felix extends BundleImpl implements Framework
                     m_resolver.addRevision(m_extensionManager.getRevision());
                 }
 
-                // Use a copy-on-write approach to add the bundle
-                // to the installed maps.
-                Map[] maps = new Map[] {
-                    new HashMap<String, BundleImpl>(m_installedBundles[LOCATION_MAP_IDX]),
-                    new TreeMap<Long, BundleImpl>(m_installedBundles[IDENTIFIER_MAP_IDX])
-                };
-                maps[LOCATION_MAP_IDX].put(bundle._getLocation(), bundle);
-                maps[IDENTIFIER_MAP_IDX].put(new Long(bundle.getBundleId()), bundle);
-                m_installedBundles = maps;
+                addInstalledBundle(bundle);
             }
             finally
             {
@@ -2959,31 +3334,7 @@ public class Felix extends BundleImpl implements Framework
                     }
                 }
 
-                // Acquire global lock.
-                boolean locked = acquireGlobalLock();
-                if (!locked)
-                {
-                    // If the calling thread holds bundle locks, then we might not
-                    // be able to get the global lock.
-                    throw new IllegalStateException(
-                        "Unable to acquire global lock to add bundle.");
-                }
-                try
-                {
-                    // Use a copy-on-write approach to add the bundle
-                    // to the installed maps.
-                    Map[] maps = new Map[] {
-                        new HashMap<String, BundleImpl>(m_installedBundles[LOCATION_MAP_IDX]),
-                        new TreeMap<Long, BundleImpl>(m_installedBundles[IDENTIFIER_MAP_IDX])
-                    };
-                    maps[LOCATION_MAP_IDX].put(location, bundle);
-                    maps[IDENTIFIER_MAP_IDX].put(new Long(bundle.getBundleId()), bundle);
-                    m_installedBundles = maps;
-                }
-                finally
-                {
-                    releaseGlobalLock();
-                }
+                addInstalledBundle(bundle);
 
                 if (bundle.isExtension())
                 {
@@ -3012,50 +3363,369 @@ public class Felix extends BundleImpl implements Framework
 
         if (existing != null)
         {
-            Set<ServiceReference<org.osgi.framework.hooks.bundle.FindHook>> hooks =
-                getHooks(org.osgi.framework.hooks.bundle.FindHook.class);
-            if (!hooks.isEmpty())
-            {
-                Collection<Bundle> bundles = new ArrayList<Bundle>(1);
-                bundles.add(existing);
-                bundles = new ShrinkableCollection<Bundle>(bundles);
-                for (ServiceReference<org.osgi.framework.hooks.bundle.FindHook> hook : hooks)
-                {
-                    org.osgi.framework.hooks.bundle.FindHook fh = getService(this, hook);
-                    if (fh != null)
-                    {
-                        try
-                        {
-                            m_secureAction.invokeBundleFindHook(
-                                fh, origin.getBundleContext(), bundles);
-                        }
-                        catch (Throwable th)
+            checkExistingBundle(origin, existing);
+        }
+        else
+        {
+            // Fire bundle event.
+            fireBundleEvent(BundleEvent.INSTALLED, bundle, origin);
+        }
+
+        // Return new bundle.
+        return (existing != null) ? existing : bundle;
+    }
+
+    /**
+     * Installs the bundles at the specified locations as a batch. The bundle
+     * content of all locations is copied into the cache and the manifests
+     * are parsed concurrently, after which the bundles are added to the
+     * framework while holding the global lock once. Bundles that are
+     * already installed at a location are returned as is. If some bundles
+     * cannot be installed, the others are still installed and a
+     * <tt>BatchInstallException</tt> listing the installed bundles and the
+     * failure of each location is thrown once the batch is complete. If the
+     * calling thread is interrupted, the bundles which are not yet cached
+     * are skipped and the cached ones are deleted again. The content is not
+     * checksummed while it is copied, since a location provides no digest
+     * to verify it against.
+     * @param origin the bundle installing the bundles.
+     * @param locations the locations of the bundles to install.
+     * @return the installed bundles in the order of their locations.
+     * @throws BundleException if any bundle could not be installed.
+    **/
+    List<Bundle> installBundles(final Bundle origin, List<String> locations)
+        throws BundleException
+    {
+        // Acquire the install locks of all locations in a deterministic
+        // order, so concurrent batches cannot deadlock each other.
+        List<String> sorted = new ArrayList<String>(new TreeSet<String>(locations));
+        List<String> locked = new ArrayList<String>(sorted.size());
+
+        Map<String, Bundle> bundles = new HashMap<String, Bundle>();
+        List<BundleImpl> installed = new ArrayList<BundleImpl>();
+        Map<String, Throwable> failures = new LinkedHashMap<String, Throwable>();
+        ExecutorService executor = null;
+        try
+        {
+            for (String location : sorted)
+            {
+                acquireInstallLock(location);
+                locked.add(location);
+            }
+
+            // Check to see if the framework is still running;
+            if ((getState() == Bundle.STOPPING) ||
+                (getState() == Bundle.UNINSTALLED))
+            {
+                throw new BundleException("The framework has been shutdown.");
+            }
+
+            // Copy the bundle content into the cache and parse the manifests
+            // of all bundles that are not yet installed concurrently.
+            int threads = Math.max(1, Math.min(m_installThreads, sorted.size()));
+            executor = Executors.newFixedThreadPool(threads, new InstallThreadFactory());
+            // Bundles are only cached while the batch is not cancelled, so
+            // cancelled bundles use up neither an identifier nor an archive.
+            final AtomicBoolean cancelled = new AtomicBoolean();
+            List<String> pending = new ArrayList<String>();
+            List<Future<BundleImpl>> futures = new ArrayList<Future<BundleImpl>>();
+            for (final String location : sorted)
+            {
+                BundleImpl existing = (BundleImpl) getBundle(location);
+                if (existing != null)
+                {
+                    bundles.put(location, existing);
+                    continue;
+                }
+
+                final int startLevel = getInitialBundleStartLevel();
+                pending.add(location);
+                futures.add(executor.submit(new Callable<BundleImpl>()
+                {
+                    public BundleImpl call() throws Exception
+                    {
+                        if (cancelled.get())
                         {
-                            m_logger.doLog(
-                                hook.getBundle(),
-                                hook,
-                                Logger.LOG_WARNING,
-                                "Problem invoking bundle hook.",
-                                th);
+                            return null;
                         }
+                        return createBundle(origin, getNextId(), startLevel, location);
+                    }
+                }));
+            }
+
+            // Always wait for all workers, so no worker is still caching a
+            // bundle once the batch is done. If the calling thread is
+            // interrupted, the batch is cancelled.
+            boolean interrupted = false;
+            List<BundleImpl> parsed = new ArrayList<BundleImpl>(futures.size());
+            for (int i = 0; i < futures.size(); i++)
+            {
+                while (true)
+                {
+                    try
+                    {
+                        BundleImpl bundle = futures.get(i).get();
+                        if (bundle != null)
+                        {
+                            parsed.add(bundle);
+                        }
+                        else
+                        {
+                            failures.put(pending.get(i), new BundleException(
+                                "Unable to install, thread interrupted."));
+                        }
+                        break;
+                    }
+                    catch (ExecutionException ex)
+                    {
+                        failures.put(pending.get(i), ex.getCause());
+                        break;
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        interrupted = true;
+                        cancelled.set(true);
                     }
                 }
-                if (bundles.isEmpty())
+            }
+            if (interrupted)
+            {
+                // Delete the bundles cached before the batch was cancelled.
+                for (BundleImpl bundle : parsed)
                 {
-                    throw new BundleException(
-                        "Bundle installation rejected by hook.",
-                        BundleException.REJECTED_BY_HOOK);
+                    deleteBundle(bundle);
+                    failures.put(bundle._getLocation(), new BundleException(
+                        "Unable to install, thread interrupted."));
+                }
+                parsed.clear();
+                Thread.currentThread().interrupt();
+            }
+
+            // Acquire global lock to add the parsed bundles to the framework
+            // in one step.
+            boolean globalLocked = parsed.isEmpty() || acquireGlobalLock();
+            if (!globalLocked)
+            {
+                // If the calling thread holds bundle locks, then we might not
+                // be able to get the global lock.
+                for (BundleImpl bundle : parsed)
+                {
+                    deleteBundle(bundle);
+                }
+                throw new IllegalStateException(
+                    "Unable to acquire global lock to add bundles.");
+            }
+            try
+            {
+                for (BundleImpl bundle : parsed)
+                {
+                    try
+                    {
+                        bundle.installParsedRevision();
+                        if (!bundle.isExtension())
+                        {
+                            Object sm = System.getSecurityManager();
+                            if (sm != null)
+                            {
+                                ((SecurityManager) sm).checkPermission(
+                                    new AdminPermission(bundle, AdminPermission.LIFECYCLE));
+                            }
+                        }
+                        else
+                        {
+                            m_extensionManager.addExtensionBundle(this, bundle);
+                            m_resolver.addRevision(m_extensionManager.getRevision());
+                        }
+                    }
+                    catch (Throwable ex)
+                    {
+                        deleteBundle(bundle);
+                        failures.put(bundle._getLocation(), ex);
+                        continue;
+                    }
+
+                    // Add the bundle to the installed maps, so the collision
+                    // check of the next bundle in the batch sees it.
+                    addInstalledBundle(bundle);
+
+                    bundles.put(bundle._getLocation(), bundle);
+                    installed.add(bundle);
+                }
+            }
+            finally
+            {
+                if (!parsed.isEmpty())
+                {
+                    releaseGlobalLock();
+                }
+            }
+
+            for (BundleImpl bundle : installed)
+            {
+                if (bundle.isExtension())
+                {
+                    m_extensionManager.startExtensionBundle(this, bundle);
                 }
             }
         }
-        else
+        finally
+        {
+            if (executor != null)
+            {
+                executor.shutdown();
+            }
+
+            // Always release install locks.
+            for (String location : locked)
+            {
+                releaseInstallLock(location);
+            }
+        }
+
+        // Fire bundle events.
+        for (BundleImpl bundle : installed)
         {
-            // Fire bundle event.
             fireBundleEvent(BundleEvent.INSTALLED, bundle, origin);
         }
 
-        // Return new bundle.
-        return (existing != null) ? existing : bundle;
+        // Invoke the find hooks for bundles that were already installed.
+        for (Iterator<Map.Entry<String, Bundle>> it = bundles.entrySet().iterator();
+            it.hasNext(); )
+        {
+            Map.Entry<String, Bundle> entry = it.next();
+            if (!installed.contains(entry.getValue()))
+            {
+                try
+                {
+                    checkExistingBundle(origin, (BundleImpl) entry.getValue());
+                }
+                catch (BundleException ex)
+                {
+                    failures.put(entry.getKey(), ex);
+                    it.remove();
+                }
+            }
+        }
+
+        List<Bundle> result = new ArrayList<Bundle>(locations.size());
+        for (String location : locations)
+        {
+            result.add(bundles.get(location));
+        }
+
+        if (!failures.isEmpty())
+        {
+            throw new BatchInstallException(
+                "Unable to install " + failures.size() + " of "
+                + sorted.size() + " bundles.", result, failures);
+        }
+        return result;
+    }
+
+    /**
+     * Copies the content of the specified location into the cache and
+     * parses the manifest of the resulting bundle, without adding the
+     * bundle to the framework. This is called concurrently for the
+     * bundles of a batch install.
+    **/
+    private BundleImpl createBundle(
+        Bundle origin, long id, int startLevel, String location)
+        throws BundleException
+    {
+        BundleArchive ba;
+        try
+        {
+            // Add the bundle to the cache.
+            ba = m_cache.create(id, startLevel, location, null);
+        }
+        catch (Exception ex)
+        {
+            throw new BundleException(
+                "Unable to cache bundle: " + location, ex);
+        }
+
+        try
+        {
+            return new BundleImpl(this, origin, ba, false);
+        }
+        catch (Exception ex)
+        {
+            // Remove bundle from the cache.
+            try
+            {
+                ba.closeAndDelete();
+            }
+            catch (Exception ex1)
+            {
+                m_logger.log(
+                    Logger.LOG_ERROR,
+                    "Could not remove from cache.", ex1);
+            }
+            if (ex instanceof BundleException)
+            {
+                throw (BundleException) ex;
+            }
+            throw new BundleException("Could not create bundle object.", ex);
+        }
+    }
+
+    private void deleteBundle(BundleImpl bundle)
+    {
+        try
+        {
+            bundle.closeAndDelete();
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(bundle,
+                Logger.LOG_ERROR,
+                "Could not remove from cache.", ex);
+        }
+    }
+
+    /**
+     * Invokes the bundle find hooks for a bundle that is already installed
+     * at the location of an install request, which must be rejected if the
+     * hooks hide the bundle from the installing bundle.
+    **/
+    private void checkExistingBundle(Bundle origin, BundleImpl existing)
+        throws BundleException
+    {
+        Set<ServiceReference<org.osgi.framework.hooks.bundle.FindHook>> hooks =
+            getHooks(org.osgi.framework.hooks.bundle.FindHook.class);
+        if (!hooks.isEmpty())
+        {
+            Collection<Bundle> bundles = new ArrayList<Bundle>(1);
+            bundles.add(existing);
+            bundles = new ShrinkableCollection<Bundle>(bundles);
+            for (ServiceReference<org.osgi.framework.hooks.bundle.FindHook> hook : hooks)
+            {
+                org.osgi.framework.hooks.bundle.FindHook fh = getService(this, hook);
+                if (fh != null)
+                {
+                    try
+                    {
+                        m_secureAction.invokeBundleFindHook(
+                            fh, origin.getBundleContext(), bundles);
+                    }
+                    catch (Throwable th)
+                    {
+                        m_logger.doLog(
+                            hook.getBundle(),
+                            hook,
+                            Logger.LOG_WARNING,
+                            "Problem invoking bundle hook.",
+                            th);
+                    }
+                }
+            }
+            if (bundles.isEmpty())
+            {
+                throw new BundleException(
+                    "Bundle installation rejected by hook.",
+                    BundleException.REJECTED_BY_HOOK);
+            }
+        }
     }
 
     /**
@@ -3813,11 +4483,12 @@ public class Felix extends BundleImpl implements Framework
             try
             {
                 // First get exported packages from uninstalled bundles.
+                List<BundleImpl> uninstalledBundles = m_uninstalledBundles;
                 for (int bundleIdx = 0;
-                    (m_uninstalledBundles != null) && (bundleIdx < m_uninstalledBundles.size());
+                    (uninstalledBundles != null) && (bundleIdx < uninstalledBundles.size());
                     bundleIdx++)
                 {
-                    BundleImpl bundle = m_uninstalledBundles.get(bundleIdx);
+                    BundleImpl bundle = uninstalledBundles.get(bundleIdx);
                     getExportedPackages(bundle, list);
                 }
 
@@ -4012,11 +4683,12 @@ public class Felix extends BundleImpl implements Framework
             List<Bundle> list = new ArrayList<Bundle>();
 
             // First add all uninstalled bundles.
+            List<BundleImpl> uninstalledBundles = m_uninstalledBundles;
             for (int i = 0;
-                (m_uninstalledBundles != null) && (i < m_uninstalledBundles.size());
+                (uninstalledBundles != null) && (i < uninstalledBundles.size());
                 i++)
             {
-                list.add(m_uninstalledBundles.get(i));
+                list.add(uninstalledBundles.get(i));
             }
 
             // Then add all updated bundles.
@@ -4102,30 +4774,37 @@ public class Felix extends BundleImpl implements Framework
                         helpers.add(new RefreshHelper(b));
                     }
 
-                    // Stop all refreshing bundles.
-                    for (RefreshHelper helper : helpers)
+                    if (m_refreshThreads > 1)
+                    {
+                        refreshInDependencyOrder(helpers);
+                    }
+                    else
                     {
-                        if (helper != null)
+                        // Stop all refreshing bundles.
+                        for (RefreshHelper helper : helpers)
                         {
-                            helper.stop();
+                            if (helper != null)
+                            {
+                                helper.stop();
+                            }
                         }
-                    }
 
-                    // Refresh or remove all refreshing bundles first.
-                    for (RefreshHelper helper : helpers)
-                    {
-                        if (helper != null)
+                        // Refresh or remove all refreshing bundles first.
+                        for (RefreshHelper helper : helpers)
                         {
-                            helper.refreshOrRemove();
+                            if (helper != null)
+                            {
+                                helper.refreshOrRemove();
+                            }
                         }
-                    }
 
-                    // Restart all refreshed bundles that were previously running.
-                    for (RefreshHelper helper : helpers)
-                    {
-                        if (helper != null)
+                        // Restart all refreshed bundles that were previously running.
+                        for (RefreshHelper helper : helpers)
                         {
-                            helper.restart();
+                            if (helper != null)
+                            {
+                                helper.restart();
+                            }
                         }
                     }
                 }
@@ -4169,6 +4848,202 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    /**
+     * Refreshes the specified bundles in the order of their dependencies.
+     * The bundles are stopped one after another, starting with the bundles
+     * no other refreshing bundle depends on. Then the wirings of all bundles
+     * are disposed on the refresh worker threads, the bundles are refreshed
+     * or removed and the bundles that were active are resolved together and
+     * restarted in the reverse order. Only the disposal of the wirings runs
+     * on the worker threads, since it does not need any framework locks;
+     * stopping and restarting the bundles may call into any framework
+     * operation from bundle activators and listeners, so it runs on the
+     * calling thread, which must hold the global lock.
+     * @param helpers The refresh helpers of the refreshing bundles.
+    **/
+    private void refreshInDependencyOrder(List<RefreshHelper> helpers)
+    {
+        List<RefreshHelper> order = getRefreshOrder(helpers);
+
+        // Stop dependent bundles before the bundles they depend on.
+        for (RefreshHelper helper : order)
+        {
+            helper.stop();
+        }
+
+        // Remove the dependencies of the refreshing bundles while their
+        // wirings still report their wires, then release the class loaders
+        // of all refreshing bundles at once.
+        for (RefreshHelper helper : helpers)
+        {
+            m_dependencies.removeDependencies(helper.m_bundle);
+        }
+        disposeWirings(helpers);
+
+        for (RefreshHelper helper : helpers)
+        {
+            helper.refreshOrRemove();
+        }
+
+        // Resolve the bundles to restart in one resolve operation, so
+        // they are not resolved one by one while they are started.
+        List<Bundle> restarting = new ArrayList<Bundle>();
+        for (RefreshHelper helper : helpers)
+        {
+            if ((helper.m_bundle != null) && (helper.m_oldState == Bundle.ACTIVE))
+            {
+                restarting.add(helper.m_bundle);
+            }
+        }
+        if (!restarting.isEmpty())
+        {
+            resolveBundles(restarting);
+        }
+
+        // Restart bundles after the bundles they depend on.
+        for (int i = order.size() - 1; i >= 0; i--)
+        {
+            order.get(i).restart();
+        }
+    }
+
+    /**
+     * Orders the refreshing bundles so that every bundle comes before the
+     * refreshing bundles it depends on. Bundles with cyclic dependencies
+     * are kept in their original order after the bundles that depend on
+     * them.
+    **/
+    private List<RefreshHelper> getRefreshOrder(List<RefreshHelper> helpers)
+    {
+        Map<Bundle, RefreshHelper> helperMap = new HashMap<Bundle, RefreshHelper>();
+        for (RefreshHelper helper : helpers)
+        {
+            helperMap.put(helper.m_bundle, helper);
+        }
+
+        // Determine the refreshing bundles depending on each bundle.
+        Map<RefreshHelper, Set<RefreshHelper>> dependents =
+            new HashMap<RefreshHelper, Set<RefreshHelper>>();
+        for (RefreshHelper helper : helpers)
+        {
+            Set<RefreshHelper> set = new HashSet<RefreshHelper>();
+            Set<Bundle> bundles = m_dependencies.getDependentBundles(helper.m_bundle);
+            if (bundles != null)
+            {
+                for (Bundle b : bundles)
+                {
+                    RefreshHelper dependent = helperMap.get(b);
+                    if ((dependent != null) && (dependent != helper))
+                    {
+                        set.add(dependent);
+                    }
+                }
+            }
+            dependents.put(helper, set);
+        }
+
+        // Repeatedly take the bundles whose dependents are all ordered.
+        List<RefreshHelper> order = new ArrayList<RefreshHelper>(helpers.size());
+        Set<RefreshHelper> remaining = new LinkedHashSet<RefreshHelper>(helpers);
+        while (!remaining.isEmpty())
+        {
+            List<RefreshHelper> next = new ArrayList<RefreshHelper>();
+            for (RefreshHelper helper : remaining)
+            {
+                if (Collections.disjoint(dependents.get(helper), remaining))
+                {
+                    next.add(helper);
+                }
+            }
+            if (next.isEmpty())
+            {
+                next.addAll(remaining);
+            }
+            remaining.removeAll(next);
+            order.addAll(next);
+        }
+        return order;
+    }
+
+    /**
+     * Disposes the wirings of all revisions of the refreshing bundles on
+     * the refresh worker threads and waits until all of them are disposed.
+     * Disposing a wiring only releases its class loader and closes its
+     * fragment contents, so the workers do not take any framework locks.
+     * The revisions dispose their wirings again when they are closed, which
+     * does nothing for a wiring that is already disposed.
+    **/
+    private void disposeWirings(List<RefreshHelper> helpers)
+    {
+        List<BundleWiringImpl> wirings = new ArrayList<BundleWiringImpl>();
+        for (RefreshHelper helper : helpers)
+        {
+            for (BundleRevision br : helper.m_bundle.getRevisions())
+            {
+                BundleWiringImpl wiring = (BundleWiringImpl) br.getWiring();
+                if (wiring != null)
+                {
+                    wirings.add(wiring);
+                }
+            }
+        }
+        if (wirings.isEmpty())
+        {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(m_refreshThreads, wirings.size()), new RefreshThreadFactory());
+        try
+        {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>(wirings.size());
+            for (final BundleWiringImpl wiring : wirings)
+            {
+                futures.add(executor.submit(new Callable<Object>()
+                {
+                    public Object call()
+                    {
+                        wiring.dispose();
+                        return null;
+                    }
+                }));
+            }
+
+            // Wait for all wirings to be disposed before the revisions are
+            // closed, even if the calling thread is interrupted.
+            boolean interrupted = false;
+            for (Future<Object> future : futures)
+            {
+                while (true)
+                {
+                    try
+                    {
+                        future.get();
+                        break;
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        interrupted = true;
+                    }
+                    catch (ExecutionException ex)
+                    {
+                        m_logger.log(Logger.LOG_ERROR,
+                            "Unable to dispose bundle wiring.", ex.getCause());
+                        break;
+                    }
+                }
+            }
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
     Collection<Bundle> getDependencyClosure(Collection<Bundle> targets)
     {
         // Acquire global lock.
@@ -4536,6 +5411,89 @@ public class Felix extends BundleImpl implements Framework
     // Private utility methods.
     //
 
+    private boolean isResolverSnapshotEnabled()
+    {
+        String enabled = (String) m_configMap.get(FelixConstants.RESOLVER_SNAPSHOT_PROP);
+        return (enabled != null) && Boolean.valueOf(enabled.trim()).booleanValue();
+    }
+
+    /**
+     * Restores the wirings of the cached bundles from the resolver snapshot
+     * saved by the last session. The snapshot is always deleted, so it is
+     * only ever used once and never after an unclean shutdown.
+    **/
+    private void restoreResolverSnapshot()
+    {
+        File file = null;
+        try
+        {
+            file = m_cache.getSystemBundleDataFile("resolver.snapshot");
+            if ((file == null) || !m_secureAction.fileExists(file))
+            {
+                return;
+            }
+            if (isResolverSnapshotEnabled())
+            {
+                Map<BundleRevision, List<ResolverWire>> wireMap =
+                    ResolverSnapshot.read(file, this);
+                if (wireMap == null)
+                {
+                    m_logger.log(Logger.LOG_DEBUG,
+                        "Resolver snapshot is out of date, resolving bundles.");
+                }
+                else
+                {
+                    m_resolver.resolve(wireMap);
+                    m_logger.log(Logger.LOG_DEBUG, "Restored the wirings of "
+                        + wireMap.size() + " bundles from resolver snapshot.");
+                }
+            }
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_WARNING,
+                "Unable to restore wirings from resolver snapshot.",
+                ex);
+        }
+        finally
+        {
+            if (file != null)
+            {
+                m_secureAction.deleteFile(file);
+            }
+        }
+    }
+
+    /**
+     * Saves the wirings of the resolved bundles to the resolver snapshot,
+     * if enabled.
+    **/
+    private void saveResolverSnapshot()
+    {
+        if (!isResolverSnapshotEnabled())
+        {
+            return;
+        }
+        try
+        {
+            byte[] snapshot = ResolverSnapshot.encode(
+                adapt(BundleRevision.class), getBundles());
+            if (snapshot != null)
+            {
+                ResolverSnapshot.write(
+                    m_cache.getSystemBundleDataFile("resolver.snapshot"), snapshot);
+            }
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_WARNING,
+                "Unable to save resolver snapshot.",
+                ex);
+        }
+    }
+
     /**
      * Generated the next valid bundle identifier.
     **/
@@ -4675,6 +5633,9 @@ public class Felix extends BundleImpl implements Framework
             // Shutdown event dispatching queue.
             m_dispatcher.stopDispatching();
 
+            // Stop the resolver threads.
+            m_resolver.dispose();
+
             // Since there may be updated and uninstalled bundles that
             // have not been refreshed, we will take care of refreshing
             // them during shutdown.
@@ -4700,23 +5661,27 @@ public class Felix extends BundleImpl implements Framework
             }
 
             // Delete uninstalled bundles.
+            List<BundleImpl> uninstalledBundles = m_uninstalledBundles;
             for (int i = 0;
-                (m_uninstalledBundles != null) && (i < m_uninstalledBundles.size());
+                (uninstalledBundles != null) && (i < uninstalledBundles.size());
                 i++)
             {
                 try
                 {
-                    m_uninstalledBundles.get(i).closeAndDelete();
+                    uninstalledBundles.get(i).closeAndDelete();
                 }
                 catch (Exception ex)
                 {
-                    m_logger.log(m_uninstalledBundles.get(i),
+                    m_logger.log(uninstalledBundles.get(i),
                         Logger.LOG_ERROR,
                         "Unable to remove "
-                        + m_uninstalledBundles.get(i)._getLocation(), ex);
+                        + uninstalledBundles.get(i)._getLocation(), ex);
                 }
             }
 
+            // Save the wirings of the resolved bundles for the next session.
+            saveResolverSnapshot();
+
             // Dispose of the bundles to close their associated contents.
             bundles = getBundles();
             for (int i = 0; i < bundles.length; i++)
@@ -4868,6 +5833,48 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    // Creates the worker threads used to start bundles concurrently, which
+    // are named after the start level thread so their starts are not queued.
+    private static class StartLevelThreadFactory implements ThreadFactory
+    {
+        private int m_count = 0;
+
+        public synchronized Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, FrameworkStartLevelImpl.THREAD_NAME + "-" + (++m_count));
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    // Creates the worker threads used to cache and parse the bundles of a
+    // batch install.
+    private static class InstallThreadFactory implements ThreadFactory
+    {
+        private int m_count = 0;
+
+        public synchronized Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "FelixInstall-" + (++m_count));
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    // Creates the worker threads used to dispose the wirings of refreshed
+    // bundles concurrently.
+    private static class RefreshThreadFactory implements ThreadFactory
+    {
+        private int m_count = 0;
+
+        public synchronized Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "FelixRefresh-" + (++m_count));
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
     // Compares bundles by start level. Within a start level,
     // bundles are sorted by bundle ID.
     private static class StartLevelTuple implements Comparable<StartLevelTuple>
@@ -4910,17 +5917,46 @@ public class Felix extends BundleImpl implements Framework
     // Locking related methods.
     //
 
-    private void rememberUninstalledBundle(BundleImpl bundle)
+    private void addInstalledBundle(BundleImpl bundle)
     {
-        boolean locked = acquireGlobalLock();
-        if (!locked)
+        synchronized (m_installedBundlesLock_Priority2)
         {
-            // If the calling thread holds bundle locks, then we might not
-            // be able to get the global lock.
-            throw new IllegalStateException(
-                "Unable to acquire global lock to record uninstalled bundle.");
+            // Use a copy-on-write approach to add the bundle
+            // to the installed maps.
+            Map[] maps = new Map[] {
+                new HashMap<String, BundleImpl>(m_installedBundles[LOCATION_MAP_IDX]),
+                new TreeMap<Long, BundleImpl>(m_installedBundles[IDENTIFIER_MAP_IDX])
+            };
+            maps[LOCATION_MAP_IDX].put(bundle._getLocation(), bundle);
+            maps[IDENTIFIER_MAP_IDX].put(new Long(bundle.getBundleId()), bundle);
+            m_installedBundles = maps;
         }
-        try
+    }
+
+    private BundleImpl removeInstalledBundle(BundleImpl bundle)
+    {
+        synchronized (m_installedBundlesLock_Priority2)
+        {
+            // Use a copy-on-write approach to remove the bundle
+            // from the installed maps.
+            Map[] maps = new Map[] {
+                new HashMap<String, BundleImpl>(m_installedBundles[LOCATION_MAP_IDX]),
+                new TreeMap<Long, BundleImpl>(m_installedBundles[IDENTIFIER_MAP_IDX])
+            };
+            BundleImpl target =
+                (BundleImpl) maps[LOCATION_MAP_IDX].remove(bundle._getLocation());
+            if (target != null)
+            {
+                maps[IDENTIFIER_MAP_IDX].remove(new Long(target.getBundleId()));
+                m_installedBundles = maps;
+            }
+            return target;
+        }
+    }
+
+    private void rememberUninstalledBundle(BundleImpl bundle)
+    {
+        synchronized (m_installedBundlesLock_Priority2)
         {
             // Verify that the bundle is not already in the array.
             for (int i = 0;
@@ -4939,23 +5975,11 @@ public class Felix extends BundleImpl implements Framework
             uninstalledBundles.add(bundle);
             m_uninstalledBundles = uninstalledBundles;
         }
-        finally
-        {
-            releaseGlobalLock();
-        }
     }
 
     private void forgetUninstalledBundle(BundleImpl bundle)
     {
-        boolean locked = acquireGlobalLock();
-        if (!locked)
-        {
-            // If the calling thread holds bundle locks, then we might not
-            // be able to get the global lock.
-            throw new IllegalStateException(
-                "Unable to acquire global lock to release uninstalled bundle.");
-        }
-        try
+        synchronized (m_installedBundlesLock_Priority2)
         {
             if (m_uninstalledBundles == null)
             {
@@ -4968,10 +5992,6 @@ public class Felix extends BundleImpl implements Framework
             uninstalledBundles.remove(bundle);
             m_uninstalledBundles = uninstalledBundles;
         }
-        finally
-        {
-            releaseGlobalLock();
-        }
     }
 
     void acquireInstallLock(String location)
@@ -5006,10 +6026,15 @@ public class Felix extends BundleImpl implements Framework
 
     void setBundleStateAndNotify(BundleImpl bundle, int state)
     {
-        synchronized (m_bundleLock)
+        m_bundleLock.lock();
+        try
         {
             bundle.__setState(state);
-            m_bundleLock.notifyAll();
+            getBundleLockStripe(bundle).signalAll();
+        }
+        finally
+        {
+            m_bundleLock.unlock();
         }
     }
 
@@ -5025,8 +6050,12 @@ public class Felix extends BundleImpl implements Framework
     void acquireBundleLock(BundleImpl bundle, int desiredStates)
         throws IllegalStateException
     {
-        synchronized (m_bundleLock)
+        long waitStart = 0;
+        m_bundleLock.lock();
+        try
         {
+            Condition stripe = getBundleLockStripe(bundle);
+
             // Wait if the desired bundle is already locked by someone else
             // or if any thread has the global lock, unless the current thread
             // holds the global lock or the bundle lock already.
@@ -5051,9 +6080,13 @@ public class Felix extends BundleImpl implements Framework
                     bundle.getLockingThread().interrupt();
                 }
 
+                if (waitStart == 0)
+                {
+                    waitStart = System.nanoTime();
+                }
                 try
                 {
-                    m_bundleLock.wait();
+                    stripe.await();
                 }
                 catch (InterruptedException ex)
                 {
@@ -5072,6 +6105,12 @@ public class Felix extends BundleImpl implements Framework
             // Acquire the bundle lock.
             bundle.lock();
         }
+        finally
+        {
+            m_bundleLock.unlock();
+        }
+        bundle.getLockStatistics().acquired(
+            (waitStart == 0) ? 0 : System.nanoTime() - waitStart);
     }
 
     /**
@@ -5082,17 +6121,22 @@ public class Felix extends BundleImpl implements Framework
     **/
     void releaseBundleLock(BundleImpl bundle)
     {
-        synchronized (m_bundleLock)
+        m_bundleLock.lock();
+        try
         {
             // Unlock the bundle.
             bundle.unlock();
             // If the thread no longer holds the bundle lock,
-            // then remove it from the held lock map.
+            // then wake up the threads waiting for it.
             if (bundle.getLockingThread() == null)
             {
-                m_bundleLock.notifyAll();
+                getBundleLockStripe(bundle).signalAll();
             }
         }
+        finally
+        {
+            m_bundleLock.unlock();
+        }
     }
 
     /**
@@ -5107,26 +6151,32 @@ public class Felix extends BundleImpl implements Framework
     **/
     boolean acquireGlobalLock()
     {
-        synchronized (m_bundleLock)
+        long waitStart = 0;
+        boolean interrupted = false;
+        m_bundleLock.lock();
+        try
         {
             // Wait as long as some other thread holds the global lock
             // and the current thread is not interrupted.
-            boolean interrupted = false;
             while (!interrupted
                 && (m_globalLockThread != null)
                 && (m_globalLockThread != Thread.currentThread()))
             {
                 // Add calling thread to global lock waiters list.
                 m_globalLockWaitersList.add(Thread.currentThread());
-                // We need to wake up all waiting threads so we can
-                // recheck for potential deadlock in acquireBundleLock()
+                // We need to wake up all threads waiting for bundle locks so
+                // we can recheck for potential deadlock in acquireBundleLock()
                 // if this thread was holding a bundle lock and is now
                 // trying to promote it to a global lock.
-                m_bundleLock.notifyAll();
+                signalBundleLockStripes();
                 // Now wait for the global lock.
+                if (waitStart == 0)
+                {
+                    waitStart = System.nanoTime();
+                }
                 try
                 {
-                    m_bundleLock.wait();
+                    m_globalLockCondition.await();
                 }
                 catch (InterruptedException ex)
                 {
@@ -5150,10 +6200,19 @@ public class Felix extends BundleImpl implements Framework
             // Note: If the thread was interrupted, there is no reason to notify
             // anyone, since the thread was likely interrupted to force it to give
             // up a bundle lock it is holding. When it does give up the bundle
-            // lock, it will do a notifyAll() in there.
+            // lock, it will signal the waiting threads in there.
+        }
+        finally
+        {
+            m_bundleLock.unlock();
+        }
 
-            return !interrupted;
+        if (!interrupted)
+        {
+            m_globalLockStatistics.acquired(
+                (waitStart == 0) ? 0 : System.nanoTime() - waitStart);
         }
+        return !interrupted;
     }
 
     /**
@@ -5163,7 +6222,8 @@ public class Felix extends BundleImpl implements Framework
     **/
     void releaseGlobalLock()
     {
-        synchronized (m_bundleLock)
+        m_bundleLock.lock();
+        try
         {
             // Decrement the current thread's global lock count;
             if (m_globalLockThread == Thread.currentThread())
@@ -5172,7 +6232,8 @@ public class Felix extends BundleImpl implements Framework
                 if (m_globalLockCount == 0)
                 {
                     m_globalLockThread = null;
-                    m_bundleLock.notifyAll();
+                    m_globalLockCondition.signalAll();
+                    signalBundleLockStripes();
                 }
             }
             else
@@ -5181,6 +6242,33 @@ public class Felix extends BundleImpl implements Framework
                     "The current thread doesn't own the global lock.");
             }
         }
+        finally
+        {
+            m_bundleLock.unlock();
+        }
+    }
+
+    // Must be called while holding m_bundleLock.
+    private Condition getBundleLockStripe(BundleImpl bundle)
+    {
+        int idx = (int) (bundle.getBundleId() % BUNDLE_LOCK_STRIPES);
+        if (m_bundleLockStripes[idx] == null)
+        {
+            m_bundleLockStripes[idx] = m_bundleLock.newCondition();
+        }
+        return m_bundleLockStripes[idx];
+    }
+
+    // Must be called while holding m_bundleLock.
+    private void signalBundleLockStripes()
+    {
+        for (Condition stripe : m_bundleLockStripes)
+        {
+            if (stripe != null)
+            {
+                stripe.signalAll();
+            }
+        }
     }
 
     private volatile URLHandlersActivator m_urlHandlersActivator;
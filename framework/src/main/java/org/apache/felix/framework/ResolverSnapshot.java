@@ -0,0 +1,361 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.felix.framework.resolver.ResolverWire;
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+
+/**
+ * A snapshot of the wires of all resolved bundles, which is saved when the
+ * framework shuts down and used to restore the wirings of the bundles when
+ * the framework is started again, without resolving them again. Wires refer
+ * to requirements and capabilities by their bundle and their index in the
+ * declared requirements or capabilities of the current revision of the
+ * bundle. A snapshot is only used if the revision identifiers and
+ * modification times of all bundles in the snapshot, the capabilities of
+ * the system bundle and all referenced requirements and capabilities are
+ * still the same. Dynamic wires are not saved, they are resolved again
+ * when they are needed.
+**/
+class ResolverSnapshot
+{
+    private static final int VERSION = 1;
+
+    /**
+     * Encodes the wires of the specified bundles.
+     * @param systemRevision the revision of the system bundle.
+     * @param bundles the installed bundles.
+     * @return the encoded snapshot or <tt>null</tt> if the wires cannot be
+     *         saved, for example because a bundle has pending removals.
+    **/
+    static byte[] encode(BundleRevision systemRevision, Bundle[] bundles)
+        throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeInt(VERSION);
+        out.writeInt(hashCapabilities(systemRevision));
+
+        List<BundleImpl> resolved = new ArrayList<BundleImpl>();
+        for (int i = 0; i < bundles.length; i++)
+        {
+            BundleImpl bundle = (BundleImpl) bundles[i];
+            if ((bundle.getBundleId() == 0) || bundle.isExtension())
+            {
+                continue;
+            }
+            if (bundle.isRemovalPending())
+            {
+                return null;
+            }
+            if (bundle.adapt(BundleRevision.class).getWiring() != null)
+            {
+                resolved.add(bundle);
+            }
+        }
+
+        out.writeInt(resolved.size());
+        for (BundleImpl bundle : resolved)
+        {
+            BundleRevisionImpl revision =
+                (BundleRevisionImpl) bundle.adapt(BundleRevision.class);
+            out.writeLong(bundle.getBundleId());
+            out.writeUTF(revision.getId());
+            out.writeLong(bundle.getLastModified());
+
+            List<BundleWire> wires = new ArrayList<BundleWire>();
+            for (BundleWire wire : revision.getWiring().getRequiredWires(null))
+            {
+                // Dynamic wires are created again when they are needed.
+                if (!FelixConstants.RESOLUTION_DYNAMIC.equals(wire.getRequirement()
+                    .getDirectives().get(FelixConstants.RESOLUTION_DIRECTIVE)))
+                {
+                    wires.add(wire);
+                }
+            }
+            out.writeInt(wires.size());
+            for (BundleWire wire : wires)
+            {
+                BundleRequirement req = wire.getRequirement();
+                BundleCapability cap = wire.getCapability();
+                if (!isCurrent(req.getRevision()) || !isCurrent(wire.getProvider())
+                    || !isCurrent(cap.getRevision()))
+                {
+                    return null;
+                }
+                int reqIdx = req.getRevision().getDeclaredRequirements(null).indexOf(req);
+                int capIdx = cap.getRevision().getDeclaredCapabilities(null).indexOf(cap);
+                if ((reqIdx < 0) || (capIdx < 0))
+                {
+                    return null;
+                }
+                out.writeLong(req.getRevision().getBundle().getBundleId());
+                out.writeInt(reqIdx);
+                out.writeInt(hash(req.getNamespace(), req.getAttributes(), req.getDirectives()));
+                out.writeLong(wire.getProvider().getBundle().getBundleId());
+                out.writeLong(cap.getRevision().getBundle().getBundleId());
+                out.writeInt(capIdx);
+                out.writeInt(hash(cap.getNamespace(), cap.getAttributes(), cap.getDirectives()));
+            }
+        }
+        out.close();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Reads the wires of the bundles in the specified snapshot file.
+     * @param file the snapshot file.
+     * @param felix the framework whose bundles are restored.
+     * @return a map of the revisions of the bundles in the snapshot to their
+     *         wires or <tt>null</tt> if the snapshot is no longer valid.
+    **/
+    static Map<BundleRevision, List<ResolverWire>> read(File file, Felix felix)
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            Felix.m_secureAction.getFileInputStream(file)));
+        try
+        {
+            BundleRevision systemRevision = felix.adapt(BundleRevision.class);
+            if ((in.readInt() != VERSION)
+                || (in.readInt() != hashCapabilities(systemRevision)))
+            {
+                return null;
+            }
+
+            // Read the revisions first, since wires may refer to
+            // revisions that come later in the snapshot.
+            int count = in.readInt();
+            long[] ids = new long[count];
+            int[][] wireData = new int[count][];
+            long[][] wireIds = new long[count][];
+            Map<Long, BundleRevision> revisions = new HashMap<Long, BundleRevision>();
+            revisions.put(Long.valueOf(0), systemRevision);
+            for (int i = 0; i < count; i++)
+            {
+                ids[i] = in.readLong();
+                String revisionId = in.readUTF();
+                long lastModified = in.readLong();
+                BundleImpl bundle = (BundleImpl) felix.getBundle(ids[i]);
+                if ((bundle == null) || bundle.isExtension()
+                    || (bundle.getLastModified() != lastModified))
+                {
+                    return null;
+                }
+                BundleRevisionImpl revision =
+                    (BundleRevisionImpl) bundle.adapt(BundleRevision.class);
+                if (!revision.getId().equals(revisionId) || (revision.getWiring() != null))
+                {
+                    return null;
+                }
+                revisions.put(Long.valueOf(ids[i]), revision);
+
+                int wireCount = in.readInt();
+                wireData[i] = new int[wireCount * 4];
+                wireIds[i] = new long[wireCount * 3];
+                for (int j = 0; j < wireCount; j++)
+                {
+                    wireIds[i][j * 3] = in.readLong();
+                    wireData[i][j * 4] = in.readInt();
+                    wireData[i][j * 4 + 1] = in.readInt();
+                    wireIds[i][j * 3 + 1] = in.readLong();
+                    wireIds[i][j * 3 + 2] = in.readLong();
+                    wireData[i][j * 4 + 2] = in.readInt();
+                    wireData[i][j * 4 + 3] = in.readInt();
+                }
+            }
+
+            Map<BundleRevision, List<ResolverWire>> wireMap =
+                new HashMap<BundleRevision, List<ResolverWire>>(count);
+            for (int i = 0; i < count; i++)
+            {
+                BundleRevision requirer = revisions.get(Long.valueOf(ids[i]));
+                int wireCount = wireData[i].length / 4;
+                List<ResolverWire> wires = new ArrayList<ResolverWire>(wireCount);
+                for (int j = 0; j < wireCount; j++)
+                {
+                    BundleRevision reqRevision = revisions.get(Long.valueOf(wireIds[i][j * 3]));
+                    BundleRevision provider = revisions.get(Long.valueOf(wireIds[i][j * 3 + 1]));
+                    BundleRevision capRevision = revisions.get(Long.valueOf(wireIds[i][j * 3 + 2]));
+                    if ((reqRevision == null) || (provider == null) || (capRevision == null))
+                    {
+                        return null;
+                    }
+                    BundleRequirement req = getRequirement(
+                        reqRevision, wireData[i][j * 4], wireData[i][j * 4 + 1]);
+                    BundleCapability cap = getCapability(
+                        capRevision, wireData[i][j * 4 + 2], wireData[i][j * 4 + 3]);
+                    if ((req == null) || (cap == null))
+                    {
+                        return null;
+                    }
+                    wires.add(new SnapshotWire(requirer, req, provider, cap));
+                }
+                wireMap.put(requirer, wires);
+            }
+            return wireMap;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the specified encoded snapshot to the specified file.
+     * @param file the snapshot file.
+     * @param snapshot the encoded snapshot.
+    **/
+    static void write(File file, byte[] snapshot) throws IOException
+    {
+        OutputStream os = Felix.m_secureAction.getFileOutputStream(file);
+        try
+        {
+            os.write(snapshot);
+        }
+        finally
+        {
+            os.close();
+        }
+    }
+
+    private static boolean isCurrent(BundleRevision revision)
+    {
+        return (revision != null) && (revision.getBundle() != null)
+            && (revision.getBundle().adapt(BundleRevision.class) == revision);
+    }
+
+    private static int hashCapabilities(BundleRevision revision)
+    {
+        int hash = 0;
+        for (BundleCapability cap : revision.getDeclaredCapabilities(null))
+        {
+            hash = 31 * hash
+                + hash(cap.getNamespace(), cap.getAttributes(), cap.getDirectives());
+        }
+        return hash;
+    }
+
+    private static BundleRequirement getRequirement(
+        BundleRevision revision, int idx, int hash)
+    {
+        List<BundleRequirement> reqs = revision.getDeclaredRequirements(null);
+        if ((reqs == null) || (idx < 0) || (idx >= reqs.size()))
+        {
+            return null;
+        }
+        BundleRequirement req = reqs.get(idx);
+        return (hash(req.getNamespace(), req.getAttributes(), req.getDirectives()) == hash)
+            ? req : null;
+    }
+
+    private static BundleCapability getCapability(
+        BundleRevision revision, int idx, int hash)
+    {
+        List<BundleCapability> caps = revision.getDeclaredCapabilities(null);
+        if ((caps == null) || (idx < 0) || (idx >= caps.size()))
+        {
+            return null;
+        }
+        BundleCapability cap = caps.get(idx);
+        return (hash(cap.getNamespace(), cap.getAttributes(), cap.getDirectives()) == hash)
+            ? cap : null;
+    }
+
+    /**
+     * Calculates a hash of a requirement or capability that does not depend
+     * on the identity of its attribute values, such as arrays, so it is the
+     * same across framework sessions.
+    **/
+    private static int hash(
+        String namespace, Map<String, Object> attrs, Map<String, String> dirs)
+    {
+        int hash = namespace.hashCode();
+        for (Map.Entry<String, Object> entry : new TreeMap<String, Object>(attrs).entrySet())
+        {
+            Object value = entry.getValue();
+            String s = (value instanceof Object[])
+                ? Arrays.asList((Object[]) value).toString() : String.valueOf(value);
+            hash = 31 * hash + entry.getKey().hashCode();
+            hash = 31 * hash + s.hashCode();
+        }
+        return 31 * hash + new TreeMap<String, String>(dirs).hashCode();
+    }
+
+    private static class SnapshotWire implements ResolverWire
+    {
+        private final BundleRevision m_requirer;
+        private final BundleRequirement m_req;
+        private final BundleRevision m_provider;
+        private final BundleCapability m_cap;
+
+        SnapshotWire(BundleRevision requirer, BundleRequirement req,
+            BundleRevision provider, BundleCapability cap)
+        {
+            m_requirer = requirer;
+            m_req = req;
+            m_provider = provider;
+            m_cap = cap;
+        }
+
+        public BundleRevision getRequirer()
+        {
+            return m_requirer;
+        }
+
+        public BundleRequirement getRequirement()
+        {
+            return m_req;
+        }
+
+        public BundleRevision getProvider()
+        {
+            return m_provider;
+        }
+
+        public BundleCapability getCapability()
+        {
+            return m_cap;
+        }
+
+        @Override
+        public String toString()
+        {
+            return m_req + " -> " + "[" + m_provider + "]";
+        }
+    }
+}
@@ -23,7 +23,6 @@ import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
 import java.util.*;
 
-import org.apache.felix.framework.util.MapToDictionary;
 import org.apache.felix.framework.util.StringMap;
 import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.wiring.BundleCapabilityImpl;
@@ -53,6 +52,12 @@ class ServiceRegistrationImpl implements ServiceRegistration
     private final ServiceReferenceImpl m_ref;
     // Flag indicating that we are unregistering.
     private volatile boolean m_isUnregistering = false;
+    // Lock guarding the usage counts of this service, so that
+    // bundles using different services do not contend.
+    private final Object m_usageLock = new Object();
+    // Thread getting or ungetting this service, which will cause
+    // other threads to wait; guarded by the usage lock.
+    private Thread m_usageOwner;
 
     public ServiceRegistrationImpl(
         ServiceRegistry registry, Bundle bundle,
@@ -74,6 +79,21 @@ class ServiceRegistrationImpl implements ServiceRegistration
         m_ref = new ServiceReferenceImpl();
     }
 
+    Object getUsageLock()
+    {
+        return m_usageLock;
+    }
+
+    Thread getUsageOwner()
+    {
+        return m_usageOwner;
+    }
+
+    void setUsageOwner(Thread owner)
+    {
+        m_usageOwner = owner;
+    }
+
     protected synchronized boolean isValid()
     {
         return (m_svcObj != null);
@@ -112,7 +132,7 @@ class ServiceRegistrationImpl implements ServiceRegistration
             initializeProperties(dict);
         }
         // Tell registry about it.
-        m_registry.servicePropertiesModified(this, new MapToDictionary(oldProps));
+        m_registry.servicePropertiesModified(this, oldProps);
     }
 
     public void unregister()
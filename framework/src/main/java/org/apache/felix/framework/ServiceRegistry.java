@@ -19,9 +19,13 @@
 package org.apache.felix.framework;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.MapToDictionary;
+import org.apache.felix.framework.util.manifestparser.ManifestParser;
 import org.apache.felix.framework.wiring.BundleCapabilityImpl;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -39,15 +43,14 @@ public class ServiceRegistry
     private long m_currentServiceId = 1L;
     // Maps bundle to an array of service registrations.
     private final Map m_regsMap = Collections.synchronizedMap(new HashMap());
-    // Capability set for all service registrations.
+    // Capability set for all service registrations; it may be queried
+    // without holding the registry lock.
     private final CapabilitySet m_regCapSet;
 
-    // Maps registration to thread to keep track when a
-    // registration is in use, which will cause other
-    // threads to wait.
-    private final Map m_lockedRegsMap = new HashMap();
-    // Maps bundle to an array of usage counts.
-    private final Map m_inUseMap = new HashMap();
+    // Maps bundle to an array of usage counts. The arrays are only ever
+    // replaced while holding the lock on this map, never modified in place,
+    // so they can be read without holding any lock.
+    private final Map m_inUseMap = new ConcurrentHashMap();
 
     private final ServiceRegistryCallbacks m_callbacks;
 
@@ -71,13 +74,27 @@ public class ServiceRegistry
         new HashMap<Class<?>, Set<ServiceReference<?>>>();
 
     public ServiceRegistry(Logger logger, ServiceRegistryCallbacks callbacks)
+    {
+        this(logger, callbacks, null);
+    }
+
+    public ServiceRegistry(
+        Logger logger, ServiceRegistryCallbacks callbacks, Map configMap)
     {
         m_logger = logger;
         m_callbacks = callbacks;
 
-        List indices = new ArrayList();
+        List<String> indices = new ArrayList<String>();
         indices.add(Constants.OBJECTCLASS);
-        m_regCapSet = new CapabilitySet(indices, false);
+        List<String> rangeIndices = new ArrayList<String>();
+        if (configMap != null)
+        {
+            indices.addAll(ManifestParser.parseDelimitedString(
+                (String) configMap.get(FelixConstants.SERVICE_INDICES_PROP), ","));
+            rangeIndices.addAll(ManifestParser.parseDelimitedString(
+                (String) configMap.get(FelixConstants.SERVICE_RANGE_INDICES_PROP), ","));
+        }
+        m_regCapSet = new CapabilitySet(indices, rangeIndices, false);
     }
 
     public ServiceReference[] getRegisteredServices(Bundle bundle)
@@ -136,7 +153,7 @@ public class ServiceRegistry
         synchronized (this)
         {
             // Note that we don't lock the service registration here using
-            // the m_lockedRegsMap because we want to allow bundles to get
+            // its usage lock because we want to allow bundles to get
             // the service during the unregistration process. However, since
             // we do remove the registration from the service registry, no
             // new bundles will be able to look up the service.
@@ -182,11 +199,7 @@ public class ServiceRegistry
     public void unregisterServices(Bundle bundle)
     {
         // Simply remove all service registrations for the bundle.
-        ServiceRegistration[] regs = null;
-        synchronized (this)
-        {
-            regs = (ServiceRegistration[]) m_regsMap.get(bundle);
-        }
+        ServiceRegistration[] regs = (ServiceRegistration[]) m_regsMap.get(bundle);
 
         // Note, there is no race condition here with respect to the
         // bundle registering more services, because its bundle context
@@ -216,7 +229,7 @@ public class ServiceRegistry
         }
     }
 
-    public synchronized List getServiceReferences(String className, SimpleFilter filter)
+    public List getServiceReferences(String className, SimpleFilter filter)
     {
         if ((className == null) && (filter == null))
         {
@@ -238,12 +251,14 @@ public class ServiceRegistry
         }
         // else just use the specified filter.
 
+        // No need to hold the registry lock, since the capability set
+        // can be matched concurrently with registrations.
         Set<BundleCapability> matches = m_regCapSet.match(filter, false);
 
         return new ArrayList(matches);
     }
 
-    public synchronized ServiceReference[] getServicesInUse(Bundle bundle)
+    public ServiceReference[] getServicesInUse(Bundle bundle)
     {
         UsageCount[] usages = (UsageCount[]) m_inUseMap.get(bundle);
         if (usages != null)
@@ -266,12 +281,13 @@ public class ServiceRegistry
         // Get the service registration.
         ServiceRegistrationImpl reg =
             ((ServiceRegistrationImpl.ServiceReferenceImpl) ref).getRegistration();
+        Object usageLock = reg.getUsageLock();
 
-        synchronized (this)
+        synchronized (usageLock)
         {
             // First make sure that no existing operation is currently
             // being performed by another thread on the service registration.
-            for (Object o = m_lockedRegsMap.get(reg); (o != null); o = m_lockedRegsMap.get(reg))
+            for (Thread o = reg.getUsageOwner(); (o != null); o = reg.getUsageOwner())
             {
                 // We don't allow cycles when we call out to the service factory.
                 if (o.equals(Thread.currentThread()))
@@ -285,7 +301,7 @@ public class ServiceRegistry
                 // Otherwise, wait for it to be freed.
                 try
                 {
-                    wait();
+                    usageLock.wait();
                 }
                 catch (InterruptedException ex)
                 {
@@ -293,7 +309,7 @@ public class ServiceRegistry
             }
 
             // Lock the service registration.
-            m_lockedRegsMap.put(reg, Thread.currentThread());
+            reg.setUsageOwner(Thread.currentThread());
 
             // Make sure the service registration is still valid.
             if (reg.isValid())
@@ -333,7 +349,7 @@ public class ServiceRegistry
             // cache it in the usage count. If not, we should flush the usage
             // count. Either way, we need to unlock the service registration
             // so that any threads waiting for it can continue.
-            synchronized (this)
+            synchronized (usageLock)
             {
                 // Before caching the service object, double check to see if
                 // the registration is still valid, since it may have been
@@ -346,8 +362,8 @@ public class ServiceRegistry
                 {
                     usage.m_svcObj = svcObj;
                 }
-                m_lockedRegsMap.remove(reg);
-                notifyAll();
+                reg.setUsageOwner(null);
+                usageLock.notifyAll();
             }
         }
 
@@ -359,12 +375,13 @@ public class ServiceRegistry
         UsageCount usage = null;
         ServiceRegistrationImpl reg =
             ((ServiceRegistrationImpl.ServiceReferenceImpl) ref).getRegistration();
+        Object usageLock = reg.getUsageLock();
 
-        synchronized (this)
+        synchronized (usageLock)
         {
             // First make sure that no existing operation is currently
             // being performed by another thread on the service registration.
-            for (Object o = m_lockedRegsMap.get(reg); (o != null); o = m_lockedRegsMap.get(reg))
+            for (Thread o = reg.getUsageOwner(); (o != null); o = reg.getUsageOwner())
             {
                 // We don't allow cycles when we call out to the service factory.
                 if (o.equals(Thread.currentThread()))
@@ -376,7 +393,7 @@ public class ServiceRegistry
                 // Otherwise, wait for it to be freed.
                 try
                 {
-                    wait();
+                    usageLock.wait();
                 }
                 catch (InterruptedException ex)
                 {
@@ -392,7 +409,7 @@ public class ServiceRegistry
             }
 
             // Lock the service registration.
-            m_lockedRegsMap.put(reg, Thread.currentThread());
+            reg.setUsageOwner(Thread.currentThread());
         }
 
         // If usage count will go to zero, then unget the service
@@ -413,7 +430,7 @@ public class ServiceRegistry
             // the registration became invalid while we were not holding the
             // lock. Either way, unlock the service registration so that any
             // threads waiting for it can continue.
-            synchronized (this)
+            synchronized (usageLock)
             {
                 // Decrement usage count, which spec says should happen after
                 // ungetting the service object.
@@ -429,8 +446,8 @@ public class ServiceRegistry
 
                 // Release the registration lock so any waiting threads can
                 // continue.
-                m_lockedRegsMap.remove(reg);
-                notifyAll();
+                reg.setUsageOwner(null);
+                usageLock.notifyAll();
             }
         }
 
@@ -445,11 +462,7 @@ public class ServiceRegistry
     **/
     public void ungetServices(Bundle bundle)
     {
-        UsageCount[] usages;
-        synchronized (this)
-        {
-            usages = (UsageCount[]) m_inUseMap.get(bundle);
-        }
+        UsageCount[] usages = (UsageCount[]) m_inUseMap.get(bundle);
 
         if (usages == null)
         {
@@ -473,7 +486,7 @@ public class ServiceRegistry
         }
     }
 
-    public synchronized Bundle[] getUsingBundles(ServiceReference ref)
+    public Bundle[] getUsingBundles(ServiceReference ref)
     {
         Bundle[] bundles = null;
         for (Iterator iter = m_inUseMap.entrySet().iterator(); iter.hasNext(); )
@@ -503,13 +516,15 @@ public class ServiceRegistry
         return bundles;
     }
 
-    void servicePropertiesModified(ServiceRegistration reg, Dictionary oldProps)
+    void servicePropertiesModified(ServiceRegistration reg, Map oldProps)
     {
         updateHook(reg.getReference());
+        m_regCapSet.updateCapability((BundleCapabilityImpl) reg.getReference());
         if (m_callbacks != null)
         {
             m_callbacks.serviceChanged(
-                new ServiceEvent(ServiceEvent.MODIFIED, reg.getReference()), oldProps);
+                new ServiceEvent(ServiceEvent.MODIFIED, reg.getReference()),
+                new MapToDictionary(oldProps));
         }
     }
 
@@ -596,24 +611,27 @@ public class ServiceRegistry
     **/
     private UsageCount addUsageCount(Bundle bundle, ServiceReference ref)
     {
-        UsageCount[] usages = (UsageCount[]) m_inUseMap.get(bundle);
-
         UsageCount usage = new UsageCount();
         usage.m_ref = ref;
 
-        if (usages == null)
-        {
-            usages = new UsageCount[] { usage };
-        }
-        else
+        synchronized (m_inUseMap)
         {
-            UsageCount[] newUsages = new UsageCount[usages.length + 1];
-            System.arraycopy(usages, 0, newUsages, 0, usages.length);
-            newUsages[usages.length] = usage;
-            usages = newUsages;
-        }
+            UsageCount[] usages = (UsageCount[]) m_inUseMap.get(bundle);
+
+            if (usages == null)
+            {
+                usages = new UsageCount[] { usage };
+            }
+            else
+            {
+                UsageCount[] newUsages = new UsageCount[usages.length + 1];
+                System.arraycopy(usages, 0, newUsages, 0, usages.length);
+                newUsages[usages.length] = usage;
+                usages = newUsages;
+            }
 
-        m_inUseMap.put(bundle, usages);
+            m_inUseMap.put(bundle, usages);
+        }
 
         return usage;
     }
@@ -632,38 +650,41 @@ public class ServiceRegistry
     **/
     private void flushUsageCount(Bundle bundle, ServiceReference ref)
     {
-        UsageCount[] usages = (UsageCount[]) m_inUseMap.get(bundle);
-        for (int i = 0; (usages != null) && (i < usages.length); i++)
+        synchronized (m_inUseMap)
         {
-            if (usages[i].m_ref.equals(ref))
+            UsageCount[] usages = (UsageCount[]) m_inUseMap.get(bundle);
+            for (int i = 0; (usages != null) && (i < usages.length); i++)
             {
-                // If this is the only usage, then point to empty list.
-                if ((usages.length - 1) == 0)
-                {
-                    usages = null;
-                }
-                // Otherwise, we need to do some array copying.
-                else
+                if (usages[i].m_ref.equals(ref))
                 {
-                    UsageCount[] newUsages = new UsageCount[usages.length - 1];
-                    System.arraycopy(usages, 0, newUsages, 0, i);
-                    if (i < newUsages.length)
+                    // If this is the only usage, then point to empty list.
+                    if ((usages.length - 1) == 0)
                     {
-                        System.arraycopy(
-                            usages, i + 1, newUsages, i, newUsages.length - i);
+                        usages = null;
+                    }
+                    // Otherwise, we need to do some array copying.
+                    else
+                    {
+                        UsageCount[] newUsages = new UsageCount[usages.length - 1];
+                        System.arraycopy(usages, 0, newUsages, 0, i);
+                        if (i < newUsages.length)
+                        {
+                            System.arraycopy(
+                                usages, i + 1, newUsages, i, newUsages.length - i);
+                        }
+                        usages = newUsages;
                     }
-                    usages = newUsages;
                 }
             }
-        }
 
-        if (usages != null)
-        {
-            m_inUseMap.put(bundle, usages);
-        }
-        else
-        {
-            m_inUseMap.remove(bundle);
+            if (usages != null)
+            {
+                m_inUseMap.put(bundle, usages);
+            }
+            else
+            {
+                m_inUseMap.remove(bundle);
+            }
         }
     }
 
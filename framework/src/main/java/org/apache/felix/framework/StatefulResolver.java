@@ -18,6 +18,7 @@
  */
 package org.apache.felix.framework;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -35,11 +36,14 @@ import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.apache.felix.framework.resolver.CandidateComparator;
 import org.apache.felix.framework.resolver.ResolveException;
-import org.apache.felix.framework.resolver.Resolver;
 import org.apache.felix.framework.resolver.ResolverImpl;
+import org.apache.felix.framework.resolver.ResolverListener;
+import org.apache.felix.framework.resolver.ResolverTrace;
 import org.apache.felix.framework.resolver.ResolverWire;
+import org.apache.felix.framework.util.FelixConstants;
 import org.apache.felix.framework.util.ShrinkableCollection;
 import org.apache.felix.framework.util.Util;
+import org.apache.felix.framework.util.manifestparser.ManifestParser;
 import org.apache.felix.framework.util.manifestparser.R4Library;
 import org.apache.felix.framework.wiring.BundleCapabilityImpl;
 import org.apache.felix.framework.wiring.BundleRequirementImpl;
@@ -64,7 +68,7 @@ class StatefulResolver
 {
     private final Logger m_logger;
     private final Felix m_felix;
-    private final Resolver m_resolver;
+    private final ResolverImpl m_resolver;
     private boolean m_isResolving = false;
 
     // Set of all revisions.
@@ -81,12 +85,81 @@ class StatefulResolver
     private final String m_fwkExecEnvStr;
     // Parsed framework environments
     private final Set<String> m_fwkExecEnvSet;
+    // Additional configured capability indices.
+    private final List<String> m_indices;
+    private final List<String> m_rangeIndices;
 
     StatefulResolver(Felix felix)
     {
         m_felix = felix;
         m_logger = m_felix.getLogger();
-        m_resolver = new ResolverImpl(m_logger);
+
+        // Determine how many threads the resolver uses to calculate
+        // package spaces.
+        int parallelism = 1;
+        try
+        {
+            String threads =
+                (String) m_felix.getConfig().get(FelixConstants.RESOLVER_PARALLELISM_PROP);
+            parallelism = (threads == null) ? 1 : Integer.parseInt(threads.trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            m_logger.log(Logger.LOG_WARNING,
+                "Invalid value for " + FelixConstants.RESOLVER_PARALLELISM_PROP
+                + ", calculating package spaces sequentially.");
+        }
+
+        // Determine which listeners are notified about the progress of
+        // the resolver.
+        List<ResolverListener> listeners = new ArrayList<ResolverListener>();
+        Object listener = m_felix.getConfig().get(FelixConstants.RESOLVER_LISTENER_PROP);
+        if (listener instanceof ResolverListener)
+        {
+            listeners.add((ResolverListener) listener);
+        }
+        else if (listener != null)
+        {
+            m_logger.log(Logger.LOG_WARNING,
+                "Ignoring " + FelixConstants.RESOLVER_LISTENER_PROP
+                + ", since it is not a resolver listener.");
+        }
+        String trace = (String) m_felix.getConfig().get(FelixConstants.RESOLVER_TRACE_PROP);
+        if ((trace != null) && (trace.trim().length() > 0))
+        {
+            listeners.add(new ResolverTrace(m_logger, new File(trace.trim())));
+        }
+
+        // Determine how long and how many candidate permutations a resolve
+        // operation may take before the resolver gives up.
+        long timeout = 0;
+        try
+        {
+            String value =
+                (String) m_felix.getConfig().get(FelixConstants.RESOLVER_TIMEOUT_PROP);
+            timeout = (value == null) ? 0 : Long.parseLong(value.trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            m_logger.log(Logger.LOG_WARNING,
+                "Invalid value for " + FelixConstants.RESOLVER_TIMEOUT_PROP
+                + ", resolving without a time limit.");
+        }
+        int permutations = 0;
+        try
+        {
+            String value =
+                (String) m_felix.getConfig().get(FelixConstants.RESOLVER_PERMUTATIONS_PROP);
+            permutations = (value == null) ? 0 : Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException ex)
+        {
+            m_logger.log(Logger.LOG_WARNING,
+                "Invalid value for " + FelixConstants.RESOLVER_PERMUTATIONS_PROP
+                + ", resolving without a permutation limit.");
+        }
+        m_resolver = new ResolverImpl(
+            m_logger, parallelism, listeners, timeout, permutations);
 
         m_revisions = new HashSet<BundleRevision>();
         m_fragments = new HashSet<BundleRevision>();
@@ -99,17 +172,32 @@ class StatefulResolver
         m_fwkExecEnvStr = (fwkExecEnvStr != null) ? fwkExecEnvStr.trim() : null;
         m_fwkExecEnvSet = parseExecutionEnvironments(fwkExecEnvStr);
 
-        List<String> indices = new ArrayList<String>();
-        indices.add(BundleRevision.BUNDLE_NAMESPACE);
-        m_capSets.put(BundleRevision.BUNDLE_NAMESPACE, new CapabilitySet(indices, true));
-
-        indices = new ArrayList<String>();
-        indices.add(BundleRevision.PACKAGE_NAMESPACE);
-        m_capSets.put(BundleRevision.PACKAGE_NAMESPACE, new CapabilitySet(indices, true));
+        m_indices = ManifestParser.parseDelimitedString(
+            (String) m_felix.getConfig().get(FelixConstants.RESOLVER_INDICES_PROP), ",");
+        m_rangeIndices = ManifestParser.parseDelimitedString(
+            (String) m_felix.getConfig().get(FelixConstants.RESOLVER_RANGE_INDICES_PROP), ",");
+
+        m_capSets.put(BundleRevision.BUNDLE_NAMESPACE,
+            createCapabilitySet(BundleRevision.BUNDLE_NAMESPACE));
+        m_capSets.put(BundleRevision.PACKAGE_NAMESPACE,
+            createCapabilitySet(BundleRevision.PACKAGE_NAMESPACE));
+        m_capSets.put(BundleRevision.HOST_NAMESPACE,
+            createCapabilitySet(BundleRevision.HOST_NAMESPACE));
+    }
 
-        indices = new ArrayList<String>();
-        indices.add(BundleRevision.HOST_NAMESPACE);
-        m_capSets.put(BundleRevision.HOST_NAMESPACE,  new CapabilitySet(indices, true));
+    private CapabilitySet createCapabilitySet(String namespace)
+    {
+        List<String> indices = new ArrayList<String>();
+        // The standard namespaces are always indexed by their
+        // namespace attribute.
+        if (namespace.equals(BundleRevision.BUNDLE_NAMESPACE)
+            || namespace.equals(BundleRevision.PACKAGE_NAMESPACE)
+            || namespace.equals(BundleRevision.HOST_NAMESPACE))
+        {
+            indices.add(namespace);
+        }
+        indices.addAll(m_indices);
+        return new CapabilitySet(indices, m_rangeIndices, true);
     }
 
     synchronized void addRevision(BundleRevision br)
@@ -149,6 +237,7 @@ class StatefulResolver
         {
             m_fragments.remove(br);
             deindexCapabilities(br);
+            m_resolver.invalidate(br);
 
             // If this module is a singleton, then remove it from the
             // singleton map.
@@ -164,6 +253,17 @@ class StatefulResolver
         }
     }
 
+    boolean isPackageSpaceCached(BundleRevision br)
+    {
+        return m_resolver.isCached(br);
+    }
+
+    // Stops the resolver threads when the framework stops.
+    void dispose()
+    {
+        m_resolver.dispose();
+    }
+
     boolean isEffective(BundleRequirement req)
     {
         String effective = req.getDirectives().get(Constants.EFFECTIVE_DIRECTIVE);
@@ -439,6 +539,53 @@ class StatefulResolver
         fireResolvedEvents(wireMap);
     }
 
+    /**
+     * Marks the revisions in the specified wire map as resolved using the
+     * wires from the map, without invoking the resolver. This is used to
+     * restore the wirings saved in a resolver snapshot, so the wire map must
+     * be complete and consistent.
+     * @param wireMap the unresolved revisions and their wires.
+    **/
+    void resolve(Map<BundleRevision, List<ResolverWire>> wireMap)
+        throws ResolveException
+    {
+        // Acquire global lock.
+        boolean locked = m_felix.acquireGlobalLock();
+        if (!locked)
+        {
+            throw new ResolveException(
+                "Unable to acquire global lock for resolve.", null, null);
+        }
+
+        if (m_isResolving)
+        {
+            m_felix.releaseGlobalLock();
+            throw new IllegalStateException("Nested resolve operations not allowed.");
+        }
+        m_isResolving = true;
+
+        try
+        {
+            for (BundleRevision br : wireMap.keySet())
+            {
+                if (br.getWiring() != null)
+                {
+                    throw new ResolveException("Revision is already resolved.", br, null);
+                }
+            }
+            markResolvedRevisions(wireMap);
+        }
+        finally
+        {
+            // Clear resolving flag.
+            m_isResolving = false;
+            // Always release the global lock.
+            m_felix.releaseGlobalLock();
+        }
+
+        fireResolvedEvents(wireMap);
+    }
+
     BundleRevision resolve(BundleRevision revision, String pkgName)
         throws ResolveException, BundleException
     {
@@ -1215,7 +1362,7 @@ class StatefulResolver
                     CapabilitySet capSet = m_capSets.get(cap.getNamespace());
                     if (capSet == null)
                     {
-                        capSet = new CapabilitySet(null, true);
+                        capSet = createCapabilitySet(cap.getNamespace());
                         m_capSets.put(cap.getNamespace(), capSet);
                     }
                     capSet.addCapability(cap);
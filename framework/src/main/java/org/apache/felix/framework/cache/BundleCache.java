@@ -68,6 +68,20 @@ import org.osgi.framework.Constants;
  *       string provides control over the size of the internal buffer of the
  *       disk cache for performance reasons.
  *   </li>
+ *   <li><tt>felix.cache.entryindex</tt> - Enables or disables the index
+ *       of the entry names of each bundle JAR file, which is saved in the
+ *       cache and used to look up entries that do not exist without
+ *       accessing the JAR file. This is enabled by default; set this
+ *       property to <tt>false</tt> to disable it.
+ *   </li>
+ *   <li><tt>felix.cache.mmap</tt> - Enables or disables memory mapping of
+ *       bundle JAR files. If enabled, the entries of a bundle JAR file are
+ *       read from a memory mapped copy instead of an open zip file, which
+ *       avoids file descriptor churn when the number of open files is
+ *       limited. Mapped files are only released when garbage collected, so
+ *       on some platforms they cannot be deleted until then. This is
+ *       disabled by default; set this property to <tt>true</tt> to enable it.
+ *   </li>
  * <p>
  * For specific information on how to configure the Felix framework, refer
  * to the Felix framework usage documentation.
@@ -80,6 +94,8 @@ public class BundleCache
     public static final String CACHE_ROOTDIR_PROP = "felix.cache.rootdir";
     public static final String CACHE_LOCKING_PROP = "felix.cache.locking";
     public static final String CACHE_FILELIMIT_PROP = "felix.cache.filelimit";
+    public static final String CACHE_ENTRYINDEX_PROP = "felix.cache.entryindex";
+    public static final String CACHE_MMAP_PROP = "felix.cache.mmap";
     // TODO: CACHE - This should eventually be removed along with the code
     //       supporting the old multi-file bundle cache format.
     public static final String CACHE_SINGLEBUNDLEFILE_PROP = "felix.cache.singlebundlefile";
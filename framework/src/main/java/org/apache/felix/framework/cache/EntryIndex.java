@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+
+/**
+ * A compact index of the entry names of a JAR file, which is used to answer
+ * lookups of entries that do not exist without accessing the JAR file. The
+ * index only stores the hash codes of the entry names, so a lookup of an
+ * entry that the index may contain must still be verified against the
+ * JAR file. The index can be saved to a file in the bundle cache, where it
+ * is valid as long as the length and modification time of the JAR file do
+ * not change.
+**/
+class EntryIndex
+{
+    private static final int VERSION = 1;
+
+    /**
+     * An index that may contain any entry, used when the entries of a JAR
+     * file cannot be indexed.
+    **/
+    static final EntryIndex UNKNOWN = new EntryIndex(null);
+
+    // Sorted hash codes of the entry names.
+    private final int[] m_hashes;
+
+    private EntryIndex(int[] hashes)
+    {
+        m_hashes = hashes;
+    }
+
+    /**
+     * Creates an index of the specified entries.
+     * @param entries the entries of the JAR file.
+     * @return the index of the entries.
+    **/
+    static EntryIndex create(Enumeration<? extends ZipEntry> entries)
+    {
+        int[] hashes = new int[64];
+        int count = 0;
+        while (entries.hasMoreElements())
+        {
+            if (count == hashes.length)
+            {
+                int[] tmp = new int[hashes.length * 2];
+                System.arraycopy(hashes, 0, tmp, 0, count);
+                hashes = tmp;
+            }
+            hashes[count++] = entries.nextElement().getName().hashCode();
+        }
+        int[] result = new int[count];
+        System.arraycopy(hashes, 0, result, 0, count);
+        Arrays.sort(result);
+        return new EntryIndex(result);
+    }
+
+    /**
+     * Returns whether the JAR file may contain the specified entry. Like
+     * <tt>ZipFile.getEntry()</tt>, the name also matches a directory entry
+     * with a trailing slash.
+     * @param name the name of the entry.
+     * @return <tt>false</tt> if the JAR file does not contain the entry,
+     *         otherwise <tt>true</tt>.
+    **/
+    boolean mayContain(String name)
+    {
+        if (m_hashes == null)
+        {
+            return true;
+        }
+        int hash = name.hashCode();
+        return (Arrays.binarySearch(m_hashes, hash) >= 0)
+            || (!name.endsWith("/")
+                && (Arrays.binarySearch(m_hashes, 31 * hash + '/') >= 0));
+    }
+
+    /**
+     * Reads the index of the specified JAR file from the specified index
+     * file.
+     * @param indexFile the file the index was saved to.
+     * @param file the indexed JAR file.
+     * @return the index or <tt>null</tt> if the index file does not exist
+     *         or the JAR file changed since the index was saved.
+     * @throws IOException if the index file cannot be read.
+    **/
+    static EntryIndex read(File indexFile, File file) throws IOException
+    {
+        if (!BundleCache.getSecureAction().fileExists(indexFile))
+        {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            BundleCache.getSecureAction().getFileInputStream(indexFile)));
+        try
+        {
+            if ((in.readInt() != VERSION)
+                || (in.readLong() != file.length())
+                || (in.readLong() != file.lastModified()))
+            {
+                return null;
+            }
+            int[] hashes = new int[in.readInt()];
+            for (int i = 0; i < hashes.length; i++)
+            {
+                hashes[i] = in.readInt();
+            }
+            return new EntryIndex(hashes);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves this index of the specified JAR file to the specified index file.
+     * The index is written to a temporary file first, so concurrent readers
+     * never see a partially written index.
+     * @param indexFile the file to save the index to.
+     * @param file the indexed JAR file.
+     * @throws IOException if the index file cannot be written.
+    **/
+    void write(File indexFile, File file) throws IOException
+    {
+        File tmpFile = BundleCache.getSecureAction().createTempFile(
+            indexFile.getName(), null, indexFile.getParentFile());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            BundleCache.getSecureAction().getFileOutputStream(tmpFile)));
+        try
+        {
+            out.writeInt(VERSION);
+            out.writeLong(file.length());
+            out.writeLong(file.lastModified());
+            out.writeInt(m_hashes.length);
+            for (int i = 0; i < m_hashes.length; i++)
+            {
+                out.writeInt(m_hashes[i]);
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+        BundleCache.getSecureAction().deleteFile(indexFile);
+        if (!BundleCache.getSecureAction().renameFile(tmpFile, indexFile))
+        {
+            BundleCache.getSecureAction().deleteFile(tmpFile);
+            throw new IOException("Unable to rename " + tmpFile + " to " + indexFile);
+        }
+    }
+}
@@ -42,6 +42,7 @@ public class JarContent implements Content
     private static final int BUFSIZE = 4096;
     private static final transient String EMBEDDED_DIRECTORY = "-embedded";
     private static final transient String LIBRARY_DIRECTORY = "-lib";
+    private static final transient String INDEX_FILE = "-index";
 
     private final Logger m_logger;
     private final Map m_configMap;
@@ -52,6 +53,7 @@ public class JarContent implements Content
     private final WeakZipFile m_zipFile;
     private final boolean m_isZipFileOwner;
     private Map m_nativeLibMap;
+    private volatile EntryIndex m_index;
 
     public JarContent(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
         Object revisionLock, File rootDir, File file, WeakZipFile zipFile)
@@ -105,6 +107,10 @@ public class JarContent implements Content
 
     public boolean hasEntry(String name) throws IllegalStateException
     {
+        if (!mayHaveEntry(name))
+        {
+            return false;
+        }
         try
         {
             ZipEntry ze = m_zipFile.getEntry(name);
@@ -136,6 +142,10 @@ public class JarContent implements Content
 
         try
         {
+            if (!mayHaveEntry(name))
+            {
+                return null;
+            }
             ZipEntry ze = m_zipFile.getEntry(name);
             if (ze == null)
             {
@@ -190,6 +200,10 @@ public class JarContent implements Content
 
         try
         {
+            if (!mayHaveEntry(name))
+            {
+                return null;
+            }
             ZipEntry ze = m_zipFile.getEntry(name);
             if (ze == null)
             {
@@ -227,8 +241,10 @@ public class JarContent implements Content
         // just return it immediately.
         if (entryName.equals(FelixConstants.CLASS_PATH_DOT))
         {
-            return new JarContent(m_logger, m_configMap, m_zipFactory, m_revisionLock,
-                m_rootDir, m_file, m_zipFile);
+            JarContent content = new JarContent(m_logger, m_configMap, m_zipFactory,
+                m_revisionLock, m_rootDir, m_file, m_zipFile);
+            content.m_index = m_index;
+            return content;
         }
 
         // Remove any leading slash.
@@ -245,7 +261,7 @@ public class JarContent implements Content
         // Determine if the entry is an emdedded JAR file or
         // directory in the bundle JAR file. Ignore any entries
         // that do not exist per the spec.
-        ZipEntry ze = m_zipFile.getEntry(entryName);
+        ZipEntry ze = (mayHaveEntry(entryName)) ? m_zipFile.getEntry(entryName) : null;
         if ((ze != null) && ze.isDirectory())
         {
             File extractDir = new File(embedDir, entryName);
@@ -432,6 +448,79 @@ public class JarContent implements Content
         return m_file;
     }
 
+    /**
+     * Returns whether the JAR file may contain the specified entry, using
+     * the entry index of the JAR file so that most lookups of entries that
+     * do not exist need not access the JAR file.
+     * @param name the name of the entry.
+     * @return <tt>false</tt> if the JAR file does not contain the entry,
+     *         otherwise <tt>true</tt>.
+    **/
+    private boolean mayHaveEntry(String name)
+    {
+        EntryIndex index = m_index;
+        if (index == null)
+        {
+            index = createIndex();
+            m_index = index;
+        }
+        return index.mayContain(name);
+    }
+
+    /**
+     * Reads the entry index of the JAR file from the bundle cache, or
+     * creates it from the JAR file and saves it to the bundle cache if
+     * it does not exist or is out of date.
+    **/
+    private EntryIndex createIndex()
+    {
+        Object enabled = m_configMap.get(BundleCache.CACHE_ENTRYINDEX_PROP);
+        if ((enabled != null) && !Boolean.valueOf(enabled.toString()).booleanValue())
+        {
+            return EntryIndex.UNKNOWN;
+        }
+
+        File indexFile = new File(m_rootDir, m_file.getName() + INDEX_FILE);
+        try
+        {
+            EntryIndex index = EntryIndex.read(indexFile, m_file);
+            if (index != null)
+            {
+                return index;
+            }
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_DEBUG,
+                "JarContent: Unable to read entry index.", ex);
+        }
+
+        EntryIndex index;
+        try
+        {
+            index = EntryIndex.create(m_zipFile.entries());
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_ERROR,
+                "JarContent: Unable to index JAR file.", ex);
+            return EntryIndex.UNKNOWN;
+        }
+        try
+        {
+            index.write(indexFile, m_file);
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_WARNING,
+                "JarContent: Unable to save entry index.", ex);
+        }
+        return index;
+    }
+
     /**
      * This method extracts an embedded JAR file from the bundle's
      * JAR file.
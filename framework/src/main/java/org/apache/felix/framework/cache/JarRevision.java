@@ -52,6 +52,9 @@ class JarRevision extends BundleArchiveRevision
     private final WeakZipFileFactory m_zipFactory;
     private final File m_bundleFile;
     private final WeakZipFile m_zipFile;
+    // Memory mapped copy of the bundle JAR file, if enabled.
+    private MappedZipFile m_mappedFile;
+    private boolean m_isMappingFailed = false;
 
     public JarRevision(
         Logger logger, Map configMap, WeakZipFileFactory zipFactory,
@@ -107,6 +110,28 @@ class JarRevision extends BundleArchiveRevision
 
     public synchronized Content getContent() throws Exception
     {
+        Object mmap = getConfig().get(BundleCache.CACHE_MMAP_PROP);
+        if ((m_mappedFile == null) && !m_isMappingFailed
+            && (mmap != null) && Boolean.valueOf(mmap.toString()).booleanValue())
+        {
+            try
+            {
+                m_mappedFile = MappedZipFile.open(m_bundleFile);
+            }
+            catch (Exception ex)
+            {
+                // Fall back to reading the JAR file as a zip file.
+                m_isMappingFailed = true;
+                getLogger().log(
+                    Logger.LOG_WARNING,
+                    "Unable to memory map bundle JAR file: " + m_bundleFile, ex);
+            }
+        }
+        if (m_mappedFile != null)
+        {
+            return new MappedJarContent(getLogger(), getConfig(), m_zipFactory,
+                this, getRevisionRootDir(), m_mappedFile, m_zipFile);
+        }
         return new JarContent(getLogger(), getConfig(), m_zipFactory,
             this, getRevisionRootDir(), m_bundleFile, m_zipFile);
     }
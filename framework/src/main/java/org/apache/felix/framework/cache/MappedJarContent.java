@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.WeakZipFileFactory;
+import org.apache.felix.framework.util.WeakZipFileFactory.WeakZipFile;
+
+/**
+ * A content implementation for a bundle JAR file that reads its entries
+ * from a memory mapped copy of the JAR file instead of a
+ * <tt>ZipFile</tt>. Embedded JAR files and directories and native
+ * libraries are still extracted by a <tt>JarContent</tt> for the same
+ * JAR file, which is only created when needed.
+**/
+public class MappedJarContent implements Content
+{
+    private final Logger m_logger;
+    private final Map<?, ?> m_configMap;
+    private final WeakZipFileFactory m_zipFactory;
+    private final Object m_revisionLock;
+    private final File m_rootDir;
+    private final MappedZipFile m_mappedFile;
+    private final WeakZipFile m_zipFile;
+    private JarContent m_jarContent;
+
+    MappedJarContent(Logger logger, Map<?, ?> configMap, WeakZipFileFactory zipFactory,
+        Object revisionLock, File rootDir, MappedZipFile mappedFile, WeakZipFile zipFile)
+    {
+        m_logger = logger;
+        m_configMap = configMap;
+        m_zipFactory = zipFactory;
+        m_revisionLock = revisionLock;
+        m_rootDir = rootDir;
+        m_mappedFile = mappedFile;
+        m_zipFile = zipFile;
+    }
+
+    public synchronized void close()
+    {
+        // The mapped file and zip file are owned by the revision, but
+        // the content used for extracting entries must be closed.
+        if (m_jarContent != null)
+        {
+            m_jarContent.close();
+            m_jarContent = null;
+        }
+    }
+
+    public boolean hasEntry(String name) throws IllegalStateException
+    {
+        return m_mappedFile.hasEntry(name);
+    }
+
+    public Enumeration<String> getEntries()
+    {
+        // Spec says to return null if there are no entries.
+        return (m_mappedFile.getNames().isEmpty())
+            ? null : Collections.enumeration(m_mappedFile.getNames());
+    }
+
+    public byte[] getEntryAsBytes(String name) throws IllegalStateException
+    {
+        try
+        {
+            return m_mappedFile.getEntryAsBytes(name);
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_ERROR,
+                "MappedJarContent: Unable to read bytes.", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the named entry as a byte buffer, which is a read-only slice
+     * of the mapped JAR file if the entry is not compressed.
+     * @param name the name of the entry.
+     * @return the byte buffer or <tt>null</tt> if the entry does not exist.
+    **/
+    public ByteBuffer getEntryAsBuffer(String name)
+    {
+        try
+        {
+            return m_mappedFile.getEntryAsBuffer(name);
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_ERROR,
+                "MappedJarContent: Unable to read bytes.", ex);
+            return null;
+        }
+    }
+
+    public InputStream getEntryAsStream(String name)
+        throws IllegalStateException, IOException
+    {
+        return m_mappedFile.getEntryAsStream(name);
+    }
+
+    public URL getEntryAsURL(String name)
+    {
+        try
+        {
+            return new URL("jar:"
+                + m_mappedFile.getFile().toURI().toURL().toExternalForm() + "!/" + name);
+        }
+        catch (MalformedURLException e)
+        {
+            return null;
+        }
+    }
+
+    public Content getEntryAsContent(String entryName)
+    {
+        // If the entry name refers to the content itself, then
+        // just return a content sharing the mapped file.
+        if (entryName.equals(FelixConstants.CLASS_PATH_DOT))
+        {
+            return new MappedJarContent(m_logger, m_configMap, m_zipFactory,
+                m_revisionLock, m_rootDir, m_mappedFile, m_zipFile);
+        }
+
+        // Embedded directories and JAR files are extracted into the
+        // bundle cache the same way as for JAR contents.
+        String name = (entryName.startsWith("/")) ? entryName.substring(1) : entryName;
+        if (!m_mappedFile.hasEntry(name))
+        {
+            return null;
+        }
+        Content content = getJarContent().getEntryAsContent(name);
+        if (content instanceof ContentDirectoryContent)
+        {
+            content = new ContentDirectoryContent(this, name);
+        }
+        return content;
+    }
+
+    public String getEntryAsNativeLibrary(String entryName)
+    {
+        return getJarContent().getEntryAsNativeLibrary(entryName);
+    }
+
+    public String toString()
+    {
+        return "JAR " + m_mappedFile.getFile().getPath();
+    }
+
+    public File getFile()
+    {
+        return m_mappedFile.getFile();
+    }
+
+    private synchronized JarContent getJarContent()
+    {
+        if (m_jarContent == null)
+        {
+            m_jarContent = new JarContent(m_logger, m_configMap, m_zipFactory,
+                m_revisionLock, m_rootDir, m_mappedFile.getFile(), m_zipFile);
+        }
+        return m_jarContent;
+    }
+}
@@ -0,0 +1,497 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only zip file that is memory mapped instead of being read through
+ * a file descriptor. The central directory is parsed once when the file is
+ * opened; stored entries are then served as slices of the mapped file and
+ * deflated entries are inflated directly from it, using pooled inflaters.
+ * The file descriptor is closed as soon as the file is mapped. Zip64 and
+ * encrypted zip files are not supported.
+**/
+class MappedZipFile
+{
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIG = 0x06054b50;
+    private static final int END_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    // Inflaters hold native memory, so a few are pooled for all files.
+    private static final int MAX_POOLED_INFLATERS = 16;
+    private static final List<Inflater> m_inflaterPool = new ArrayList<Inflater>();
+    // Input buffers for inflating entries, a few are pooled for all files;
+    // larger entries get a buffer of their own.
+    private static final int MAX_POOLED_BUFFERS = 8;
+    private static final int POOLED_BUFFER_SIZE = 64 * 1024;
+    private static final List<byte[]> m_bufferPool = new ArrayList<byte[]>();
+
+    private final File m_file;
+    private final ByteBuffer m_buffer;
+    private final Map<String, Entry> m_entries;
+    private final List<String> m_names;
+
+    private MappedZipFile(File file, ByteBuffer buffer,
+        Map<String, Entry> entries, List<String> names)
+    {
+        m_file = file;
+        m_buffer = buffer;
+        m_entries = entries;
+        m_names = names;
+    }
+
+    /**
+     * Maps the specified zip file and parses its central directory.
+     * @param file the zip file to map.
+     * @return the mapped zip file.
+     * @throws IOException if the file cannot be mapped or is not a
+     *         supported zip file.
+    **/
+    static MappedZipFile open(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new ZipException("File too large to map: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally
+        {
+            // The mapping stays valid after the file is closed.
+            raf.close();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        // Find the end of central directory record, which may be
+        // followed by a comment.
+        int end = -1;
+        for (int i = buffer.limit() - END_SIZE;
+            (i >= 0) && (i >= buffer.limit() - END_SIZE - MAX_COMMENT_SIZE);
+            i--)
+        {
+            if (buffer.getInt(i) == END_SIG)
+            {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0)
+        {
+            throw new ZipException("No central directory found: " + file);
+        }
+        int count = buffer.getShort(end + 10) & 0xFFFF;
+        long cdOffset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+        if ((count == 0xFFFF) || (cdOffset == 0xFFFFFFFFL))
+        {
+            throw new ZipException("Zip64 files are not supported: " + file);
+        }
+
+        Map<String, Entry> entries = new HashMap<String, Entry>(count * 4 / 3 + 1);
+        List<String> names = new ArrayList<String>(count);
+        int pos = (int) cdOffset;
+        for (int i = 0; i < count; i++)
+        {
+            if (buffer.getInt(pos) != CENTRAL_HEADER_SIG)
+            {
+                throw new ZipException("Invalid central directory: " + file);
+            }
+            int flags = buffer.getShort(pos + 8) & 0xFFFF;
+            int method = buffer.getShort(pos + 10) & 0xFFFF;
+            long csize = buffer.getInt(pos + 20) & 0xFFFFFFFFL;
+            long size = buffer.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLen = buffer.getShort(pos + 28) & 0xFFFF;
+            int extraLen = buffer.getShort(pos + 30) & 0xFFFF;
+            int commentLen = buffer.getShort(pos + 32) & 0xFFFF;
+            long offset = buffer.getInt(pos + 42) & 0xFFFFFFFFL;
+            if ((flags & 1) != 0)
+            {
+                throw new ZipException("Encrypted entries are not supported: " + file);
+            }
+            if ((csize == 0xFFFFFFFFL) || (size == 0xFFFFFFFFL)
+                || (offset == 0xFFFFFFFFL))
+            {
+                throw new ZipException("Zip64 files are not supported: " + file);
+            }
+
+            byte[] nameBytes = new byte[nameLen];
+            ByteBuffer dup = buffer.duplicate();
+            dup.position(pos + CENTRAL_HEADER_SIZE);
+            dup.get(nameBytes);
+            String name = new String(nameBytes, "UTF-8");
+
+            Entry entry = new Entry(method, (int) csize, (int) size, (int) offset);
+            if (entries.put(name, entry) == null)
+            {
+                names.add(name);
+            }
+            pos += CENTRAL_HEADER_SIZE + nameLen + extraLen + commentLen;
+        }
+
+        return new MappedZipFile(file, buffer, entries, names);
+    }
+
+    File getFile()
+    {
+        return m_file;
+    }
+
+    /**
+     * Returns the names of all entries in central directory order.
+     * @return the entry names.
+    **/
+    List<String> getNames()
+    {
+        return m_names;
+    }
+
+    /**
+     * Returns whether the zip file contains the specified entry. Like
+     * <tt>ZipFile.getEntry()</tt>, the name also matches a directory entry
+     * with a trailing slash.
+     * @param name the name of the entry.
+     * @return <tt>true</tt> if the entry exists, otherwise <tt>false</tt>.
+    **/
+    boolean hasEntry(String name)
+    {
+        return getEntry(name) != null;
+    }
+
+    /**
+     * Returns the contents of the specified entry, which is a slice of the
+     * mapped file for stored entries.
+     * @param name the name of the entry.
+     * @return the contents of the entry or <tt>null</tt> if it does not exist.
+     * @throws IOException if the entry cannot be read.
+    **/
+    ByteBuffer getEntryAsBuffer(String name) throws IOException
+    {
+        Entry entry = getEntry(name);
+        if (entry == null)
+        {
+            return null;
+        }
+        if (entry.m_method == STORED)
+        {
+            return getData(entry, entry.m_size);
+        }
+        return ByteBuffer.wrap(inflate(entry));
+    }
+
+    /**
+     * Returns the contents of the specified entry as an array of bytes.
+     * @param name the name of the entry.
+     * @return the contents of the entry or <tt>null</tt> if it does not exist.
+     * @throws IOException if the entry cannot be read.
+    **/
+    byte[] getEntryAsBytes(String name) throws IOException
+    {
+        Entry entry = getEntry(name);
+        if (entry == null)
+        {
+            return null;
+        }
+        if (entry.m_method == STORED)
+        {
+            byte[] bytes = new byte[entry.m_size];
+            getData(entry, entry.m_size).get(bytes);
+            return bytes;
+        }
+        return inflate(entry);
+    }
+
+    /**
+     * Returns a stream of the contents of the specified entry, which reads
+     * directly from the mapped file.
+     * @param name the name of the entry.
+     * @return the stream or <tt>null</tt> if the entry does not exist.
+     * @throws IOException if the entry cannot be read.
+    **/
+    InputStream getEntryAsStream(String name) throws IOException
+    {
+        Entry entry = getEntry(name);
+        if (entry == null)
+        {
+            return null;
+        }
+        if (entry.m_method == STORED)
+        {
+            return new ByteBufferInputStream(getData(entry, entry.m_size), false);
+        }
+        checkMethod(entry);
+        final Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(
+            new ByteBufferInputStream(getData(entry, entry.m_csize), true), inflater)
+        {
+            private boolean m_closed = false;
+
+            public void close() throws IOException
+            {
+                if (!m_closed)
+                {
+                    m_closed = true;
+                    inflater.end();
+                    super.close();
+                }
+            }
+        };
+    }
+
+    private Entry getEntry(String name)
+    {
+        Entry entry = m_entries.get(name);
+        if ((entry == null) && !name.endsWith("/"))
+        {
+            entry = m_entries.get(name + "/");
+        }
+        return entry;
+    }
+
+    private ByteBuffer getData(Entry entry, int length) throws IOException
+    {
+        int offset = entry.m_dataOffset;
+        if (offset < 0)
+        {
+            // The local header may have a different extra field length
+            // than the central directory header.
+            if (m_buffer.getInt(entry.m_offset) != LOCAL_HEADER_SIG)
+            {
+                throw new ZipException("Invalid local header: " + m_file);
+            }
+            offset = entry.m_offset + LOCAL_HEADER_SIZE
+                + (m_buffer.getShort(entry.m_offset + 26) & 0xFFFF)
+                + (m_buffer.getShort(entry.m_offset + 28) & 0xFFFF);
+            entry.m_dataOffset = offset;
+        }
+        ByteBuffer data = m_buffer.duplicate();
+        data.limit(offset + length);
+        data.position(offset);
+        return data.slice();
+    }
+
+    private byte[] inflate(Entry entry) throws IOException
+    {
+        checkMethod(entry);
+
+        // The inflater can only read from arrays, so the compressed data
+        // is copied into a reused buffer. An extra dummy byte is needed
+        // at the end of the input when inflating without a zlib header.
+        byte[] input = getBuffer(entry.m_csize + 1);
+        Inflater inflater = null;
+        try
+        {
+            getData(entry, entry.m_csize).get(input, 0, entry.m_csize);
+            input[entry.m_csize] = 0;
+
+            byte[] output = new byte[entry.m_size];
+            inflater = getInflater();
+            inflater.setInput(input, 0, entry.m_csize + 1);
+            int n = 0;
+            while (n < output.length)
+            {
+                int count = inflater.inflate(output, n, output.length - n);
+                if ((count == 0) && (inflater.finished() || inflater.needsInput()
+                    || inflater.needsDictionary()))
+                {
+                    break;
+                }
+                n += count;
+            }
+            if (n != output.length)
+            {
+                throw new ZipException("Invalid entry size: " + m_file);
+            }
+            return output;
+        }
+        catch (DataFormatException ex)
+        {
+            throw new ZipException("Invalid entry data: " + ex.getMessage());
+        }
+        finally
+        {
+            if (inflater != null)
+            {
+                releaseInflater(inflater);
+            }
+            releaseBuffer(input);
+        }
+    }
+
+    private void checkMethod(Entry entry) throws IOException
+    {
+        if (entry.m_method != DEFLATED)
+        {
+            throw new ZipException("Unsupported compression method "
+                + entry.m_method + ": " + m_file);
+        }
+    }
+
+    private static byte[] getBuffer(int size)
+    {
+        if (size <= POOLED_BUFFER_SIZE)
+        {
+            synchronized (m_bufferPool)
+            {
+                if (!m_bufferPool.isEmpty())
+                {
+                    return m_bufferPool.remove(m_bufferPool.size() - 1);
+                }
+            }
+            return new byte[POOLED_BUFFER_SIZE];
+        }
+        return new byte[size];
+    }
+
+    private static void releaseBuffer(byte[] buffer)
+    {
+        if (buffer.length == POOLED_BUFFER_SIZE)
+        {
+            synchronized (m_bufferPool)
+            {
+                if (m_bufferPool.size() < MAX_POOLED_BUFFERS)
+                {
+                    m_bufferPool.add(buffer);
+                }
+            }
+        }
+    }
+
+    private static Inflater getInflater()
+    {
+        synchronized (m_inflaterPool)
+        {
+            if (!m_inflaterPool.isEmpty())
+            {
+                return m_inflaterPool.remove(m_inflaterPool.size() - 1);
+            }
+        }
+        return new Inflater(true);
+    }
+
+    private static void releaseInflater(Inflater inflater)
+    {
+        inflater.reset();
+        synchronized (m_inflaterPool)
+        {
+            if (m_inflaterPool.size() < MAX_POOLED_INFLATERS)
+            {
+                m_inflaterPool.add(inflater);
+                return;
+            }
+        }
+        inflater.end();
+    }
+
+    private static class Entry
+    {
+        private final int m_method;
+        private final int m_csize;
+        private final int m_size;
+        private final int m_offset;
+        private volatile int m_dataOffset = -1;
+
+        Entry(int method, int csize, int size, int offset)
+        {
+            m_method = method;
+            m_csize = csize;
+            m_size = size;
+            m_offset = offset;
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer m_buffer;
+        // Whether a dummy byte is returned at the end, as needed
+        // by inflaters without a zlib header.
+        private boolean m_dummy;
+
+        ByteBufferInputStream(ByteBuffer buffer, boolean dummy)
+        {
+            m_buffer = buffer;
+            m_dummy = dummy;
+        }
+
+        public int read()
+        {
+            if (m_buffer.hasRemaining())
+            {
+                return m_buffer.get() & 0xFF;
+            }
+            else if (m_dummy)
+            {
+                m_dummy = false;
+                return 0;
+            }
+            return -1;
+        }
+
+        public int read(byte[] b, int off, int len)
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (!m_buffer.hasRemaining())
+            {
+                if (m_dummy)
+                {
+                    m_dummy = false;
+                    b[off] = 0;
+                    return 1;
+                }
+                return -1;
+            }
+            len = Math.min(len, m_buffer.remaining());
+            m_buffer.get(b, off, len);
+            return len;
+        }
+
+        public int available()
+        {
+            return m_buffer.remaining() + (m_dummy ? 1 : 0);
+        }
+    }
+}
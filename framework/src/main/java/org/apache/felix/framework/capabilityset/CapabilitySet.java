@@ -23,7 +23,9 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -31,7 +33,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.StringTokenizer;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.felix.framework.util.SecureAction;
 import org.apache.felix.framework.util.StringComparator;
 import org.apache.felix.framework.wiring.BundleCapabilityImpl;
@@ -39,19 +43,39 @@ import org.osgi.framework.wiring.BundleCapability;
 
 public class CapabilitySet
 {
-    private final Map<String, Map<Object, Set<BundleCapability>>> m_indices;
-    private final Set<BundleCapability> m_capSet = new HashSet<BundleCapability>();
+    // Writers are serialized on this capability set, while readers never
+    // lock. Index buckets are concurrent maps that are modified in place,
+    // so a matching thread sees a weakly consistent view of each bucket it
+    // reads, just as with the capability set itself. The sorted maps of
+    // range indices are replaced whenever a value is added or removed, so
+    // readers always see an immutable snapshot of their keys.
+    private final Map<String, Map<Object, Map<BundleCapability, Boolean>>> m_indices;
+    private final Map<String, RangeIndex> m_rangeIndices;
+    private final List<CompositeIndex> m_compositeIndices;
+    private final boolean m_caseSensitive;
+    // Maps each capability to the values of its indexed attributes as they
+    // were last indexed, since the attributes of some capabilities, such as
+    // service references, change in place.
+    private final Map<BundleCapability, Map<String, Object>> m_capSet =
+        new ConcurrentHashMap<BundleCapability, Map<String, Object>>();
+    // The names of all attributes used by any index.
+    private final Set<String> m_indexedAttrs = new HashSet<String>();
     private final static SecureAction m_secureAction = new SecureAction();
 
+    // Index key for capabilities whose attribute values are not strings;
+    // since filter values are strings, these capabilities cannot be found
+    // by value and must always be compared.
+    private static final Object UNINDEXED = new Object();
+
     public void dump()
     {
-        for (Entry<String, Map<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
+        for (Entry<String, Map<Object, Map<BundleCapability, Boolean>>> entry : m_indices.entrySet())
         {
             boolean header1 = false;
-            for (Entry<Object, Set<BundleCapability>> entry2 : entry.getValue().entrySet())
+            for (Entry<Object, Map<BundleCapability, Boolean>> entry2 : entry.getValue().entrySet())
             {
                 boolean header2 = false;
-                for (BundleCapability cap : entry2.getValue())
+                for (BundleCapability cap : entry2.getValue().keySet())
                 {
                     if (cap.getRevision().getBundle().getBundleId() != 0)
                     {
@@ -74,112 +98,267 @@ public class CapabilitySet
 
     public CapabilitySet(List<String> indexProps, boolean caseSensitive)
     {
+        this(indexProps, null, caseSensitive);
+    }
+
+    /**
+     * Creates a capability set with the specified indices. Exact indices
+     * are used for equality filters; an exact index entry that joins several
+     * attribute names with '<tt>+</tt>' (e.g., "<tt>objectClass+service.pid</tt>")
+     * defines a composite index, which is used for AND filters that test all
+     * of its attributes for equality. Range indices keep attribute values
+     * sorted and are used for equality, less-than, and greater-than filters.
+     * @param indexProps the attributes to index by exact value, may be null.
+     * @param rangeIndexProps the attributes to index by sorted value, may be null.
+     * @param caseSensitive whether attribute names are case sensitive.
+    **/
+    public CapabilitySet(
+        List<String> indexProps, List<String> rangeIndexProps, boolean caseSensitive)
+    {
+        m_caseSensitive = caseSensitive;
         m_indices = (caseSensitive)
-            ? new TreeMap<String, Map<Object, Set<BundleCapability>>>()
-            : new TreeMap<String, Map<Object, Set<BundleCapability>>>(
+            ? new TreeMap<String, Map<Object, Map<BundleCapability, Boolean>>>()
+            : new TreeMap<String, Map<Object, Map<BundleCapability, Boolean>>>(
                 new StringComparator(false));
+        m_rangeIndices = (caseSensitive)
+            ? new TreeMap<String, RangeIndex>()
+            : new TreeMap<String, RangeIndex>(new StringComparator(false));
+        m_compositeIndices = new ArrayList<CompositeIndex>();
         for (int i = 0; (indexProps != null) && (i < indexProps.size()); i++)
         {
-            m_indices.put(
-                indexProps.get(i), new HashMap<Object, Set<BundleCapability>>());
+            String indexProp = indexProps.get(i);
+            if (indexProp.indexOf('+') >= 0)
+            {
+                List<String> attrs = new ArrayList<String>();
+                StringTokenizer st = new StringTokenizer(indexProp, "+");
+                while (st.hasMoreTokens())
+                {
+                    attrs.add(st.nextToken().trim());
+                }
+                m_compositeIndices.add(
+                    new CompositeIndex(attrs.toArray(new String[attrs.size()])));
+            }
+            else
+            {
+                m_indices.put(
+                    indexProp, new ConcurrentHashMap<Object, Map<BundleCapability, Boolean>>());
+            }
+        }
+        for (int i = 0; (rangeIndexProps != null) && (i < rangeIndexProps.size()); i++)
+        {
+            m_rangeIndices.put(rangeIndexProps.get(i), new RangeIndex());
+        }
+        m_indexedAttrs.addAll(m_indices.keySet());
+        for (CompositeIndex compositeIndex : m_compositeIndices)
+        {
+            m_indexedAttrs.addAll(Arrays.asList(compositeIndex.m_attrs));
+        }
+        m_indexedAttrs.addAll(m_rangeIndices.keySet());
+    }
+
+    /**
+     * Returns the values of the indexed attributes of the given attributes.
+    **/
+    private Map<String, Object> getIndexedValues(Map<String, Object> attrs)
+    {
+        if (m_indexedAttrs.isEmpty())
+        {
+            return Collections.emptyMap();
         }
+        Map<String, Object> values = new HashMap<String, Object>(m_indexedAttrs.size() * 2);
+        for (String attr : m_indexedAttrs)
+        {
+            Object value = attrs.get(attr);
+            if (value != null)
+            {
+                values.put(attr, value);
+            }
+        }
+        return values;
     }
 
-    public void addCapability(BundleCapability cap)
+    public synchronized void addCapability(BundleCapability cap)
     {
-        m_capSet.add(cap);
+        Map<String, Object> attrs = getIndexedValues(cap.getAttributes());
+        m_capSet.put(cap, attrs);
 
         // Index capability.
-        for (Entry<String, Map<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
+        for (Entry<String, Map<Object, Map<BundleCapability, Boolean>>> entry : m_indices.entrySet())
         {
-            Object value = cap.getAttributes().get(entry.getKey());
-            if (value != null)
+            indexCapability(entry.getValue(), cap, attrs.get(entry.getKey()));
+        }
+        for (CompositeIndex compositeIndex : m_compositeIndices)
+        {
+            compositeIndex.add(cap, attrs);
+        }
+        for (Entry<String, RangeIndex> entry : m_rangeIndices.entrySet())
+        {
+            entry.getValue().add(cap, attrs.get(entry.getKey()));
+        }
+    }
+
+    public synchronized void removeCapability(BundleCapability cap)
+    {
+        // Remove the capability from the indices using the values it was
+        // indexed with.
+        Map<String, Object> attrs = m_capSet.remove(cap);
+        if (attrs != null)
+        {
+            for (Entry<String, Map<Object, Map<BundleCapability, Boolean>>> entry : m_indices.entrySet())
             {
-                if (value.getClass().isArray())
+                deindexCapability(entry.getValue(), cap, attrs.get(entry.getKey()));
+            }
+            for (CompositeIndex compositeIndex : m_compositeIndices)
+            {
+                compositeIndex.remove(cap, attrs);
+            }
+            for (Entry<String, RangeIndex> entry : m_rangeIndices.entrySet())
+            {
+                entry.getValue().remove(cap, attrs.get(entry.getKey()));
+            }
+        }
+    }
+
+    /**
+     * Re-indexes a capability whose attributes have changed, such as a
+     * service reference whose service properties were modified. The current
+     * attributes are compared with the values the capability was last
+     * indexed with, so concurrent updates of a capability leave it indexed
+     * by its latest attributes regardless of the order they are applied in.
+     * Only the indices over changed attributes are touched, so concurrent
+     * matching keeps finding the capability through its unchanged attributes.
+     * @param cap the capability whose attributes have changed.
+    **/
+    public synchronized void updateCapability(BundleCapability cap)
+    {
+        Map<String, Object> oldAttrs = m_capSet.get(cap);
+        if (oldAttrs != null)
+        {
+            Map<String, Object> attrs = getIndexedValues(cap.getAttributes());
+            m_capSet.put(cap, attrs);
+            for (Entry<String, Map<Object, Map<BundleCapability, Boolean>>> entry : m_indices.entrySet())
+            {
+                Object oldValue = oldAttrs.get(entry.getKey());
+                Object value = attrs.get(entry.getKey());
+                if (!isSameValue(oldValue, value))
                 {
-                    value = convertArrayToList(value);
+                    deindexCapability(entry.getValue(), cap, oldValue);
+                    indexCapability(entry.getValue(), cap, value);
                 }
-
-                Map<Object, Set<BundleCapability>> index = entry.getValue();
-
-                if (value instanceof Collection)
+            }
+            for (CompositeIndex compositeIndex : m_compositeIndices)
+            {
+                for (String attr : compositeIndex.m_attrs)
                 {
-                    Collection c = (Collection) value;
-                    for (Object o : c)
+                    if (!isSameValue(oldAttrs.get(attr), attrs.get(attr)))
                     {
-                        indexCapability(index, cap, o);
+                        compositeIndex.remove(cap, oldAttrs);
+                        compositeIndex.add(cap, attrs);
+                        break;
                     }
                 }
-                else
+            }
+            for (Entry<String, RangeIndex> entry : m_rangeIndices.entrySet())
+            {
+                Object oldValue = oldAttrs.get(entry.getKey());
+                Object value = attrs.get(entry.getKey());
+                if (!isSameValue(oldValue, value))
                 {
-                    indexCapability(index, cap, value);
+                    entry.getValue().remove(cap, oldValue);
+                    entry.getValue().add(cap, value);
                 }
             }
         }
     }
 
-    private void indexCapability(
-        Map<Object, Set<BundleCapability>> index, BundleCapability cap, Object capValue)
+    private static boolean isSameValue(Object oldValue, Object value)
     {
-        Set<BundleCapability> caps = index.get(capValue);
-        if (caps == null)
+        if ((oldValue != null) && oldValue.getClass().isArray())
         {
-            caps = new HashSet<BundleCapability>();
-            index.put(capValue, caps);
+            oldValue = convertArrayToList(oldValue);
         }
-        caps.add(cap);
+        if ((value != null) && value.getClass().isArray())
+        {
+            value = convertArrayToList(value);
+        }
+        return (oldValue == null) ? (value == null) : oldValue.equals(value);
     }
 
-    public void removeCapability(BundleCapability cap)
+    private static void indexCapability(
+        Map<Object, Map<BundleCapability, Boolean>> index, BundleCapability cap, Object value)
     {
-        if (m_capSet.remove(cap))
+        if (value != null)
         {
-            for (Entry<String, Map<Object, Set<BundleCapability>>> entry : m_indices.entrySet())
+            if (value.getClass().isArray())
             {
-                Object value = cap.getAttributes().get(entry.getKey());
-                if (value != null)
-                {
-                    if (value.getClass().isArray())
-                    {
-                        value = convertArrayToList(value);
-                    }
-
-                    Map<Object, Set<BundleCapability>> index = entry.getValue();
+                value = convertArrayToList(value);
+            }
 
-                    if (value instanceof Collection)
-                    {
-                        Collection c = (Collection) value;
-                        for (Object o : c)
-                        {
-                            deindexCapability(index, cap, o);
-                        }
-                    }
-                    else
-                    {
-                        deindexCapability(index, cap, value);
-                    }
+            if (value instanceof Collection)
+            {
+                Collection c = (Collection) value;
+                for (Object o : c)
+                {
+                    addToBucket(index, cap, (o instanceof String) ? o : UNINDEXED);
                 }
             }
+            else
+            {
+                addToBucket(index, cap, (value instanceof String) ? value : UNINDEXED);
+            }
         }
     }
 
-    private void deindexCapability(
-        Map<Object, Set<BundleCapability>> index, BundleCapability cap, Object value)
+    private static void deindexCapability(
+        Map<Object, Map<BundleCapability, Boolean>> index, BundleCapability cap, Object value)
     {
-        Set<BundleCapability> caps = index.get(value);
-        if (caps != null)
+        if (value != null)
         {
-            caps.remove(cap);
-            if (caps.isEmpty())
+            if (value.getClass().isArray())
+            {
+                value = convertArrayToList(value);
+            }
+
+            if (value instanceof Collection)
+            {
+                Collection c = (Collection) value;
+                for (Object o : c)
+                {
+                    removeFromBucket(index, cap, (o instanceof String) ? o : UNINDEXED);
+                }
+            }
+            else
             {
-                index.remove(value);
+                removeFromBucket(index, cap, (value instanceof String) ? value : UNINDEXED);
             }
         }
     }
 
+    private static void addToBucket(
+        Map<Object, Map<BundleCapability, Boolean>> index, BundleCapability cap, Object key)
+    {
+        Map<BundleCapability, Boolean> caps = index.get(key);
+        if (caps == null)
+        {
+            caps = new ConcurrentHashMap<BundleCapability, Boolean>(4);
+            index.put(key, caps);
+        }
+        caps.put(cap, Boolean.TRUE);
+    }
+
+    private static void removeFromBucket(
+        Map<Object, Map<BundleCapability, Boolean>> index, BundleCapability cap, Object key)
+    {
+        Map<BundleCapability, Boolean> caps = index.get(key);
+        if ((caps != null) && (caps.remove(cap) != null) && caps.isEmpty())
+        {
+            index.remove(key);
+        }
+    }
+
     public Set<BundleCapability> match(SimpleFilter sf, boolean obeyMandatory)
     {
-        Set<BundleCapability> matches = match(m_capSet, sf);
+        Set<BundleCapability> matches = match(m_capSet.keySet(), sf);
         return (obeyMandatory)
             ? matchMandatory(matches, sf)
             : matches;
@@ -195,11 +374,23 @@ public class CapabilitySet
         }
         else if (sf.getOperation() == SimpleFilter.AND)
         {
+            List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
+
+            // If a composite index covers the filter, then use it to
+            // narrow down the capabilities to evaluate.
+            Set<BundleCapability> indexed = matchComposite(caps, sfs);
+            if (indexed != null)
+            {
+                caps = indexed;
+            }
+
             // Evaluate each subfilter against the remaining capabilities.
             // For AND we calculate the intersection of each subfilter.
             // We can short-circuit the AND operation if there are no
-            // remaining capabilities.
-            List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
+            // remaining capabilities. Subfilters that can be answered
+            // from an index are evaluated first, since they are cheap
+            // and leave fewer capabilities for the others to scan.
+            sfs = orderByIndex(sfs);
             for (int i = 0; (caps.size() > 0) && (i < sfs.size()); i++)
             {
                 matches = match(caps, sfs.get(i));
@@ -229,34 +420,413 @@ public class CapabilitySet
         }
         else
         {
-            Map<Object, Set<BundleCapability>> index = m_indices.get(sf.getName());
+            Map<Object, Map<BundleCapability, Boolean>> index = m_indices.get(sf.getName());
+            RangeIndex rangeIndex = m_rangeIndices.get(sf.getName());
             if ((sf.getOperation() == SimpleFilter.EQ) && (index != null))
             {
-                Set<BundleCapability> existingCaps = index.get(sf.getValue());
+                Map<BundleCapability, Boolean> existingCaps = index.get(sf.getValue());
                 if (existingCaps != null)
                 {
-                    matches.addAll(existingCaps);
-                    matches.retainAll(caps);
+                    retainAll(matches, existingCaps.keySet(), caps);
+                }
+                existingCaps = index.get(UNINDEXED);
+                if (existingCaps != null)
+                {
+                    compareAll(matches, existingCaps.keySet(), caps, sf);
                 }
             }
+            else if (isRangeOperation(sf.getOperation()) && (rangeIndex != null))
+            {
+                rangeIndex.match(matches, caps, sf);
+            }
             else
             {
-                for (Iterator<BundleCapability> it = caps.iterator(); it.hasNext(); )
+                compareAll(matches, caps, null, sf);
+            }
+        }
+
+        return matches;
+    }
+
+    /**
+     * Adds all capabilities of the first set that are contained in the
+     * second set to the result set.
+    **/
+    private static void retainAll(
+        Set<BundleCapability> result, Set<BundleCapability> caps,
+        Set<BundleCapability> retain)
+    {
+        for (BundleCapability cap : caps)
+        {
+            if (retain.contains(cap))
+            {
+                result.add(cap);
+            }
+        }
+    }
+
+    /**
+     * Compares each capability of the first set against the specified
+     * filter and adds it to the result set if it matches. If a second set
+     * is specified, only capabilities also contained in it are compared.
+    **/
+    private static void compareAll(
+        Set<BundleCapability> result, Set<BundleCapability> caps,
+        Set<BundleCapability> retain, SimpleFilter sf)
+    {
+        for (Iterator<BundleCapability> it = caps.iterator(); it.hasNext(); )
+        {
+            BundleCapability cap = it.next();
+            if ((retain == null) || retain.contains(cap))
+            {
+                Object lhs = cap.getAttributes().get(sf.getName());
+                if (lhs != null)
                 {
-                    BundleCapability cap = it.next();
-                    Object lhs = cap.getAttributes().get(sf.getName());
-                    if (lhs != null)
+                    if (compare(lhs, sf))
                     {
-                        if (compare(lhs, sf.getValue(), sf.getOperation()))
+                        result.add(cap);
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isRangeOperation(int op)
+    {
+        return (op == SimpleFilter.EQ)
+            || (op == SimpleFilter.GTE)
+            || (op == SimpleFilter.LTE);
+    }
+
+    private boolean isIndexed(SimpleFilter sf)
+    {
+        return ((sf.getOperation() == SimpleFilter.EQ) && m_indices.containsKey(sf.getName()))
+            || (isRangeOperation(sf.getOperation()) && m_rangeIndices.containsKey(sf.getName()));
+    }
+
+    private List<SimpleFilter> orderByIndex(List<SimpleFilter> sfs)
+    {
+        List<SimpleFilter> ordered = null;
+        for (int i = 0; i < sfs.size(); i++)
+        {
+            if ((i > 0) && isIndexed(sfs.get(i)) && !isIndexed(sfs.get(i - 1)))
+            {
+                ordered = new ArrayList<SimpleFilter>(sfs.size());
+                break;
+            }
+        }
+        if (ordered == null)
+        {
+            return sfs;
+        }
+        for (SimpleFilter sf : sfs)
+        {
+            if (isIndexed(sf))
+            {
+                ordered.add(sf);
+            }
+        }
+        for (SimpleFilter sf : sfs)
+        {
+            if (!isIndexed(sf))
+            {
+                ordered.add(sf);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * Returns the capabilities that may match the specified AND subfilters
+     * according to the first composite index whose attributes are all tested
+     * for equality by the subfilters, or null if no composite index applies.
+     * The returned capabilities still have to be evaluated against all of
+     * the subfilters.
+    **/
+    private Set<BundleCapability> matchComposite(
+        Set<BundleCapability> caps, List<SimpleFilter> sfs)
+    {
+        for (CompositeIndex compositeIndex : m_compositeIndices)
+        {
+            List<String> key = compositeIndex.getKey(sfs, m_caseSensitive);
+            if (key != null)
+            {
+                Set<BundleCapability> matches = new HashSet<BundleCapability>();
+                Map<BundleCapability, Boolean> existingCaps =
+                    compositeIndex.m_index.get(key);
+                if (existingCaps != null)
+                {
+                    retainAll(matches, existingCaps.keySet(), caps);
+                }
+                existingCaps = compositeIndex.m_index.get(UNINDEXED);
+                if (existingCaps != null)
+                {
+                    retainAll(matches, existingCaps.keySet(), caps);
+                }
+                return matches;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * An exact-value index over the combination of several attributes. Each
+     * capability is indexed under every combination of its attribute values.
+    **/
+    private static class CompositeIndex
+    {
+        private final String[] m_attrs;
+        private final Map<Object, Map<BundleCapability, Boolean>> m_index =
+            new ConcurrentHashMap<Object, Map<BundleCapability, Boolean>>();
+
+        CompositeIndex(String[] attrs)
+        {
+            m_attrs = attrs;
+        }
+
+        void add(BundleCapability cap, Map<String, Object> attrs)
+        {
+            for (Object key : getKeys(attrs))
+            {
+                addToBucket(m_index, cap, key);
+            }
+        }
+
+        void remove(BundleCapability cap, Map<String, Object> attrs)
+        {
+            for (Object key : getKeys(attrs))
+            {
+                removeFromBucket(m_index, cap, key);
+            }
+        }
+
+        private List<Object> getKeys(Map<String, Object> attrs)
+        {
+            List<List<Object>> keys = new ArrayList<List<Object>>();
+            keys.add(new ArrayList<Object>(m_attrs.length));
+            for (String attr : m_attrs)
+            {
+                Object value = attrs.get(attr);
+                if (value == null)
+                {
+                    // The capability cannot match an equality filter
+                    // on all attributes, so it need not be indexed.
+                    return Collections.EMPTY_LIST;
+                }
+                if (value.getClass().isArray())
+                {
+                    value = convertArrayToList(value);
+                }
+                Collection values = (value instanceof Collection)
+                    ? (Collection) value : Collections.singletonList(value);
+                List<List<Object>> newKeys = new ArrayList<List<Object>>();
+                for (List<Object> key : keys)
+                {
+                    for (Object o : values)
+                    {
+                        if (!(o instanceof String))
                         {
-                            matches.add(cap);
+                            return Collections.singletonList(UNINDEXED);
                         }
+                        List<Object> newKey = new ArrayList<Object>(key);
+                        newKey.add(o);
+                        newKeys.add(newKey);
                     }
                 }
+                keys = newKeys;
             }
+            return (List) keys;
         }
 
-        return matches;
+        List<String> getKey(List<SimpleFilter> sfs, boolean caseSensitive)
+        {
+            List<String> key = new ArrayList<String>(m_attrs.length);
+            for (String attr : m_attrs)
+            {
+                String value = null;
+                for (SimpleFilter sf : sfs)
+                {
+                    if ((sf.getOperation() == SimpleFilter.EQ)
+                        && (sf.getValue() instanceof String)
+                        && (caseSensitive
+                            ? attr.equals(sf.getName())
+                            : attr.equalsIgnoreCase(sf.getName())))
+                    {
+                        value = (String) sf.getValue();
+                        break;
+                    }
+                }
+                if (value == null)
+                {
+                    return null;
+                }
+                key.add(value);
+            }
+            return key;
+        }
+    }
+
+    /**
+     * A sorted index over the values of an attribute. Values are kept in
+     * one sorted map per value type, since comparisons are performed in
+     * the type of the attribute value. Capabilities with values that are
+     * not comparable are kept aside and always compared.
+    **/
+    private static class RangeIndex
+    {
+        // The sorted maps are copied whenever a key is added or removed and
+        // are never modified once published; the buckets of capabilities
+        // are modified in place.
+        private volatile Map<Class<?>, TreeMap<Object, Map<BundleCapability, Boolean>>> m_sorted =
+            Collections.emptyMap();
+        private final Map<BundleCapability, Boolean> m_unindexed =
+            new ConcurrentHashMap<BundleCapability, Boolean>();
+
+        void add(BundleCapability cap, Object value)
+        {
+            if (value == null)
+            {
+                return;
+            }
+            if (value.getClass().isArray())
+            {
+                value = convertArrayToList(value);
+            }
+            if (value instanceof Collection)
+            {
+                for (Object o : (Collection<?>) value)
+                {
+                    add(cap, o);
+                }
+            }
+            else if ((value instanceof Comparable) && !(value instanceof Boolean))
+            {
+                TreeMap<Object, Map<BundleCapability, Boolean>> sorted =
+                    m_sorted.get(value.getClass());
+                Map<BundleCapability, Boolean> caps =
+                    (sorted == null) ? null : sorted.get(value);
+                if (caps == null)
+                {
+                    caps = new ConcurrentHashMap<BundleCapability, Boolean>(4);
+                    sorted = (sorted == null)
+                        ? new TreeMap<Object, Map<BundleCapability, Boolean>>()
+                        : new TreeMap<Object, Map<BundleCapability, Boolean>>(sorted);
+                    sorted.put(value, caps);
+                    publish(value.getClass(), sorted);
+                }
+                caps.put(cap, Boolean.TRUE);
+            }
+            else
+            {
+                m_unindexed.put(cap, Boolean.TRUE);
+            }
+        }
+
+        void remove(BundleCapability cap, Object value)
+        {
+            if (value == null)
+            {
+                return;
+            }
+            if (value.getClass().isArray())
+            {
+                value = convertArrayToList(value);
+            }
+            if (value instanceof Collection)
+            {
+                for (Object o : (Collection<?>) value)
+                {
+                    remove(cap, o);
+                }
+            }
+            else if ((value instanceof Comparable) && !(value instanceof Boolean))
+            {
+                TreeMap<Object, Map<BundleCapability, Boolean>> sorted =
+                    m_sorted.get(value.getClass());
+                Map<BundleCapability, Boolean> caps =
+                    (sorted == null) ? null : sorted.get(value);
+                if ((caps != null) && (caps.remove(cap) != null) && caps.isEmpty())
+                {
+                    sorted = new TreeMap<Object, Map<BundleCapability, Boolean>>(sorted);
+                    sorted.remove(value);
+                    publish(value.getClass(), sorted.isEmpty() ? null : sorted);
+                }
+            }
+            else
+            {
+                m_unindexed.remove(cap);
+            }
+        }
+
+        private void publish(
+            Class<?> clazz, TreeMap<Object, Map<BundleCapability, Boolean>> sorted)
+        {
+            Map<Class<?>, TreeMap<Object, Map<BundleCapability, Boolean>>> copy =
+                new HashMap<Class<?>, TreeMap<Object, Map<BundleCapability, Boolean>>>(
+                    m_sorted);
+            if (sorted == null)
+            {
+                copy.remove(clazz);
+            }
+            else
+            {
+                copy.put(clazz, sorted);
+            }
+            m_sorted = copy;
+        }
+
+        void match(Set<BundleCapability> result, Set<BundleCapability> caps, SimpleFilter sf)
+        {
+            for (TreeMap<Object, Map<BundleCapability, Boolean>> sorted : m_sorted.values())
+            {
+                // Coerce the filter value to the type of this map, using
+                // any of its keys as the sample value.
+                Object rhs = coerceType(sorted.firstKey(), sf);
+                if (rhs == UNCOERCIBLE)
+                {
+                    continue;
+                }
+                try
+                {
+                    Map<BundleCapability, Boolean> existingCaps;
+                    switch (sf.getOperation())
+                    {
+                        case SimpleFilter.EQ :
+                            existingCaps = sorted.get(rhs);
+                            if (existingCaps != null)
+                            {
+                                retainAll(result, existingCaps.keySet(), caps);
+                            }
+                            break;
+                        case SimpleFilter.LTE :
+                            existingCaps = sorted.get(rhs);
+                            if (existingCaps != null)
+                            {
+                                retainAll(result, existingCaps.keySet(), caps);
+                            }
+                            for (Map<BundleCapability, Boolean> c
+                                : sorted.headMap(rhs).values())
+                            {
+                                retainAll(result, c.keySet(), caps);
+                            }
+                            break;
+                        case SimpleFilter.GTE :
+                            for (Map<BundleCapability, Boolean> c
+                                : sorted.tailMap(rhs).values())
+                            {
+                                retainAll(result, c.keySet(), caps);
+                            }
+                            break;
+                    }
+                }
+                catch (ClassCastException ex)
+                {
+                    // The coerced value is not comparable to the keys,
+                    // so none of them match.
+                }
+            }
+            compareAll(result, m_unindexed.keySet(), caps, sf);
+        }
     }
 
     public static boolean matches(BundleCapability cap, SimpleFilter sf)
@@ -311,7 +881,7 @@ public class CapabilitySet
             Object lhs = cap.getAttributes().get(sf.getName());
             if (lhs != null)
             {
-                matched = compare(lhs, sf.getValue(), sf.getOperation());
+                matched = compare(lhs, sf);
             }
         }
 
@@ -370,14 +940,19 @@ public class CapabilitySet
 
     private static final Class<?>[] STRING_CLASS = new Class[] { String.class };
     private static final String VALUE_OF_METHOD_NAME = "valueOf";
+    // Cached in place of a coerced filter value when the value cannot
+    // be converted to the attribute type.
+    private static final Object UNCOERCIBLE = new Object();
 
-    private static boolean compare(Object lhs, Object rhsUnknown, int op)
+    private static boolean compare(Object lhs, SimpleFilter sf)
     {
         if (lhs == null)
         {
             return false;
         }
 
+        int op = sf.getOperation();
+
         // If this is a PRESENT operation, then just return true immediately
         // since we wouldn't be here if the attribute wasn't present.
         if (op == SimpleFilter.PRESENT)
@@ -398,15 +973,12 @@ public class CapabilitySet
             Object rhs;
             if (op == SimpleFilter.SUBSTRING)
             {
-                rhs = rhsUnknown;
+                rhs = sf.getValue();
             }
             else
             {
-                try
-                {
-                    rhs = coerceType(lhs, (String) rhsUnknown);
-                }
-                catch (Exception ex)
+                rhs = coerceType(lhs, sf);
+                if (rhs == UNCOERCIBLE)
                 {
                     return false;
                 }
@@ -453,12 +1025,8 @@ public class CapabilitySet
         // Booleans do not implement comparable, so special case them.
         else if (lhs instanceof Boolean)
         {
-            Object rhs;
-            try
-            {
-                rhs = coerceType(lhs, (String) rhsUnknown);
-            }
-            catch (Exception ex)
+            Object rhs = coerceType(lhs, sf);
+            if (rhs == UNCOERCIBLE)
             {
                 return false;
             }
@@ -477,11 +1045,33 @@ public class CapabilitySet
         }
 
         // If the LHS is not a comparable or boolean, check if it is an
-        // array. If so, convert it to a list so we can treat it as a
-        // collection.
-        if (lhs.getClass().isArray())
+        // array. If so, call compare() on each element of the array
+        // until a match is found.
+        if (lhs instanceof Object[])
         {
-            lhs = convertArrayToList(lhs);
+            Object[] array = (Object[]) lhs;
+            for (int i = 0; i < array.length; i++)
+            {
+                if (compare(array[i], sf))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        else if (lhs.getClass().isArray())
+        {
+            // Primitive arrays are accessed reflectively, which wraps
+            // each element in its primitive wrapper object.
+            int len = Array.getLength(lhs);
+            for (int i = 0; i < len; i++)
+            {
+                if (compare(Array.get(lhs, i), sf))
+                {
+                    return true;
+                }
+            }
+            return false;
         }
 
         // If LHS is a collection, then call compare() on each element
@@ -490,7 +1080,7 @@ public class CapabilitySet
         {
             for (Iterator iter = ((Collection) lhs).iterator(); iter.hasNext(); )
             {
-                if (compare(iter.next(), rhsUnknown, op))
+                if (compare(iter.next(), sf))
                 {
                     return true;
                 }
@@ -507,22 +1097,15 @@ public class CapabilitySet
 
         // Since we cannot identify the LHS type, then we can only perform
         // equality comparison.
-        try
-        {
-            return lhs.equals(coerceType(lhs, (String) rhsUnknown));
-        }
-        catch (Exception ex)
-        {
-            return false;
-        }
+        Object rhs = coerceType(lhs, sf);
+        return (rhs != UNCOERCIBLE) && lhs.equals(rhs);
     }
 
     private static boolean compareApproximate(Object lhs, Object rhs)
     {
         if (rhs instanceof String)
         {
-            return removeWhitespace((String) lhs)
-                .equalsIgnoreCase(removeWhitespace((String) rhs));
+            return equalsIgnoreCaseAndWhitespace((String) lhs, (String) rhs);
         }
         else if (rhs instanceof Character)
         {
@@ -532,17 +1115,99 @@ public class CapabilitySet
         return lhs.equals(rhs);
     }
 
-    private static String removeWhitespace(String s)
+    /**
+     * Compares two strings ignoring case and all whitespace, which is
+     * how approximate matching is defined for strings. The strings are
+     * walked in place so no stripped copies have to be created.
+     * @param s1 the first string.
+     * @param s2 the second string.
+     * @return <tt>true</tt> if the strings are approximately equal.
+    **/
+    private static boolean equalsIgnoreCaseAndWhitespace(String s1, String s2)
     {
-        StringBuffer sb = new StringBuffer(s.length());
-        for (int i = 0; i < s.length(); i++)
+        int i1 = 0;
+        int i2 = 0;
+        int len1 = s1.length();
+        int len2 = s2.length();
+        while (true)
         {
-            if (!Character.isWhitespace(s.charAt(i)))
+            while ((i1 < len1) && Character.isWhitespace(s1.charAt(i1)))
+            {
+                i1++;
+            }
+            while ((i2 < len2) && Character.isWhitespace(s2.charAt(i2)))
+            {
+                i2++;
+            }
+            if ((i1 == len1) || (i2 == len2))
+            {
+                return (i1 == len1) && (i2 == len2);
+            }
+            char c1 = s1.charAt(i1++);
+            char c2 = s2.charAt(i2++);
+            if ((c1 != c2)
+                && (Character.toUpperCase(c1) != Character.toUpperCase(c2))
+                && (Character.toLowerCase(Character.toUpperCase(c1))
+                    != Character.toLowerCase(Character.toUpperCase(c2))))
             {
-                sb.append(s.charAt(i));
+                return false;
             }
         }
-        return sb.toString();
+    }
+
+    /**
+     * Returns the value of the specified filter coerced to the type of the
+     * specified attribute value. Coerced values are cached in the filter
+     * per attribute type, so the conversion is only performed the first
+     * time a filter is compared against a given type. Only types of the
+     * boot class path or of the framework itself are cached, since caching
+     * a type defined by a bundle would keep its class loader alive for as
+     * long as the filter is in use.
+     * @param lhs the attribute value whose type the filter value is coerced to.
+     * @param sf the filter whose value is coerced.
+     * @return the coerced value or <tt>UNCOERCIBLE</tt> if the filter
+     *         value cannot be converted to the attribute type.
+    **/
+    private static Object coerceType(Object lhs, SimpleFilter sf)
+    {
+        if (!(sf.getValue() instanceof String))
+        {
+            return UNCOERCIBLE;
+        }
+        String rhsString = (String) sf.getValue();
+
+        // If the LHS expects a string, then we can just return
+        // the RHS since it is a string.
+        if (lhs.getClass() == String.class)
+        {
+            return rhsString;
+        }
+
+        boolean cacheable = isCacheableType(lhs.getClass());
+        Object rhs = (cacheable) ? sf.getCoercedValue(lhs.getClass()) : null;
+        if (rhs == null)
+        {
+            try
+            {
+                rhs = coerceType(lhs, rhsString);
+            }
+            catch (Exception ex)
+            {
+                rhs = UNCOERCIBLE;
+            }
+            if (cacheable)
+            {
+                sf.setCoercedValue(lhs.getClass(), rhs);
+            }
+        }
+        return rhs;
+    }
+
+    private static boolean isCacheableType(Class<?> type)
+    {
+        ClassLoader loader = m_secureAction.getClassLoader(type);
+        return (loader == null)
+            || (loader == m_secureAction.getClassLoader(CapabilitySet.class));
     }
 
     private static Object coerceType(Object lhs, String rhsString) throws Exception
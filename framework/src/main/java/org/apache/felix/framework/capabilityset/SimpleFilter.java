@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.felix.framework.util.VersionRange;
 
 public class SimpleFilter
@@ -40,6 +41,11 @@ public class SimpleFilter
     private final String m_name;
     private final Object m_value;
     private final int m_op;
+    // Caches the value of a comparison filter coerced to each attribute
+    // type it has been compared against, so repeated matching does not
+    // have to convert the value again. Only boot class path and framework
+    // types are cached, so no bundle class loader is kept reachable.
+    private volatile Map<Class<?>, Object> m_coercedValues;
 
     public SimpleFilter(String attr, Object value, int op)
     {
@@ -63,6 +69,30 @@ public class SimpleFilter
         return m_op;
     }
 
+    Object getCoercedValue(Class<?> type)
+    {
+        Map<Class<?>, Object> coercedValues = m_coercedValues;
+        return (coercedValues == null) ? null : coercedValues.get(type);
+    }
+
+    void setCoercedValue(Class<?> type, Object value)
+    {
+        Map<Class<?>, Object> coercedValues = m_coercedValues;
+        if (coercedValues == null)
+        {
+            synchronized (this)
+            {
+                coercedValues = m_coercedValues;
+                if (coercedValues == null)
+                {
+                    coercedValues = new ConcurrentHashMap<Class<?>, Object>();
+                    m_coercedValues = coercedValues;
+                }
+            }
+        }
+        coercedValues.put(type, value);
+    }
+
     public String toString()
     {
         String s = null;
@@ -0,0 +1,66 @@
+/* 
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.ext;
+
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+
+/**
+ * Thrown by {@link FelixBundleContext#installBundles(List)} if some bundles
+ * of a batch could not be installed. The bundles that were installed stay
+ * installed, so the exception lists them together with the failure of each
+ * location that could not be installed.
+**/
+public class BatchInstallException extends BundleException
+{
+    private static final long serialVersionUID = 1L;
+
+    private final List<Bundle> m_bundles;
+    private final Map<String, Throwable> m_failures;
+
+    public BatchInstallException(
+        String msg, List<Bundle> bundles, Map<String, Throwable> failures)
+    {
+        super(msg, failures.values().iterator().next());
+        m_bundles = bundles;
+        m_failures = failures;
+    }
+
+    /**
+     * Returns the bundles of the batch in the order of their locations,
+     * with <tt>null</tt> for each location that could not be installed.
+     * @return the installed bundles.
+    **/
+    public List<Bundle> getBundles()
+    {
+        return m_bundles;
+    }
+
+    /**
+     * Returns the failure of each location that could not be installed.
+     * @return the failures by location.
+    **/
+    public Map<String, Throwable> getFailures()
+    {
+        return m_failures;
+    }
+}
@@ -18,6 +18,9 @@
  */
 package org.apache.felix.framework.ext;
 
+import java.util.List;
+
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
 
@@ -27,4 +30,20 @@ public interface FelixBundleContext extends BundleContext
     public void removeRequirement() throws BundleException;
     public void addCapability() throws BundleException;
     public void removeCapability() throws BundleException;
-}
\ No newline at end of file
+
+    /**
+     * Installs the bundles at the specified locations in one operation. The
+     * bundles are copied into the cache and their manifests are parsed
+     * concurrently, then they are added to the framework together. Bundles
+     * already installed at one of the locations are returned as is. Like
+     * <tt>installBundle()</tt>, this does not checksum the bundle content,
+     * since a location provides no digest to verify the copy against.
+     * @param locations the locations of the bundles to install.
+     * @return the installed bundles in the order of their locations.
+     * @throws BatchInstallException if any bundle could not be installed;
+     *         the other bundles of the batch are installed nonetheless and
+     *         are available from the exception.
+     * @throws BundleException if the framework has been shut down.
+    **/
+    public List<Bundle> installBundles(List<String> locations) throws BundleException;
+}
@@ -51,8 +51,12 @@ class Candidates
     private final Set<BundleRevision> m_mandatoryRevisions;
     // Maps a capability to requirements that match it.
     private final Map<BundleCapability, Set<BundleRequirement>> m_dependentMap;
-    // Maps a requirement to the capability it matches.
+    // Maps a requirement to the capability it matches; for a permutation,
+    // only maps the requirements whose candidates differ from the root.
     private final Map<BundleRequirement, List<BundleCapability>> m_candidateMap;
+    // The candidates this permutation was copied from, which are shared by
+    // all permutations and never modified; null if this is the root.
+    private final Candidates m_root;
     // Maps a bundle revision to its associated wrapped revision; this only happens
     // when a revision being resolved has fragments to attach to it.
     private final Map<BundleRevision, WrappedRevision> m_allWrappedHosts;
@@ -66,6 +70,7 @@ class Candidates
      * Private copy constructor used by the copy() method.
      * @param dependentMap the capability dependency map.
      * @param candidateMap the requirement candidate map.
+     * @param root the root candidates of a permutation.
      * @param hostFragments the fragment map.
      * @param wrappedHosts the wrapped hosts map.
     **/
@@ -73,12 +78,14 @@ class Candidates
         Set<BundleRevision> mandatoryRevisions,
         Map<BundleCapability, Set<BundleRequirement>> dependentMap,
         Map<BundleRequirement, List<BundleCapability>> candidateMap,
+        Candidates root,
         Map<BundleRevision, WrappedRevision> wrappedHosts, Map<BundleRevision, Object> populateResultCache,
         boolean fragmentsPresent)
     {
         m_mandatoryRevisions = mandatoryRevisions;
         m_dependentMap = dependentMap;
         m_candidateMap = candidateMap;
+        m_root = root;
         m_allWrappedHosts = wrappedHosts;
         m_populateResultCache = populateResultCache;
         m_fragmentsPresent = fragmentsPresent;
@@ -92,6 +99,7 @@ class Candidates
         m_mandatoryRevisions = new HashSet<BundleRevision>();
         m_dependentMap = new HashMap<BundleCapability, Set<BundleRequirement>>();
         m_candidateMap = new HashMap<BundleRequirement, List<BundleCapability>>();
+        m_root = null;
         m_allWrappedHosts = new HashMap<BundleRevision, WrappedRevision>();
         m_populateResultCache = new HashMap<BundleRevision, Object>();
     }
@@ -586,7 +594,36 @@ class Candidates
     **/
     public List<BundleCapability> getCandidates(BundleRequirement req)
     {
-        return m_candidateMap.get(req);
+        List<BundleCapability> candidates = m_candidateMap.get(req);
+        if ((candidates == null) && (m_root != null))
+        {
+            candidates = m_root.m_candidateMap.get(req);
+        }
+        return candidates;
+    }
+
+    /**
+     * Removes the first (i.e., highest priority) candidate of the specified
+     * requirement. The candidate list is replaced rather than modified,
+     * since it may be shared with other permutations.
+     * @param req the requirement whose first candidate should be removed.
+    **/
+    public void removeFirstCandidate(BundleRequirement req)
+    {
+        List<BundleCapability> candidates = getCandidates(req);
+        m_candidateMap.put(req, new ArrayList<BundleCapability>(
+            candidates.subList(1, candidates.size())));
+    }
+
+    /**
+     * Returns the candidates of this permutation that differ from the root
+     * candidates it was copied from. Two permutations of the same root are
+     * identical if their differences are equal.
+     * @return the differing candidates, which is empty for the root.
+    **/
+    public Map<BundleRequirement, List<BundleCapability>> getPermutation()
+    {
+        return (m_root == null) ? Collections.EMPTY_MAP : m_candidateMap;
     }
 
     /**
@@ -975,31 +1012,21 @@ class Candidates
 
     /**
      * Creates a copy of the Candidates object. This is used for creating
-     * permutations when package space conflicts are discovered.
+     * permutations when package space conflicts are discovered. The copy
+     * shares the candidates of the root and only stores the candidates
+     * that differ from it, so a copy must only be modified through
+     * <tt>removeFirstCandidate()</tt> and the root must not be modified
+     * once it has been copied.
      * @return copy of this Candidates object.
     **/
     public Candidates copy()
     {
-        Map<BundleCapability, Set<BundleRequirement>> dependentMap =
-            new HashMap<BundleCapability, Set<BundleRequirement>>();
-        for (Entry<BundleCapability, Set<BundleRequirement>> entry : m_dependentMap.entrySet())
-        {
-            Set<BundleRequirement> dependents = new HashSet<BundleRequirement>(entry.getValue());
-            dependentMap.put(entry.getKey(), dependents);
-        }
-
+        Candidates root = (m_root == null) ? this : m_root;
         Map<BundleRequirement, List<BundleCapability>> candidateMap =
-            new HashMap<BundleRequirement, List<BundleCapability>>();
-        for (Entry<BundleRequirement, List<BundleCapability>> entry
-            : m_candidateMap.entrySet())
-        {
-            List<BundleCapability> candidates =
-                new ArrayList<BundleCapability>(entry.getValue());
-            candidateMap.put(entry.getKey(), candidates);
-        }
+            new HashMap<BundleRequirement, List<BundleCapability>>(getPermutation());
 
         return new Candidates(
-            m_mandatoryRevisions, dependentMap, candidateMap,
+            m_mandatoryRevisions, m_dependentMap, candidateMap, root,
             m_allWrappedHosts, m_populateResultCache, m_fragmentsPresent);
     }
 
@@ -1007,8 +1034,10 @@ class Candidates
     {
         // Create set of all revisions from requirements.
         Set<BundleRevision> revisions = new HashSet<BundleRevision>();
+        Map<BundleRequirement, List<BundleCapability>> candidateMap =
+            (m_root == null) ? m_candidateMap : m_root.m_candidateMap;
         for (Entry<BundleRequirement, List<BundleCapability>> entry
-            : m_candidateMap.entrySet())
+            : candidateMap.entrySet())
         {
             revisions.add(entry.getKey().getRevision());
         }
@@ -1023,7 +1052,7 @@ class Candidates
                 : br.getDeclaredRequirements(null);
             for (BundleRequirement req : reqs)
             {
-                List<BundleCapability> candidates = m_candidateMap.get(req);
+                List<BundleCapability> candidates = getCandidates(req);
                 if ((candidates != null) && (candidates.size() > 0))
                 {
                     System.out.println("    " + req + ": " + candidates);
@@ -1034,7 +1063,7 @@ class Candidates
                 : Util.getDynamicRequirements(br.getDeclaredRequirements(null));
             for (BundleRequirement req : reqs)
             {
-                List<BundleCapability> candidates = m_candidateMap.get(req);
+                List<BundleCapability> candidates = getCandidates(req);
                 if ((candidates != null) && (candidates.size() > 0))
                 {
                     System.out.println("    " + req + ": " + candidates);
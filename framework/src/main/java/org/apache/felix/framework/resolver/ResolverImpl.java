@@ -29,6 +29,13 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import org.apache.felix.framework.BundleWiringImpl;
 import org.apache.felix.framework.Logger;
 import org.apache.felix.framework.ResolveContextImpl;
@@ -42,6 +49,7 @@ import org.osgi.framework.wiring.BundleCapability;
 import org.osgi.framework.wiring.BundleRequirement;
 import org.osgi.framework.wiring.BundleRevision;
 import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
 
 public class ResolverImpl implements Resolver
 {
@@ -53,14 +61,162 @@ public class ResolverImpl implements Resolver
     // Holds candidate permutations based on permutating requirement candidates.
     // These permutations represent backtracking on previous decisions.
     private final List<Candidates> m_importPermutations = new ArrayList<Candidates>();
+    // Holds the differences of all permutations added during a resolve, to
+    // avoid exploring identical permutations more than once.
+    private final Set<Map<BundleRequirement, List<BundleCapability>>> m_explored =
+        new HashSet<Map<BundleRequirement, List<BundleCapability>>>();
+    // Number of threads used to calculate and check package spaces.
+    private final int m_parallelism;
+    // Executor running the package space calculations, created on first
+    // use and kept until the resolver is disposed.
+    private ExecutorService m_executor;
+    // Listeners notified about the progress of resolve operations.
+    private final ResolverListener[] m_listeners;
+    // Maximum time in milliseconds and maximum number of candidate
+    // permutations a resolve operation may take; zero means no limit.
+    private final long m_timeout;
+    private final int m_maxPermutations;
+    // Start time and number of checked candidate permutations of the
+    // current resolve operation, used to enforce its limits.
+    private long m_resolveStart;
+    private int m_permutationCount;
+    private boolean m_budgetExceeded;
+    // The revision whose package space was found inconsistent last, since
+    // uses constraint violations do not name the revision to blame.
+    private BundleRevision m_conflictRevision;
+    // Caches the package spaces of resolved revisions across resolve
+    // operations, since they do not change until the revisions are refreshed.
+    private final Map<BundleRevision, ResolvedPackages> m_resolvedPkgCache =
+        new ConcurrentHashMap<BundleRevision, ResolvedPackages>();
 
     public ResolverImpl(Logger logger)
+    {
+        this(logger, 1);
+    }
+
+    /**
+     * Creates a resolver that calculates the uses constraints and checks
+     * the package space consistency of the resolving revisions on the
+     * specified number of threads.
+     * @param logger the logger.
+     * @param parallelism the number of threads; a value less than two
+     *        calculates package spaces on the calling thread.
+    **/
+    public ResolverImpl(Logger logger, int parallelism)
+    {
+        this(logger, parallelism, Collections.<ResolverListener>emptyList());
+    }
+
+    /**
+     * Creates a resolver that reports the progress of its resolve operations
+     * to the specified listeners.
+     * @param logger the logger.
+     * @param parallelism the number of threads used to calculate package spaces.
+     * @param listeners the listeners to notify.
+    **/
+    public ResolverImpl(Logger logger, int parallelism, List<ResolverListener> listeners)
+    {
+        this(logger, parallelism, listeners, 0, 0);
+    }
+
+    /**
+     * Creates a resolver that limits the time and the number of candidate
+     * permutations of each resolve operation. Once a limit is exceeded, the
+     * resolver stops searching for a consistent permutation and fails with
+     * the last uses constraint violation it found. If an optional revision
+     * caused the violation, it is left unresolved and the remaining
+     * revisions are resolved using their first candidate permutation only.
+     * @param logger the logger.
+     * @param parallelism the number of threads used to calculate package spaces.
+     * @param listeners the listeners to notify.
+     * @param timeout the time limit in milliseconds or zero for no limit.
+     * @param maxPermutations the permutation limit or zero for no limit.
+    **/
+    public ResolverImpl(
+        Logger logger, int parallelism, List<ResolverListener> listeners,
+        long timeout, int maxPermutations)
     {
         m_logger = logger;
+        m_parallelism = parallelism;
+        m_listeners = listeners.toArray(new ResolverListener[listeners.size()]);
+        m_timeout = timeout;
+        m_maxPermutations = maxPermutations;
+    }
+
+    /**
+     * Stops the threads used to calculate package spaces concurrently. The
+     * resolver remains usable and creates new threads when needed again.
+    **/
+    public synchronized void dispose()
+    {
+        if (m_executor != null)
+        {
+            m_executor.shutdown();
+            m_executor = null;
+        }
+    }
+
+    private synchronized ExecutorService getExecutor()
+    {
+        if (m_executor == null)
+        {
+            m_executor = Executors.newFixedThreadPool(
+                m_parallelism, new ResolverThreadFactory());
+        }
+        return m_executor;
+    }
+
+    /**
+     * Discards the cached package space of the specified revision. This must
+     * be called when a resolved revision is removed from the resolver state,
+     * for example because its bundle is refreshed or uninstalled.
+     * @param revision the revision whose package space is discarded.
+    **/
+    public void invalidate(BundleRevision revision)
+    {
+        m_resolvedPkgCache.remove(revision);
+    }
+
+    /**
+     * Returns whether the package space of the specified resolved revision
+     * is cached, so subsequent resolve operations reuse it.
+     * @param revision the revision whose package space is checked.
+     * @return <tt>true</tt> if the package space is cached.
+    **/
+    public boolean isCached(BundleRevision revision)
+    {
+        return m_resolvedPkgCache.containsKey(revision);
     }
 
     public Map<BundleRevision, List<ResolverWire>> resolve(ResolveContext rc)
     {
+        if (m_listeners.length == 0)
+        {
+            return resolveRevisions(rc);
+        }
+
+        long time = System.nanoTime();
+        ResolveException rethrow = null;
+        fireResolveStarted(null);
+        try
+        {
+            return resolveRevisions(rc);
+        }
+        catch (ResolveException ex)
+        {
+            rethrow = ex;
+            throw ex;
+        }
+        finally
+        {
+            fireResolveFinished(System.nanoTime() - time, rethrow);
+        }
+    }
+
+    private Map<BundleRevision, List<ResolverWire>> resolveRevisions(ResolveContext rc)
+    {
+        startBudget();
+
         Map<BundleRevision, List<ResolverWire>> wireMap =
             new HashMap<BundleRevision, List<ResolverWire>>();
         Map<BundleRevision, Packages> revisionPkgMap =
@@ -70,6 +226,7 @@ public class ResolverImpl implements Resolver
         Collection<BundleRevision> optionalRevisions = rc.getOptionalRevisions();
         Collection<BundleRevision> ondemandFragments = (rc instanceof ResolveContextImpl)
             ? ((ResolveContextImpl) rc).getOndemandRevisions() : Collections.EMPTY_LIST;
+        ExecutorService executor = null;
         boolean retry;
         do
         {
@@ -136,7 +293,7 @@ public class ResolverImpl implements Resolver
                 }
 
                 // Record the initial candidate permutation.
-                m_usesPermutations.add(allCandidates);
+                addPermutation(m_usesPermutations, allCandidates);
 
                 ResolveException rethrow = null;
 
@@ -155,6 +312,12 @@ public class ResolverImpl implements Resolver
                     }
                 }
 
+                // Only use threads if there is more than one revision to check.
+                if ((executor == null) && (m_parallelism > 1) && (allRevisions.size() > 1))
+                {
+                    executor = getExecutor();
+                }
+
                 do
                 {
                     rethrow = null;
@@ -162,11 +325,22 @@ public class ResolverImpl implements Resolver
                     revisionPkgMap.clear();
                     m_packageSourcesCache.clear();
 
+                    firePermutationStarted();
                     allCandidates = (m_usesPermutations.size() > 0)
                         ? m_usesPermutations.remove(0)
                         : m_importPermutations.remove(0);
+                    m_permutationCount++;
 //allCandidates.dump();
 
+                    if (executor != null)
+                    {
+                        rethrow = checkPackageSpacesConcurrently(
+                            rc, executor, allRevisions, hostReqs,
+                            allCandidates, revisionPkgMap);
+                        firePermutationFinished(rethrow);
+                        continue;
+                    }
+
                     for (BundleRevision br : allRevisions)
                     {
                         BundleRevision target = br;
@@ -189,18 +363,31 @@ public class ResolverImpl implements Resolver
 
                         try
                         {
-                            checkPackageSpaceConsistency(
-                                rc, false, allCandidates.getWrappedHost(target),
-                                allCandidates, revisionPkgMap, new HashMap());
+                            checkRevisionConsistency(
+                                rc, allCandidates.getWrappedHost(target),
+                                allCandidates, revisionPkgMap,
+                                m_usesPermutations, m_importPermutations);
                         }
                         catch (ResolveException ex)
                         {
                             rethrow = ex;
+                            m_conflictRevision = target;
                         }
                     }
+                    firePermutationFinished(rethrow);
                 }
                 while ((rethrow != null)
-                    && ((m_usesPermutations.size() > 0) || (m_importPermutations.size() > 0)));
+                    && ((m_usesPermutations.size() > 0) || (m_importPermutations.size() > 0))
+                    && isWithinBudget());
+
+                // If the budget ran out before all permutations were checked,
+                // fail with the last conflict, so an optional revision which
+                // caused it is removed below.
+                if ((rethrow != null)
+                    && ((m_usesPermutations.size() > 0) || (m_importPermutations.size() > 0)))
+                {
+                    rethrow = budgetExceeded(rethrow);
+                }
 
                 // If there is a resolve exception, then determine if an
                 // optionally resolved revision is to blame (typically a fragment).
@@ -261,6 +448,7 @@ public class ResolverImpl implements Resolver
                 // Always clear the state.
                 m_usesPermutations.clear();
                 m_importPermutations.clear();
+                m_explored.clear();
             }
         }
         while (retry);
@@ -268,6 +456,145 @@ public class ResolverImpl implements Resolver
         return wireMap;
     }
 
+    /**
+     * Calculates the package spaces of the specified revisions and checks
+     * their consistency using the specified executor. The imported and
+     * exported packages of all revisions are calculated first, so the uses
+     * constraints of each revision can then be merged concurrently, since
+     * merging only modifies the package space of the revision itself. The
+     * consistency of each revision is then checked concurrently. Any
+     * resulting permutations are added in the order of the revisions, so the
+     * result is the same as when checking the revisions one after another.
+     * @return the resolve exception of the last inconsistent revision or
+     *         <tt>null</tt> if all revisions are consistent.
+    **/
+    private ResolveException checkPackageSpacesConcurrently(
+        final ResolveContext rc, ExecutorService executor,
+        Collection<BundleRevision> revisions,
+        Map<BundleRevision, List<BundleRequirement>> hostReqs,
+        final Candidates allCandidates,
+        final Map<BundleRevision, Packages> revisionPkgMap)
+    {
+        List<BundleRevision> targets = new ArrayList<BundleRevision>(revisions.size());
+        for (BundleRevision br : revisions)
+        {
+            BundleRevision target = br;
+
+            // If we are resolving a fragment, then get its
+            // host candidate and verify it instead.
+            List<BundleRequirement> hostReq = hostReqs.get(br);
+            if (hostReq != null)
+            {
+                target = allCandidates.getCandidates(hostReq.get(0))
+                    .iterator().next().getRevision();
+            }
+            targets.add(allCandidates.getWrappedHost(target));
+        }
+
+        // Calculate imported and exported packages, deferring uses constraints.
+        List<DeferredUses> deferred = new ArrayList<DeferredUses>();
+        for (BundleRevision target : targets)
+        {
+            calculatePackageSpaces(
+                target, allCandidates, revisionPkgMap,
+                new HashMap(), new HashSet(), deferred);
+        }
+
+        List<Callable<Object>> usesTasks = new ArrayList<Callable<Object>>(deferred.size());
+        for (final DeferredUses uses : deferred)
+        {
+            usesTasks.add(new Callable<Object>()
+            {
+                public Object call()
+                {
+                    mergeAllUses(uses.m_revision, uses.m_reqs, uses.m_caps,
+                        allCandidates, revisionPkgMap,
+                        new HashMap<BundleCapability, List<BundleRevision>>());
+                    return null;
+                }
+            });
+        }
+        invokeAll(executor, usesTasks);
+
+        List<Callable<Object[]>> checkTasks = new ArrayList<Callable<Object[]>>(targets.size());
+        for (final BundleRevision target : targets)
+        {
+            checkTasks.add(new Callable<Object[]>()
+            {
+                public Object[] call()
+                {
+                    List<Candidates> usesPermutations = new ArrayList<Candidates>();
+                    List<Candidates> importPermutations = new ArrayList<Candidates>();
+                    ResolveException rethrow = null;
+                    long time = System.nanoTime();
+                    try
+                    {
+                        checkPackageSpaceConsistency(
+                            rc, false, target, allCandidates, revisionPkgMap,
+                            new HashMap(), usesPermutations, importPermutations);
+                    }
+                    catch (ResolveException ex)
+                    {
+                        rethrow = ex;
+                    }
+                    time = System.nanoTime() - time;
+                    return new Object[] {
+                        usesPermutations, importPermutations, rethrow, target, time };
+                }
+            });
+        }
+
+        // Report the checks on the resolving thread, so listeners can
+        // associate them with the current resolve operation.
+        ResolveException rethrow = null;
+        for (Object[] result : invokeAll(executor, checkTasks))
+        {
+            fireConsistencyChecked((BundleRevision) result[3],
+                ((Long) result[4]).longValue(), (ResolveException) result[2]);
+            for (Candidates perm : (List<Candidates>) result[0])
+            {
+                addPermutation(m_usesPermutations, perm);
+            }
+            for (Candidates perm : (List<Candidates>) result[1])
+            {
+                addPermutation(m_importPermutations, perm);
+            }
+            if (result[2] != null)
+            {
+                rethrow = (ResolveException) result[2];
+                m_conflictRevision = (BundleRevision) result[3];
+            }
+        }
+        return rethrow;
+    }
+
+    private static <T> List<T> invokeAll(
+        ExecutorService executor, List<Callable<T>> tasks)
+    {
+        List<T> results = new ArrayList<T>(tasks.size());
+        try
+        {
+            for (Future<T> future : executor.invokeAll(tasks))
+            {
+                results.add(future.get());
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new ResolveException("Interrupted while resolving.", null, null);
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw (Error) ex.getCause();
+        }
+        return results;
+    }
+
     public Map<BundleRevision, List<ResolverWire>> resolve(
         ResolveContext rc, BundleRevision revision, String pkgName)
     {
@@ -282,119 +609,177 @@ public class ResolverImpl implements Resolver
         // the associated dynamic import and matching capabilities.
         Candidates allCandidates =
             getDynamicImportCandidates(rc, revision, pkgName);
-        if (allCandidates != null)
+        if (allCandidates == null)
         {
-            Collection<BundleRevision> ondemandFragments = (rc instanceof ResolveContextImpl)
-                ? ((ResolveContextImpl) rc).getOndemandRevisions() : Collections.EMPTY_LIST;
+            return null;
+        }
 
-            Map<BundleRevision, List<ResolverWire>> wireMap =
-                new HashMap<BundleRevision, List<ResolverWire>>();
-            Map<BundleRevision, Packages> revisionPkgMap =
-                new HashMap<BundleRevision, Packages>();
+        // Since a successful dynamic import adds a wire to the revision,
+        // its cached package space is discarded.
+        invalidate(revision);
+        if (m_listeners.length == 0)
+        {
+            return resolveDynamic(rc, revision, pkgName, allCandidates);
+        }
 
-            boolean retry;
-            do
-            {
-                retry = false;
+        long time = System.nanoTime();
+        ResolveException rethrow = null;
+        fireResolveStarted(revision);
+        try
+        {
+            return resolveDynamic(rc, revision, pkgName, allCandidates);
+        }
+        catch (ResolveException ex)
+        {
+            rethrow = ex;
+            throw ex;
+        }
+        finally
+        {
+            fireResolveFinished(System.nanoTime() - time, rethrow);
+        }
+    }
+
+    private Map<BundleRevision, List<ResolverWire>> resolveDynamic(
+        ResolveContext rc, BundleRevision revision, String pkgName,
+        Candidates allCandidates)
+    {
+        startBudget();
+
+        Collection<BundleRevision> ondemandFragments = (rc instanceof ResolveContextImpl)
+            ? ((ResolveContextImpl) rc).getOndemandRevisions() : Collections.EMPTY_LIST;
+
+        Map<BundleRevision, List<ResolverWire>> wireMap =
+            new HashMap<BundleRevision, List<ResolverWire>>();
+        Map<BundleRevision, Packages> revisionPkgMap =
+            new HashMap<BundleRevision, Packages>();
+
+        boolean retry;
+        do
+        {
+            retry = false;
 
-                try
+            try
+            {
+                // Try to populate optional fragments.
+                for (BundleRevision br : ondemandFragments)
                 {
-                    // Try to populate optional fragments.
-                    for (BundleRevision br : ondemandFragments)
+                    if (Util.isFragment(br))
                     {
-                        if (Util.isFragment(br))
-                        {
-                            allCandidates.populate(rc, br, Candidates.ON_DEMAND);
-                        }
+                        allCandidates.populate(rc, br, Candidates.ON_DEMAND);
                     }
+                }
 
-                    // Merge any fragments into hosts.
-                    allCandidates.prepare(rc);
+                // Merge any fragments into hosts.
+                allCandidates.prepare(rc);
 
-                    // Record the initial candidate permutation.
-                    m_usesPermutations.add(allCandidates);
+                // Record the initial candidate permutation.
+                addPermutation(m_usesPermutations, allCandidates);
 
-                    ResolveException rethrow = null;
+                ResolveException rethrow = null;
 
-                    do
-                    {
-                        rethrow = null;
+                do
+                {
+                    rethrow = null;
 
-                        revisionPkgMap.clear();
-                        m_packageSourcesCache.clear();
+                    revisionPkgMap.clear();
+                    m_packageSourcesCache.clear();
 
-                        allCandidates = (m_usesPermutations.size() > 0)
-                            ? m_usesPermutations.remove(0)
-                            : m_importPermutations.remove(0);
+                    firePermutationStarted();
+                    allCandidates = (m_usesPermutations.size() > 0)
+                        ? m_usesPermutations.remove(0)
+                        : m_importPermutations.remove(0);
+                    m_permutationCount++;
 //allCandidates.dump();
 
-                        // For a dynamic import, the instigating revision
-                        // will never be a fragment since fragments never
-                        // execute code, so we don't need to check for
-                        // this case like we do for a normal resolve.
+                    // For a dynamic import, the instigating revision
+                    // will never be a fragment since fragments never
+                    // execute code, so we don't need to check for
+                    // this case like we do for a normal resolve.
 
-                        calculatePackageSpaces(
-                            allCandidates.getWrappedHost(revision), allCandidates, revisionPkgMap,
-                            new HashMap(), new HashSet());
+                    calculatePackageSpaces(
+                        allCandidates.getWrappedHost(revision), allCandidates, revisionPkgMap,
+                        new HashMap(), new HashSet());
 //System.out.println("+++ PACKAGE SPACES START +++");
 //dumpRevisionPkgMap(revisionPkgMap);
 //System.out.println("+++ PACKAGE SPACES END +++");
 
-                        try
-                        {
-                            checkPackageSpaceConsistency(
-                                rc, false, allCandidates.getWrappedHost(revision),
-                                allCandidates, revisionPkgMap, new HashMap());
-                        }
-                        catch (ResolveException ex)
-                        {
-                            rethrow = ex;
-                        }
+                    try
+                    {
+                        checkRevisionConsistency(
+                            rc, allCandidates.getWrappedHost(revision),
+                            allCandidates, revisionPkgMap,
+                            m_usesPermutations, m_importPermutations);
                     }
-                    while ((rethrow != null)
-                        && ((m_usesPermutations.size() > 0) || (m_importPermutations.size() > 0)));
-
-                    // If there is a resolve exception, then determine if an
-                    // optionally resolved revision is to blame (typically a fragment).
-                    // If so, then remove the optionally resolved revision and try
-                    // again; otherwise, rethrow the resolve exception.
-                    if (rethrow != null)
+                    catch (ResolveException ex)
                     {
-                        BundleRevision faultyRevision =
-                            getDeclaringBundleRevision(rethrow.getRevision());
-                        if (rethrow.getRequirement() instanceof WrappedRequirement)
-                        {
-                            faultyRevision =
-                                ((WrappedRequirement) rethrow.getRequirement())
-                                    .getOriginalRequirement().getRevision();
-                        }
-                        if (ondemandFragments.remove(faultyRevision))
-                        {
-                            retry = true;
-                        }
-                        else
+                        rethrow = ex;
+                        m_conflictRevision = revision;
+                    }
+                    firePermutationFinished(rethrow);
+                }
+                while ((rethrow != null)
+                    && ((m_usesPermutations.size() > 0) || (m_importPermutations.size() > 0))
+                    && isWithinBudget());
+
+                // If the budget ran out before all permutations were checked,
+                // fail with the last conflict, so an optional revision which
+                // caused it is removed below.
+                if ((rethrow != null)
+                    && ((m_usesPermutations.size() > 0) || (m_importPermutations.size() > 0)))
+                {
+                    rethrow = budgetExceeded(rethrow);
+                }
+
+                // If there is a resolve exception, then determine if an
+                // optionally resolved revision is to blame (typically a fragment).
+                // If so, then remove the optionally resolved revision and try
+                // again; otherwise, rethrow the resolve exception.
+                if (rethrow != null)
+                {
+                    BundleRevision faultyRevision =
+                        getDeclaringBundleRevision(rethrow.getRevision());
+                    if (rethrow.getRequirement() instanceof WrappedRequirement)
+                    {
+                        faultyRevision =
+                            ((WrappedRequirement) rethrow.getRequirement())
+                                .getOriginalRequirement().getRevision();
+                    }
+                    if (ondemandFragments.remove(faultyRevision))
+                    {
+                        // The permutations share candidate lists with the
+                        // candidates they were copied from, so start over
+                        // from freshly populated candidates.
+                        allCandidates = getDynamicImportCandidates(rc, revision, pkgName);
+                        if (allCandidates == null)
                         {
                             throw rethrow;
                         }
+                        retry = true;
                     }
-                    // If there is no exception to rethrow, then this was a clean
-                    // resolve, so populate the wire map.
                     else
                     {
-                        wireMap = populateDynamicWireMap(
-                            revision, pkgName, revisionPkgMap, wireMap, allCandidates);
-                        return wireMap;
+                        throw rethrow;
                     }
                 }
-                finally
+                // If there is no exception to rethrow, then this was a clean
+                // resolve, so populate the wire map.
+                else
                 {
-                    // Always clear the state.
-                    m_usesPermutations.clear();
-                    m_importPermutations.clear();
+                    wireMap = populateDynamicWireMap(
+                        revision, pkgName, revisionPkgMap, wireMap, allCandidates);
+                    return wireMap;
                 }
             }
-            while (retry);
+            finally
+            {
+                // Always clear the state.
+                m_usesPermutations.clear();
+                m_importPermutations.clear();
+                m_explored.clear();
+            }
         }
+        while (retry);
 
         return null;
     }
@@ -502,6 +887,24 @@ public class ResolverImpl implements Resolver
         Map<BundleRevision, Packages> revisionPkgMap,
         Map<BundleCapability, List<BundleRevision>> usesCycleMap,
         Set<BundleRevision> cycle)
+    {
+        calculatePackageSpaces(
+            revision, allCandidates, revisionPkgMap, usesCycleMap, cycle, null);
+    }
+
+    /**
+     * Calculates the package space of the specified revision and the
+     * revisions it depends on. If a list of deferred revisions is specified,
+     * the uses constraints of the revisions are not merged, but the
+     * revisions which need them are added to the list instead.
+    **/
+    private void calculatePackageSpaces(
+        BundleRevision revision,
+        Candidates allCandidates,
+        Map<BundleRevision, Packages> revisionPkgMap,
+        Map<BundleCapability, List<BundleRevision>> usesCycleMap,
+        Set<BundleRevision> cycle,
+        List<DeferredUses> deferred)
     {
         if (cycle.contains(revision))
         {
@@ -523,6 +926,22 @@ public class ResolverImpl implements Resolver
             }
         }
 
+        // Reuse the package space of a resolved revision calculated by a
+        // previous resolve operation; only the package spaces of the
+        // revisions it is wired to need to be added too.
+        ResolvedPackages resolvedPkgs = m_resolvedPkgCache.get(revision);
+        if ((resolvedPkgs != null) && (resolvedPkgs.m_wiring == revision.getWiring()))
+        {
+            revisionPkgMap.put(revision, resolvedPkgs.m_pkgs);
+            for (BundleRevision provider : resolvedPkgs.m_providers)
+            {
+                calculatePackageSpaces(
+                    provider, allCandidates, revisionPkgMap,
+                    usesCycleMap, cycle, deferred);
+            }
+            return;
+        }
+
         // Create parallel arrays for requirement and proposed candidate
         // capability or actual capability if revision is resolved or not.
         List<BundleRequirement> reqs = new ArrayList();
@@ -628,7 +1047,7 @@ public class ResolverImpl implements Resolver
         {
             calculatePackageSpaces(
                 caps.get(i).getRevision(), allCandidates, revisionPkgMap,
-                usesCycleMap, cycle);
+                usesCycleMap, cycle, deferred);
         }
 
         // Fourth, if the target revision is unresolved or is dynamically importing,
@@ -642,55 +1061,76 @@ public class ResolverImpl implements Resolver
         // import is consistent with the existing package space.
         if ((revision.getWiring() == null) || isDynamicImporting)
         {
-            // Merge uses constraints from required capabilities.
-            for (int i = 0; i < reqs.size(); i++)
+            if (deferred != null)
             {
-                BundleRequirement req = reqs.get(i);
-                BundleCapability cap = caps.get(i);
-                // Ignore bundle/package requirements, since they are
-                // considered below.
-                if (!req.getNamespace().equals(BundleRevision.BUNDLE_NAMESPACE)
-                    && !req.getNamespace().equals(BundleRevision.PACKAGE_NAMESPACE))
-                {
-                    List<BundleRequirement> blameReqs = new ArrayList();
-                    blameReqs.add(req);
-
-                    mergeUses(
-                        revision,
-                        revisionPkgs,
-                        cap,
-                        blameReqs,
-                        revisionPkgMap,
-                        allCandidates,
-                        usesCycleMap);
-                }
+                deferred.add(new DeferredUses(revision, reqs, caps));
             }
-            // Merge uses constraints from imported packages.
-            for (Entry<String, List<Blame>> entry : revisionPkgs.m_importedPkgs.entrySet())
+            else
             {
-                for (Blame blame : entry.getValue())
-                {
-                    // Ignore revisions that import from themselves.
-                    if (!blame.m_cap.getRevision().equals(revision))
-                    {
-                        List<BundleRequirement> blameReqs = new ArrayList();
-                        blameReqs.add(blame.m_reqs.get(0));
+                mergeAllUses(
+                    revision, reqs, caps, allCandidates, revisionPkgMap, usesCycleMap);
+            }
+        }
+        else
+        {
+            // The package space of a resolved revision only depends on its
+            // wiring, so it can be reused by subsequent resolve operations.
+            List<BundleRevision> providers = new ArrayList<BundleRevision>(caps.size());
+            for (BundleCapability cap : caps)
+            {
+                providers.add(cap.getRevision());
+            }
+            revisionPkgs.m_isCalculated = true;
+            m_resolvedPkgCache.put(revision,
+                new ResolvedPackages(revision.getWiring(), revisionPkgs, providers));
+        }
+    }
 
-                        mergeUses(
-                            revision,
-                            revisionPkgs,
-                            blame.m_cap,
-                            blameReqs,
-                            revisionPkgMap,
-                            allCandidates,
-                            usesCycleMap);
-                    }
-                }
+    /**
+     * Merges the uses constraints implied by the imported and required
+     * packages of the specified revision into its package space. This only
+     * modifies the package space of the revision itself.
+    **/
+    private void mergeAllUses(
+        BundleRevision revision,
+        List<BundleRequirement> reqs,
+        List<BundleCapability> caps,
+        Candidates allCandidates,
+        Map<BundleRevision, Packages> revisionPkgMap,
+        Map<BundleCapability, List<BundleRevision>> usesCycleMap)
+    {
+        Packages revisionPkgs = revisionPkgMap.get(revision);
+
+        // Merge uses constraints from required capabilities.
+        for (int i = 0; i < reqs.size(); i++)
+        {
+            BundleRequirement req = reqs.get(i);
+            BundleCapability cap = caps.get(i);
+            // Ignore bundle/package requirements, since they are
+            // considered below.
+            if (!req.getNamespace().equals(BundleRevision.BUNDLE_NAMESPACE)
+                && !req.getNamespace().equals(BundleRevision.PACKAGE_NAMESPACE))
+            {
+                List<BundleRequirement> blameReqs = new ArrayList();
+                blameReqs.add(req);
+
+                mergeUses(
+                    revision,
+                    revisionPkgs,
+                    cap,
+                    blameReqs,
+                    revisionPkgMap,
+                    allCandidates,
+                    usesCycleMap);
             }
-            // Merge uses constraints from required bundles.
-            for (Entry<String, List<Blame>> entry : revisionPkgs.m_requiredPkgs.entrySet())
+        }
+        // Merge uses constraints from imported packages.
+        for (Entry<String, List<Blame>> entry : revisionPkgs.m_importedPkgs.entrySet())
+        {
+            for (Blame blame : entry.getValue())
             {
-                for (Blame blame : entry.getValue())
+                // Ignore revisions that import from themselves.
+                if (!blame.m_cap.getRevision().equals(revision))
                 {
                     List<BundleRequirement> blameReqs = new ArrayList();
                     blameReqs.add(blame.m_reqs.get(0));
@@ -706,6 +1146,24 @@ public class ResolverImpl implements Resolver
                 }
             }
         }
+        // Merge uses constraints from required bundles.
+        for (Entry<String, List<Blame>> entry : revisionPkgs.m_requiredPkgs.entrySet())
+        {
+            for (Blame blame : entry.getValue())
+            {
+                List<BundleRequirement> blameReqs = new ArrayList();
+                blameReqs.add(blame.m_reqs.get(0));
+
+                mergeUses(
+                    revision,
+                    revisionPkgs,
+                    blame.m_cap,
+                    blameReqs,
+                    revisionPkgMap,
+                    allCandidates,
+                    usesCycleMap);
+            }
+        }
     }
 
     private void mergeCandidatePackages(
@@ -924,13 +1382,167 @@ public class ResolverImpl implements Resolver
         }
     }
 
+    /**
+     * Checks the package space consistency of one of the revisions being
+     * resolved and reports the result to the resolver listeners.
+    **/
+    private void checkRevisionConsistency(
+        ResolveContext rc,
+        BundleRevision revision,
+        Candidates allCandidates,
+        Map<BundleRevision, Packages> revisionPkgMap,
+        List<Candidates> usesPermutations,
+        List<Candidates> importPermutations)
+    {
+        long time = System.nanoTime();
+        ResolveException rethrow = null;
+        try
+        {
+            checkPackageSpaceConsistency(
+                rc, false, revision, allCandidates, revisionPkgMap,
+                new HashMap(), usesPermutations, importPermutations);
+        }
+        catch (ResolveException ex)
+        {
+            rethrow = ex;
+            throw ex;
+        }
+        finally
+        {
+            fireConsistencyChecked(revision, System.nanoTime() - time, rethrow);
+        }
+    }
+
+    private void startBudget()
+    {
+        m_resolveStart = System.nanoTime();
+        m_permutationCount = 0;
+        m_budgetExceeded = false;
+    }
+
+    private boolean isWithinBudget()
+    {
+        if ((m_maxPermutations > 0) && (m_permutationCount >= m_maxPermutations))
+        {
+            return false;
+        }
+        return (m_timeout <= 0)
+            || ((System.nanoTime() - m_resolveStart) / 1000000L < m_timeout);
+    }
+
+    /**
+     * Creates the exception reported when the budget of the current resolve
+     * operation is exceeded. It names the revision and requirement of the
+     * last conflict, so the caller can tell which revision to leave out.
+    **/
+    private ResolveException budgetExceeded(ResolveException ex)
+    {
+        String msg = "Resolve operation exceeded its budget after checking "
+            + m_permutationCount + " candidate permutations in "
+            + ((System.nanoTime() - m_resolveStart) / 1000000L) + " ms: "
+            + ex.getMessage();
+        m_logger.log(
+            m_budgetExceeded ? Logger.LOG_DEBUG : Logger.LOG_WARNING, msg);
+        m_budgetExceeded = true;
+        return new ResolveException(msg,
+            (ex.getRevision() != null) ? ex.getRevision() : m_conflictRevision,
+            ex.getRequirement());
+    }
+
+    // Listeners are called through these methods, which log and ignore
+    // the exceptions of a listener, so it cannot abort a resolve.
+
+    private void fireResolveStarted(BundleRevision dynamicImporter)
+    {
+        for (ResolverListener listener : m_listeners)
+        {
+            try
+            {
+                listener.resolveStarted(dynamicImporter);
+            }
+            catch (Throwable th)
+            {
+                logListenerException(th);
+            }
+        }
+    }
+
+    private void firePermutationStarted()
+    {
+        for (ResolverListener listener : m_listeners)
+        {
+            try
+            {
+                listener.permutationStarted(
+                    m_usesPermutations.size(), m_importPermutations.size());
+            }
+            catch (Throwable th)
+            {
+                logListenerException(th);
+            }
+        }
+    }
+
+    private void fireConsistencyChecked(
+        BundleRevision revision, long time, ResolveException ex)
+    {
+        for (ResolverListener listener : m_listeners)
+        {
+            try
+            {
+                listener.consistencyChecked(revision, time, ex);
+            }
+            catch (Throwable th)
+            {
+                logListenerException(th);
+            }
+        }
+    }
+
+    private void firePermutationFinished(ResolveException ex)
+    {
+        for (ResolverListener listener : m_listeners)
+        {
+            try
+            {
+                listener.permutationFinished(m_packageSourcesCache.size(), ex);
+            }
+            catch (Throwable th)
+            {
+                logListenerException(th);
+            }
+        }
+    }
+
+    private void fireResolveFinished(long time, ResolveException ex)
+    {
+        for (ResolverListener listener : m_listeners)
+        {
+            try
+            {
+                listener.resolveFinished(time, ex);
+            }
+            catch (Throwable th)
+            {
+                logListenerException(th);
+            }
+        }
+    }
+
+    private void logListenerException(Throwable th)
+    {
+        m_logger.log(Logger.LOG_WARNING, "Resolver listener threw an exception.", th);
+    }
+
     private void checkPackageSpaceConsistency(
         ResolveContext rc,
         boolean isDynamicImporting,
         BundleRevision revision,
         Candidates allCandidates,
         Map<BundleRevision, Packages> revisionPkgMap,
-        Map<BundleRevision, Object> resultCache)
+        Map<BundleRevision, Object> resultCache,
+        List<Candidates> usesPermutations,
+        List<Candidates> importPermutations)
     {
         if ((revision.getWiring() != null) && !isDynamicImporting)
         {
@@ -962,9 +1574,9 @@ public class ResolverImpl implements Resolver
                     else if (!sourceBlame.m_cap.getRevision().equals(blame.m_cap.getRevision()))
                     {
                         // Try to permutate the conflicting requirement.
-                        permutate(allCandidates, blame.m_reqs.get(0), m_importPermutations);
+                        permutate(allCandidates, blame.m_reqs.get(0), importPermutations);
                         // Try to permutate the source requirement.
-                        permutate(allCandidates, sourceBlame.m_reqs.get(0), m_importPermutations);
+                        permutate(allCandidates, sourceBlame.m_reqs.get(0), importPermutations);
                         // Report conflict.
                         ResolveException ex = new ResolveException(
                             "Uses constraint violation. Unable to resolve bundle revision "
@@ -1053,7 +1665,7 @@ public class ResolverImpl implements Resolver
                         {
                             mutated.add(req);
                             // Remove the conflicting candidate.
-                            candidates.remove(0);
+                            permutation.removeFirstCandidate(req);
                             // Continue with the next uses constraint.
                             break;
                         }
@@ -1065,7 +1677,7 @@ public class ResolverImpl implements Resolver
             {
                 if (mutated.size() > 0)
                 {
-                    m_usesPermutations.add(permutation);
+                    addPermutation(usesPermutations, permutation);
                 }
                 m_logger.log(
                     Logger.LOG_DEBUG,
@@ -1140,7 +1752,7 @@ public class ResolverImpl implements Resolver
                             {
                                 mutated.add(req);
                                 // Remove the conflicting candidate.
-                                candidates.remove(0);
+                                permutation.removeFirstCandidate(req);
                                 // Continue with the next uses constraint.
                                 break;
                             }
@@ -1159,7 +1771,7 @@ public class ResolverImpl implements Resolver
                     // Add uses permutation if we mutated any candidates.
                     if (mutated.size() > 0)
                     {
-                        m_usesPermutations.add(permutation);
+                        addPermutation(usesPermutations, permutation);
                     }
 
                     // Try to permutate the candidate for the original
@@ -1172,7 +1784,7 @@ public class ResolverImpl implements Resolver
                         // with existing import decisions, we may end up trying
                         // to permutate the same import a lot of times, so we should
                         // try to check if that the case and only permutate it once.
-                        permutateIfNeeded(allCandidates, req, m_importPermutations);
+                        permutateIfNeeded(allCandidates, req, importPermutations);
                     }
 
                     m_logger.log(
@@ -1191,7 +1803,7 @@ public class ResolverImpl implements Resolver
         // current revision depends. Keep track of the current number
         // of permutations so we know if the lower level check was
         // able to create a permutation or not in the case of failure.
-        int permCount = m_usesPermutations.size() + m_importPermutations.size();
+        int permCount = usesPermutations.size() + importPermutations.size();
         for (Entry<String, List<Blame>> entry : pkgs.m_importedPkgs.entrySet())
         {
             for (Blame importBlame : entry.getValue())
@@ -1202,7 +1814,8 @@ public class ResolverImpl implements Resolver
                     {
                         checkPackageSpaceConsistency(
                             rc, false, importBlame.m_cap.getRevision(),
-                            allCandidates, revisionPkgMap, resultCache);
+                            allCandidates, revisionPkgMap, resultCache,
+                            usesPermutations, importPermutations);
                     }
                     catch (ResolveException ex)
                     {
@@ -1210,10 +1823,10 @@ public class ResolverImpl implements Resolver
                         // then we should create an import permutation for the
                         // requirement with the dependency on the failing revision
                         // to backtrack on our current candidate selection.
-                        if (permCount == (m_usesPermutations.size() + m_importPermutations.size()))
+                        if (permCount == (usesPermutations.size() + importPermutations.size()))
                         {
                             BundleRequirement req = importBlame.m_reqs.get(0);
-                            permutate(allCandidates, req, m_importPermutations);
+                            permutate(allCandidates, req, importPermutations);
                         }
                         throw ex;
                     }
@@ -1222,20 +1835,35 @@ public class ResolverImpl implements Resolver
         }
     }
 
-    private static void permutate(
+    private void permutate(
         Candidates allCandidates, BundleRequirement req, List<Candidates> permutations)
     {
         List<BundleCapability> candidates = allCandidates.getCandidates(req);
         if (candidates.size() > 1)
         {
             Candidates perm = allCandidates.copy();
-            candidates = perm.getCandidates(req);
-            candidates.remove(0);
+            perm.removeFirstCandidate(req);
+            addPermutation(permutations, perm);
+        }
+    }
+
+    /**
+     * Adds the specified permutation to the specified list, unless an
+     * identical permutation was already added during the current resolve.
+     * Permutations collected for a concurrent consistency check are only
+     * de-duplicated when they are added to the shared lists, so the order
+     * in which permutations are explored does not depend on thread timing.
+    **/
+    private void addPermutation(List<Candidates> permutations, Candidates perm)
+    {
+        if (((permutations != m_usesPermutations) && (permutations != m_importPermutations))
+            || m_explored.add(perm.getPermutation()))
+        {
             permutations.add(perm);
         }
     }
 
-    private static void permutateIfNeeded(
+    private void permutateIfNeeded(
         Candidates allCandidates, BundleRequirement req, List<Candidates> permutations)
     {
         List<BundleCapability> candidates = allCandidates.getCandidates(req);
@@ -1247,15 +1875,12 @@ public class ResolverImpl implements Resolver
             // there is any permutation that contains a different
             // initial candidate for the requirement in question,
             // then it has already been permutated.
-            boolean permutated = false;
-            for (Candidates existingPerm : permutations)
-            {
-                List<BundleCapability> existingPermCands = existingPerm.getCandidates(req);
-                if (!existingPermCands.get(0).equals(candidates.get(0)))
-                {
-                    permutated = true;
-                }
-            }
+            // When checking package spaces concurrently, the permutations
+            // are collected per worker, so the shared permutations must be
+            // checked as well; they are not modified while workers run.
+            boolean permutated = isPermutated(candidates, req, permutations)
+                || ((permutations != m_importPermutations)
+                    && isPermutated(candidates, req, m_importPermutations));
             // If we haven't already permutated the existing
             // import, do so now.
             if (!permutated)
@@ -1265,6 +1890,22 @@ public class ResolverImpl implements Resolver
         }
     }
 
+    private static boolean isPermutated(
+        List<BundleCapability> candidates, BundleRequirement req,
+        List<Candidates> permutations)
+    {
+        for (Candidates existingPerm : permutations)
+        {
+            List<BundleCapability> existingPermCands = existingPerm.getCandidates(req);
+            if ((existingPermCands != null)
+                && !existingPermCands.get(0).equals(candidates.get(0)))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static void calculateExportedPackages(
         BundleRevision revision,
         Candidates allCandidates,
@@ -1358,7 +1999,7 @@ public class ResolverImpl implements Resolver
     }
 
     private Map<BundleCapability, List<BundleCapability>> m_packageSourcesCache
-        = new HashMap();
+        = new ConcurrentHashMap<BundleCapability, List<BundleCapability>>();
 
     private List<BundleCapability> getPackageSources(
         BundleCapability cap, Map<BundleRevision, Packages> revisionPkgMap)
@@ -1808,4 +2449,46 @@ public class ResolverImpl implements Resolver
                 && m_cap.equals(((Blame) o).m_cap);
         }
     }
+
+    private static class ResolvedPackages
+    {
+        public final BundleWiring m_wiring;
+        public final Packages m_pkgs;
+        public final List<BundleRevision> m_providers;
+
+        public ResolvedPackages(
+            BundleWiring wiring, Packages pkgs, List<BundleRevision> providers)
+        {
+            m_wiring = wiring;
+            m_pkgs = pkgs;
+            m_providers = providers;
+        }
+    }
+
+    private static class DeferredUses
+    {
+        public final BundleRevision m_revision;
+        public final List<BundleRequirement> m_reqs;
+        public final List<BundleCapability> m_caps;
+
+        public DeferredUses(
+            BundleRevision revision, List<BundleRequirement> reqs, List<BundleCapability> caps)
+        {
+            m_revision = revision;
+            m_reqs = reqs;
+            m_caps = caps;
+        }
+    }
+
+    private static class ResolverThreadFactory implements ThreadFactory
+    {
+        private int m_count = 0;
+
+        public synchronized Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "FelixResolver-" + (++m_count));
+            t.setDaemon(true);
+            return t;
+        }
+    }
 }
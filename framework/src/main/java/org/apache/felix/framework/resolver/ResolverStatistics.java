@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.resolver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.osgi.resource.Resource;
+
+/**
+ * Resolver listener which counts resolve operations, candidate
+ * permutations and consistency checks, and accumulates their timings.
+**/
+public class ResolverStatistics implements ResolverListener
+{
+    private final AtomicLong m_resolveCount = new AtomicLong();
+    private final AtomicLong m_failedResolveCount = new AtomicLong();
+    private final AtomicLong m_resolveTime = new AtomicLong();
+    private final AtomicLong m_permutationCount = new AtomicLong();
+    private final AtomicLong m_inconsistentPermutationCount = new AtomicLong();
+    private final AtomicLong m_checkCount = new AtomicLong();
+    private final AtomicLong m_checkTime = new AtomicLong();
+    private final AtomicLong m_maxPackageSources = new AtomicLong();
+
+    public void resolveStarted(Resource dynamicImporter)
+    {
+    }
+
+    public void permutationStarted(int usesPermutations, int importPermutations)
+    {
+        m_permutationCount.incrementAndGet();
+    }
+
+    public void consistencyChecked(Resource resource, long time, Exception ex)
+    {
+        m_checkCount.incrementAndGet();
+        m_checkTime.addAndGet(time);
+    }
+
+    public void permutationFinished(int packageSources, Exception ex)
+    {
+        if (ex != null)
+        {
+            m_inconsistentPermutationCount.incrementAndGet();
+        }
+        long max = m_maxPackageSources.get();
+        while ((packageSources > max)
+            && !m_maxPackageSources.compareAndSet(max, packageSources))
+        {
+            max = m_maxPackageSources.get();
+        }
+    }
+
+    public void resolveFinished(long time, Exception ex)
+    {
+        m_resolveCount.incrementAndGet();
+        if (ex != null)
+        {
+            m_failedResolveCount.incrementAndGet();
+        }
+        m_resolveTime.addAndGet(time);
+    }
+
+    public long getResolveCount()
+    {
+        return m_resolveCount.get();
+    }
+
+    public long getFailedResolveCount()
+    {
+        return m_failedResolveCount.get();
+    }
+
+    /**
+     * Returns the accumulated time of all resolve operations in nanoseconds.
+    **/
+    public long getResolveTime()
+    {
+        return m_resolveTime.get();
+    }
+
+    public long getPermutationCount()
+    {
+        return m_permutationCount.get();
+    }
+
+    /**
+     * Returns the number of permutations which were inconsistent and
+     * caused the resolver to backtrack.
+    **/
+    public long getInconsistentPermutationCount()
+    {
+        return m_inconsistentPermutationCount.get();
+    }
+
+    public long getConsistencyCheckCount()
+    {
+        return m_checkCount.get();
+    }
+
+    /**
+     * Returns the accumulated time of all consistency checks in nanoseconds.
+    **/
+    public long getConsistencyCheckTime()
+    {
+        return m_checkTime.get();
+    }
+
+    /**
+     * Returns the largest size the package sources cache had at the end of
+     * a permutation.
+    **/
+    public long getMaxPackageSources()
+    {
+        return m_maxPackageSources.get();
+    }
+
+    public String toString()
+    {
+        return "resolves=" + getResolveCount()
+            + ", failed=" + getFailedResolveCount()
+            + ", resolveTime=" + (getResolveTime() / 1000000) + "ms"
+            + ", permutations=" + getPermutationCount()
+            + ", inconsistent=" + getInconsistentPermutationCount()
+            + ", checks=" + getConsistencyCheckCount()
+            + ", checkTime=" + (getConsistencyCheckTime() / 1000000) + "ms"
+            + ", maxPackageSources=" + getMaxPackageSources();
+    }
+}
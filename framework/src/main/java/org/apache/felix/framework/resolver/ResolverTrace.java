@@ -0,0 +1,176 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.resolver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.apache.felix.framework.Logger;
+import org.osgi.resource.Resource;
+
+/**
+ * Resolver listener which appends a trace of every resolve operation to a
+ * file, as one JSON object per line. Each object lists the candidate
+ * permutations which were checked, the time each consistency check took
+ * and the uses constraint violation which made a permutation inconsistent.
+ * Resolve operations running on different threads are traced separately.
+**/
+public class ResolverTrace implements ResolverListener
+{
+    private final Logger m_logger;
+    private final File m_file;
+    // Holds the trace of the resolve operation running on the current thread.
+    private final ThreadLocal<Trace> m_trace = new ThreadLocal<Trace>();
+
+    public ResolverTrace(Logger logger, File file)
+    {
+        m_logger = logger;
+        m_file = file;
+    }
+
+    public void resolveStarted(Resource dynamicImporter)
+    {
+        Trace trace = new Trace();
+        m_trace.set(trace);
+        trace.m_buffer.append("{\"dynamicImporter\":");
+        trace.appendString((dynamicImporter == null) ? null : dynamicImporter.toString());
+        trace.m_buffer.append(",\"permutations\":[");
+    }
+
+    public void permutationStarted(int usesPermutations, int importPermutations)
+    {
+        Trace trace = m_trace.get();
+        if (!trace.m_firstPermutation)
+        {
+            trace.m_buffer.append(',');
+        }
+        trace.m_firstPermutation = false;
+        trace.m_buffer.append("{\"usesPermutations\":").append(usesPermutations)
+            .append(",\"importPermutations\":").append(importPermutations)
+            .append(",\"checks\":[");
+        trace.m_firstCheck = true;
+    }
+
+    public void consistencyChecked(Resource resource, long time, Exception ex)
+    {
+        Trace trace = m_trace.get();
+        if (!trace.m_firstCheck)
+        {
+            trace.m_buffer.append(',');
+        }
+        trace.m_firstCheck = false;
+        trace.m_buffer.append("{\"resource\":");
+        trace.appendString(resource.toString());
+        trace.m_buffer.append(",\"time\":").append(time).append(",\"conflict\":");
+        trace.appendString((ex == null) ? null : ex.getMessage());
+        trace.m_buffer.append('}');
+    }
+
+    public void permutationFinished(int packageSources, Exception ex)
+    {
+        m_trace.get().m_buffer.append("],\"packageSources\":").append(packageSources)
+            .append(",\"consistent\":").append(ex == null).append('}');
+    }
+
+    public void resolveFinished(long time, Exception ex)
+    {
+        Trace trace = m_trace.get();
+        m_trace.remove();
+        trace.m_buffer.append("],\"time\":").append(time).append(",\"error\":");
+        trace.appendString((ex == null) ? null : ex.getMessage());
+        trace.m_buffer.append("}\n");
+        write(trace.m_buffer.toString());
+    }
+
+    private synchronized void write(String line)
+    {
+        OutputStream os = null;
+        try
+        {
+            os = new FileOutputStream(m_file, true);
+            os.write(line.getBytes("UTF-8"));
+        }
+        catch (IOException ioe)
+        {
+            m_logger.log(Logger.LOG_WARNING,
+                "Unable to write resolver trace to " + m_file, ioe);
+        }
+        finally
+        {
+            try
+            {
+                if (os != null) os.close();
+            }
+            catch (IOException ioe)
+            {
+                // Nothing we can do.
+            }
+        }
+    }
+
+    private static class Trace
+    {
+        public final StringBuilder m_buffer = new StringBuilder();
+        public boolean m_firstPermutation = true;
+        public boolean m_firstCheck = true;
+
+        public void appendString(String s)
+        {
+            if (s == null)
+            {
+                m_buffer.append("null");
+                return;
+            }
+            m_buffer.append('"');
+            for (int i = 0; i < s.length(); i++)
+            {
+                char c = s.charAt(i);
+                switch (c)
+                {
+                    case '"':
+                        m_buffer.append("\\\"");
+                        break;
+                    case '\\':
+                        m_buffer.append("\\\\");
+                        break;
+                    case '\n':
+                        m_buffer.append("\\n");
+                        break;
+                    case '\r':
+                        m_buffer.append("\\r");
+                        break;
+                    case '\t':
+                        m_buffer.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20)
+                        {
+                            m_buffer.append(String.format("\\u%04x", (int) c));
+                        }
+                        else
+                        {
+                            m_buffer.append(c);
+                        }
+                }
+            }
+            m_buffer.append('"');
+        }
+    }
+}
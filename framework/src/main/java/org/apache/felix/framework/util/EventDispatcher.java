@@ -28,10 +28,16 @@ import java.util.EventListener;
 import java.util.EventObject;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.felix.framework.Logger;
 import org.apache.felix.framework.ServiceRegistry;
@@ -65,6 +71,10 @@ public class EventDispatcher
         m_syncBndlListeners = Collections.EMPTY_MAP;
     private Map<BundleContext, List<ListenerInfo>>
         m_svcListeners = Collections.EMPTY_MAP;
+    // Index of the service listeners by their filters, which is always
+    // updated together with the service listener map.
+    private final ServiceListenerIndex m_svcListenerIndex = new ServiceListenerIndex();
+    private final ServiceEventStatistics m_svcEventStatistics = new ServiceEventStatistics();
 
     // A single thread is used to deliver events for all dispatchers.
     private static Thread m_thread = null;
@@ -79,14 +89,43 @@ public class EventDispatcher
 
     private static final SecureAction m_secureAction = new SecureAction();
 
+    // If a thread pool size is configured, this dispatcher delivers its
+    // asynchronous events on its own pool of threads instead of the shared
+    // dispatch thread. Each listener then has its own queue of events, so
+    // events are still delivered in order to each listener, but a slow
+    // listener only delays its own events.
+    private final int m_poolSize;
+    private ExecutorService m_executor = null;
+    private final Map<ListenerInfo, ListenerQueue> m_listenerQueues =
+        new HashMap<ListenerInfo, ListenerQueue>();
+
     public EventDispatcher(Logger logger, ServiceRegistry registry)
+    {
+        this(logger, registry, 0);
+    }
+
+    public EventDispatcher(Logger logger, ServiceRegistry registry, int poolSize)
     {
         m_logger = logger;
         m_registry = registry;
+        m_poolSize = poolSize;
     }
 
     public void startDispatching()
     {
+        if (m_poolSize > 0)
+        {
+            synchronized (m_listenerQueues)
+            {
+                if (m_executor == null)
+                {
+                    m_executor = Executors.newFixedThreadPool(
+                        m_poolSize, new DispatchThreadFactory());
+                }
+            }
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Start event dispatching thread if necessary.
@@ -125,6 +164,39 @@ public class EventDispatcher
 
     public void stopDispatching()
     {
+        if (m_poolSize > 0)
+        {
+            ExecutorService executor;
+            synchronized (m_listenerQueues)
+            {
+                executor = m_executor;
+                m_executor = null;
+            }
+            // Already queued events are still delivered before the
+            // dispatch threads terminate.
+            if (executor != null)
+            {
+                executor.shutdown();
+                boolean interrupted = false;
+                while (!executor.isTerminated())
+                {
+                    try
+                    {
+                        executor.awaitTermination(1, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Return if already dead or stopping.
@@ -259,6 +331,7 @@ public class EventDispatcher
             else if (clazz == ServiceListener.class)
             {
                 m_svcListeners = listeners;
+                m_svcListenerIndex.add(info);
             }
         }
         return null;
@@ -311,6 +384,7 @@ public class EventDispatcher
 
             // Try to find the instance in our list.
             int idx = -1;
+            ListenerInfo removedInfo = null;
             for (Entry<BundleContext, List<ListenerInfo>> entry : listeners.entrySet())
             {
                 List<ListenerInfo> infos = entry.getValue();
@@ -328,6 +402,7 @@ public class EventDispatcher
                             returnInfo = new ListenerInfo(infos.get(i), true);
                         }
                         idx = i;
+                        removedInfo = info;
                         break;
                     }
                 }
@@ -357,6 +432,10 @@ public class EventDispatcher
             else if (clazz == ServiceListener.class)
             {
                 m_svcListeners = listeners;
+                if (removedInfo != null)
+                {
+                    m_svcListenerIndex.remove(removedInfo);
+                }
             }
         }
 
@@ -385,6 +464,14 @@ public class EventDispatcher
             m_syncBndlListeners = removeListenerInfos(m_syncBndlListeners, bc);
 
             // Remove all service listeners associated with the specified bundle.
+            List<ListenerInfo> infos = m_svcListeners.get(bc);
+            if (infos != null)
+            {
+                for (ListenerInfo info : infos)
+                {
+                    m_svcListenerIndex.remove(info);
+                }
+            }
             m_svcListeners = removeListenerInfos(m_svcListeners, bc);
         }
     }
@@ -426,6 +513,7 @@ public class EventDispatcher
                             info.getSecurityContext(),
                             info.isRemoved());
                         m_svcListeners = updateListenerInfo(m_svcListeners, i, newInfo);
+                        m_svcListenerIndex.update(info, newInfo);
                         return oldFilter;
                     }
                 }
@@ -537,12 +625,51 @@ public class EventDispatcher
             listeners = m_svcListeners;
         }
 
+        // Only the listeners whose filters may match the service need to be
+        // called; the index also includes old properties, so listeners of a
+        // modified service that matched before still get an end match event.
+        List<ListenerInfo> candidates =
+            m_svcListenerIndex.getCandidates(event.getServiceReference(), oldProps);
+
         // Use service registry hooks to filter target listeners.
-        listeners = filterListenersUsingHooks(event, felix, listeners);
+        Map<BundleContext, List<ListenerInfo>> filtered =
+            filterListenersUsingHooks(event, felix, listeners);
+        Set<ListenerInfo> allowed = null;
+        if (filtered != listeners)
+        {
+            allowed = new HashSet<ListenerInfo>();
+            for (List<ListenerInfo> infos : filtered.values())
+            {
+                allowed.addAll(infos);
+            }
+        }
 
-        // Fire all service events immediately on the calling thread.
-        fireEventImmediately(
-            this, Request.SERVICE_EVENT, listeners, event, oldProps);
+        // Fire all service events immediately on the calling thread, in
+        // the order the listeners were registered.
+        int evaluated = 0;
+        int matched = 0;
+        for (ListenerInfo info : candidates)
+        {
+            if ((allowed == null) || allowed.contains(info))
+            {
+                evaluated++;
+                if (invokeListenerCallback(
+                    this, Request.SERVICE_EVENT, info, event, oldProps))
+                {
+                    matched++;
+                }
+            }
+        }
+        m_svcEventStatistics.fired(evaluated, matched);
+    }
+
+    /**
+     * Returns the statistics of the service events fired by this dispatcher.
+     * @return the service event statistics.
+    **/
+    public ServiceEventStatistics getServiceEventStatistics()
+    {
+        return m_svcEventStatistics;
     }
 
 // TODO: OSGi R4.3 - This is ugly and inefficient.
@@ -725,6 +852,12 @@ public class EventDispatcher
         Map<BundleContext, List<ListenerInfo>> listeners,
         EventObject event)
     {
+        if (dispatcher.m_poolSize > 0)
+        {
+            dispatcher.queueEvent(type, listeners, event);
+            return;
+        }
+
         //TODO: should possibly check this within thread lock, seems to be ok though without
         // If dispatch thread is stopped, then ignore dispatch request.
         if (m_stopping || m_thread == null)
@@ -774,37 +907,96 @@ public class EventDispatcher
             {
                 for (ListenerInfo info : entry.getValue())
                 {
-                    Bundle bundle = info.getBundle();
-                    EventListener l = info.getListener();
-                    Filter filter = info.getParsedFilter();
-                    Object acc = info.getSecurityContext();
+                    invokeListenerCallback(dispatcher, type, info, event, oldProps);
+                }
+            }
+        }
+    }
+
+    private static boolean invokeListenerCallback(
+        EventDispatcher dispatcher, int type, ListenerInfo info,
+        EventObject event, Dictionary oldProps)
+    {
+        Bundle bundle = info.getBundle();
+        EventListener l = info.getListener();
+        Filter filter = info.getParsedFilter();
+        Object acc = info.getSecurityContext();
+
+        try
+        {
+            if (type == Request.FRAMEWORK_EVENT)
+            {
+                invokeFrameworkListenerCallback(bundle, l, event);
+            }
+            else if (type == Request.BUNDLE_EVENT)
+            {
+                invokeBundleListenerCallback(bundle, l, event);
+            }
+            else if (type == Request.SERVICE_EVENT)
+            {
+                return invokeServiceListenerCallback(
+                    bundle, l, filter, acc, event, oldProps);
+            }
+            return true;
+        }
+        catch (Throwable th)
+        {
+            if ((type != Request.FRAMEWORK_EVENT)
+                || (((FrameworkEvent) event).getType() != FrameworkEvent.ERROR))
+            {
+                dispatcher.m_logger.log(bundle,
+                    Logger.LOG_ERROR,
+                    "EventDispatcher: Error during dispatch.", th);
+                dispatcher.fireFrameworkEvent(
+                    new FrameworkEvent(FrameworkEvent.ERROR, bundle, th));
+            }
+        }
+        return false;
+    }
 
+    /**
+     * Adds the event to the queue of each of the specified listeners and
+     * schedules the queues that are not already scheduled on the thread
+     * pool of this dispatcher. The event is ignored if the dispatcher
+     * is not dispatching.
+    **/
+    private void queueEvent(
+        int type, Map<BundleContext, List<ListenerInfo>> listeners, EventObject event)
+    {
+        for (Entry<BundleContext, List<ListenerInfo>> entry : listeners.entrySet())
+        {
+            for (ListenerInfo info : entry.getValue())
+            {
+                ListenerQueue queue = null;
+                ExecutorService executor;
+                synchronized (m_listenerQueues)
+                {
+                    executor = m_executor;
+                    if (executor == null)
+                    {
+                        return;
+                    }
+                    ListenerQueue existing = m_listenerQueues.get(info);
+                    if (existing == null)
+                    {
+                        queue = new ListenerQueue(type, info);
+                        m_listenerQueues.put(info, queue);
+                        existing = queue;
+                    }
+                    existing.m_events.add(event);
+                }
+                if (queue != null)
+                {
                     try
                     {
-                        if (type == Request.FRAMEWORK_EVENT)
-                        {
-                            invokeFrameworkListenerCallback(bundle, l, event);
-                        }
-                        else if (type == Request.BUNDLE_EVENT)
-                        {
-                            invokeBundleListenerCallback(bundle, l, event);
-                        }
-                        else if (type == Request.SERVICE_EVENT)
-                        {
-                            invokeServiceListenerCallback(
-                                bundle, l, filter, acc, event, oldProps);
-                        }
+                        executor.execute(queue);
                     }
-                    catch (Throwable th)
+                    catch (RejectedExecutionException ex)
                     {
-                        if ((type != Request.FRAMEWORK_EVENT)
-                            || (((FrameworkEvent) event).getType() != FrameworkEvent.ERROR))
+                        // The dispatcher is stopping, so drop the queue.
+                        synchronized (m_listenerQueues)
                         {
-                            dispatcher.m_logger.log(bundle,
-                                Logger.LOG_ERROR,
-                                "EventDispatcher: Error during dispatch.", th);
-                            dispatcher.fireFrameworkEvent(
-                                new FrameworkEvent(FrameworkEvent.ERROR, bundle, th));
+                            m_listenerQueues.remove(info);
                         }
                     }
                 }
@@ -871,7 +1063,7 @@ public class EventDispatcher
         }
     }
 
-    private static void invokeServiceListenerCallback(
+    private static boolean invokeServiceListenerCallback(
         Bundle bundle, final EventListener l, Filter filter, Object acc,
         final EventObject event, final Dictionary oldProps)
     {
@@ -881,7 +1073,7 @@ public class EventDispatcher
             (bundle.getState() != Bundle.STOPPING) &&
             (bundle.getState() != Bundle.ACTIVE))
         {
-            return;
+            return false;
         }
 
         // Check that the bundle has permission to get at least
@@ -906,6 +1098,7 @@ public class EventDispatcher
             }
         }
 
+        boolean delivered = false;
         if (hasPermission)
         {
             // Dispatch according to the filter.
@@ -942,6 +1135,7 @@ public class EventDispatcher
                     {
                         ((ServiceListener) l).serviceChanged((ServiceEvent) event);
                     }
+                    delivered = true;
                 }
             }
             // We need to send an MODIFIED_ENDMATCH event if the listener
@@ -968,9 +1162,11 @@ public class EventDispatcher
                     {
                         ((ServiceListener) l).serviceChanged(se);
                     }
+                    delivered = true;
                 }
             }
         }
+        return delivered;
     }
 
     private static Map<BundleContext, List<ListenerInfo>> addListenerInfo(
@@ -1123,4 +1319,52 @@ public class EventDispatcher
         public Map<BundleContext, List<ListenerInfo>> m_listeners = null;
         public EventObject m_event = null;
     }
+
+    /**
+     * The pending asynchronous events of a single listener. A queue is
+     * scheduled on the thread pool when its first event is added and
+     * removes itself once it has delivered all of its events, so at most
+     * one thread delivers events to a listener at any time.
+    **/
+    private class ListenerQueue implements Runnable
+    {
+        private final int m_type;
+        private final ListenerInfo m_info;
+        private final LinkedList<EventObject> m_events = new LinkedList<EventObject>();
+
+        ListenerQueue(int type, ListenerInfo info)
+        {
+            m_type = type;
+            m_info = info;
+        }
+
+        public void run()
+        {
+            while (true)
+            {
+                EventObject event;
+                synchronized (m_listenerQueues)
+                {
+                    if (m_events.isEmpty())
+                    {
+                        m_listenerQueues.remove(m_info);
+                        return;
+                    }
+                    event = m_events.removeFirst();
+                }
+                invokeListenerCallback(
+                    EventDispatcher.this, m_type, m_info, event, null);
+            }
+        }
+    }
+
+    private static class DispatchThreadFactory implements ThreadFactory
+    {
+        private int m_count = 0;
+
+        public synchronized Thread newThread(Runnable r)
+        {
+            return new Thread(r, "FelixDispatchQueue-" + (++m_count));
+        }
+    }
 }
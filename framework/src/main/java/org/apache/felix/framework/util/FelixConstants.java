@@ -51,6 +51,21 @@ public interface FelixConstants extends org.osgi.framework.Constants
     String IMPLICIT_BOOT_DELEGATION_PROP = "felix.bootdelegation.implicit";
     String BOOT_CLASSLOADERS_PROP = "felix.bootdelegation.classloaders";
     String USE_LOCALURLS_PROP = "felix.jarurls";
+    String SERVICE_INDICES_PROP = "felix.service.indices";
+    String SERVICE_RANGE_INDICES_PROP = "felix.service.range.indices";
+    String RESOLVER_INDICES_PROP = "felix.resolver.indices";
+    String RESOLVER_RANGE_INDICES_PROP = "felix.resolver.range.indices";
+    String RESOLVER_SNAPSHOT_PROP = "felix.resolver.snapshot";
+    String RESOLVER_PARALLELISM_PROP = "felix.resolver.parallelism";
+    String RESOLVER_LISTENER_PROP = "felix.resolver.listener";
+    String RESOLVER_TRACE_PROP = "felix.resolver.trace";
+    String RESOLVER_TIMEOUT_PROP = "felix.resolver.timeout";
+    String RESOLVER_PERMUTATIONS_PROP = "felix.resolver.permutations";
+    String EVENTDISPATCHER_THREADS_PROP = "felix.eventdispatcher.threads";
+    String STARTLEVEL_THREADS_PROP = "felix.startlevel.threads";
+    String INSTALL_THREADS_PROP = "felix.install.threads";
+    String REFRESH_THREADS_PROP = "felix.refresh.threads";
+    String WIRING_LOOKUP_CACHE_SIZE_PROP = "felix.wiring.lookup.cache.size";
 
     // Missing OSGi constant for resolution directive.
     String RESOLUTION_DYNAMIC = "dynamic";
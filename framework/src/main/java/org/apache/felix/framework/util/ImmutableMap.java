@@ -22,15 +22,27 @@ import java.util.AbstractMap;
 import java.util.AbstractSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
+/**
+ * Immutable map which keeps its keys and values in a single array, since
+ * the attribute and directive maps of capabilities and requirements rarely
+ * have more than a few entries. Lookups scan the array, which is faster
+ * than hashing for such small maps, and no entry objects are kept on the
+ * heap.
+**/
 public class ImmutableMap<K, V> extends AbstractMap<K, V>
 {
-    final Entry<K, V>[] entries;
+    private static final ImmutableMap EMPTY = new ImmutableMap(new Object[0]);
+
+    // Holds the keys at even and the values at odd indices.
+    final Object[] table;
 
     public static <K, V> ImmutableMap<K, V> newInstance(Entry<K, V>... entries)
     {
-        return new ImmutableMap<K, V>(entries);
+        return (entries.length == 0)
+            ? EMPTY : new ImmutableMap<K, V>(toTable(entries));
     }
 
     public static <K, V> ImmutableMap<K, V> newInstance(Map<K, V> entries)
@@ -39,46 +51,102 @@ public class ImmutableMap<K, V> extends AbstractMap<K, V>
         {
             return (ImmutableMap<K, V>) entries;
         }
+        else if (entries.isEmpty())
+        {
+            return EMPTY;
+        }
         else
         {
-            return new ImmutableMap<K, V>(entries);
+            return new ImmutableMap<K, V>(toTable(entries));
         }
     }
 
     protected ImmutableMap(Entry<K, V>[] entries)
     {
-        this.entries = entries.clone();
+        this(toTable(entries));
     }
 
     protected ImmutableMap(Map<K, V> map)
     {
-        this.entries = map.entrySet().toArray(new Entry[map.size()]);
+        this(toTable(map));
+    }
+
+    ImmutableMap(Object[] table)
+    {
+        this.table = table;
+    }
+
+    private static Object[] toTable(Entry<?, ?>[] entries)
+    {
+        Object[] table = new Object[entries.length * 2];
+        for (int i = 0; i < entries.length; i++)
+        {
+            table[i * 2] = entries[i].getKey();
+            table[i * 2 + 1] = entries[i].getValue();
+        }
+        return table;
+    }
+
+    private static Object[] toTable(Map<?, ?> map)
+    {
+        Object[] table = new Object[map.size() * 2];
+        int i = 0;
+        for (Entry<?, ?> entry : map.entrySet())
+        {
+            table[i++] = entry.getKey();
+            table[i++] = entry.getValue();
+        }
+        return table;
+    }
+
+    @Override
+    public int size()
+    {
+        return table.length / 2;
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return table.length == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return indexOf(key) >= 0;
     }
 
     @Override
     public V get(Object key)
+    {
+        int idx = indexOf(key);
+        return (idx < 0) ? null : (V) table[idx + 1];
+    }
+
+    private int indexOf(Object key)
     {
         if (key == null)
         {
-            for (int i = 0; i < entries.length; i++)
+            for (int i = 0; i < table.length; i += 2)
             {
-                if (entries[i].getKey() == null)
+                if (table[i] == null)
                 {
-                    return entries[i].getValue();
+                    return i;
                 }
             }
         }
         else
         {
-            for (int i = 0; i < entries.length; i++)
+            for (int i = 0; i < table.length; i += 2)
             {
-                if (key.equals(entries[i].getKey()))
+                if ((key == table[i]) || key.equals(table[i]))
                 {
-                    return entries[i].getValue();
+                    return i;
                 }
             }
         }
-        return null;
+        return -1;
     }
 
     @Override
@@ -98,7 +166,7 @@ public class ImmutableMap<K, V> extends AbstractMap<K, V>
         @Override
         public int size()
         {
-            return entries.length;
+            return ImmutableMap.this.size();
         }
     }
 
@@ -113,12 +181,18 @@ public class ImmutableMap<K, V> extends AbstractMap<K, V>
 
         public boolean hasNext()
         {
-            return cursor != size();
+            return cursor != table.length;
         }
 
         public Entry<K, V> next()
         {
-            return entries[cursor++];
+            if (cursor == table.length)
+            {
+                throw new NoSuchElementException();
+            }
+            Entry<K, V> entry = new TableEntry(cursor);
+            cursor += 2;
+            return entry;
         }
 
         public void remove()
@@ -126,4 +200,51 @@ public class ImmutableMap<K, V> extends AbstractMap<K, V>
             throw new UnsupportedOperationException();
         }
     }
-}
\ No newline at end of file
+
+    private class TableEntry implements Entry<K, V>
+    {
+        private final int idx;
+
+        private TableEntry(int idx)
+        {
+            this.idx = idx;
+        }
+
+        public K getKey()
+        {
+            return (K) table[idx];
+        }
+
+        public V getValue()
+        {
+            return (V) table[idx + 1];
+        }
+
+        public V setValue(V value)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Entry))
+            {
+                return false;
+            }
+            Entry e = (Entry) obj;
+            return ((getKey() == null) ? e.getKey() == null : getKey().equals(e.getKey()))
+                && ((getValue() == null) ? e.getValue() == null : getValue().equals(e.getValue()));
+        }
+
+        public int hashCode()
+        {
+            return ((getKey() == null) ? 0 : getKey().hashCode())
+                ^ ((getValue() == null) ? 0 : getValue().hashCode());
+        }
+
+        public String toString()
+        {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
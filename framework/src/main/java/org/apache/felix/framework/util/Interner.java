@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import org.osgi.framework.Version;
+
+/**
+ * Canonicalizes equal immutable values, such as the package names, version
+ * strings and directive maps that many bundle manifests share, so that only
+ * one instance of each is kept on the heap. Interned values are weakly held,
+ * so they are released once no bundle revision refers to them any more.
+ * This class is thread safe; values are spread over several independently
+ * locked maps by their hash codes, so that manifests parsed concurrently
+ * rarely contend for the same map.
+**/
+public class Interner
+{
+    private static final int STRIPES = 16;
+
+    private final List<Map<Object, WeakReference<Object>>> m_stripes =
+        new ArrayList<Map<Object, WeakReference<Object>>>(STRIPES);
+
+    public Interner()
+    {
+        for (int i = 0; i < STRIPES; i++)
+        {
+            m_stripes.add(new WeakHashMap<Object, WeakReference<Object>>());
+        }
+    }
+
+    /**
+     * Returns the canonical instance of the specified value, which is the
+     * value itself if no equal value was interned before.
+     * @param value the immutable value to intern or <tt>null</tt>.
+     * @return the canonical instance of the value.
+    **/
+    public <T> T intern(T value)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        int hash = value.hashCode();
+        Map<Object, WeakReference<Object>> values =
+            m_stripes.get((hash ^ (hash >>> 16)) & (STRIPES - 1));
+        synchronized (values)
+        {
+            WeakReference<Object> ref = values.get(value);
+            Object canonical = (ref == null) ? null : ref.get();
+            if (canonical == null)
+            {
+                values.put(value, new WeakReference<Object>(value));
+                canonical = value;
+            }
+            return (T) canonical;
+        }
+    }
+
+    /**
+     * Returns the canonical immutable copy of the specified attribute or
+     * directive map. Its keys and any string or version values are interned
+     * as well.
+     * @param map the map to intern.
+     * @return the canonical immutable copy of the map.
+    **/
+    public <K, V> ImmutableMap<K, V> internMap(Map<K, V> map)
+    {
+        if (map.isEmpty())
+        {
+            return ImmutableMap.newInstance(map);
+        }
+        Object[] table = new Object[map.size() * 2];
+        int i = 0;
+        for (Map.Entry<K, V> entry : map.entrySet())
+        {
+            table[i++] = intern(entry.getKey());
+            Object value = entry.getValue();
+            if ((value instanceof String) || (value instanceof Version))
+            {
+                value = intern(value);
+            }
+            table[i++] = value;
+        }
+        return intern(new ImmutableMap<K, V>(table));
+    }
+}
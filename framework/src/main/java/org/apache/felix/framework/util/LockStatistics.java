@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how often a framework lock was acquired and how long the
+ * acquiring threads had to wait for it. The statistics of a bundle lock
+ * are obtained by adapting the bundle to this class; adapting the system
+ * bundle returns the statistics of the global lock.
+**/
+public class LockStatistics
+{
+    private final AtomicLong m_acquireCount = new AtomicLong();
+    private final AtomicLong m_contendedCount = new AtomicLong();
+    private final AtomicLong m_waitTime = new AtomicLong();
+    private final AtomicLong m_maxWaitTime = new AtomicLong();
+
+    /**
+     * Records an acquisition of the lock.
+     * @param waitTime the time in nanoseconds the acquiring thread waited,
+     *        which is zero if the lock was available right away.
+    **/
+    public void acquired(long waitTime)
+    {
+        m_acquireCount.incrementAndGet();
+        if (waitTime > 0)
+        {
+            m_contendedCount.incrementAndGet();
+            m_waitTime.addAndGet(waitTime);
+            long max = m_maxWaitTime.get();
+            while ((waitTime > max) && !m_maxWaitTime.compareAndSet(max, waitTime))
+            {
+                max = m_maxWaitTime.get();
+            }
+        }
+    }
+
+    public long getAcquireCount()
+    {
+        return m_acquireCount.get();
+    }
+
+    /**
+     * Returns the number of acquisitions for which the acquiring thread
+     * had to wait.
+    **/
+    public long getContendedCount()
+    {
+        return m_contendedCount.get();
+    }
+
+    /**
+     * Returns the accumulated time threads waited for the lock in nanoseconds.
+    **/
+    public long getWaitTime()
+    {
+        return m_waitTime.get();
+    }
+
+    /**
+     * Returns the longest time a thread waited for the lock in nanoseconds.
+    **/
+    public long getMaxWaitTime()
+    {
+        return m_maxWaitTime.get();
+    }
+
+    public String toString()
+    {
+        return "acquired=" + getAcquireCount()
+            + ", contended=" + getContendedCount()
+            + ", waitTime=" + (getWaitTime() / 1000000) + "ms"
+            + ", maxWaitTime=" + (getMaxWaitTime() / 1000000) + "ms";
+    }
+}
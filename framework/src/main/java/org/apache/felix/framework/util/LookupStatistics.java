@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the class and resource lookups a bundle wiring delegated, how
+ * many of them were answered with the help of the wiring's lookup cache
+ * and how long they took. The statistics of the current wiring of a bundle
+ * are obtained by adapting the bundle to this class.
+**/
+public class LookupStatistics
+{
+    private final AtomicLong m_lookupCount = new AtomicLong();
+    private final AtomicLong m_missHitCount = new AtomicLong();
+    private final AtomicLong m_sourceHitCount = new AtomicLong();
+    private final AtomicLong m_delegationTime = new AtomicLong();
+
+    /**
+     * Records a delegated lookup.
+     * @param time the time in nanoseconds the lookup took.
+    **/
+    public void lookedUp(long time)
+    {
+        m_lookupCount.incrementAndGet();
+        m_delegationTime.addAndGet(time);
+    }
+
+    /**
+     * Records a lookup which skipped the wiring's package sources and
+     * content, since the name was known not to be found there.
+    **/
+    public void missHit()
+    {
+        m_missHitCount.incrementAndGet();
+    }
+
+    /**
+     * Records a lookup which went straight to the revision known to
+     * provide the name.
+    **/
+    public void sourceHit()
+    {
+        m_sourceHitCount.incrementAndGet();
+    }
+
+    public long getLookupCount()
+    {
+        return m_lookupCount.get();
+    }
+
+    public long getMissHitCount()
+    {
+        return m_missHitCount.get();
+    }
+
+    public long getSourceHitCount()
+    {
+        return m_sourceHitCount.get();
+    }
+
+    /**
+     * Returns the share of lookups answered with the help of the cache,
+     * which is zero if there were no lookups.
+    **/
+    public double getHitRatio()
+    {
+        long lookups = getLookupCount();
+        return (lookups == 0)
+            ? 0 : (double) (getMissHitCount() + getSourceHitCount()) / lookups;
+    }
+
+    /**
+     * Returns the accumulated time of the delegated lookups in nanoseconds,
+     * including the time spent in the wirings delegated to.
+    **/
+    public long getDelegationTime()
+    {
+        return m_delegationTime.get();
+    }
+
+    public String toString()
+    {
+        return "lookups=" + getLookupCount()
+            + ", missHits=" + getMissHitCount()
+            + ", sourceHits=" + getSourceHitCount()
+            + ", delegationTime=" + (getDelegationTime() / 1000000) + "ms";
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the service events fired by the framework together with the
+ * service listeners that were evaluated and called for them. Listeners
+ * whose filters cannot match the service of an event are skipped by the
+ * service listener index and are not evaluated. The statistics are
+ * obtained by adapting the system bundle to this class.
+**/
+public class ServiceEventStatistics
+{
+    private final AtomicLong m_eventCount = new AtomicLong();
+    private final AtomicLong m_evaluationCount = new AtomicLong();
+    private final AtomicLong m_matchCount = new AtomicLong();
+
+    /**
+     * Records a fired service event.
+     * @param evaluated the number of listeners whose filter was evaluated.
+     * @param matched the number of listeners which were called.
+    **/
+    public void fired(int evaluated, int matched)
+    {
+        m_eventCount.incrementAndGet();
+        m_evaluationCount.addAndGet(evaluated);
+        m_matchCount.addAndGet(matched);
+    }
+
+    public long getEventCount()
+    {
+        return m_eventCount.get();
+    }
+
+    /**
+     * Returns the number of times a service listener was evaluated for a
+     * service event.
+    **/
+    public long getEvaluationCount()
+    {
+        return m_evaluationCount.get();
+    }
+
+    /**
+     * Returns the number of times a service listener was called for a
+     * service event.
+    **/
+    public long getMatchCount()
+    {
+        return m_matchCount.get();
+    }
+
+    public String toString()
+    {
+        return "events=" + getEventCount()
+            + ", evaluated=" + getEvaluationCount()
+            + ", matched=" + getMatchCount();
+    }
+}
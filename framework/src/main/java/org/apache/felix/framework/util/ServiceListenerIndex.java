@@ -0,0 +1,334 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.apache.felix.framework.capabilityset.SimpleFilter;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.UnfilteredServiceListener;
+
+/**
+ * An index of service listeners by the equality terms of their filters,
+ * used to find the listeners whose filters may match a service event
+ * without evaluating every filter. A listener whose filter can only match
+ * services with one of a set of values for an indexed property, such as a
+ * <tt>(objectClass=foo)</tt> filter or an AND filter containing it, is
+ * indexed under those values; all other listeners are always candidates.
+ * The index is updated in place and is safe for concurrent use.
+**/
+class ServiceListenerIndex
+{
+    // The indexed service properties; object class is immutable, while a
+    // service PID may change, so old properties are also considered.
+    private static final String[] INDEXED_ATTRS =
+        { Constants.OBJECTCLASS, Constants.SERVICE_PID };
+
+    // Maps each indexed property to its values and the listeners indexed
+    // under each value.
+    private final Map<String, Map<String, Set<ListenerInfo>>> m_index =
+        new HashMap<String, Map<String, Set<ListenerInfo>>>();
+    private final Set<ListenerInfo> m_unindexed = new HashSet<ListenerInfo>();
+    // Maps each listener to its registration sequence number and keys.
+    private final Map<ListenerInfo, Indexed> m_listeners =
+        new HashMap<ListenerInfo, Indexed>();
+    private long m_nextSeq = 0;
+
+    synchronized void add(ListenerInfo info)
+    {
+        add(info, m_nextSeq++);
+    }
+
+    synchronized void remove(ListenerInfo info)
+    {
+        Indexed indexed = m_listeners.remove(info);
+        if (indexed == null)
+        {
+            return;
+        }
+        if (indexed.m_keys == null)
+        {
+            m_unindexed.remove(info);
+            return;
+        }
+
+        for (Map.Entry<String, Set<String>> entry : indexed.m_keys.entrySet())
+        {
+            Map<String, Set<ListenerInfo>> values = m_index.get(entry.getKey());
+            for (String value : entry.getValue())
+            {
+                Set<ListenerInfo> infos = values.get(value);
+                infos.remove(info);
+                if (infos.isEmpty())
+                {
+                    values.remove(value);
+                }
+            }
+            if (values.isEmpty())
+            {
+                m_index.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Replaces a listener whose filter was updated, keeping its position
+     * in the registration order.
+     * @param oldInfo the listener with its old filter.
+     * @param newInfo the listener with its new filter.
+    **/
+    synchronized void update(ListenerInfo oldInfo, ListenerInfo newInfo)
+    {
+        Indexed indexed = m_listeners.get(oldInfo);
+        long seq = (indexed == null) ? m_nextSeq++ : indexed.m_seq;
+        remove(oldInfo);
+        add(newInfo, seq);
+    }
+
+    private void add(ListenerInfo info, long seq)
+    {
+        Indexed indexed = new Indexed(seq, getKeys(info));
+        m_listeners.put(info, indexed);
+        if (indexed.m_keys == null)
+        {
+            m_unindexed.add(info);
+            return;
+        }
+
+        for (Map.Entry<String, Set<String>> entry : indexed.m_keys.entrySet())
+        {
+            Map<String, Set<ListenerInfo>> values = m_index.get(entry.getKey());
+            if (values == null)
+            {
+                values = new HashMap<String, Set<ListenerInfo>>();
+                m_index.put(entry.getKey(), values);
+            }
+            for (String value : entry.getValue())
+            {
+                Set<ListenerInfo> infos = values.get(value);
+                if (infos == null)
+                {
+                    infos = new HashSet<ListenerInfo>(2);
+                    values.put(value, infos);
+                }
+                infos.add(info);
+            }
+        }
+    }
+
+    /**
+     * Returns the listeners whose filters may match the service of the
+     * specified reference, either with its current properties or with the
+     * specified old properties of a modified service.
+     * @param ref the reference of the service the event is about.
+     * @param oldProps the old properties of a modified service or null.
+     * @return the candidate listeners in the order they were registered.
+    **/
+    List<ListenerInfo> getCandidates(ServiceReference<?> ref, Dictionary<?, ?> oldProps)
+    {
+        // Read the service properties before locking the index, since
+        // the service registration has its own lock.
+        Object[] newValues = new Object[INDEXED_ATTRS.length];
+        Object[] oldValues = new Object[INDEXED_ATTRS.length];
+        for (int i = 0; i < INDEXED_ATTRS.length; i++)
+        {
+            newValues[i] = ref.getProperty(INDEXED_ATTRS[i]);
+            oldValues[i] = (oldProps == null) ? null : oldProps.get(INDEXED_ATTRS[i]);
+        }
+
+        TreeMap<Long, ListenerInfo> candidates = new TreeMap<Long, ListenerInfo>();
+        synchronized (this)
+        {
+            addCandidates(candidates, m_unindexed);
+            for (int i = 0; i < INDEXED_ATTRS.length; i++)
+            {
+                Map<String, Set<ListenerInfo>> values = m_index.get(INDEXED_ATTRS[i]);
+                if ((values != null)
+                    && (!addCandidates(candidates, values, newValues[i])
+                        || !addCandidates(candidates, values, oldValues[i])))
+                {
+                    // The property has values that cannot be looked up,
+                    // so all listeners indexed on it are candidates.
+                    for (Set<ListenerInfo> infos : values.values())
+                    {
+                        addCandidates(candidates, infos);
+                    }
+                }
+            }
+        }
+        return new ArrayList<ListenerInfo>(candidates.values());
+    }
+
+    private void addCandidates(
+        TreeMap<Long, ListenerInfo> candidates, Set<ListenerInfo> infos)
+    {
+        for (ListenerInfo info : infos)
+        {
+            candidates.put(m_listeners.get(info).m_seq, info);
+        }
+    }
+
+    private boolean addCandidates(
+        TreeMap<Long, ListenerInfo> candidates,
+        Map<String, Set<ListenerInfo>> values, Object value)
+    {
+        if (value == null)
+        {
+            return true;
+        }
+        else if (value instanceof String)
+        {
+            Set<ListenerInfo> infos = values.get(value);
+            if (infos != null)
+            {
+                addCandidates(candidates, infos);
+            }
+            return true;
+        }
+        else if (value instanceof Collection)
+        {
+            for (Object o : (Collection<?>) value)
+            {
+                if (!addCandidates(candidates, values, o))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        else if (value instanceof Object[])
+        {
+            for (int i = 0; i < Array.getLength(value); i++)
+            {
+                if (!addCandidates(candidates, values, Array.get(value, i)))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        // Other types are compared after being coerced, so their
+        // string values are not known.
+        return false;
+    }
+
+    /**
+     * Returns the indexed properties and their values that a service must
+     * have for the filter of the specified listener to match, or null if
+     * the listener may match any service.
+    **/
+    private static Map<String, Set<String>> getKeys(ListenerInfo info)
+    {
+        if ((info.getParsedFilter() == null)
+            || (info.getListener() instanceof UnfilteredServiceListener))
+        {
+            return null;
+        }
+        SimpleFilter sf;
+        try
+        {
+            sf = SimpleFilter.parse(info.getFilter());
+        }
+        catch (Exception ex)
+        {
+            return null;
+        }
+        return getKeys(sf);
+    }
+
+    private static Map<String, Set<String>> getKeys(SimpleFilter sf)
+    {
+        if ((sf.getOperation() == SimpleFilter.EQ) && (sf.getValue() instanceof String))
+        {
+            for (String attr : INDEXED_ATTRS)
+            {
+                if (attr.equalsIgnoreCase(sf.getName()))
+                {
+                    Map<String, Set<String>> keys = new HashMap<String, Set<String>>();
+                    Set<String> values = new HashSet<String>();
+                    values.add((String) sf.getValue());
+                    keys.put(attr, values);
+                    return keys;
+                }
+            }
+        }
+        else if (sf.getOperation() == SimpleFilter.AND)
+        {
+            // A match requires all subfilters to match, so the keys
+            // of any subfilter will do.
+            for (Object child : (List<?>) sf.getValue())
+            {
+                Map<String, Set<String>> keys = getKeys((SimpleFilter) child);
+                if (keys != null)
+                {
+                    return keys;
+                }
+            }
+        }
+        else if (sf.getOperation() == SimpleFilter.OR)
+        {
+            // A match requires any subfilter to match, so all subfilters
+            // must have keys.
+            Map<String, Set<String>> keys = new HashMap<String, Set<String>>();
+            for (Object child : (List<?>) sf.getValue())
+            {
+                Map<String, Set<String>> childKeys = getKeys((SimpleFilter) child);
+                if (childKeys == null)
+                {
+                    return null;
+                }
+                for (Map.Entry<String, Set<String>> entry : childKeys.entrySet())
+                {
+                    Set<String> values = keys.get(entry.getKey());
+                    if (values == null)
+                    {
+                        keys.put(entry.getKey(), entry.getValue());
+                    }
+                    else
+                    {
+                        values.addAll(entry.getValue());
+                    }
+                }
+            }
+            return keys.isEmpty() ? null : keys;
+        }
+        return null;
+    }
+
+    private static class Indexed
+    {
+        private final long m_seq;
+        private final Map<String, Set<String>> m_keys;
+
+        Indexed(long seq, Map<String, Set<String>> keys)
+        {
+            m_seq = seq;
+            m_keys = keys;
+        }
+    }
+}
@@ -32,6 +32,8 @@ import org.apache.felix.framework.BundleRevisionImpl;
 import org.apache.felix.framework.Logger;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.ImmutableMap;
+import org.apache.felix.framework.util.Interner;
 import org.apache.felix.framework.util.VersionRange;
 import org.apache.felix.framework.wiring.BundleCapabilityImpl;
 import org.apache.felix.framework.wiring.BundleRequirementImpl;
@@ -49,6 +51,10 @@ public class ManifestParser
 {
     private static final String BUNDLE_LICENSE_HEADER = "Bundle-License"; // No constant defined by OSGi...
 
+    // Shares the package names, versions and attribute maps which are
+    // equal among the capabilities and requirements of all bundles.
+    private static final Interner m_interner = new Interner();
+
     private final Logger m_logger;
     private final Map m_configMap;
     private final Map m_headerMap;
@@ -138,8 +144,8 @@ public class ManifestParser
                     hostAttrs.put(BundleRevision.HOST_NAMESPACE, value);
                     capList.add(new BundleCapabilityImpl(
                         owner, BundleRevision.HOST_NAMESPACE,
-                        bundleCap.getDirectives(),
-                        hostAttrs));
+                        internMap(bundleCap.getDirectives()),
+                        internMap(hostAttrs)));
                 }
             }
 
@@ -462,7 +468,7 @@ public class ManifestParser
                     new BundleRequirementImpl(
                         owner,
                         BundleRevision.PACKAGE_NAMESPACE,
-                        newDirs,
+                        internMap(newDirs),
                         Collections.EMPTY_MAP,
                         sf));
             }
@@ -588,8 +594,8 @@ public class ManifestParser
                         new BundleRequirementImpl(
                             owner,
                             path,
-                            clause.m_dirs,
-                            clause.m_attrs,
+                            internMap(clause.m_dirs),
+                            internMap(clause.m_attrs),
                             sf));
                 }
             }
@@ -728,8 +734,8 @@ public class ManifestParser
                     new BundleCapabilityImpl(
                         owner,
                         path,
-                        clause.m_dirs,
-                        clause.m_attrs));
+                        internMap(clause.m_dirs),
+                        internMap(clause.m_attrs)));
             }
         }
 
@@ -881,8 +887,8 @@ public class ManifestParser
                     new BundleCapabilityImpl(
                         owner,
                         BundleRevision.PACKAGE_NAMESPACE,
-                        clause.m_dirs,
-                        newAttrs));
+                        internMap(clause.m_dirs),
+                        internMap(newAttrs)));
             }
         }
 
@@ -1234,7 +1240,7 @@ public class ManifestParser
             exports.set(i, new BundleCapabilityImpl(
                 exports.get(i).getRevision(),
                 BundleRevision.PACKAGE_NAMESPACE,
-                dirs,
+                internMap(dirs),
                 exports.get(i).getAttributes()));
         }
 
@@ -1441,8 +1447,8 @@ public class ManifestParser
 
                 reqs.add(new BundleRequirementImpl(
                     owner, BundleRevision.HOST_NAMESPACE,
-                    newDirs,
-                    newAttrs));
+                    internMap(newDirs),
+                    internMap(newAttrs)));
             }
         }
         else if (headerMap.get(Constants.FRAGMENT_HOST) != null)
@@ -1665,8 +1671,8 @@ public class ManifestParser
                     new BundleRequirementImpl(
                         owner,
                         BundleRevision.BUNDLE_NAMESPACE,
-                        newDirs,
-                        newAttrs));
+                        internMap(newDirs),
+                        internMap(newAttrs)));
             }
         }
 
@@ -1928,6 +1934,17 @@ public class ManifestParser
         return clauses;
     }
 
+    /**
+     * Returns the canonical immutable copy of the specified attribute or
+     * directive map, with its keys and values interned.
+     * @param map the map to intern.
+     * @return the canonical immutable copy of the map.
+    **/
+    private static <K, V> ImmutableMap<K, V> internMap(Map<K, V> map)
+    {
+        return m_interner.internMap(map);
+    }
+
     public static List<String> parseDelimitedString(String value, String delim)
     {
         return parseDelimitedString(value, delim, true);
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.framework.ext.BatchInstallException;
+import org.apache.felix.framework.ext.FelixBundleContext;
+import org.apache.felix.framework.util.LockStatistics;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.launch.Framework;
+
+public class BatchInstallTest extends FrameworkTestSupport
+{
+    public void testInstallBundles() throws Exception
+    {
+        Framework f = createFramework();
+        try
+        {
+            FelixBundleContext context = (FelixBundleContext) f.getBundleContext();
+            Bundle existing = context.installBundle(location("existing", ""));
+
+            List<String> locations = new ArrayList<String>();
+            for (int i = 0; i < 20; i++)
+            {
+                locations.add(location("bundle" + i, "Export-Package: org.example.p" + i + "\n"));
+            }
+            locations.add(existing.getLocation());
+
+            // All bundles of the batch are added to the framework while
+            // holding the global lock once.
+            LockStatistics stats = f.adapt(LockStatistics.class);
+            long acquired = stats.getAcquireCount();
+            List<Bundle> bundles = context.installBundles(locations);
+            assertEquals(acquired + 1, stats.getAcquireCount());
+            assertEquals(locations.size(), bundles.size());
+            for (int i = 0; i < 20; i++)
+            {
+                Bundle b = bundles.get(i);
+                assertEquals(Bundle.INSTALLED, b.getState());
+                assertEquals("bundle" + i, b.getSymbolicName());
+                assertEquals(locations.get(i), b.getLocation());
+                assertSame(b, context.getBundle(b.getBundleId()));
+            }
+            assertSame(existing, bundles.get(20));
+            assertEquals(22, context.getBundles().length);
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+
+    public void testInstallBundlesParsesConcurrently() throws Exception
+    {
+        RecordingLogger logger = new RecordingLogger();
+        Map params = createParams();
+        params.put("felix.install.threads", "4");
+        params.put("felix.log.logger", logger);
+        params.put("felix.log.level", "2");
+        Framework f = startFramework(params);
+        try
+        {
+            FelixBundleContext context = (FelixBundleContext) f.getBundleContext();
+
+            // The manifest of each bundle is an R3 manifest with an unknown
+            // import attribute, so parsing it logs a warning.
+            List<String> locations = new ArrayList<String>();
+            for (int i = 0; i < 8; i++)
+            {
+                locations.add(createBundle("Bundle-Name: r3bundle" + i + "\n"
+                    + "Import-Package: org.example.p;unknown=" + i + "\n")
+                    .toURI().toString());
+            }
+            assertEquals(8, context.installBundles(locations).size());
+
+            // Each manifest was parsed by one of the install threads, and
+            // every one of these threads parsed at least one of them.
+            assertEquals(8, logger.m_threads.size());
+            Set<String> threads = new HashSet<String>(logger.m_threads);
+            assertEquals(4, threads.size());
+            for (String thread : threads)
+            {
+                assertTrue(thread, thread.startsWith("FelixInstall-"));
+            }
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+
+    public void testInstallBundlesWithFailures() throws Exception
+    {
+        Framework f = createFramework();
+        try
+        {
+            FelixBundleContext context = (FelixBundleContext) f.getBundleContext();
+
+            List<String> locations = new ArrayList<String>();
+            locations.add(location("good", ""));
+            locations.add(new File(m_cacheDir, "missing.jar").toURI().toString());
+            locations.add(location("duplicate", ""));
+            locations.add(location("duplicate", ""));
+
+            BatchInstallException failure = null;
+            try
+            {
+                context.installBundles(locations);
+                fail("The batch should report the bundles that failed");
+            }
+            catch (BatchInstallException ex)
+            {
+                failure = ex;
+            }
+
+            // The bundles that could be installed are installed nonetheless.
+            assertNotNull(context.getBundle(locations.get(0)));
+            assertNull(context.getBundle(locations.get(1)));
+            int duplicates = 0;
+            for (Bundle b : context.getBundles())
+            {
+                if ("duplicate".equals(b.getSymbolicName()))
+                {
+                    duplicates++;
+                }
+            }
+            assertEquals(1, duplicates);
+
+            // The exception reports the outcome of each location.
+            List<Bundle> bundles = failure.getBundles();
+            assertEquals(locations.size(), bundles.size());
+            assertEquals(context.getBundle(locations.get(0)), bundles.get(0));
+            assertNull(bundles.get(1));
+            assertTrue((bundles.get(2) == null) != (bundles.get(3) == null));
+            assertEquals(2, failure.getFailures().size());
+            assertTrue(failure.getFailures().containsKey(locations.get(1)));
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+
+    private Framework createFramework() throws Exception
+    {
+        Map params = createParams();
+        params.put("felix.install.threads", "4");
+        return startFramework(params);
+    }
+
+    private String location(String bsn, String headers) throws Exception
+    {
+        String manifest = "Bundle-SymbolicName: " + bsn + "\n"
+            + "Bundle-ManifestVersion: 2\n" + headers;
+        return createBundle(manifest).toURI().toString();
+    }
+
+    private static class RecordingLogger extends Logger
+    {
+        private final List<String> m_threads =
+            Collections.synchronizedList(new ArrayList<String>());
+
+        protected void doLog(Bundle bundle, ServiceReference sr, int level,
+            String msg, Throwable throwable)
+        {
+            if (msg.startsWith("Unknown R3 import attribute"))
+            {
+                m_threads.add(Thread.currentThread().getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import org.apache.felix.framework.util.LockStatistics;
+import org.osgi.framework.Bundle;
+
+public class BundleLockTest extends FrameworkTestSupport
+{
+    public void testContentionIsRecorded() throws Exception
+    {
+        final Felix f = startFramework(createParams());
+        try
+        {
+            final BundleImpl b = (BundleImpl) install(f, "bundle", "");
+            LockStatistics stats = b.adapt(LockStatistics.class);
+            long contended = stats.getContendedCount();
+
+            f.acquireBundleLock(b, Bundle.INSTALLED);
+            Thread waiter = new Thread()
+            {
+                public void run()
+                {
+                    f.acquireBundleLock(b, Bundle.INSTALLED);
+                    f.releaseBundleLock(b);
+                }
+            };
+            waiter.start();
+            Thread.sleep(100);
+            f.releaseBundleLock(b);
+            waiter.join(5000);
+
+            assertEquals(contended + 1, stats.getContendedCount());
+            assertTrue(stats.getMaxWaitTime() > 0);
+            assertTrue(stats.getWaitTime() >= stats.getMaxWaitTime());
+            assertTrue(f.adapt(LockStatistics.class).getAcquireCount() > 0);
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+
+    public void testInstallAndUninstallPublishWithoutGlobalLock() throws Exception
+    {
+        Felix f = startFramework(createParams());
+        try
+        {
+            LockStatistics stats = f.adapt(LockStatistics.class);
+            Bundle provider = install(f, "provider", "Export-Package: org.example.api\n");
+            Bundle consumer = install(f, "consumer", "Import-Package: org.example.api\n");
+            assertTrue(f.resolveBundles(null));
+
+            // Installing only takes the global lock to add the revision of
+            // the bundle to the resolver state.
+            long acquired = stats.getAcquireCount();
+            install(f, "other", "");
+            assertEquals(acquired + 1, stats.getAcquireCount());
+
+            // The provider is still used by the consumer, so uninstalling it
+            // does not refresh it and does not take the global lock at all.
+            acquired = stats.getAcquireCount();
+            provider.uninstall();
+            assertEquals(acquired, stats.getAcquireCount());
+            assertEquals(Bundle.UNINSTALLED, provider.getState());
+            assertNull(f.getBundleContext().getBundle(provider.getBundleId()));
+            assertTrue(f.getRemovalPendingBundles().contains(provider));
+            assertEquals(Bundle.RESOLVED, consumer.getState());
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+public class ConcurrentResolverTest extends FrameworkTestSupport
+{
+    public void testSequentialUsesConflict() throws Exception
+    {
+        // Package spaces are calculated on the resolving thread.
+        assertTrue(checkUsesConflict("1").isEmpty());
+    }
+
+    public void testConcurrentUsesConflict() throws Exception
+    {
+        // Package spaces are calculated on the resolver threads.
+        assertFalse(checkUsesConflict("4").isEmpty());
+    }
+
+    /**
+     * Resolves importers which have to backtrack from a uses conflict and
+     * returns the resolver threads started by the resolve operation.
+    **/
+    private Set<Thread> checkUsesConflict(String parallelism) throws Exception
+    {
+        Map params = createParams();
+        params.put("felix.resolver.parallelism", parallelism);
+        Framework f = startFramework(params);
+        try
+        {
+            Bundle p1 = install(f, "p1", "Export-Package: org.example.p;version=1\n");
+            install(f, "p2", "Export-Package: org.example.p;version=2\n");
+            install(f, "q", "Export-Package: org.example.q;uses:=org.example.p\n"
+                + "Import-Package: org.example.p;version=\"[1,2)\"\n");
+            Bundle[] importers = new Bundle[4];
+            for (int i = 0; i < importers.length; i++)
+            {
+                // The highest version of org.example.p conflicts with the uses
+                // constraint of org.example.q, so the resolver must backtrack.
+                importers[i] = install(f, "importer" + i,
+                    "Import-Package: org.example.p, org.example.q\n");
+            }
+
+            Set<Thread> threads = getResolverThreads();
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            Set<Thread> started = getResolverThreads();
+            started.removeAll(threads);
+            for (int i = 0; i < importers.length; i++)
+            {
+                boolean found = false;
+                for (BundleWire wire : importers[i].adapt(BundleRevision.class)
+                    .getWiring().getRequiredWires(BundleRevision.PACKAGE_NAMESPACE))
+                {
+                    if ("org.example.p".equals(wire.getCapability().getAttributes()
+                        .get(BundleRevision.PACKAGE_NAMESPACE)))
+                    {
+                        assertSame(p1, wire.getProvider().getBundle());
+                        found = true;
+                    }
+                }
+                assertTrue(found);
+            }
+            return started;
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+
+    private static Set<Thread> getResolverThreads()
+    {
+        Set<Thread> threads = new HashSet<Thread>();
+        for (Thread t : Thread.getAllStackTraces().keySet())
+        {
+            if (t.getName().startsWith("FelixResolver-"))
+            {
+                threads.add(t);
+            }
+        }
+        return threads;
+    }
+}
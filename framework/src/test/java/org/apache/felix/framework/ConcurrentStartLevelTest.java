@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.startlevel.BundleStartLevel;
+import org.osgi.framework.startlevel.FrameworkStartLevel;
+
+public class ConcurrentStartLevelTest extends FrameworkTestSupport
+{
+    public void testConcurrentStartLevel() throws Exception
+    {
+        RecordingLogger logger = new RecordingLogger();
+        Map params = createParams();
+        params.put("felix.startlevel.threads", "4");
+        params.put("felix.log.logger", logger);
+        params.put("felix.log.level", "4");
+        Framework f = startFramework(params);
+        try
+        {
+            final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+            f.getBundleContext().addBundleListener(new SynchronousBundleListener()
+            {
+                public void bundleChanged(BundleEvent event)
+                {
+                    if ((event.getType() == BundleEvent.STARTING)
+                        || (event.getType() == BundleEvent.STARTED))
+                    {
+                        int level = event.getBundle().adapt(BundleStartLevel.class).getStartLevel();
+                        events.add(event.getType() + ":" + level);
+                    }
+                }
+            });
+
+            // The activators of start level 2 wait until all of them are
+            // starting, so they only finish if they are started concurrently.
+            f.getBundleContext().registerService(
+                CountDownLatch.class.getName(), new CountDownLatch(3), null);
+
+            for (int i = 0; i < 4; i++)
+            {
+                int level = (i < 3) ? 2 : 3;
+                String mf = "Bundle-SymbolicName: startlevel.test." + i + "\n"
+                    + "Bundle-Version: 1.0.0\n"
+                    + "Bundle-ManifestVersion: 2\n"
+                    + "Import-Package: org.osgi.framework, org.osgi.framework.startlevel\n";
+                Bundle bundle = f.getBundleContext().installBundle(
+                    createBundle(mf, TestBundleActivator.class).toURI().toString());
+                bundle.adapt(BundleStartLevel.class).setStartLevel(level);
+                bundle.start();
+                assertEquals(Bundle.INSTALLED, bundle.getState());
+            }
+
+            List<Bundle> level2 = new ArrayList<Bundle>();
+            for (Bundle b : f.getBundleContext().getBundles())
+            {
+                if (b.adapt(BundleStartLevel.class).getStartLevel() == 2)
+                {
+                    level2.add(b);
+                }
+            }
+
+            // A bundle which is not started must not be resolved.
+            Bundle stopped = f.getBundleContext().installBundle(createBundle(
+                "Bundle-SymbolicName: startlevel.test.stopped\n"
+                + "Bundle-Version: 1.0.0\n"
+                + "Bundle-ManifestVersion: 2\n"
+                + "Import-Package: org.osgi.framework, org.osgi.framework.startlevel\n",
+                TestBundleActivator.class).toURI().toString());
+            stopped.adapt(BundleStartLevel.class).setStartLevel(2);
+
+            final CountDownLatch changed = new CountDownLatch(1);
+            f.adapt(FrameworkStartLevel.class).setStartLevel(3, new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    changed.countDown();
+                }
+            });
+            assertTrue(changed.await(30, TimeUnit.SECONDS));
+            for (Bundle b : f.getBundleContext().getBundles())
+            {
+                assertEquals((b == stopped) ? Bundle.INSTALLED : Bundle.ACTIVE, b.getState());
+            }
+
+            // The three bundles of start level 2 were started concurrently,
+            // so all of them were starting before any of them was started,
+            // and they were started before the bundle of start level 3.
+            assertEquals(8, events.size());
+            for (int i = 0; i < 3; i++)
+            {
+                assertEquals(BundleEvent.STARTING + ":2", events.get(i));
+            }
+            for (int i = 3; i < 6; i++)
+            {
+                assertEquals(BundleEvent.STARTED + ":2", events.get(i));
+            }
+            assertEquals(BundleEvent.STARTING + ":3", events.get(6));
+            assertEquals(BundleEvent.STARTED + ":3", events.get(7));
+
+            // The start time of each bundle of a start level is reported
+            // once the level is finished, including the bundle which is
+            // not started.
+            String report = logger.find("Processed 4 bundles at start level 2 in ");
+            assertNotNull(report);
+            level2.add(stopped);
+            for (Bundle b : level2)
+            {
+                assertTrue(report, report.indexOf("\n  " + b + ": ") > 0);
+            }
+            assertNotNull(logger.find("Processed 1 bundles at start level 3 in "));
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+
+    private static class RecordingLogger extends Logger
+    {
+        private final List<String> m_messages =
+            Collections.synchronizedList(new ArrayList<String>());
+
+        protected void doLog(Bundle bundle, ServiceReference sr, int level,
+            String msg, Throwable throwable)
+        {
+            if (level == LOG_DEBUG)
+            {
+                m_messages.add(msg);
+            }
+        }
+
+        String find(String prefix)
+        {
+            synchronized (m_messages)
+            {
+                for (String msg : m_messages)
+                {
+                    if (msg.startsWith(prefix))
+                    {
+                        return msg;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    public static class TestBundleActivator implements BundleActivator
+    {
+        public void start(BundleContext context) throws Exception
+        {
+            if (context.getBundle().adapt(BundleStartLevel.class).getStartLevel() == 2)
+            {
+                CountDownLatch latch = (CountDownLatch) context.getService(
+                    context.getServiceReference(CountDownLatch.class.getName()));
+                latch.countDown();
+                latch.await(10, TimeUnit.SECONDS);
+            }
+        }
+
+        public void stop(BundleContext context) throws Exception
+        {
+        }
+    }
+}
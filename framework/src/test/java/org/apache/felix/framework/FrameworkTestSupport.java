@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.resolver.ResolveContext;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.hooks.resolver.ResolverHook;
+import org.osgi.framework.hooks.resolver.ResolverHookFactory;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+/**
+ * Base class for tests running a framework instance. Every test gets a
+ * fresh temporary directory, which holds the framework storage as well
+ * as the bundles installed by the test, and which is deleted afterwards.
+**/
+public abstract class FrameworkTestSupport extends TestCase
+{
+    protected File m_cacheDir;
+
+    protected void setUp() throws Exception
+    {
+        m_cacheDir = File.createTempFile("felix-cache", ".dir");
+        m_cacheDir.delete();
+        m_cacheDir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        deleteDir(m_cacheDir);
+    }
+
+    /**
+     * Returns the framework storage directory below the temporary directory.
+    **/
+    protected File getStorageDir()
+    {
+        return new File(m_cacheDir, "cache");
+    }
+
+    /**
+     * Returns configuration properties using the framework storage directory,
+     * to which a test may add its own properties.
+    **/
+    protected Map createParams()
+    {
+        Map params = new HashMap();
+        params.put(Constants.FRAMEWORK_STORAGE, getStorageDir().getPath());
+        return params;
+    }
+
+    /**
+     * Creates and starts a framework with the given configuration properties.
+    **/
+    protected static Felix startFramework(Map params) throws Exception
+    {
+        Felix f = new Felix(params);
+        f.start();
+        return f;
+    }
+
+    protected static void stopFramework(Framework f) throws Exception
+    {
+        f.stop();
+        f.waitForStop(5000);
+    }
+
+    /**
+     * Installs a bundle with the given symbolic name and additional
+     * manifest headers.
+    **/
+    protected Bundle install(Framework f, String bsn, String headers) throws Exception
+    {
+        String manifest = "Bundle-SymbolicName: " + bsn + "\n"
+            + "Bundle-ManifestVersion: 2\n" + headers;
+        return f.getBundleContext().installBundle(createBundle(manifest).toURI().toString());
+    }
+
+    /**
+     * Creates a bundle without content in the temporary directory.
+    **/
+    protected File createBundle(String manifest) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", m_cacheDir);
+        FileOutputStream os = new FileOutputStream(f);
+        os.write(createManifestJar(manifest));
+        os.close();
+        return f;
+    }
+
+    /**
+     * Creates a bundle in the temporary directory containing the given
+     * class, which is the activator of the bundle.
+    **/
+    protected File createBundle(String manifest, Class activator) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", m_cacheDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        mf.getMainAttributes().putValue(Constants.BUNDLE_ACTIVATOR, activator.getName());
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+
+        String path = activator.getName().replace('.', '/') + ".class";
+        os.putNextEntry(new ZipEntry(path));
+
+        InputStream is = activator.getClassLoader().getResourceAsStream(path);
+        byte[] b = new byte[is.available()];
+        is.read(b);
+        is.close();
+        os.write(b);
+
+        os.close();
+        return f;
+    }
+
+    protected static byte[] createManifestJar(String manifest) throws IOException
+    {
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JarOutputStream os = new JarOutputStream(baos, mf);
+        os.close();
+        return baos.toByteArray();
+    }
+
+    /**
+     * Creates a resolve context of the framework's resolver for resolving
+     * the given revisions, without any resolver hooks or existing wirings.
+    **/
+    protected static ResolveContext createResolveContext(
+        Felix f, Collection<BundleRevision> mandatory)
+    {
+        Collection<BundleRevision> none = Collections.emptyList();
+        return new ResolveContextImpl(
+            f.getResolver(),
+            Collections.<BundleRevision, BundleWiring>emptyMap(),
+            new StatefulResolver.ResolverHookRecord(
+                Collections.<ServiceReference<ResolverHookFactory>, ResolverHook>emptyMap(),
+                null),
+            mandatory, none, none);
+    }
+
+    /**
+     * Refreshes the given bundle and waits for the refresh to complete.
+    **/
+    protected static void refresh(Framework f, Bundle b) throws InterruptedException
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        f.adapt(FrameworkWiring.class).refreshBundles(
+            Collections.singleton(b), new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    latch.countDown();
+                }
+            });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        root.delete();
+    }
+}
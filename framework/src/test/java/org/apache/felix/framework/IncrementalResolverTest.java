@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.util.Collections;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+public class IncrementalResolverTest extends FrameworkTestSupport
+{
+    public void testUsesConstraintsOfResolvedBundles() throws Exception
+    {
+        Felix f = startFramework(createParams());
+        try
+        {
+            StatefulResolver resolver = f.getResolver();
+            FrameworkWiring wiring = f.adapt(FrameworkWiring.class);
+            Bundle p1 = install(f, "p1", "Export-Package: org.example.p;version=1\n");
+            Bundle p2 = install(f, "p2", "Export-Package: org.example.p;version=2\n");
+            Bundle q = install(f, "q", "Export-Package: org.example.q;uses:=org.example.p\n"
+                + "Import-Package: org.example.p;version=\"[1,2)\"\n");
+            assertTrue(wiring.resolveBundles(null));
+
+            // The package space of q is calculated and cached when a bundle
+            // wired to it is resolved and reused afterwards, but its uses
+            // constraint must still be respected.
+            BundleRevision qRevision = q.adapt(BundleRevision.class);
+            assertFalse(resolver.isPackageSpaceCached(qRevision));
+            Bundle importer1 = install(f, "importer1",
+                "Import-Package: org.example.p, org.example.q\n");
+            assertTrue(wiring.resolveBundles(Collections.singleton(importer1)));
+            assertSame(p1, getProvider(importer1, "org.example.p"));
+            assertTrue(resolver.isPackageSpaceCached(qRevision));
+            assertTrue(resolver.isPackageSpaceCached(p1.adapt(BundleRevision.class)));
+
+            // Refreshing q discards its package space.
+            q.update(new ByteArrayInputStream(createManifestJar(
+                "Bundle-SymbolicName: q\n"
+                + "Bundle-ManifestVersion: 2\n"
+                + "Export-Package: org.example.q;uses:=org.example.p\n"
+                + "Import-Package: org.example.p;version=\"[2,3)\"\n")));
+            refresh(f, q);
+            assertFalse(resolver.isPackageSpaceCached(qRevision));
+            assertTrue(wiring.resolveBundles(null));
+            assertSame(p2, getProvider(q, "org.example.p"));
+            assertSame(p2, getProvider(importer1, "org.example.p"));
+
+            Bundle importer2 = install(f, "importer2",
+                "Import-Package: org.example.p;version=\"[1,3)\", org.example.q\n");
+            assertTrue(wiring.resolveBundles(Collections.singleton(importer2)));
+            assertSame(p2, getProvider(importer2, "org.example.p"));
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+
+    private static Bundle getProvider(Bundle b, String pkgName)
+    {
+        for (BundleWire wire : b.adapt(BundleRevision.class)
+            .getWiring().getRequiredWires(BundleRevision.PACKAGE_NAMESPACE))
+        {
+            if (pkgName.equals(wire.getCapability().getAttributes()
+                .get(BundleRevision.PACKAGE_NAMESPACE)))
+            {
+                return wire.getProvider().getBundle();
+            }
+        }
+        return null;
+    }
+}
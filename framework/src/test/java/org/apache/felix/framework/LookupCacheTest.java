@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.LookupStatistics;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+public class LookupCacheTest extends TestCase
+{
+    public void testRepeatedResourceMisses() throws Exception
+    {
+        Map params = new HashMap();
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        String cache = cacheDir.getPath();
+        params.put("felix.cache.profiledir", cache);
+        params.put("felix.cache.dir", cache);
+        params.put(Constants.FRAMEWORK_STORAGE, cache);
+
+        String mf = "Bundle-SymbolicName: lookup.test\n"
+            + "Bundle-Version: 1.0.0\n"
+            + "Bundle-ManifestVersion: 2\n";
+        File bundleFile = createBundle(mf, cacheDir);
+
+        Framework f = new Felix(params);
+        f.init();
+        f.start();
+
+        try
+        {
+            Bundle bundle = f.getBundleContext().installBundle(bundleFile.toURI().toString());
+            assertNotNull(bundle.getResource("lookup/present.txt"));
+
+            LookupStatistics stats = bundle.adapt(LookupStatistics.class);
+            long lookups = stats.getLookupCount();
+            long hits = stats.getMissHitCount();
+
+            // The first miss searches the bundle, later ones are cached.
+            for (int i = 0; i < 3; i++)
+            {
+                assertNull(bundle.getResource("META-INF/services/missing"));
+            }
+            assertEquals(lookups + 3, stats.getLookupCount());
+            assertEquals(hits + 2, stats.getMissHitCount());
+
+            // Found resources do not count as misses.
+            assertNotNull(bundle.getResource("lookup/present.txt"));
+            assertEquals(hits + 2, stats.getMissHitCount());
+            assertTrue(stats.getDelegationTime() > 0);
+            assertTrue(stats.getHitRatio() > 0);
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(5000);
+            deleteDir(cacheDir);
+        }
+    }
+
+    public void testRepeatedLookupsFromRequiredBundle() throws Exception
+    {
+        Map params = new HashMap();
+        File cacheDir = File.createTempFile("felix-cache", ".dir");
+        cacheDir.delete();
+        cacheDir.mkdirs();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+
+        File providerFile = createBundle("Bundle-SymbolicName: lookup.provider\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: lookup\n", cacheDir);
+        File requirerFile = createBundle("Bundle-SymbolicName: lookup.requirer\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Require-Bundle: lookup.provider\n", cacheDir);
+
+        Framework f = new Felix(params);
+        f.init();
+        f.start();
+
+        try
+        {
+            f.getBundleContext().installBundle(providerFile.toURI().toString());
+            Bundle requirer =
+                f.getBundleContext().installBundle(requirerFile.toURI().toString());
+            assertNotNull(requirer.getResource("lookup/present.txt"));
+
+            // Later lookups go straight to the required bundle providing
+            // the resource.
+            LookupStatistics stats = requirer.adapt(LookupStatistics.class);
+            long hits = stats.getSourceHitCount();
+            assertNotNull(requirer.getResource("lookup/present.txt"));
+            assertNotNull(requirer.getResource("lookup/present.txt"));
+            assertEquals(hits + 2, stats.getSourceHitCount());
+
+            // A new wiring starts with an empty cache.
+            requirer.update(new FileInputStream(requirerFile));
+            f.adapt(FrameworkWiring.class).resolveBundles(null);
+            assertNotNull(requirer.getResource("lookup/present.txt"));
+            assertEquals(0, requirer.adapt(LookupStatistics.class).getSourceHitCount());
+        }
+        finally
+        {
+            f.stop();
+            f.waitForStop(5000);
+            deleteDir(cacheDir);
+        }
+    }
+
+    private static File createBundle(String manifest, File tempDir) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        os.putNextEntry(new ZipEntry("lookup/present.txt"));
+        os.write("present".getBytes("utf-8"));
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+}
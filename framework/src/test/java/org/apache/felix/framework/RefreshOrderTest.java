@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+public class RefreshOrderTest extends FrameworkTestSupport
+{
+    public void testRefreshInDependencyOrder() throws Exception
+    {
+        Framework f = createFramework();
+        try
+        {
+            Bundle lib = install(f, "lib", "Export-Package: org.example.lib\n");
+            Bundle api = install(f, "api", "Export-Package: org.example.api\n"
+                + "Import-Package: org.example.lib\n");
+            List<Bundle> clients = new ArrayList<Bundle>();
+            for (int i = 0; i < 6; i++)
+            {
+                clients.add(install(f, "client" + i,
+                    "Import-Package: org.example.api, org.example.lib\n"));
+            }
+            Bundle other = install(f, "other", "Export-Package: org.example.other\n");
+
+            List<Bundle> all = new ArrayList<Bundle>(clients);
+            all.add(0, api);
+            all.add(0, lib);
+            all.add(other);
+            for (Bundle b : all)
+            {
+                b.start();
+            }
+
+            lib.update(new FileInputStream(createBundle(
+                "Bundle-SymbolicName: lib\nBundle-ManifestVersion: 2\n"
+                + "Bundle-Version: 2\nExport-Package: org.example.lib\n")));
+
+            final List<BundleEvent> events =
+                Collections.synchronizedList(new ArrayList<BundleEvent>());
+            f.getBundleContext().addBundleListener(new SynchronousBundleListener()
+            {
+                public void bundleChanged(BundleEvent event)
+                {
+                    events.add(event);
+                }
+            });
+
+            BundleWiring oldWiring = api.adapt(BundleWiring.class);
+
+            refresh(f, lib);
+
+            // The wirings of the refreshed bundles are disposed.
+            assertFalse(oldWiring.isInUse());
+
+            for (Bundle b : all)
+            {
+                assertEquals(Bundle.ACTIVE, b.getState());
+            }
+            for (Bundle client : clients)
+            {
+                for (BundleWire wire : client.adapt(BundleRevision.class).getWiring()
+                    .getRequiredWires(BundleRevision.PACKAGE_NAMESPACE))
+                {
+                    assertEquals(Bundle.ACTIVE, wire.getProvider().getBundle().getState());
+                }
+                assertTrue(indexOf(events, client, BundleEvent.STOPPED) >= 0);
+                assertTrue(indexOf(events, client, BundleEvent.STOPPED)
+                    < indexOf(events, api, BundleEvent.STOPPING));
+                assertTrue(indexOf(events, api, BundleEvent.STARTED)
+                    < indexOf(events, client, BundleEvent.STARTING));
+            }
+            assertTrue(indexOf(events, api, BundleEvent.STOPPED)
+                < indexOf(events, lib, BundleEvent.STOPPING));
+            assertTrue(indexOf(events, lib, BundleEvent.STARTED)
+                < indexOf(events, api, BundleEvent.STARTING));
+
+            // Bundles outside of the dependency closure are left alone.
+            assertEquals(-1, indexOf(events, other, BundleEvent.STOPPED));
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+
+    private static int indexOf(List<BundleEvent> events, Bundle b, int type)
+    {
+        synchronized (events)
+        {
+            for (int i = 0; i < events.size(); i++)
+            {
+                BundleEvent event = events.get(i);
+                if ((event.getBundle() == b) && (event.getType() == type))
+                {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private Framework createFramework() throws Exception
+    {
+        Map params = createParams();
+        params.put("felix.refresh.threads", "4");
+        return startFramework(params);
+    }
+}
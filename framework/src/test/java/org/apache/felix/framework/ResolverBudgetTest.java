@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.Map;
+
+import org.apache.felix.framework.resolver.ResolverStatistics;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+public class ResolverBudgetTest extends FrameworkTestSupport
+{
+    public void testUnlimitedBudget() throws Exception
+    {
+        ResolverStatistics stats = new ResolverStatistics();
+        Framework f = createFramework(null, stats);
+        try
+        {
+            Bundle[] bundles = installConflictingBundles(f);
+            long permutations = stats.getPermutationCount();
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertTrue(stats.getPermutationCount() - permutations >= 2);
+            for (Bundle b : bundles)
+            {
+                assertEquals(Bundle.RESOLVED, b.getState());
+            }
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+
+    public void testExceededBudgetResolvesConsistentSubset() throws Exception
+    {
+        ResolverStatistics stats = new ResolverStatistics();
+        Framework f = createFramework("1", stats);
+        try
+        {
+            Bundle[] bundles = installConflictingBundles(f);
+            long permutations = stats.getPermutationCount();
+
+            // Only the first permutation may be checked, which is inconsistent
+            // for the importer, so it is left out and the others resolve.
+            assertFalse(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertEquals(Bundle.RESOLVED, bundles[0].getState());
+            assertEquals(Bundle.RESOLVED, bundles[1].getState());
+            assertEquals(Bundle.RESOLVED, bundles[2].getState());
+            assertEquals(Bundle.INSTALLED, bundles[3].getState());
+
+            permutations = stats.getPermutationCount();
+            long failed = stats.getFailedResolveCount();
+            try
+            {
+                bundles[3].start();
+                fail("The importer should not resolve within the budget");
+            }
+            catch (BundleException ex)
+            {
+                assertEquals(BundleException.RESOLVE_ERROR, ex.getType());
+                assertTrue(ex.getMessage().indexOf(
+                    "exceeded its budget after checking 1 candidate permutations") > 0);
+                assertTrue(ex.getMessage().indexOf("org.example.p") > 0);
+            }
+            assertEquals(1, stats.getPermutationCount() - permutations);
+            assertEquals(failed + 1, stats.getFailedResolveCount());
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+
+    private Framework createFramework(
+        String permutations, ResolverStatistics stats) throws Exception
+    {
+        Map params = createParams();
+        params.put("felix.resolver.listener", stats);
+        if (permutations != null)
+        {
+            params.put("felix.resolver.permutations", permutations);
+        }
+        return startFramework(params);
+    }
+
+    private Bundle[] installConflictingBundles(Framework f) throws Exception
+    {
+        // The highest version of org.example.p conflicts with the uses
+        // constraint of org.example.q, so the resolver must backtrack to
+        // resolve the importer.
+        return new Bundle[] {
+            install(f, "p1", "Export-Package: org.example.p;version=1\n"),
+            install(f, "p2", "Export-Package: org.example.p;version=2\n"),
+            install(f, "q", "Export-Package: org.example.q;uses:=org.example.p\n"
+                + "Import-Package: org.example.p;version=\"[1,2)\"\n"),
+            install(f, "importer", "Import-Package: org.example.p, org.example.q\n")
+        };
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.Map;
+
+import org.apache.felix.framework.resolver.ResolverListener;
+import org.apache.felix.framework.resolver.ResolverStatistics;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.FrameworkWiring;
+import org.osgi.resource.Resource;
+
+public class ResolverListenerTest extends FrameworkTestSupport
+{
+    public void testStatisticsAndTrace() throws Exception
+    {
+        ResolverStatistics stats = new ResolverStatistics();
+        File trace = new File(m_cacheDir, "resolver.trace");
+        Map params = createParams();
+        params.put("felix.resolver.listener", stats);
+        params.put("felix.resolver.trace", trace.getPath());
+        Framework f = startFramework(params);
+        try
+        {
+            install(f, "p1", "Export-Package: org.example.p;version=1\n");
+            install(f, "p2", "Export-Package: org.example.p;version=2\n");
+            install(f, "q", "Export-Package: org.example.q;uses:=org.example.p\n"
+                + "Import-Package: org.example.p;version=\"[1,2)\"\n");
+            install(f, "importer", "Import-Package: org.example.p, org.example.q\n");
+            long resolves = stats.getResolveCount();
+
+            // The highest version of org.example.p conflicts with the uses
+            // constraint of org.example.q, so the resolver must backtrack.
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertEquals(resolves + 1, stats.getResolveCount());
+            assertEquals(0, stats.getFailedResolveCount());
+            assertTrue(stats.getPermutationCount() >= 2);
+            assertTrue(stats.getInconsistentPermutationCount() >= 1);
+            assertTrue(stats.getConsistencyCheckCount() >= 4);
+            assertTrue(stats.getMaxPackageSources() > 0);
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+
+        String last = null;
+        int lines = 0;
+        BufferedReader reader = new BufferedReader(new FileReader(trace));
+        for (String line = reader.readLine(); line != null; line = reader.readLine())
+        {
+            assertTrue(line.startsWith("{\"dynamicImporter\":"));
+            last = line;
+            lines++;
+        }
+        reader.close();
+        assertEquals(stats.getResolveCount(), lines);
+        assertTrue(last.indexOf("\"consistent\":false") > 0);
+        assertTrue(last.indexOf("Uses constraint violation") > 0);
+        assertTrue(last.endsWith("\"error\":null}"));
+    }
+
+    public void testFailedResolve() throws Exception
+    {
+        ResolverStatistics stats = new ResolverStatistics();
+        File trace = new File(m_cacheDir, "resolver.trace");
+        Map params = createParams();
+        params.put("felix.resolver.listener", stats);
+        params.put("felix.resolver.trace", trace.getPath());
+        Framework f = startFramework(params);
+        try
+        {
+            Bundle importer = install(f, "importer", "Import-Package: org.example.missing\n");
+            long resolves = stats.getResolveCount();
+
+            // Starting the bundle makes it mandatory, so the resolve fails.
+            try
+            {
+                importer.start();
+                fail();
+            }
+            catch (BundleException ex)
+            {
+                assertEquals(BundleException.RESOLVE_ERROR, ex.getType());
+            }
+            assertEquals(Bundle.INSTALLED, importer.getState());
+            assertEquals(resolves + 1, stats.getResolveCount());
+            assertEquals(1, stats.getFailedResolveCount());
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+
+        String last = null;
+        BufferedReader reader = new BufferedReader(new FileReader(trace));
+        for (String line = reader.readLine(); line != null; line = reader.readLine())
+        {
+            last = line;
+        }
+        reader.close();
+        assertFalse(last.endsWith("\"error\":null}"));
+        assertTrue(last.indexOf("org.example.missing") > 0);
+    }
+
+    public void testThrowingListenerDoesNotAbortResolve() throws Exception
+    {
+        final int[] calls = new int[1];
+        Map params = createParams();
+        params.put("felix.resolver.listener", new ResolverListener()
+        {
+            public void resolveStarted(Resource dynamicImporter)
+            {
+                fail();
+            }
+
+            public void permutationStarted(int usesPermutations, int importPermutations)
+            {
+                fail();
+            }
+
+            public void consistencyChecked(Resource resource, long time, Exception ex)
+            {
+                fail();
+            }
+
+            public void permutationFinished(int packageSources, Exception ex)
+            {
+                fail();
+            }
+
+            public void resolveFinished(long time, Exception ex)
+            {
+                calls[0]++;
+                throw new IllegalStateException();
+            }
+        });
+        Framework f = startFramework(params);
+        try
+        {
+            install(f, "p", "Export-Package: org.example.p\n");
+            Bundle importer = install(f, "importer", "Import-Package: org.example.p\n");
+            int resolves = calls[0];
+
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            assertEquals(Bundle.RESOLVED, importer.getState());
+            assertEquals(resolves + 1, calls[0]);
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+}
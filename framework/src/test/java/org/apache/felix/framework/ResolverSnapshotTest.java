@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.framework.resolver.ResolverStatistics;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+public class ResolverSnapshotTest extends FrameworkTestSupport
+{
+    public void testRestoreWirings() throws Exception
+    {
+        Framework f = createFramework(new ResolverStatistics());
+        f.start();
+        Bundle exporter = install(f, "exporter", "Export-Package: org.example.a\n");
+        Bundle importer = install(f, "importer",
+            "Import-Package: org.example.a, org.osgi.framework\n");
+        assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+        stopFramework(f);
+
+        File snapshot = new File(new File(getStorageDir(), "bundle0"), "resolver.snapshot");
+        assertTrue(snapshot.exists());
+
+        // The wirings are restored when the framework is initialized,
+        // without running the resolver.
+        ResolverStatistics stats = new ResolverStatistics();
+        f = createFramework(stats);
+        f.init();
+        assertFalse(snapshot.exists());
+        importer = f.getBundleContext().getBundle(importer.getBundleId());
+        exporter = f.getBundleContext().getBundle(exporter.getBundleId());
+        assertEquals(Bundle.RESOLVED, importer.getState());
+        assertEquals(Bundle.RESOLVED, exporter.getState());
+        List<BundleWire> wires = importer.adapt(BundleRevision.class).getWiring()
+            .getRequiredWires(BundleRevision.PACKAGE_NAMESPACE);
+        assertEquals(2, wires.size());
+        assertEquals("org.example.a", wires.get(0).getCapability().getAttributes()
+            .get(BundleRevision.PACKAGE_NAMESPACE));
+        assertSame(exporter.adapt(BundleRevision.class), wires.get(0).getProvider());
+        assertEquals(0, wires.get(1).getProvider().getBundle().getBundleId());
+        assertEquals(1, exporter.adapt(BundleRevision.class).getWiring()
+            .getProvidedWires(null).size());
+        // Only the system bundle was resolved.
+        assertEquals(1, stats.getResolveCount());
+
+        // An updated bundle invalidates the snapshot.
+        f.start();
+        exporter.update(new ByteArrayInputStream(createManifestJar(
+            "Bundle-SymbolicName: exporter\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.example.a;version=2\n")));
+        stopFramework(f);
+        stats = new ResolverStatistics();
+        f = createFramework(stats);
+        f.init();
+        importer = f.getBundleContext().getBundle(importer.getBundleId());
+        assertEquals(Bundle.INSTALLED, importer.getState());
+
+        // Without a valid snapshot the bundles are resolved again.
+        assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+        assertEquals(Bundle.RESOLVED, importer.getState());
+        assertTrue(stats.getResolveCount() > 1);
+        stopFramework(f);
+    }
+
+    private Framework createFramework(ResolverStatistics stats)
+    {
+        Map params = createParams();
+        params.put("felix.resolver.snapshot", "true");
+        params.put("felix.resolver.listener", stats);
+        return new Felix(params);
+    }
+}
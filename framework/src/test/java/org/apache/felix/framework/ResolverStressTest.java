@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+/**
+ * Resolves a pathological uses constraint graph, where every importer
+ * initially selects a package version that conflicts with a uses constraint,
+ * so the resolver has to explore many candidate permutations. The size of
+ * the graph can be raised with the <tt>felix.resolver.stress.importers</tt>
+ * and <tt>felix.resolver.stress.versions</tt> system properties to use this
+ * test as a benchmark; the resolve time is then printed.
+**/
+public class ResolverStressTest extends FrameworkTestSupport
+{
+    public void testUsesConflicts() throws Exception
+    {
+        int importers = Integer.getInteger("felix.resolver.stress.importers", 6).intValue();
+        int versions = Integer.getInteger("felix.resolver.stress.versions", 3).intValue();
+
+        Framework f = startFramework(createParams());
+        try
+        {
+            Bundle p1 = null;
+            for (int i = 1; i <= versions; i++)
+            {
+                Bundle b = install(f, "p" + i, "Export-Package: org.example.p;version=" + i + "\n");
+                p1 = (i == 1) ? b : p1;
+            }
+            install(f, "q", "Export-Package: org.example.q;uses:=org.example.p\n"
+                + "Import-Package: org.example.p;version=\"[1,2)\"\n");
+            install(f, "r", "Export-Package: org.example.r;uses:=org.example.q\n"
+                + "Import-Package: org.example.q\n");
+            Bundle[] bundles = new Bundle[importers];
+            for (int i = 0; i < importers; i++)
+            {
+                bundles[i] = install(f, "importer" + i,
+                    "Import-Package: org.example.p, org.example.r\n");
+            }
+
+            long time = System.nanoTime();
+            assertTrue(f.adapt(FrameworkWiring.class).resolveBundles(null));
+            time = System.nanoTime() - time;
+            if (System.getProperty("felix.resolver.stress.importers") != null)
+            {
+                System.out.println("Resolved " + importers + " importers of "
+                    + versions + " versions in " + (time / 1000000) + " ms");
+            }
+
+            for (int i = 0; i < importers; i++)
+            {
+                for (BundleWire wire : bundles[i].adapt(BundleRevision.class)
+                    .getWiring().getRequiredWires(BundleRevision.PACKAGE_NAMESPACE))
+                {
+                    if ("org.example.p".equals(wire.getCapability().getAttributes()
+                        .get(BundleRevision.PACKAGE_NAMESPACE)))
+                    {
+                        assertSame(p1, wire.getProvider().getBundle());
+                    }
+                }
+            }
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.felix.framework.util.ServiceEventStatistics;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceRegistration;
+
+public class ServiceEventStatisticsTest extends FrameworkTestSupport
+{
+    public void testIndexPrunesListeners() throws Exception
+    {
+        Felix f = startFramework(createParams());
+        try
+        {
+            BundleContext context = f.getBundleContext();
+            List<ServiceEvent> events = new ArrayList<ServiceEvent>();
+            for (int i = 0; i < 100; i++)
+            {
+                context.addServiceListener(new RecordingListener(events),
+                    "(objectClass=org.example.Service" + i + ")");
+            }
+            context.addServiceListener(
+                new RecordingListener(events), "(service.ranking>=0)");
+
+            ServiceEventStatistics stats = f.adapt(ServiceEventStatistics.class);
+            long fired = stats.getEventCount();
+            long evaluated = stats.getEvaluationCount();
+            long matched = stats.getMatchCount();
+
+            ServiceRegistration reg = context.registerService(
+                "org.example.Service42", new ServiceFactory()
+                {
+                    public Object getService(Bundle bundle, ServiceRegistration reg)
+                    {
+                        return null;
+                    }
+
+                    public void ungetService(Bundle bundle, ServiceRegistration reg, Object svc)
+                    {
+                    }
+                }, null);
+
+            // Only the listener for the registered interface and the listener
+            // with the filter that cannot be indexed are evaluated.
+            assertEquals(1, events.size());
+            assertEquals(fired + 1, stats.getEventCount());
+            assertEquals(evaluated + 2, stats.getEvaluationCount());
+            assertEquals(matched + 1, stats.getMatchCount());
+
+            reg.unregister();
+            assertEquals(2, events.size());
+            assertEquals(evaluated + 4, stats.getEvaluationCount());
+            assertEquals(matched + 2, stats.getMatchCount());
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+
+    private static class RecordingListener implements ServiceListener
+    {
+        private final List<ServiceEvent> m_events;
+
+        RecordingListener(List<ServiceEvent> events)
+        {
+            m_events = events;
+        }
+
+        public void serviceChanged(ServiceEvent event)
+        {
+            m_events.add(event);
+        }
+    }
+}
@@ -18,8 +18,11 @@
  */
 package org.apache.felix.framework;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -331,4 +334,92 @@ public class ServiceRegistryTest extends TestCase
         assertEquals("Unregistration should have no effect", 0, sr.getHooks(FindHook.class).size());
         assertEquals("Unregistration should have no effect", 0, sr.getHooks(ListenerHook.class).size());
     }
+
+    public void testConcurrentLookupsDuringRegistrations() throws Exception
+    {
+        MockControl control = MockControl.createNiceControl(Bundle.class);
+        final Bundle b = (Bundle) control.getMock();
+        control.replay();
+
+        MockControl controlContext = MockControl.createNiceControl(BundleContext.class);
+        final BundleContext c = (BundleContext) controlContext.getMock();
+        controlContext.expectAndReturn(c.getBundle(), b, MockControl.ZERO_OR_MORE);
+        controlContext.replay();
+
+        final ServiceRegistry sr = new ServiceRegistry(new Logger(), null);
+        sr.registerService(c, new String [] {String.class.getName()}, "stable", new Hashtable());
+
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final boolean[] done = new boolean[1];
+        Thread registrar = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    for (int i = 0; i < 2000; i++)
+                    {
+                        ServiceRegistration reg = sr.registerService(
+                            c, new String [] {String.class.getName()}, "churn" + i, new Hashtable());
+                        sr.unregisterService(b, reg);
+                    }
+                }
+                catch (Throwable t)
+                {
+                    failures.add(t);
+                }
+                finally
+                {
+                    synchronized (done)
+                    {
+                        done[0] = true;
+                    }
+                }
+            }
+        };
+
+        Thread[] lookups = new Thread[4];
+        for (int i = 0; i < lookups.length; i++)
+        {
+            lookups[i] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        while (true)
+                        {
+                            synchronized (done)
+                            {
+                                if (done[0])
+                                {
+                                    break;
+                                }
+                            }
+                            List refs = sr.getServiceReferences(String.class.getName(), null);
+                            if (refs.isEmpty())
+                            {
+                                failures.add(new Exception("Stable service not found"));
+                            }
+                        }
+                    }
+                    catch (Throwable t)
+                    {
+                        failures.add(t);
+                    }
+                }
+            };
+            lookups[i].start();
+        }
+        registrar.start();
+
+        registrar.join();
+        for (int i = 0; i < lookups.length; i++)
+        {
+            lookups[i].join();
+        }
+
+        assertTrue("Concurrent lookups failed: " + failures, failures.isEmpty());
+        assertEquals(1, sr.getServiceReferences(String.class.getName(), null).size());
+    }
 }
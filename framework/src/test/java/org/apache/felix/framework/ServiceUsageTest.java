@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+public class ServiceUsageTest extends FrameworkTestSupport
+{
+    public void testConcurrentUsageOfDifferentServices() throws Exception
+    {
+        Felix f = startFramework(createParams());
+        try
+        {
+            final BundleContext context = f.getBundleContext();
+            final CountingFactory[] factories = new CountingFactory[8];
+            final ServiceReference[] refs = new ServiceReference[factories.length];
+            for (int i = 0; i < factories.length; i++)
+            {
+                factories[i] = new CountingFactory();
+                refs[i] = context.registerService(
+                    Object.class.getName(), factories[i], null).getReference();
+            }
+
+            // All threads use services on behalf of the same bundle, so the
+            // usage counts of the different services share one usage array.
+            final List<Throwable> failures =
+                Collections.synchronizedList(new ArrayList<Throwable>());
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[refs.length];
+            for (int i = 0; i < threads.length; i++)
+            {
+                final ServiceReference ref = refs[i];
+                threads[i] = new Thread()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            start.await();
+                            for (int j = 0; j < 2000; j++)
+                            {
+                                if (context.getService(ref) == null)
+                                {
+                                    failures.add(new Exception("No service object"));
+                                }
+                                if (!context.ungetService(ref))
+                                {
+                                    failures.add(new Exception("Usage count was lost"));
+                                }
+                            }
+                        }
+                        catch (Throwable t)
+                        {
+                            failures.add(t);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            start.countDown();
+            for (int i = 0; i < threads.length; i++)
+            {
+                threads[i].join(60000);
+            }
+
+            assertEquals(failures.toString(), 0, failures.size());
+            assertNull(f.getServicesInUse());
+            for (int i = 0; i < factories.length; i++)
+            {
+                assertEquals(2000, factories[i].m_gets.get());
+                assertEquals(2000, factories[i].m_ungets.get());
+                assertNull(refs[i].getUsingBundles());
+            }
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+
+    public void testFactoryDoesNotBlockOtherServices() throws Exception
+    {
+        Felix f = startFramework(createParams());
+        try
+        {
+            final BundleContext context = f.getBundleContext();
+            final CountDownLatch entered = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final ServiceReference blocking = context.registerService(
+                String.class.getName(), new ServiceFactory()
+                {
+                    public Object getService(Bundle bundle, ServiceRegistration reg)
+                    {
+                        entered.countDown();
+                        try
+                        {
+                            release.await();
+                        }
+                        catch (InterruptedException ex)
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                        return "blocking";
+                    }
+
+                    public void ungetService(Bundle bundle, ServiceRegistration reg, Object svc)
+                    {
+                    }
+                }, null).getReference();
+            ServiceReference other = context.registerService(
+                Object.class.getName(), new CountingFactory(), null).getReference();
+
+            final Object[] result = new Object[1];
+            Thread t = new Thread()
+            {
+                public void run()
+                {
+                    result[0] = context.getService(blocking);
+                }
+            };
+            t.start();
+            try
+            {
+                assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+                // While the factory of one service is called, the usage
+                // count of another service can still be updated.
+                assertNotNull(context.getService(other));
+                assertTrue(context.ungetService(other));
+            }
+            finally
+            {
+                release.countDown();
+                t.join(10000);
+            }
+            assertEquals("blocking", result[0]);
+            assertTrue(context.ungetService(blocking));
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+
+    private static class CountingFactory implements ServiceFactory
+    {
+        private final AtomicInteger m_gets = new AtomicInteger();
+        private final AtomicInteger m_ungets = new AtomicInteger();
+
+        public Object getService(Bundle bundle, ServiceRegistration reg)
+        {
+            m_gets.incrementAndGet();
+            return new Object();
+        }
+
+        public void ungetService(Bundle bundle, ServiceRegistration reg, Object svc)
+        {
+            m_ungets.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import junit.framework.TestCase;
+import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.WeakZipFileFactory;
+
+public class JarContentTest extends TestCase
+{
+    private File m_dir;
+
+    protected void setUp() throws Exception
+    {
+        m_dir = File.createTempFile("felix.test", ".dir");
+        m_dir.delete();
+        m_dir.mkdirs();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        deleteDir(m_dir);
+    }
+
+    private static void deleteDir(File root)
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        root.delete();
+    }
+
+    public void testEntryIndex() throws Exception
+    {
+        File jar = new File(m_dir, "bundle.jar");
+        createJar(jar, new String[] { "dir/", "dir/entry.txt" });
+
+        Map configMap = new HashMap();
+        WeakZipFileFactory factory = new WeakZipFileFactory(0);
+        JarContent content = new JarContent(
+            new Logger(), configMap, factory, new Object(), m_dir, jar, null);
+        assertTrue(content.hasEntry("dir/entry.txt"));
+        assertTrue(content.hasEntry("dir/"));
+        assertTrue(content.hasEntry("dir"));
+        assertFalse(content.hasEntry("missing.txt"));
+        assertNull(content.getEntryAsBytes("missing.txt"));
+        assertNull(content.getEntryAsStream("missing.txt"));
+        assertNull(content.getEntryAsStream("missing.txt"));
+        assertEquals("entry", new String(content.getEntryAsBytes("dir/entry.txt")));
+        content.close();
+
+        // The index is saved in the cache and read by later contents.
+        File indexFile = new File(m_dir, "bundle.jar-index");
+        assertTrue(indexFile.exists());
+        EntryIndex index = EntryIndex.read(indexFile, jar);
+        assertNotNull(index);
+        assertTrue(index.mayContain("dir/entry.txt"));
+        assertFalse(index.mayContain("missing.txt"));
+
+        // A changed JAR file invalidates the saved index.
+        createJar(jar, new String[] { "other.txt" });
+        jar.setLastModified(jar.lastModified() + 2000);
+        assertNull(EntryIndex.read(indexFile, jar));
+        content = new JarContent(
+            new Logger(), configMap, factory, new Object(), m_dir, jar, null);
+        assertTrue(content.hasEntry("other.txt"));
+        assertFalse(content.hasEntry("dir/entry.txt"));
+        content.close();
+        assertNotNull(EntryIndex.read(indexFile, jar));
+    }
+
+    public void testMappedContent() throws Exception
+    {
+        byte[] large = new byte[100000];
+        for (int i = 0; i < large.length; i++)
+        {
+            large[i] = (byte) (i % 7);
+        }
+        File jar = new File(m_dir, "mapped.jar");
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(jar));
+        zos.setComment("comment");
+        zos.putNextEntry(new ZipEntry("dir/"));
+        zos.putNextEntry(new ZipEntry("dir/deflated.bin"));
+        zos.write(large);
+        ZipEntry stored = new ZipEntry("stored.txt");
+        stored.setMethod(ZipEntry.STORED);
+        stored.setSize(6);
+        stored.setCompressedSize(6);
+        CRC32 crc = new CRC32();
+        crc.update("stored".getBytes("UTF-8"));
+        stored.setCrc(crc.getValue());
+        zos.putNextEntry(stored);
+        zos.write("stored".getBytes("UTF-8"));
+        zos.close();
+
+        Map configMap = new HashMap();
+        WeakZipFileFactory factory = new WeakZipFileFactory(0);
+        MappedZipFile mapped = MappedZipFile.open(jar);
+        Content content = new MappedJarContent(new Logger(), configMap, factory,
+            new Object(), m_dir, mapped, factory.create(jar)).getEntryAsContent(".");
+
+        assertTrue(content.hasEntry("dir"));
+        assertTrue(content.hasEntry("stored.txt"));
+        assertFalse(content.hasEntry("missing.txt"));
+        assertNull(content.getEntryAsBytes("missing.txt"));
+        assertNull(content.getEntryAsStream("missing.txt"));
+        assertEquals("stored", new String(content.getEntryAsBytes("stored.txt"), "UTF-8"));
+        assertTrue(Arrays.equals(large, content.getEntryAsBytes("dir/deflated.bin")));
+
+        InputStream is = content.getEntryAsStream("dir/deflated.bin");
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        for (int n = is.read(buf); n >= 0; n = is.read(buf))
+        {
+            baos.write(buf, 0, n);
+        }
+        is.close();
+        assertTrue(Arrays.equals(large, baos.toByteArray()));
+
+        List<String> names = Collections.list(content.getEntries());
+        assertEquals(Arrays.asList("dir/", "dir/deflated.bin", "stored.txt"), names);
+
+        Content dir = content.getEntryAsContent("dir");
+        assertTrue(dir.hasEntry("deflated.bin"));
+        content.close();
+    }
+
+    private static void createJar(File file, String[] entries) throws IOException
+    {
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+        for (String entry : entries)
+        {
+            zos.putNextEntry(new ZipEntry(entry));
+            if (!entry.endsWith("/"))
+            {
+                zos.write("entry".getBytes("UTF-8"));
+            }
+        }
+        zos.close();
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleCapability;
+
+public class CapabilitySetTest extends TestCase
+{
+    private final Map<String, SimpleFilter> m_filters = new HashMap<String, SimpleFilter>();
+
+    public void testTypedMatching()
+    {
+        BundleCapability cap = createCapability(
+            "version", new Version("1.2.3"),
+            "ranking", new Long(10),
+            "count", new Integer(5),
+            "flag", Boolean.TRUE,
+            "name", "Hello World",
+            "ids", new long[] { 1, 2, 3 },
+            "tags", Arrays.asList(new String[] { "a", "b" }));
+
+        // Match each filter repeatedly so the cached coerced values
+        // are exercised as well.
+        for (int i = 0; i < 3; i++)
+        {
+            assertTrue(matches(cap, "(version>=1.2)"));
+            assertFalse(matches(cap, "(version>=1.3)"));
+            assertTrue(matches(cap, "(version=1.2.3)"));
+            assertTrue(matches(cap, "(ranking>=10)"));
+            assertFalse(matches(cap, "(ranking>=11)"));
+            assertTrue(matches(cap, "(ranking= 10 )"));
+            assertTrue(matches(cap, "(count<=5)"));
+            assertFalse(matches(cap, "(count=x)"));
+            assertTrue(matches(cap, "(flag=true)"));
+            assertFalse(matches(cap, "(flag=false)"));
+            assertTrue(matches(cap, "(name~=helloworld)"));
+            assertTrue(matches(cap, "(name~= H E L L O world )"));
+            assertFalse(matches(cap, "(name~=hello)"));
+            assertTrue(matches(cap, "(name=Hello*)"));
+            assertTrue(matches(cap, "(ids=2)"));
+            assertFalse(matches(cap, "(ids=4)"));
+            assertTrue(matches(cap, "(tags=b)"));
+            assertFalse(matches(cap, "(tags=c)"));
+        }
+    }
+
+    public void testSameFilterDifferentTypes()
+    {
+        SimpleFilter sf = SimpleFilter.parse("(attr>=10)");
+        assertTrue(CapabilitySet.matches(createCapability("attr", new Long(10)), sf));
+        assertTrue(CapabilitySet.matches(createCapability("attr", "2"), sf));
+        assertFalse(CapabilitySet.matches(createCapability("attr", "0"), sf));
+        assertTrue(CapabilitySet.matches(createCapability("attr", new Version("10.1")), sf));
+        assertFalse(CapabilitySet.matches(createCapability("attr", new Integer(9)), sf));
+    }
+
+    public void testIndexedMatching()
+    {
+        CapabilitySet plain = new CapabilitySet(null, true);
+        CapabilitySet indexed = new CapabilitySet(
+            Arrays.asList(new String[] { "name", "name+vendor" }),
+            Arrays.asList(new String[] { "version", "ranking" }),
+            true);
+
+        for (int i = 0; i < 50; i++)
+        {
+            BundleCapability cap = createCapability(
+                "name", "pkg" + (i % 10),
+                "vendor", (i % 2 == 0) ? "acme" : "other",
+                "version", (i % 3 == 0) ? (Object) ("1." + i) : new Version(1, i, 0),
+                "ranking", (i % 5 == 0) ? (Object) new Long(i) : new Long[] { new Long(i), new Long(-i) },
+                "flag", Boolean.valueOf(i % 4 == 0));
+            plain.addCapability(cap);
+            indexed.addCapability(cap);
+        }
+
+        String[] filters = {
+            "(name=pkg3)",
+            "(version>=1.20)",
+            "(version<=1.5.0)",
+            "(version=1.7)",
+            "(ranking>=40)",
+            "(ranking<=-45)",
+            "(ranking=15)",
+            "(&(version>=1.10)(name=pkg2))",
+            "(&(vendor=acme)(name=pkg4))",
+            "(&(name=pkg4)(vendor=acme)(ranking>=10))",
+            "(&(ranking>=10)(!(version>=1.30))(flag=true))",
+            "(|(name=pkg1)(ranking<=3))",
+            "(&(flag=false)(name=pkg5)(vendor=other))"
+        };
+
+        for (String filter : filters)
+        {
+            SimpleFilter sf = SimpleFilter.parse(filter);
+            assertEquals(filter, plain.match(sf, false), indexed.match(sf, false));
+            assertFalse(filter, indexed.match(sf, false).isEmpty());
+        }
+    }
+
+    public void testUpdateIndexedCapability()
+    {
+        CapabilitySet capSet = new CapabilitySet(
+            Arrays.asList(new String[] { "name" }),
+            Arrays.asList(new String[] { "ranking" }),
+            true);
+
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put("name", "foo");
+        attrs.put("ranking", new Integer(1));
+        MutableCapability cap = new MutableCapability(attrs);
+        capSet.addCapability(cap);
+        assertEquals(1, capSet.match(SimpleFilter.parse("(ranking<=1)"), false).size());
+
+        attrs = new HashMap<String, Object>(cap.getAttributes());
+        attrs.put("ranking", new Integer(10));
+        cap.m_attrs = attrs;
+        capSet.updateCapability(cap);
+
+        assertEquals(0, capSet.match(SimpleFilter.parse("(ranking<=1)"), false).size());
+        assertEquals(1, capSet.match(SimpleFilter.parse("(ranking>=10)"), false).size());
+        assertEquals(1, capSet.match(SimpleFilter.parse("(name=foo)"), false).size());
+
+        capSet.removeCapability(cap);
+        assertEquals(0, capSet.match(SimpleFilter.parse("(ranking>=10)"), false).size());
+        assertEquals(0, capSet.match(SimpleFilter.parse("(name=foo)"), false).size());
+    }
+
+    public void testConcurrentlyUpdatedCapability()
+    {
+        CapabilitySet capSet = new CapabilitySet(
+            Arrays.asList(new String[] { "name" }),
+            Arrays.asList(new String[] { "ranking" }),
+            true);
+
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put("name", "foo");
+        attrs.put("ranking", new Integer(1));
+        MutableCapability cap = new MutableCapability(attrs);
+        capSet.addCapability(cap);
+
+        // Two threads modify the capability, but the update of the first
+        // one is only applied after the update of the second one.
+        attrs = new HashMap<String, Object>(cap.getAttributes());
+        attrs.put("name", "bar");
+        cap.m_attrs = attrs;
+        attrs = new HashMap<String, Object>(cap.getAttributes());
+        attrs.put("ranking", new Integer(10));
+        cap.m_attrs = attrs;
+        capSet.updateCapability(cap);
+        capSet.updateCapability(cap);
+
+        assertEquals(0, capSet.match(SimpleFilter.parse("(name=foo)"), false).size());
+        assertEquals(1, capSet.match(SimpleFilter.parse("(name=bar)"), false).size());
+        assertEquals(0, capSet.match(SimpleFilter.parse("(ranking<=1)"), false).size());
+        assertEquals(1, capSet.match(SimpleFilter.parse("(ranking>=10)"), false).size());
+
+        // The capability is removed using the values it was indexed with.
+        attrs = new HashMap<String, Object>(cap.getAttributes());
+        attrs.put("name", "baz");
+        cap.m_attrs = attrs;
+        capSet.removeCapability(cap);
+        assertEquals(0, capSet.match(SimpleFilter.parse("(name=bar)"), false).size());
+        assertEquals(0, capSet.match(SimpleFilter.parse("(ranking>=10)"), false).size());
+    }
+
+    private boolean matches(BundleCapability cap, String filter)
+    {
+        return CapabilitySet.matches(cap, getFilter(filter))
+            && !CapabilitySet.matches(cap, getFilter("(!" + filter + ")"));
+    }
+
+    private SimpleFilter getFilter(String filter)
+    {
+        SimpleFilter sf = m_filters.get(filter);
+        if (sf == null)
+        {
+            sf = SimpleFilter.parse(filter);
+            m_filters.put(filter, sf);
+        }
+        return sf;
+    }
+
+    private static BundleCapability createCapability(Object... attrs)
+    {
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (int i = 0; i < attrs.length; i += 2)
+        {
+            map.put((String) attrs[i], attrs[i + 1]);
+        }
+        return new BundleCapabilityImpl(
+            null, "test", Collections.EMPTY_MAP, map);
+    }
+
+    private static class MutableCapability extends BundleCapabilityImpl
+    {
+        private Map<String, Object> m_attrs;
+
+        MutableCapability(Map<String, Object> attrs)
+        {
+            super(null, "test", Collections.EMPTY_MAP, Collections.EMPTY_MAP);
+            m_attrs = attrs;
+        }
+
+        public Map<String, Object> getAttributes()
+        {
+            return m_attrs;
+        }
+    }
+}
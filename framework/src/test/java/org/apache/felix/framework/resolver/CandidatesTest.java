@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.resolver;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.felix.framework.Felix;
+import org.apache.felix.framework.FrameworkTestSupport;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+
+public class CandidatesTest extends FrameworkTestSupport
+{
+    public void testPermutationsOnlyStoreDifferences() throws Exception
+    {
+        Felix f = startFramework(createParams());
+        try
+        {
+            BundleRevision p2 = install(f, "p2", "Export-Package: org.example.p;version=2\n")
+                .adapt(BundleRevision.class);
+            BundleRevision p1 = install(f, "p1", "Export-Package: org.example.p;version=1\n")
+                .adapt(BundleRevision.class);
+            BundleRevision importer = install(f, "importer", "Import-Package: org.example.p\n")
+                .adapt(BundleRevision.class);
+            BundleRequirement req =
+                importer.getDeclaredRequirements(BundleRevision.PACKAGE_NAMESPACE).get(0);
+            BundleCapability cap2 =
+                p2.getDeclaredCapabilities(BundleRevision.PACKAGE_NAMESPACE).get(0);
+            BundleCapability cap1 =
+                p1.getDeclaredCapabilities(BundleRevision.PACKAGE_NAMESPACE).get(0);
+
+            Candidates root = new Candidates();
+            root.populate(createResolveContext(f, Collections.singletonList(importer)),
+                importer, Candidates.MANDATORY);
+            assertEquals(Arrays.asList(cap2, cap1), root.getCandidates(req));
+            assertTrue(root.getPermutation().isEmpty());
+
+            // A copy shares the candidates of its root.
+            Candidates perm = root.copy();
+            assertTrue(perm.getPermutation().isEmpty());
+            assertSame(root.getCandidates(req), perm.getCandidates(req));
+
+            // Permutating a requirement only stores that requirement and
+            // leaves the root unchanged.
+            perm.removeFirstCandidate(req);
+            assertEquals(Collections.singletonMap(req, Arrays.asList(cap1)),
+                perm.getPermutation());
+            assertEquals(Arrays.asList(cap2, cap1), root.getCandidates(req));
+
+            // A copy of a permutation is copied from the same root, so it
+            // only stores the differences of the permutation.
+            Candidates copy = perm.copy();
+            assertEquals(perm.getPermutation(), copy.getPermutation());
+            assertEquals(Arrays.asList(cap1), copy.getCandidates(req));
+
+            // The same permutation created twice has equal differences, so
+            // the resolver explores it only once.
+            Candidates twice = root.copy();
+            twice.removeFirstCandidate(req);
+            assertEquals(perm.getPermutation(), twice.getPermutation());
+            assertEquals(perm.getPermutation().hashCode(), twice.getPermutation().hashCode());
+        }
+        finally
+        {
+            stopFramework(f);
+        }
+    }
+}
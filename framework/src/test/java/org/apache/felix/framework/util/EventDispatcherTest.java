@@ -19,6 +19,7 @@
 package org.apache.felix.framework.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -32,8 +33,12 @@ import junit.framework.TestCase;
 import org.apache.felix.framework.Logger;
 import org.apache.felix.framework.ServiceRegistry;
 import org.easymock.EasyMock;
+import org.apache.felix.framework.FilterImpl;
+import org.osgi.framework.AllServiceListener;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
@@ -151,6 +156,166 @@ public class EventDispatcherTest extends TestCase
         assertTrue(calledHooks.contains(eh2));
     }
 
+    public void testPooledBundleEventDelivery() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+        final Bundle b2 = getMockBundle();
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        EventDispatcher ed = new EventDispatcher(logger, registry, 2);
+        ed.startDispatching();
+
+        // The slow listener blocks until the fast listener
+        // has received all events.
+        final Object lock = new Object();
+        final List<Long> slowEvents = new ArrayList<Long>();
+        final List<Long> fastEvents = new ArrayList<Long>();
+        final boolean[] blocked = new boolean[1];
+        BundleListener slow = new BundleListener()
+        {
+            public void bundleChanged(BundleEvent event)
+            {
+                synchronized (lock)
+                {
+                    long start = System.currentTimeMillis();
+                    while ((fastEvents.size() < 10) && !blocked[0])
+                    {
+                        try
+                        {
+                            lock.wait(100);
+                        }
+                        catch (InterruptedException ex)
+                        {
+                        }
+                        blocked[0] = (System.currentTimeMillis() - start > 5000);
+                    }
+                    slowEvents.add(new Long(event.getBundle().getBundleId()));
+                }
+            }
+        };
+        BundleListener fast = new BundleListener()
+        {
+            public void bundleChanged(BundleEvent event)
+            {
+                synchronized (lock)
+                {
+                    fastEvents.add(new Long(event.getBundle().getBundleId()));
+                    lock.notifyAll();
+                }
+            }
+        };
+        ed.addListener(b1.getBundleContext(), BundleListener.class, slow, null);
+        ed.addListener(b2.getBundleContext(), BundleListener.class, fast, null);
+
+        Framework framework = EasyMock.createNiceMock(Framework.class);
+        EasyMock.replay(new Object[]
+            {
+                framework
+            });
+
+        List<Long> expected = new ArrayList<Long>();
+        for (int i = 0; i < 10; i++)
+        {
+            Bundle b = EasyMock.createNiceMock(Bundle.class);
+            EasyMock.expect(Long.valueOf(b.getBundleId())).andReturn(Long.valueOf(i)).anyTimes();
+            EasyMock.replay(new Object[]
+                {
+                    b
+                });
+            expected.add(new Long(i));
+            ed.fireBundleEvent(new BundleEvent(BundleEvent.INSTALLED, b), framework);
+        }
+
+        ed.stopDispatching();
+
+        assertFalse("Slow listener blocked the other listener", blocked[0]);
+        assertEquals(expected, fastEvents);
+        assertEquals(expected, slowEvents);
+    }
+
+    public void testIndexedServiceListeners() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        EventDispatcher ed = new EventDispatcher(logger, registry);
+
+        final List<String> fired = new ArrayList<String>();
+        ed.addListener(b1.getBundleContext(), ServiceListener.class,
+            new RecordingListener("a", fired), new FilterImpl("(objectClass=A)"));
+        RecordingListener b = new RecordingListener("b", fired);
+        ed.addListener(b1.getBundleContext(), ServiceListener.class,
+            b, new FilterImpl("(objectClass=C)"));
+        ed.addListener(b1.getBundleContext(), ServiceListener.class,
+            b, new FilterImpl("(objectClass=B)"));
+        ed.addListener(b1.getBundleContext(), ServiceListener.class,
+            new RecordingListener("afoo", fired),
+            new FilterImpl("(&(objectClass=A)(foo=bar))"));
+        ed.addListener(b1.getBundleContext(), ServiceListener.class,
+            new RecordingListener("aorb", fired),
+            new FilterImpl("(|(objectClass=A)(objectClass=B))"));
+        ed.addListener(b1.getBundleContext(), ServiceListener.class,
+            new RecordingListener("pid", fired), new FilterImpl("(service.pid=p1)"));
+        ed.addListener(b1.getBundleContext(), ServiceListener.class,
+            new RecordingListener("all", fired), null);
+
+        Framework framework = EasyMock.createNiceMock(Framework.class);
+        EasyMock.replay(new Object[]
+            {
+                framework
+            });
+
+        // Only the listeners whose filters may match are called, in the
+        // order they were registered.
+        Hashtable props = new Hashtable();
+        props.put(Constants.SERVICE_PID, "p2");
+        ServiceReference ref = registry.registerService(
+            b1.getBundleContext(), new String[] { "A" }, new Object(), props).getReference();
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, ref), null, framework);
+        assertEquals(Arrays.asList("a:1", "aorb:1", "all:1"), fired);
+
+        // A listener that matched the old properties gets an end match.
+        fired.clear();
+        Hashtable oldProps = new Hashtable();
+        oldProps.put(Constants.OBJECTCLASS, new String[] { "A" });
+        oldProps.put(Constants.SERVICE_PID, "p1");
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.MODIFIED, ref), oldProps, framework);
+        assertEquals(Arrays.asList("a:2", "aorb:2", "pid:8", "all:2"), fired);
+
+        // An updated listener is indexed by its new filter and keeps its
+        // position.
+        fired.clear();
+        ed.addListener(b1.getBundleContext(), ServiceListener.class,
+            b, new FilterImpl("(objectClass=A)"));
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, ref), null, framework);
+        assertEquals(Arrays.asList("a:1", "b:1", "aorb:1", "all:1"), fired);
+
+        // Removed listeners are no longer indexed.
+        fired.clear();
+        ed.removeListeners(b1.getBundleContext());
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, ref), null, framework);
+        assertTrue(fired.isEmpty());
+    }
+
+    private static class RecordingListener implements AllServiceListener
+    {
+        private final String m_name;
+        private final List<String> m_fired;
+
+        RecordingListener(String name, List<String> fired)
+        {
+            m_name = name;
+            m_fired = fired;
+        }
+
+        public void serviceChanged(ServiceEvent event)
+        {
+            m_fired.add(m_name + ":" + event.getType());
+        }
+    }
+
     private Bundle getMockBundle()
     {
         BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
@@ -24,11 +24,13 @@ import java.util.Map;
 
 import junit.framework.TestCase;
 
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
 import org.osgi.framework.Version;
 import org.osgi.framework.namespace.IdentityNamespace;
 import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRevision;
 
 public class ManifestParserTest extends TestCase
 {
@@ -74,6 +76,41 @@ public class ManifestParserTest extends TestCase
         assertEquals("true", ic.getDirectives().get(IdentityNamespace.CAPABILITY_SINGLETON_DIRECTIVE));
     }
 
+    public void testExportsShareEqualValues() throws BundleException
+    {
+        BundleCapability e1 = parseExport("a", "foo.api;version=1.0;uses:=\"foo.spi,foo.util\"");
+        BundleCapability e2 = parseExport("b", "foo.api;version=1.0;uses:=\"foo.spi,foo.util\"");
+
+        assertNotSame(e1, e2);
+        assertSame(e1.getDirectives(), e2.getDirectives());
+        assertEquals(((BundleCapabilityImpl) e1).getUses(), ((BundleCapabilityImpl) e2).getUses());
+        assertSame(e1.getAttributes().get(BundleRevision.PACKAGE_NAMESPACE),
+            e2.getAttributes().get(BundleRevision.PACKAGE_NAMESPACE));
+        assertSame(e1.getAttributes().get(Constants.VERSION_ATTRIBUTE),
+            e2.getAttributes().get(Constants.VERSION_ATTRIBUTE));
+        assertEquals("b", e2.getAttributes().get(Constants.BUNDLE_SYMBOLICNAME_ATTRIBUTE));
+
+        try
+        {
+            e1.getAttributes().put("foo", "bar");
+            fail("Capability attributes must be immutable");
+        }
+        catch (UnsupportedOperationException ex)
+        {
+            // Expected.
+        }
+    }
+
+    private BundleCapability parseExport(String bsn, String export) throws BundleException
+    {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+        headers.put(Constants.BUNDLE_SYMBOLICNAME, bsn);
+        headers.put(Constants.EXPORT_PACKAGE, export);
+        ManifestParser mp = new ManifestParser(null, null, null, headers);
+        return findCapability(mp.getCapabilities(), BundleRevision.PACKAGE_NAMESPACE);
+    }
+
     private BundleCapability findCapability(Collection<BundleCapability> capabilities, String namespace)
     {
         for (BundleCapability capability : capabilities)
@@ -18,13 +18,30 @@
  */
 package org.apache.felix.resolver;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.felix.resolver.listener.ResolverListener;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.resource.Resource;
 import org.osgi.service.resolver.Resolver;
+import org.osgi.util.tracker.ServiceTracker;
 
 public class Activator implements BundleActivator
 {
     public static final String LOG_LEVEL = "felix.resolver.log.level";
+    public static final String TRACE = "felix.resolver.trace";
+    public static final String TIMEOUT = "felix.resolver.timeout";
+    public static final String PERMUTATIONS = "felix.resolver.permutations";
+    public static final String PARALLELISM = "felix.resolver.parallelism";
+
+    private Logger m_logger;
+    private ListenerTracker m_listeners;
+    private ResolverImpl m_resolver;
 
     public void start(BundleContext bc) throws Exception
     {
@@ -40,13 +57,184 @@ public class Activator implements BundleActivator
                 // Use default log level.
             }
         }
-        bc.registerService(
-            Resolver.class,
-            new ResolverImpl(new Logger(logLevel)),
-            null);
+        m_logger = new Logger(logLevel);
+
+        // Notify the resolver listeners registered as services and append
+        // a trace of the resolve operations to the configured file, if any.
+        m_listeners = new ListenerTracker(bc, m_logger);
+        m_listeners.open();
+        List<ResolverListener> listeners = new ArrayList<ResolverListener>();
+        listeners.add(m_listeners);
+        String trace = bc.getProperty(TRACE);
+        if ((trace != null) && (trace.trim().length() > 0))
+        {
+            listeners.add(new ResolverTrace(m_logger, new File(trace.trim())));
+        }
+
+        // Limit the time and the number of candidate permutations of each
+        // resolve operation, if configured.
+        long timeout = 0;
+        if (bc.getProperty(TIMEOUT) != null)
+        {
+            try
+            {
+                timeout = Long.parseLong(bc.getProperty(TIMEOUT).trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                // Resolve without a time limit.
+            }
+        }
+        int permutations = 0;
+        if (bc.getProperty(PERMUTATIONS) != null)
+        {
+            try
+            {
+                permutations = Integer.parseInt(bc.getProperty(PERMUTATIONS).trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                // Resolve without a permutation limit.
+            }
+        }
+
+        // Calculate package spaces on multiple threads, if configured.
+        int parallelism = 1;
+        if (bc.getProperty(PARALLELISM) != null)
+        {
+            try
+            {
+                parallelism = Integer.parseInt(bc.getProperty(PARALLELISM).trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                // Resolve on the calling thread.
+            }
+        }
+
+        m_resolver = new ResolverImpl(
+            m_logger, parallelism, listeners, timeout, permutations);
+        bc.registerService(Resolver.class, m_resolver, null);
     }
 
     public void stop(BundleContext bc) throws Exception
     {
+        m_resolver.dispose();
+        m_listeners.close();
+    }
+
+    // Forwards the notifications of the resolver to the resolver listeners
+    // registered as services.
+    // A failing listener is logged and does not abort the resolve operation.
+    private static class ListenerTracker
+        extends ServiceTracker<ResolverListener, ResolverListener>
+        implements ResolverListener
+    {
+        private final Logger m_logger;
+        private final List<ResolverListener> m_listeners =
+            new CopyOnWriteArrayList<ResolverListener>();
+
+        public ListenerTracker(BundleContext bc, Logger logger)
+        {
+            super(bc, ResolverListener.class, null);
+            m_logger = logger;
+        }
+
+        public ResolverListener addingService(ServiceReference<ResolverListener> ref)
+        {
+            ResolverListener listener = super.addingService(ref);
+            if (listener != null)
+            {
+                m_listeners.add(listener);
+            }
+            return listener;
+        }
+
+        public void removedService(
+            ServiceReference<ResolverListener> ref, ResolverListener listener)
+        {
+            m_listeners.remove(listener);
+            super.removedService(ref, listener);
+        }
+
+        public void resolveStarted(Resource dynamicImporter)
+        {
+            for (ResolverListener listener : m_listeners)
+            {
+                try
+                {
+                    listener.resolveStarted(dynamicImporter);
+                }
+                catch (Throwable th)
+                {
+                    m_logger.log(Logger.LOG_WARNING,
+                        "Resolver listener threw an exception.", th);
+                }
+            }
+        }
+
+        public void permutationStarted(int usesPermutations, int importPermutations)
+        {
+            for (ResolverListener listener : m_listeners)
+            {
+                try
+                {
+                    listener.permutationStarted(usesPermutations, importPermutations);
+                }
+                catch (Throwable th)
+                {
+                    m_logger.log(Logger.LOG_WARNING,
+                        "Resolver listener threw an exception.", th);
+                }
+            }
+        }
+
+        public void consistencyChecked(Resource resource, long time, Exception ex)
+        {
+            for (ResolverListener listener : m_listeners)
+            {
+                try
+                {
+                    listener.consistencyChecked(resource, time, ex);
+                }
+                catch (Throwable th)
+                {
+                    m_logger.log(Logger.LOG_WARNING,
+                        "Resolver listener threw an exception.", th);
+                }
+            }
+        }
+
+        public void permutationFinished(int packageSources, Exception ex)
+        {
+            for (ResolverListener listener : m_listeners)
+            {
+                try
+                {
+                    listener.permutationFinished(packageSources, ex);
+                }
+                catch (Throwable th)
+                {
+                    m_logger.log(Logger.LOG_WARNING,
+                        "Resolver listener threw an exception.", th);
+                }
+            }
+        }
+
+        public void resolveFinished(long time, Exception ex)
+        {
+            for (ResolverListener listener : m_listeners)
+            {
+                try
+                {
+                    listener.resolveFinished(time, ex);
+                }
+                catch (Throwable th)
+                {
+                    m_logger.log(Logger.LOG_WARNING,
+                        "Resolver listener threw an exception.", th);
+                }
+            }
+        }
     }
 }
\ No newline at end of file
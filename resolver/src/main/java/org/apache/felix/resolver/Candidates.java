@@ -19,6 +19,7 @@
 package org.apache.felix.resolver;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -49,8 +50,12 @@ class Candidates
     private final Set<Resource> m_mandatoryResources;
     // Maps a capability to requirements that match it.
     private final Map<Capability, Set<Requirement>> m_dependentMap;
-    // Maps a requirement to the capability it matches.
+    // Maps a requirement to the capability it matches; for a permutation,
+    // only maps the requirements whose candidates differ from the root.
     private final Map<Requirement, List<Capability>> m_candidateMap;
+    // The candidates this permutation was copied from, which are shared by
+    // all permutations and never modified; null if this is the root.
+    private final Candidates m_root;
     // Maps a bundle revision to its associated wrapped revision; this only happens
     // when a revision being resolved has fragments to attach to it.
     private final Map<Resource, WrappedResource> m_allWrappedHosts;
@@ -64,6 +69,7 @@ class Candidates
      * Private copy constructor used by the copy() method.
      * @param dependentMap the capability dependency map.
      * @param candidateMap the requirement candidate map.
+     * @param root the root candidates of a permutation.
      * @param hostFragments the fragment map.
      * @param wrappedHosts the wrapped hosts map.
     **/
@@ -71,12 +77,14 @@ class Candidates
         Set<Resource> mandatoryResources,
         Map<Capability, Set<Requirement>> dependentMap,
         Map<Requirement, List<Capability>> candidateMap,
+        Candidates root,
         Map<Resource, WrappedResource> wrappedHosts, Map<Resource, Object> populateResultCache,
         boolean fragmentsPresent)
     {
         m_mandatoryResources = mandatoryResources;
         m_dependentMap = dependentMap;
         m_candidateMap = candidateMap;
+        m_root = root;
         m_allWrappedHosts = wrappedHosts;
         m_populateResultCache = populateResultCache;
         m_fragmentsPresent = fragmentsPresent;
@@ -90,6 +98,7 @@ class Candidates
         m_mandatoryResources = new HashSet<Resource>();
         m_dependentMap = new HashMap<Capability, Set<Requirement>>();
         m_candidateMap = new HashMap<Requirement, List<Capability>>();
+        m_root = null;
         m_allWrappedHosts = new HashMap<Resource, WrappedResource>();
         m_populateResultCache = new HashMap<Resource, Object>();
     }
@@ -583,7 +592,52 @@ class Candidates
     **/
     public List<Capability> getCandidates(Requirement req)
     {
-        return m_candidateMap.get(req);
+        List<Capability> candidates = m_candidateMap.get(req);
+        if ((candidates == null) && (m_root != null))
+        {
+            candidates = m_root.m_candidateMap.get(req);
+        }
+        return candidates;
+    }
+
+    /**
+     * Removes the first (i.e., highest priority) candidate of the specified
+     * requirement. The candidate list is replaced rather than modified,
+     * since it may be shared with other permutations.
+     * @param req the requirement whose first candidate should be removed.
+    **/
+    public void removeFirstCandidate(Requirement req)
+    {
+        List<Capability> candidates = getCandidates(req);
+        m_candidateMap.put(req, new ArrayList<Capability>(
+            candidates.subList(1, candidates.size())));
+    }
+
+    /**
+     * Removes the specified candidates of the specified requirement. The
+     * candidate list is replaced rather than modified, since it may be
+     * shared with other permutations.
+     * @param req the requirement whose candidates should be removed.
+     * @param caps the candidates to remove.
+     * @return the remaining candidates.
+    **/
+    public List<Capability> removeCandidates(Requirement req, Collection<Capability> caps)
+    {
+        List<Capability> candidates = new ArrayList<Capability>(getCandidates(req));
+        candidates.removeAll(caps);
+        m_candidateMap.put(req, candidates);
+        return candidates;
+    }
+
+    /**
+     * Returns the candidates of this permutation that differ from the root
+     * candidates it was copied from. Two permutations of the same root are
+     * identical if their differences are equal.
+     * @return the differing candidates, which is empty for the root.
+    **/
+    public Map<Requirement, List<Capability>> getPermutation()
+    {
+        return (m_root == null) ? Collections.EMPTY_MAP : m_candidateMap;
     }
 
     /**
@@ -979,31 +1033,21 @@ class Candidates
 
     /**
      * Creates a copy of the Candidates object. This is used for creating
-     * permutations when package space conflicts are discovered.
+     * permutations when package space conflicts are discovered. The copy
+     * shares the candidates of the root and only stores the candidates
+     * that differ from it, so a copy must only be modified through
+     * <tt>removeFirstCandidate()</tt> or <tt>removeCandidates()</tt> and
+     * the root must not be modified once it has been copied.
      * @return copy of this Candidates object.
     **/
     public Candidates copy()
     {
-        Map<Capability, Set<Requirement>> dependentMap =
-            new HashMap<Capability, Set<Requirement>>();
-        for (Entry<Capability, Set<Requirement>> entry : m_dependentMap.entrySet())
-        {
-            Set<Requirement> dependents = new HashSet<Requirement>(entry.getValue());
-            dependentMap.put(entry.getKey(), dependents);
-        }
-
+        Candidates root = (m_root == null) ? this : m_root;
         Map<Requirement, List<Capability>> candidateMap =
-            new HashMap<Requirement, List<Capability>>();
-        for (Entry<Requirement, List<Capability>> entry
-            : m_candidateMap.entrySet())
-        {
-            List<Capability> candidates =
-                new ArrayList<Capability>(entry.getValue());
-            candidateMap.put(entry.getKey(), candidates);
-        }
+            new HashMap<Requirement, List<Capability>>(getPermutation());
 
         return new Candidates(
-            m_mandatoryResources, dependentMap, candidateMap,
+            m_mandatoryResources, m_dependentMap, candidateMap, root,
             m_allWrappedHosts, m_populateResultCache, m_fragmentsPresent);
     }
 
@@ -1011,8 +1055,10 @@ class Candidates
     {
         // Create set of all revisions from requirements.
         Set<Resource> resources = new HashSet<Resource>();
+        Map<Requirement, List<Capability>> candidateMap =
+            (m_root == null) ? m_candidateMap : m_root.m_candidateMap;
         for (Entry<Requirement, List<Capability>> entry
-            : m_candidateMap.entrySet())
+            : candidateMap.entrySet())
         {
             resources.add(entry.getKey().getResource());
         }
@@ -1028,7 +1074,7 @@ class Candidates
                 : resource.getRequirements(null);
             for (Requirement req : reqs)
             {
-                List<Capability> candidates = m_candidateMap.get(req);
+                List<Capability> candidates = getCandidates(req);
                 if ((candidates != null) && (candidates.size() > 0))
                 {
                     System.out.println("    " + req + ": " + candidates);
@@ -1039,7 +1085,7 @@ class Candidates
                 : Util.getDynamicRequirements(resource.getRequirements(null));
             for (Requirement req : reqs)
             {
-                List<Capability> candidates = m_candidateMap.get(req);
+                List<Capability> candidates = getCandidates(req);
                 if ((candidates != null) && (candidates.size() > 0))
                 {
                     System.out.println("    " + req + ": " + candidates);
@@ -29,7 +29,15 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.StringTokenizer;
-
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.felix.resolver.listener.ResolverListener;
 import org.osgi.framework.namespace.BundleNamespace;
 import org.osgi.framework.namespace.ExecutionEnvironmentNamespace;
 import org.osgi.framework.namespace.HostNamespace;
@@ -49,6 +57,17 @@ import org.osgi.service.resolver.Resolver;
 public class ResolverImpl implements Resolver
 {
     private final Logger m_logger;
+    // Number of threads used to calculate and check package spaces.
+    private final int m_parallelism;
+    // Executor running the package space calculations, created on first
+    // use and kept until the resolver is disposed.
+    private ExecutorService m_executor;
+    // Listeners notified about the progress of resolve operations.
+    private final ResolverListener[] m_listeners;
+    // Maximum time in milliseconds and maximum number of candidate
+    // permutations a resolve operation may take; zero means no limit.
+    private final long m_timeout;
+    private final int m_maxPermutations;
 
     // Note this class is not thread safe.
     // Only use in the context of a single thread.
@@ -62,17 +81,49 @@ public class ResolverImpl implements Resolver
         // Holds candidate permutations based on permutating requirement candidates.
         // These permutations represent backtracking on previous decisions.
         private final List<Candidates> m_importPermutations = new ArrayList<Candidates>();
+        // Holds the import permutations of the session checking the current
+        // permutation, which differ from the ones above for the sessions of
+        // concurrent consistency checks.
+        private final List<Candidates> m_sharedImportPermutations;
+        // Holds the differences of all permutations added during a resolve,
+        // to avoid exploring identical permutations more than once; null for
+        // the sessions of concurrent consistency checks, whose permutations
+        // are de-duplicated when they are added to the resolving session.
+        private final Set<Map<Requirement, List<Capability>>> m_explored;
         // Holds candidate permutations based on removing candidates that satisfy
         // multiple cardinality requirements.
         // This permutation represents a permutation that is consistent because we have
         // removed the offending capabilities
         private Candidates m_multipleCardCandidates = null;
 
-        private final Map<Capability, List<Capability>> m_packageSourcesCache = new HashMap();
+        private final Map<Capability, List<Capability>> m_packageSourcesCache;
+        // Start time and number of checked candidate permutations of this
+        // session, used to enforce the limits of the resolver.
+        private final long m_start;
+        private int m_permutationCount = 0;
+        private boolean m_budgetExceeded = false;
+        // The resource whose package space was found inconsistent last, since
+        // uses constraint violations do not name an unresolved requirement.
+        private Resource m_conflictResource = null;
 
         ResolveSession(ResolveContext resolveContext)
         {
             m_resolveContext = resolveContext;
+            m_sharedImportPermutations = m_importPermutations;
+            m_explored = new HashSet<Map<Requirement, List<Capability>>>();
+            m_packageSourcesCache = new ConcurrentHashMap<Capability, List<Capability>>();
+            m_start = System.nanoTime();
+        }
+
+        // Creates the session of a concurrent consistency check, which
+        // collects its own permutations and shares the package sources.
+        ResolveSession(ResolveSession session)
+        {
+            m_resolveContext = session.m_resolveContext;
+            m_sharedImportPermutations = session.m_importPermutations;
+            m_explored = null;
+            m_packageSourcesCache = session.m_packageSourcesCache;
+            m_start = session.m_start;
         }
 
         List<Candidates> getUsesPermutations()
@@ -85,6 +136,30 @@ public class ResolverImpl implements Resolver
             return m_importPermutations;
         }
 
+        List<Candidates> getSharedImportPermutations()
+        {
+            return m_sharedImportPermutations;
+        }
+
+        /**
+         * Adds the specified permutation to the specified list, unless an
+         * identical permutation was already added during the current resolve.
+         */
+        void addPermutation(List<Candidates> permutations, Candidates perm)
+        {
+            if ((m_explored == null) || m_explored.add(perm.getPermutation()))
+            {
+                permutations.add(perm);
+            }
+        }
+
+        void clearPermutations()
+        {
+            m_usesPermutations.clear();
+            m_importPermutations.clear();
+            m_explored.clear();
+        }
+
         Candidates getMultipleCardCandidates()
         {
             return m_multipleCardCandidates;
@@ -104,14 +179,167 @@ public class ResolverImpl implements Resolver
         {
             return m_resolveContext;
         }
+
+        void permutationSelected()
+        {
+            m_permutationCount++;
+        }
+
+        int getPermutationCount()
+        {
+            return m_permutationCount;
+        }
+
+        long getElapsedTime()
+        {
+            return (System.nanoTime() - m_start) / 1000000L;
+        }
+
+        boolean isBudgetExceeded()
+        {
+            return m_budgetExceeded;
+        }
+
+        void setBudgetExceeded()
+        {
+            m_budgetExceeded = true;
+        }
+
+        Resource getConflictResource()
+        {
+            return m_conflictResource;
+        }
+
+        void setConflictResource(Resource resource)
+        {
+            m_conflictResource = resource;
+        }
     }
 
     public ResolverImpl(Logger logger)
+    {
+        this(logger, Collections.<ResolverListener>emptyList());
+    }
+
+    /**
+     * Creates a resolver that calculates the uses constraints and checks
+     * the package space consistency of the resolving resources on the
+     * specified number of threads.
+     * @param logger the logger.
+     * @param parallelism the number of threads; a value less than two
+     *        calculates package spaces on the calling thread.
+     */
+    public ResolverImpl(Logger logger, int parallelism)
+    {
+        this(logger, parallelism, Collections.<ResolverListener>emptyList(), 0, 0);
+    }
+
+    /**
+     * Creates a resolver that reports the progress of its resolve operations
+     * to the specified listeners.
+     * @param logger the logger.
+     * @param listeners the listeners to notify.
+     */
+    public ResolverImpl(Logger logger, List<ResolverListener> listeners)
+    {
+        this(logger, listeners, 0, 0);
+    }
+
+    /**
+     * Creates a resolver that limits the time and the number of candidate
+     * permutations of each resolve operation. Once a limit is exceeded, the
+     * resolver stops searching for a consistent permutation and fails with
+     * the last uses constraint violation it found. If an optional resource
+     * caused the violation, it is left unresolved and the remaining
+     * resources are resolved using their first candidate permutation only.
+     * @param logger the logger.
+     * @param listeners the listeners to notify.
+     * @param timeout the time limit in milliseconds or zero for no limit.
+     * @param maxPermutations the permutation limit or zero for no limit.
+     */
+    public ResolverImpl(
+        Logger logger, List<ResolverListener> listeners,
+        long timeout, int maxPermutations)
+    {
+        this(logger, 1, listeners, timeout, maxPermutations);
+    }
+
+    /**
+     * Creates a resolver with the specified parallelism, listeners and limits.
+     * @param logger the logger.
+     * @param parallelism the number of threads used to calculate package spaces.
+     * @param listeners the listeners to notify.
+     * @param timeout the time limit in milliseconds or zero for no limit.
+     * @param maxPermutations the permutation limit or zero for no limit.
+     */
+    public ResolverImpl(
+        Logger logger, int parallelism, List<ResolverListener> listeners,
+        long timeout, int maxPermutations)
     {
         m_logger = logger;
+        m_parallelism = parallelism;
+        m_listeners = listeners.toArray(new ResolverListener[listeners.size()]);
+        m_timeout = timeout;
+        m_maxPermutations = maxPermutations;
+    }
+
+    /**
+     * Stops the threads used to calculate package spaces concurrently. The
+     * resolver remains usable and creates new threads when needed again.
+     */
+    public synchronized void dispose()
+    {
+        if (m_executor != null)
+        {
+            m_executor.shutdown();
+            m_executor = null;
+        }
+    }
+
+    private synchronized ExecutorService getExecutor()
+    {
+        if (m_executor == null)
+        {
+            m_executor = Executors.newFixedThreadPool(
+                m_parallelism, new ResolverThreadFactory());
+        }
+        return m_executor;
     }
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc) throws ResolutionException
+    {
+        if (m_listeners.length == 0)
+        {
+            return resolveResources(rc);
+        }
+
+        long time = System.nanoTime();
+        ResolutionException rethrow = null;
+        for (ResolverListener listener : m_listeners)
+        {
+            listener.resolveStarted(null);
+        }
+        try
+        {
+            return resolveResources(rc);
+        }
+        catch (ResolutionException ex)
+        {
+            rethrow = ex;
+            throw ex;
+        }
+        finally
+        {
+            time = System.nanoTime() - time;
+            for (ResolverListener listener : m_listeners)
+            {
+                listener.resolveFinished(time, rethrow);
+            }
+        }
+    }
+
+    private Map<Resource, List<Wire>> resolveResources(ResolveContext rc)
+        throws ResolutionException
     {
         ResolveSession session = new ResolveSession(rc);
         Map<Resource, List<Wire>> wireMap =
@@ -196,7 +424,7 @@ public class ResolverImpl implements Resolver
                 List<Candidates> importPermutations = session.getImportPermutations();
 
                 // Record the initial candidate permutation.
-                usesPermutations.add(allCandidates);
+                session.addPermutation(usesPermutations, allCandidates);
 
                 ResolutionException rethrow = null;
 
@@ -215,10 +443,12 @@ public class ResolverImpl implements Resolver
                     }
                 }
 
+                // Only use threads if there is more than one resource to check.
+                ExecutorService executor = ((m_parallelism > 1) && (allResources.size() > 1))
+                    ? getExecutor() : null;
+
                 do
                 {
-                    rethrow = null;
-
                     resourcePkgMap.clear();
                     session.getPackageSourcesCache().clear();
                     // Null out each time a new permutation is attempted.
@@ -226,49 +456,33 @@ public class ResolverImpl implements Resolver
                     // delta of the current permutation.
                     session.setMultipleCardCandidates(null);
 
+                    firePermutationStarted(session);
                     allCandidates = (usesPermutations.size() > 0)
                         ? usesPermutations.remove(0)
                         : importPermutations.remove(0);
+                    session.permutationSelected();
 //allCandidates.dump();
-                    // Reuse a resultCache map for checking package consistency
-                    // for all resources.
-                    Map<Resource, Object> resultCache =
-                        new HashMap<Resource, Object>(allResources.size());
-                    // Check the package space consistency for all 'root' resources.
-                    for (Resource resource : allResources)
-                    {
-                        Resource target = resource;
-
-                        // If we are resolving a fragment, then get its
-                        // host candidate and verify it instead.
-                        List<Requirement> hostReq = hostReqs.get(resource);
-                        if (hostReq != null)
-                        {
-                            target = allCandidates.getCandidates(hostReq.get(0))
-                                .iterator().next().getResource();
-                        }
-
-                        calculatePackageSpaces(
-                            session, allCandidates.getWrappedHost(target), allCandidates,
-                            resourcePkgMap, new HashMap(), new HashSet());
-//System.out.println("+++ PACKAGE SPACES START +++");
-//dumpResourcePkgMap(resourcePkgMap);
-//System.out.println("+++ PACKAGE SPACES END +++");
-
-                        try
-                        {
-                            checkPackageSpaceConsistency(
-                                session, allCandidates.getWrappedHost(target),
-                                allCandidates, resourcePkgMap, resultCache);
-                        }
-                        catch (ResolutionException ex)
-                        {
-                            rethrow = ex;
-                        }
-                    }
+                    rethrow = (executor != null)
+                        ? checkPackageSpacesConcurrently(
+                            session, executor, allResources, hostReqs,
+                            allCandidates, resourcePkgMap)
+                        : checkPackageSpaces(
+                            session, allResources, hostReqs,
+                            allCandidates, resourcePkgMap);
+                    firePermutationFinished(session, rethrow);
                 }
                 while ((rethrow != null)
-                    && ((usesPermutations.size() > 0) || (importPermutations.size() > 0)));
+                    && ((usesPermutations.size() > 0) || (importPermutations.size() > 0))
+                    && isWithinBudget(session));
+
+                // If the budget ran out before all permutations were checked,
+                // fail with the last conflict, so an optional resource which
+                // caused it is removed below.
+                if ((rethrow != null)
+                    && ((usesPermutations.size() > 0) || (importPermutations.size() > 0)))
+                {
+                    rethrow = budgetExceeded(session, rethrow);
+                }
 
                 // If there is a resolve exception, then determine if an
                 // optionally resolved resource is to blame (typically a fragment).
@@ -290,6 +504,12 @@ public class ResolverImpl implements Resolver
                             ((WrappedRequirement) faultyReq)
                             .getDeclaredRequirement().getResource();
                     }
+                    // If the budget was exceeded by a uses constraint
+                    // violation, consider the inconsistent resource faulty.
+                    if ((faultyResource == null) && session.isBudgetExceeded())
+                    {
+                        faultyResource = getDeclaredResource(session.getConflictResource());
+                    }
                     // Try to ignore the faulty resource if it is not mandatory.
                     if (optionalResources.remove(faultyResource))
                     {
@@ -341,8 +561,7 @@ public class ResolverImpl implements Resolver
             finally
             {
                 // Always clear the state.
-                session.getUsesPermutations().clear();
-                session.getImportPermutations().clear();
+                session.clearPermutations();
                 session.setMultipleCardCandidates(null);
                 // TODO this was not cleared out before; but it seems it should be
                 session.getPackageSourcesCache().clear();
@@ -382,6 +601,41 @@ public class ResolverImpl implements Resolver
         ResolveContext rc, Resource host, Requirement dynamicReq,
         List<Capability> matches, Collection<Resource> ondemandFragments)
         throws ResolutionException
+    {
+        if (m_listeners.length == 0)
+        {
+            return resolveDynamic(rc, host, dynamicReq, matches, ondemandFragments);
+        }
+
+        long time = System.nanoTime();
+        ResolutionException rethrow = null;
+        for (ResolverListener listener : m_listeners)
+        {
+            listener.resolveStarted(host);
+        }
+        try
+        {
+            return resolveDynamic(rc, host, dynamicReq, matches, ondemandFragments);
+        }
+        catch (ResolutionException ex)
+        {
+            rethrow = ex;
+            throw ex;
+        }
+        finally
+        {
+            time = System.nanoTime() - time;
+            for (ResolverListener listener : m_listeners)
+            {
+                listener.resolveFinished(time, rethrow);
+            }
+        }
+    }
+
+    private Map<Resource, List<Wire>> resolveDynamic(
+        ResolveContext rc, Resource host, Requirement dynamicReq,
+        List<Capability> matches, Collection<Resource> ondemandFragments)
+        throws ResolutionException
     {
         ResolveSession session = new ResolveSession(rc);
         Map<Resource, List<Wire>> wireMap = new HashMap<Resource, List<Wire>>();
@@ -408,6 +662,10 @@ public class ResolverImpl implements Resolver
             // Make copy of args in case we want to modify them.
             ondemandFragments = new ArrayList<Resource>(ondemandFragments);
 
+            // The candidates take ownership of the matches and remove
+            // candidates from them, so keep a copy for retries.
+            List<Capability> originalMatches = new ArrayList<Capability>(matches);
+
             // Create all candidates pre-populated with the single candidate set
             // for the resolving dynamic import of the host.
             Candidates allCandidates = new Candidates();
@@ -438,7 +696,7 @@ public class ResolverImpl implements Resolver
                     List<Candidates> importPermutations = session.getImportPermutations();
 
                     // Record the initial candidate permutation.
-                    usesPermutations.add(allCandidates);
+                    session.addPermutation(usesPermutations, allCandidates);
 
                     ResolutionException rethrow = null;
 
@@ -449,9 +707,11 @@ public class ResolverImpl implements Resolver
                         resourcePkgMap.clear();
                         session.getPackageSourcesCache().clear();
 
+                        firePermutationStarted(session);
                         allCandidates = (usesPermutations.size() > 0)
                             ? usesPermutations.remove(0)
                             : importPermutations.remove(0);
+                        session.permutationSelected();
 //allCandidates.dump();
 
                         // For a dynamic import, the instigating resource
@@ -468,17 +728,28 @@ public class ResolverImpl implements Resolver
 
                         try
                         {
-                            checkDynamicPackageSpaceConsistency(session,
-                                allCandidates.getWrappedHost(host),
+                            checkResourceConsistency(
+                                session, true, allCandidates.getWrappedHost(host),
                                 allCandidates, resourcePkgMap, new HashMap());
                         }
                         catch (ResolutionException ex)
                         {
                             rethrow = ex;
+                            session.setConflictResource(host);
                         }
+                        firePermutationFinished(session, rethrow);
                     }
                     while ((rethrow != null)
-                        && ((usesPermutations.size() > 0) || (importPermutations.size() > 0)));
+                        && ((usesPermutations.size() > 0) || (importPermutations.size() > 0))
+                        && isWithinBudget(session));
+
+                    // If the budget ran out before all permutations were
+                    // checked, fail with the last conflict.
+                    if ((rethrow != null)
+                        && ((usesPermutations.size() > 0) || (importPermutations.size() > 0)))
+                    {
+                        rethrow = budgetExceeded(session, rethrow);
+                    }
 
                     // If there is a resolve exception, then determine if an
                     // optionally resolved resource is to blame (typically a fragment).
@@ -503,6 +774,12 @@ public class ResolverImpl implements Resolver
                         // Try to ignore the faulty resource if it is not mandatory.
                         if (ondemandFragments.remove(faultyResource))
                         {
+                            // The permutations share candidate lists with the
+                            // candidates they were copied from, so start over
+                            // from freshly populated candidates.
+                            allCandidates = new Candidates();
+                            allCandidates.populateDynamic(rc, host, dynamicReq,
+                                new ArrayList<Capability>(originalMatches));
                             retry = true;
                         }
                         else
@@ -529,8 +806,7 @@ public class ResolverImpl implements Resolver
                 finally
                 {
                     // Always clear the state.
-                    session.getUsesPermutations().clear();
-                    session.getImportPermutations().clear();
+                    session.clearPermutations();
                     // TODO these were not cleared out before; but it seems they should be
                     session.setMultipleCardCandidates(null);
                     session.getPackageSourcesCache().clear();
@@ -542,6 +818,218 @@ public class ResolverImpl implements Resolver
         return wireMap;
     }
 
+    /**
+     * Calculates the package spaces of the specified resources and checks
+     * their consistency one after another.
+     * @return the resolution exception of the last inconsistent resource or
+     *         <tt>null</tt> if all resources are consistent.
+     */
+    private ResolutionException checkPackageSpaces(
+        ResolveSession session, Collection<Resource> resources,
+        Map<Resource, List<Requirement>> hostReqs,
+        Candidates allCandidates, Map<Resource, Packages> resourcePkgMap)
+    {
+        ResolutionException rethrow = null;
+        // Reuse a resultCache map for checking package consistency
+        // for all resources.
+        Map<Resource, Object> resultCache =
+            new HashMap<Resource, Object>(resources.size());
+        // Check the package space consistency for all 'root' resources.
+        for (Resource target : getTargets(resources, hostReqs, allCandidates))
+        {
+            calculatePackageSpaces(
+                session, target, allCandidates,
+                resourcePkgMap, new HashMap(), new HashSet());
+//System.out.println("+++ PACKAGE SPACES START +++");
+//dumpResourcePkgMap(resourcePkgMap);
+//System.out.println("+++ PACKAGE SPACES END +++");
+
+            try
+            {
+                checkResourceConsistency(
+                    session, false, target, allCandidates, resourcePkgMap, resultCache);
+            }
+            catch (ResolutionException ex)
+            {
+                rethrow = ex;
+                session.setConflictResource(target);
+            }
+        }
+        return rethrow;
+    }
+
+    /**
+     * Calculates the package spaces of the specified resources and checks
+     * their consistency using the specified executor. The imported and
+     * exported packages of all resources are calculated first, so the uses
+     * constraints of each resource can then be merged concurrently, since
+     * merging only modifies the package space of the resource itself. The
+     * consistency of each resource is then checked concurrently, each check
+     * collecting its permutations in a session of its own. These are added
+     * in the order of the resources, so the result is the same as when
+     * checking the resources one after another. Since the candidates removed
+     * for multiple cardinality requirements by different checks cannot be
+     * combined, the permutation is checked again one resource after another
+     * if more than one check removed candidates.
+     * @return the resolution exception of the last inconsistent resource or
+     *         <tt>null</tt> if all resources are consistent.
+     */
+    private ResolutionException checkPackageSpacesConcurrently(
+        final ResolveSession session, ExecutorService executor,
+        Collection<Resource> resources,
+        Map<Resource, List<Requirement>> hostReqs,
+        final Candidates allCandidates,
+        final Map<Resource, Packages> resourcePkgMap)
+    {
+        List<Resource> targets = getTargets(resources, hostReqs, allCandidates);
+
+        // Calculate imported and exported packages, deferring uses constraints.
+        List<DeferredUses> deferred = new ArrayList<DeferredUses>();
+        for (Resource target : targets)
+        {
+            calculatePackageSpaces(
+                session, target, allCandidates, resourcePkgMap,
+                new HashMap(), new HashSet(), deferred);
+        }
+
+        List<Callable<Object>> usesTasks = new ArrayList<Callable<Object>>(deferred.size());
+        for (final DeferredUses uses : deferred)
+        {
+            usesTasks.add(new Callable<Object>()
+            {
+                public Object call()
+                {
+                    mergeAllUses(session, uses.m_resource, uses.m_reqs, uses.m_caps,
+                        allCandidates, resourcePkgMap,
+                        new HashMap<Capability, List<Resource>>());
+                    return null;
+                }
+            });
+        }
+        invokeAll(executor, usesTasks);
+
+        List<Callable<Object[]>> checkTasks = new ArrayList<Callable<Object[]>>(targets.size());
+        for (final Resource target : targets)
+        {
+            checkTasks.add(new Callable<Object[]>()
+            {
+                public Object[] call()
+                {
+                    ResolveSession checkSession = new ResolveSession(session);
+                    ResolutionException rethrow = null;
+                    long time = System.nanoTime();
+                    try
+                    {
+                        checkPackageSpaceConsistency(
+                            checkSession, target, allCandidates, resourcePkgMap,
+                            new HashMap<Resource, Object>());
+                    }
+                    catch (ResolutionException ex)
+                    {
+                        rethrow = ex;
+                    }
+                    time = System.nanoTime() - time;
+                    return new Object[] { checkSession, rethrow, target, time };
+                }
+            });
+        }
+        List<Object[]> results = invokeAll(executor, checkTasks);
+
+        Candidates multipleCardCandidates = null;
+        for (Object[] result : results)
+        {
+            Candidates candidates = ((ResolveSession) result[0]).getMultipleCardCandidates();
+            if ((candidates != null) && (multipleCardCandidates != null))
+            {
+                resourcePkgMap.clear();
+                session.getPackageSourcesCache().clear();
+                return checkPackageSpaces(
+                    session, resources, hostReqs, allCandidates, resourcePkgMap);
+            }
+            multipleCardCandidates = (candidates != null)
+                ? candidates : multipleCardCandidates;
+        }
+        session.setMultipleCardCandidates(multipleCardCandidates);
+
+        // Report the checks on the resolving thread, so listeners can
+        // associate them with the current resolve operation.
+        ResolutionException rethrow = null;
+        for (Object[] result : results)
+        {
+            ResolveSession checkSession = (ResolveSession) result[0];
+            for (ResolverListener listener : m_listeners)
+            {
+                listener.consistencyChecked((Resource) result[2],
+                    ((Long) result[3]).longValue(), (ResolutionException) result[1]);
+            }
+            for (Candidates perm : checkSession.getUsesPermutations())
+            {
+                session.addPermutation(session.getUsesPermutations(), perm);
+            }
+            for (Candidates perm : checkSession.getImportPermutations())
+            {
+                session.addPermutation(session.getImportPermutations(), perm);
+            }
+            if (result[1] != null)
+            {
+                rethrow = (ResolutionException) result[1];
+                session.setConflictResource((Resource) result[2]);
+            }
+        }
+        return rethrow;
+    }
+
+    // Returns the resources whose package space consistency is checked,
+    // which are the hosts of any fragments being resolved.
+    private static List<Resource> getTargets(
+        Collection<Resource> resources, Map<Resource, List<Requirement>> hostReqs,
+        Candidates allCandidates)
+    {
+        List<Resource> targets = new ArrayList<Resource>(resources.size());
+        for (Resource resource : resources)
+        {
+            Resource target = resource;
+
+            // If we are resolving a fragment, then get its
+            // host candidate and verify it instead.
+            List<Requirement> hostReq = hostReqs.get(resource);
+            if (hostReq != null)
+            {
+                target = allCandidates.getCandidates(hostReq.get(0))
+                    .iterator().next().getResource();
+            }
+            targets.add(allCandidates.getWrappedHost(target));
+        }
+        return targets;
+    }
+
+    private static <T> List<T> invokeAll(
+        ExecutorService executor, List<Callable<T>> tasks)
+    {
+        List<T> results = new ArrayList<T>(tasks.size());
+        try
+        {
+            for (Future<T> future : executor.invokeAll(tasks))
+            {
+                results.add(future.get());
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while resolving.");
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw (Error) ex.getCause();
+        }
+        return results;
+    }
+
     private void calculatePackageSpaces(
         ResolveSession session,
         Resource resource,
@@ -549,6 +1037,25 @@ public class ResolverImpl implements Resolver
         Map<Resource, Packages> resourcePkgMap,
         Map<Capability, List<Resource>> usesCycleMap,
         Set<Resource> cycle)
+    {
+        calculatePackageSpaces(
+            session, resource, allCandidates, resourcePkgMap, usesCycleMap, cycle, null);
+    }
+
+    /**
+     * Calculates the package space of the specified resource and the
+     * resources it depends on. If a list of deferred resources is specified,
+     * the uses constraints of the resources are not merged, but the
+     * resources which need them are added to the list instead.
+     */
+    private void calculatePackageSpaces(
+        ResolveSession session,
+        Resource resource,
+        Candidates allCandidates,
+        Map<Resource, Packages> resourcePkgMap,
+        Map<Capability, List<Resource>> usesCycleMap,
+        Set<Resource> cycle,
+        List<DeferredUses> deferred)
     {
         if (cycle.contains(resource))
         {
@@ -716,7 +1223,7 @@ public class ResolverImpl implements Resolver
         {
             calculatePackageSpaces(
                 session, caps.get(i).getResource(), allCandidates, resourcePkgMap,
-                usesCycleMap, cycle);
+                usesCycleMap, cycle, deferred);
         }
 
         // Fourth, if the target resource is unresolved or is dynamically importing,
@@ -730,59 +1237,67 @@ public class ResolverImpl implements Resolver
         // import is consistent with the existing package space.
         if ((wiring == null) || isDynamicImporting)
         {
-            // Merge uses constraints from required capabilities.
-            for (int i = 0; i < reqs.size(); i++)
+            if (deferred != null)
             {
-                Requirement req = reqs.get(i);
-                Capability cap = caps.get(i);
-                // Ignore bundle/package requirements, since they are
-                // considered below.
-                if (!req.getNamespace().equals(BundleNamespace.BUNDLE_NAMESPACE)
-                    && !req.getNamespace().equals(PackageNamespace.PACKAGE_NAMESPACE))
-                {
-                    List<Requirement> blameReqs = new ArrayList<Requirement>();
-                    blameReqs.add(req);
-
-                    mergeUses(
-                        session,
-                        resource,
-                        resourcePkgs,
-                        cap,
-                        blameReqs,
-                        cap,
-                        resourcePkgMap,
-                        allCandidates,
-                        usesCycleMap);
-                }
+                deferred.add(new DeferredUses(resource, reqs, caps));
             }
-            // Merge uses constraints from imported packages.
-            for (Entry<String, List<Blame>> entry : resourcePkgs.m_importedPkgs.entrySet())
+            else
             {
-                for (Blame blame : entry.getValue())
-                {
-                    // Ignore resources that import from themselves.
-                    if (!blame.m_cap.getResource().equals(resource))
-                    {
-                        List<Requirement> blameReqs = new ArrayList<Requirement>();
-                        blameReqs.add(blame.m_reqs.get(0));
+                mergeAllUses(
+                    session, resource, reqs, caps, allCandidates, resourcePkgMap,
+                    usesCycleMap);
+            }
+        }
+    }
 
-                        mergeUses(
-                            session,
-                            resource,
-                            resourcePkgs,
-                            blame.m_cap,
-                            blameReqs,
-                            null,
-                            resourcePkgMap,
-                            allCandidates,
-                            usesCycleMap);
-                    }
-                }
+    /**
+     * Merges the uses constraints implied by the imported and required
+     * packages of the specified resource into its package space. This only
+     * modifies the package space of the resource itself.
+     */
+    private void mergeAllUses(
+        ResolveSession session,
+        Resource resource,
+        List<Requirement> reqs,
+        List<Capability> caps,
+        Candidates allCandidates,
+        Map<Resource, Packages> resourcePkgMap,
+        Map<Capability, List<Resource>> usesCycleMap)
+    {
+        Packages resourcePkgs = resourcePkgMap.get(resource);
+
+        // Merge uses constraints from required capabilities.
+        for (int i = 0; i < reqs.size(); i++)
+        {
+            Requirement req = reqs.get(i);
+            Capability cap = caps.get(i);
+            // Ignore bundle/package requirements, since they are
+            // considered below.
+            if (!req.getNamespace().equals(BundleNamespace.BUNDLE_NAMESPACE)
+                && !req.getNamespace().equals(PackageNamespace.PACKAGE_NAMESPACE))
+            {
+                List<Requirement> blameReqs = new ArrayList<Requirement>();
+                blameReqs.add(req);
+
+                mergeUses(
+                    session,
+                    resource,
+                    resourcePkgs,
+                    cap,
+                    blameReqs,
+                    cap,
+                    resourcePkgMap,
+                    allCandidates,
+                    usesCycleMap);
             }
-            // Merge uses constraints from required bundles.
-            for (Entry<String, List<Blame>> entry : resourcePkgs.m_requiredPkgs.entrySet())
+        }
+        // Merge uses constraints from imported packages.
+        for (Entry<String, List<Blame>> entry : resourcePkgs.m_importedPkgs.entrySet())
+        {
+            for (Blame blame : entry.getValue())
             {
-                for (Blame blame : entry.getValue())
+                // Ignore resources that import from themselves.
+                if (!blame.m_cap.getResource().equals(resource))
                 {
                     List<Requirement> blameReqs = new ArrayList<Requirement>();
                     blameReqs.add(blame.m_reqs.get(0));
@@ -800,6 +1315,26 @@ public class ResolverImpl implements Resolver
                 }
             }
         }
+        // Merge uses constraints from required bundles.
+        for (Entry<String, List<Blame>> entry : resourcePkgs.m_requiredPkgs.entrySet())
+        {
+            for (Blame blame : entry.getValue())
+            {
+                List<Requirement> blameReqs = new ArrayList<Requirement>();
+                blameReqs.add(blame.m_reqs.get(0));
+
+                mergeUses(
+                    session,
+                    resource,
+                    resourcePkgs,
+                    blame.m_cap,
+                    blameReqs,
+                    null,
+                    resourcePkgMap,
+                    allCandidates,
+                    usesCycleMap);
+            }
+        }
     }
 
     private void mergeCandidatePackages(
@@ -1072,6 +1607,92 @@ public class ResolverImpl implements Resolver
         addToBlame.addBlame(newBlame, matchingCap);
     }
 
+    /**
+     * Checks the package space consistency of one of the resources being
+     * resolved and reports the result to the resolver listeners.
+     */
+    private void checkResourceConsistency(
+        ResolveSession session,
+        boolean isDynamicImporting,
+        Resource resource,
+        Candidates allCandidates,
+        Map<Resource, Packages> resourcePkgMap,
+        Map<Resource, Object> resultCache) throws ResolutionException
+    {
+        long time = System.nanoTime();
+        ResolutionException rethrow = null;
+        try
+        {
+            if (isDynamicImporting)
+            {
+                checkDynamicPackageSpaceConsistency(
+                    session, resource, allCandidates, resourcePkgMap, resultCache);
+            }
+            else
+            {
+                checkPackageSpaceConsistency(
+                    session, resource, allCandidates, resourcePkgMap, resultCache);
+            }
+        }
+        catch (ResolutionException ex)
+        {
+            rethrow = ex;
+            throw ex;
+        }
+        finally
+        {
+            time = System.nanoTime() - time;
+            for (ResolverListener listener : m_listeners)
+            {
+                listener.consistencyChecked(resource, time, rethrow);
+            }
+        }
+    }
+
+    private boolean isWithinBudget(ResolveSession session)
+    {
+        if ((m_maxPermutations > 0) && (session.getPermutationCount() >= m_maxPermutations))
+        {
+            return false;
+        }
+        return (m_timeout <= 0) || (session.getElapsedTime() < m_timeout);
+    }
+
+    /**
+     * Creates the exception reported when the budget of a resolve operation
+     * is exceeded. It keeps the unresolved requirements of the last conflict,
+     * so the caller can tell which resource to leave out.
+     */
+    private ResolutionException budgetExceeded(
+        ResolveSession session, ResolutionException ex)
+    {
+        String msg = "Resolve operation exceeded its budget after checking "
+            + session.getPermutationCount() + " candidate permutations in "
+            + session.getElapsedTime() + " ms: " + ex.getMessage();
+        m_logger.log(
+            session.isBudgetExceeded() ? Logger.LOG_DEBUG : Logger.LOG_WARNING, msg);
+        session.setBudgetExceeded();
+        return new ResolutionException(msg, null, ex.getUnresolvedRequirements());
+    }
+
+    private void firePermutationStarted(ResolveSession session)
+    {
+        for (ResolverListener listener : m_listeners)
+        {
+            listener.permutationStarted(
+                session.getUsesPermutations().size(),
+                session.getImportPermutations().size());
+        }
+    }
+
+    private void firePermutationFinished(ResolveSession session, ResolutionException ex)
+    {
+        for (ResolverListener listener : m_listeners)
+        {
+            listener.permutationFinished(session.getPackageSourcesCache().size(), ex);
+        }
+    }
+
     private void checkPackageSpaceConsistency(
         ResolveSession session,
         Resource resource,
@@ -1126,9 +1747,9 @@ public class ResolverImpl implements Resolver
                     else if (!sourceBlame.m_cap.getResource().equals(blame.m_cap.getResource()))
                     {
                         // Try to permutate the conflicting requirement.
-                        permutate(allCandidates, blame.m_reqs.get(0), importPermutations);
+                        permutate(session, allCandidates, blame.m_reqs.get(0), importPermutations);
                         // Try to permutate the source requirement.
-                        permutate(allCandidates, sourceBlame.m_reqs.get(0), importPermutations);
+                        permutate(session, allCandidates, sourceBlame.m_reqs.get(0), importPermutations);
                         // Report conflict.
                         ResolutionException ex = new ResolutionException(
                             "Uses constraint violation. Unable to resolve resource "
@@ -1229,7 +1850,7 @@ public class ResolverImpl implements Resolver
                             {
                                 mutated.add(req);
                                 // Remove the conflicting candidate.
-                                candidates.remove(0);
+                                permutation.removeFirstCandidate(req);
                                 // Continue with the next uses constraint.
                                 break;
                             }
@@ -1242,7 +1863,7 @@ public class ResolverImpl implements Resolver
             {
                 if (!mutated.isEmpty())
                 {
-                    usesPermutations.add(permutation);
+                    session.addPermutation(usesPermutations, permutation);
                 }
                 m_logger.log(
                     Logger.LOG_DEBUG,
@@ -1336,7 +1957,7 @@ public class ResolverImpl implements Resolver
                                 {
                                     mutated.add(req);
                                     // Remove the conflicting candidate.
-                                    candidates.remove(0);
+                                    permutation.removeFirstCandidate(req);
                                     // Continue with the next uses constraint.
                                     break;
                                 }
@@ -1356,7 +1977,7 @@ public class ResolverImpl implements Resolver
                     // Add uses permutation if we mutated any candidates.
                     if (!mutated.isEmpty())
                     {
-                        usesPermutations.add(permutation);
+                        session.addPermutation(usesPermutations, permutation);
                     }
 
                     // Try to permutate the candidate for the original
@@ -1369,7 +1990,7 @@ public class ResolverImpl implements Resolver
                         // with existing import decisions, we may end up trying
                         // to permutate the same import a lot of times, so we should
                         // try to check if that the case and only permutate it once.
-                        permutateIfNeeded(allCandidates, req, importPermutations);
+                        permutateIfNeeded(session, allCandidates, req, importPermutations);
                     }
 
                     m_logger.log(
@@ -1411,7 +2032,7 @@ public class ResolverImpl implements Resolver
                         // to backtrack on our current candidate selection.
                         if (permCount == (usesPermutations.size() + importPermutations.size()))
                         {
-                            permutate(allCandidates, req, importPermutations);
+                            permutate(session, allCandidates, req, importPermutations);
                         }
                         throw ex;
                     }
@@ -1440,8 +2061,8 @@ public class ResolverImpl implements Resolver
             }
             // Get the current candidate list and remove all the offending root
             // cause candidates from a copy of the current permutation.
-            candidates = session.getMultipleCardCandidates().getCandidates(req);
-            candidates.removeAll(usedBlames.getRootCauses(req));
+            candidates = session.getMultipleCardCandidates()
+                .removeCandidates(req, usedBlames.getRootCauses(req));
         }
         // We only are successful if there is at least one candidate left
         // for the requirement
@@ -1449,7 +2070,8 @@ public class ResolverImpl implements Resolver
     }
 
     private static void permutate(
-        Candidates allCandidates, Requirement req, List<Candidates> permutations)
+        ResolveSession session, Candidates allCandidates, Requirement req,
+        List<Candidates> permutations)
     {
         if (!Util.isMultiple(req))
         {
@@ -1457,15 +2079,15 @@ public class ResolverImpl implements Resolver
             if ((candidates != null) && (candidates.size() > 1))
             {
                 Candidates perm = allCandidates.copy();
-                candidates = perm.getCandidates(req);
-                candidates.remove(0);
-                permutations.add(perm);
+                perm.removeFirstCandidate(req);
+                session.addPermutation(permutations, perm);
             }
         }
     }
 
     private static void permutateIfNeeded(
-        Candidates allCandidates, Requirement req, List<Candidates> permutations)
+        ResolveSession session, Candidates allCandidates, Requirement req,
+        List<Candidates> permutations)
     {
         List<Capability> candidates = allCandidates.getCandidates(req);
         if ((candidates != null) && (candidates.size() > 1))
@@ -1476,22 +2098,34 @@ public class ResolverImpl implements Resolver
             // there is any permutation that contains a different
             // initial candidate for the requirement in question,
             // then it has already been permutated.
-            boolean permutated = false;
-            for (Candidates existingPerm : permutations)
-            {
-                List<Capability> existingPermCands = existingPerm.getCandidates(req);
-                if (!existingPermCands.get(0).equals(candidates.get(0)))
-                {
-                    permutated = true;
-                }
-            }
+            // When checking package spaces concurrently, the permutations
+            // are collected per check, so the shared permutations must be
+            // checked as well; they are not modified while checks run.
+            boolean permutated = isPermutated(candidates, req, permutations)
+                || ((permutations != session.getSharedImportPermutations())
+                    && isPermutated(candidates, req, session.getSharedImportPermutations()));
             // If we haven't already permutated the existing
             // import, do so now.
             if (!permutated)
             {
-                permutate(allCandidates, req, permutations);
+                permutate(session, allCandidates, req, permutations);
+            }
+        }
+    }
+
+    private static boolean isPermutated(
+        List<Capability> candidates, Requirement req, List<Candidates> permutations)
+    {
+        for (Candidates existingPerm : permutations)
+        {
+            List<Capability> existingPermCands = existingPerm.getCandidates(req);
+            if ((existingPermCands != null)
+                && !existingPermCands.get(0).equals(candidates.get(0)))
+            {
+                return true;
             }
         }
+        return false;
     }
 
     private static void calculateExportedPackages(
@@ -2205,4 +2839,31 @@ public class ResolverImpl implements Resolver
             return m_blames.toString();
         }
     }
+
+    private static class DeferredUses
+    {
+        private final Resource m_resource;
+        private final List<Requirement> m_reqs;
+        private final List<Capability> m_caps;
+
+        public DeferredUses(
+            Resource resource, List<Requirement> reqs, List<Capability> caps)
+        {
+            m_resource = resource;
+            m_reqs = reqs;
+            m_caps = caps;
+        }
+    }
+
+    private static class ResolverThreadFactory implements ThreadFactory
+    {
+        private int m_count = 0;
+
+        public synchronized Thread newThread(Runnable r)
+        {
+            Thread t = new Thread(r, "FelixResolver-" + (++m_count));
+            t.setDaemon(true);
+            return t;
+        }
+    }
 }
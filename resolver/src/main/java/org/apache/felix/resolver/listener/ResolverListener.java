@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.listener;
+
+import org.osgi.resource.Resource;
+
+/**
+ * Receives notifications about the progress of the resolver, to collect
+ * metrics or to trace the search for a consistent candidate permutation.
+ * The resolver bundle notifies listeners registered as services under this
+ * interface.
+ * Notifications are delivered on the thread calling the resolver, which
+ * may resolve on several threads at the same time, so implementations
+ * must be thread safe. Listeners may be called while the resolver holds
+ * its locks, so they should return quickly.
+**/
+public interface ResolverListener
+{
+    /**
+     * Called when a resolve operation starts.
+     * @param dynamicImporter the resource which is dynamically importing a
+     *        package or <tt>null</tt> if this is not a dynamic import.
+    **/
+    void resolveStarted(Resource dynamicImporter);
+
+    /**
+     * Called when a candidate permutation is selected to be checked.
+     * @param usesPermutations the number of remaining permutations based on
+     *        uses constraints.
+     * @param importPermutations the number of remaining permutations based on
+     *        requirement candidates.
+    **/
+    void permutationStarted(int usesPermutations, int importPermutations);
+
+    /**
+     * Called when the package space consistency of a resource being resolved
+     * was checked for the current permutation.
+     * @param resource the checked resource.
+     * @param time the time the check took in nanoseconds.
+     * @param ex the uses constraint violation or missing requirement which
+     *        makes the permutation inconsistent, or <tt>null</tt> if the
+     *        package space of the resource is consistent.
+    **/
+    void consistencyChecked(Resource resource, long time, Exception ex);
+
+    /**
+     * Called when all resources were checked for the current permutation.
+     * @param packageSources the number of capabilities in the package
+     *        sources cache.
+     * @param ex the reason the permutation is inconsistent, which causes
+     *        the resolver to backtrack, or <tt>null</tt> if it is consistent.
+    **/
+    void permutationFinished(int packageSources, Exception ex);
+
+    /**
+     * Called when a resolve operation finishes.
+     * @param time the time the resolve operation took in nanoseconds.
+     * @param ex the exception the resolve operation failed with or
+     *        <tt>null</tt> if it succeeded.
+    **/
+    void resolveFinished(long time, Exception ex);
+}
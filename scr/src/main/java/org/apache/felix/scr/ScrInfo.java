@@ -51,4 +51,15 @@ public interface ScrInfo
      */
     void config(PrintWriter out);
 
+    /**
+     * List in text the runtime statistics of the specified components. Components can be specified as in the
+     * {@link #info(String, PrintWriter)} method. If null is specified, a summary of all components is listed, sorted
+     * by the total time spent activating each component.
+     * @param componentId specifier for desired components
+     * @param out PrintStream for normal output
+     * @throws IllegalArgumentException if nothing can be found
+     * @since 1.9
+     */
+    void stats(String componentId, PrintWriter out);
+
 }
\ No newline at end of file
@@ -19,6 +19,7 @@
 package org.apache.felix.scr.impl;
 
 
+import java.io.File;
 import java.io.PrintStream;
 import java.text.MessageFormat;
 import java.util.HashMap;
@@ -74,6 +75,9 @@ public class Activator extends AbstractExtender
     //  thread acting upon configurations
     private ComponentActorThread m_componentActor;
 
+    // cache of component descriptors, null if there is no data area
+    private DescriptorCache m_descriptorCache;
+
     public Activator() {
         setSynchronous(true);
     }
@@ -108,16 +112,22 @@ public class Activator extends AbstractExtender
         log( LogService.LOG_INFO, m_bundle, " Version = {0}",
             new Object[] {m_bundle.getHeaders().get( Constants.BUNDLE_VERSION )}, null );
 
+        // prepare the descriptor cache, dropping entries of uninstalled bundles
+        File cacheDir = m_context.getDataFile( "descriptors" );
+        if ( cacheDir != null )
+        {
+            m_descriptorCache = new DescriptorCache( cacheDir, m_bundle );
+            m_descriptorCache.prune( m_context );
+        }
+
         // create and start the component actor
-        m_componentActor = new ComponentActorThread();
-        Thread t = new Thread(m_componentActor, "SCR Component Actor");
-        t.setDaemon( true );
-        t.start();
+        m_componentActor = new ComponentActorThread( m_configuration.actorThreads() );
+        m_componentActor.start();
 
         super.doStart();
 
         // register the Gogo and old Shell commands
-        ScrCommand scrCommand = ScrCommand.register(m_context, m_componentRegistry, m_configuration);
+        ScrCommand scrCommand = ScrCommand.register(m_context, m_componentRegistry, m_configuration, m_componentActor);
         m_configuration.setScrCommand( scrCommand );
     }
 
@@ -256,7 +266,7 @@ public class Activator extends AbstractExtender
         try
         {
             BundleComponentActivator ga = new BundleComponentActivator( m_componentRegistry, m_componentActor, context,
-                m_configuration );
+                m_configuration, m_descriptorCache );
 
             // replace bundle activator in the map
             synchronized ( m_componentBundles )
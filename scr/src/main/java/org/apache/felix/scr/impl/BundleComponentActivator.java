@@ -27,7 +27,9 @@ import java.net.URL;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -81,6 +83,15 @@ public class BundleComponentActivator implements Logger
     // the configuration
     private final ScrConfiguration m_configuration;
 
+    // the descriptor cache, null if descriptors are not cached
+    private final DescriptorCache m_descriptorCache;
+
+    // the cached descriptors of the bundle, null if not found in the cache
+    private Map<String, byte[]> m_cachedDescriptors;
+
+    // the descriptors to cache, null if descriptors are not cached
+    private Map<String, byte[]> m_descriptors;
+
 
     /**
      * Called upon starting of the bundle. This method invokes initialize() which
@@ -90,11 +101,14 @@ public class BundleComponentActivator implements Logger
      *      register components with to ensure uniqueness of component names
      *      and to ensure configuration updates.
      * @param   context  The bundle context owning the components
+     * @param descriptorCache The cache of component descriptors or
+     *      <code>null</code> if descriptors cannot be cached.
      *
      * @throws ComponentException if any error occurrs initializing this class
      */
     BundleComponentActivator( ComponentRegistry componentRegistry,
-        ComponentActorThread componentActor, BundleContext context, ScrConfiguration configuration ) throws ComponentException
+        ComponentActorThread componentActor, BundleContext context, ScrConfiguration configuration,
+        DescriptorCache descriptorCache ) throws ComponentException
     {
         // keep the parameters for later
         m_componentRegistry = componentRegistry;
@@ -106,6 +120,7 @@ public class BundleComponentActivator implements Logger
         m_logService = new ServiceTracker( context, Activator.LOGSERVICE_CLASS, null );
         m_logService.open();
         m_configuration = configuration;
+        m_descriptorCache = configuration.cacheDescriptors() ? descriptorCache : null;
 
         log( LogService.LOG_DEBUG, "BundleComponentActivator : Bundle [{0}] active",
                 new Object[] {m_bundle.getBundleId()}, null, null, null );
@@ -135,6 +150,25 @@ public class BundleComponentActivator implements Logger
         log( LogService.LOG_DEBUG, "BundleComponentActivator : Bundle [{0}] descriptor locations {1}",
                 new Object[] {m_bundle.getBundleId(), descriptorLocations}, null, null, null );
 
+        String cacheKey = null;
+        if ( m_descriptorCache != null )
+        {
+            cacheKey = DescriptorCache.getKey( m_bundle, descriptorLocations );
+        }
+        if ( cacheKey != null )
+        {
+            try
+            {
+                m_cachedDescriptors = m_descriptorCache.load( m_bundle.getBundleId(), cacheKey );
+            }
+            catch ( IOException ex )
+            {
+                log( LogService.LOG_WARNING, "Cannot read cached component descriptors of bundle {0}", new Object[]
+                    { m_bundle.getBundleId() }, null, null, ex );
+            }
+            m_descriptors = new HashMap<String, byte[]>();
+        }
+
         // 112.4.1: The value of the the header is a comma separated list of XML entries within the Bundle
         StringTokenizer st = new StringTokenizer( descriptorLocations, ", " );
 
@@ -153,11 +187,27 @@ public class BundleComponentActivator implements Logger
             }
 
             // load from the descriptors
-            for ( URL descriptorURL : descriptorURLs )
+            for ( int i = 0; i < descriptorURLs.length; i++ )
             {
-                loadDescriptor( descriptorURL );
+                loadDescriptor( descriptorURLs[i], descriptorLocation + "#" + i );
             }
         }
+
+        // update the cache if descriptors have been parsed
+        if ( m_descriptors != null && !m_descriptors.equals( m_cachedDescriptors ) )
+        {
+            try
+            {
+                m_descriptorCache.store( m_bundle.getBundleId(), cacheKey, m_descriptors );
+            }
+            catch ( IOException ex )
+            {
+                log( LogService.LOG_WARNING, "Cannot cache component descriptors of bundle {0}", new Object[]
+                    { m_bundle.getBundleId() }, null, null, ex );
+            }
+        }
+        m_cachedDescriptors = null;
+        m_descriptors = null;
         //enable all the enabled components
         for ( ComponentHolder componentHolder : m_managers )
         {
@@ -226,7 +276,14 @@ public class BundleComponentActivator implements Logger
     }
 
 
-    private void loadDescriptor( final URL descriptorURL )
+    /**
+     * Loads the components of a descriptor. The components are read from
+     * the cache if available there, otherwise the descriptor is parsed.
+     *
+     * @param descriptorURL The URL of the descriptor
+     * @param descriptorId The identifier of the descriptor in the cache
+     */
+    private void loadDescriptor( final URL descriptorURL, final String descriptorId )
     {
         // simple path for log messages
         final String descriptorLocation = descriptorURL.getPath();
@@ -234,21 +291,65 @@ public class BundleComponentActivator implements Logger
         InputStream stream = null;
         try
         {
-            stream = descriptorURL.openStream();
+            List<ComponentMetadata> metadataList = null;
+            byte[] cached = ( m_cachedDescriptors != null ) ? m_cachedDescriptors.get( descriptorId ) : null;
+            if ( cached != null )
+            {
+                try
+                {
+                    metadataList = DescriptorCache.read( cached );
 
-            BufferedReader in = new BufferedReader( new InputStreamReader( stream, "UTF-8" ) );
-            XmlHandler handler = new XmlHandler( m_bundle, this );
-            KXml2SAXParser parser;
+                    log( LogService.LOG_DEBUG, "BundleComponentActivator : Bundle [{0}] read {1} from cache",
+                            new Object[] {m_bundle.getBundleId(), descriptorLocation}, null, null, null );
+                }
+                catch ( IOException ex )
+                {
+                    log( LogService.LOG_WARNING, "Cannot read cached descriptor entry ''{0}''", new Object[]
+                        { descriptorLocation }, null, null, ex );
+                    cached = null;
+                }
+            }
+
+            if ( metadataList == null )
+            {
+                stream = descriptorURL.openStream();
 
-            parser = new KXml2SAXParser( in );
+                BufferedReader in = new BufferedReader( new InputStreamReader( stream, "UTF-8" ) );
+                XmlHandler handler = new XmlHandler( m_bundle, this );
+                KXml2SAXParser parser;
+
+                parser = new KXml2SAXParser( in );
+
+                parser.parseXML( handler );
+
+                metadataList = handler.getComponentMetadataList();
+
+                // serialize before validation which modifies the metadata
+                if ( m_descriptors != null )
+                {
+                    try
+                    {
+                        cached = DescriptorCache.write( metadataList );
+                    }
+                    catch ( IOException ex )
+                    {
+                        // not caching the descriptor does not prevent using the parsed metadata
+                        log( LogService.LOG_WARNING, "Cannot cache descriptor entry ''{0}''", new Object[]
+                            { descriptorLocation }, null, null, ex );
+                        cached = null;
+                    }
+                }
+            }
 
-            parser.parseXML( handler );
+            if ( m_descriptors != null && cached != null )
+            {
+                m_descriptors.put( descriptorId, cached );
+            }
 
             // 112.4.2 Component descriptors may contain a single, root component element
             // or one or more component elements embedded in a larger document
-            for ( Object o : handler.getComponentMetadataList() )
+            for ( ComponentMetadata metadata : metadataList )
             {
-                ComponentMetadata metadata = ( ComponentMetadata ) o;
                 ComponentRegistryKey key = null;
                 try
                 {
@@ -398,6 +499,17 @@ public class BundleComponentActivator implements Logger
     }
 
 
+    /**
+     * Returns the registry of all components of the Declarative Services
+     * implementation, which also provides the service listeners shared by
+     * the dependency managers of the components.
+     */
+    public ComponentRegistry getComponentRegistry()
+    {
+        return m_componentRegistry;
+    }
+
+
     /**
      * Implements the <code>ComponentContext.enableComponent(String)</code>
      * method by first finding the component(s) for the <code>name</code> and
@@ -513,16 +625,18 @@ public class BundleComponentActivator implements Logger
      * synchronously runs the task if the thread is not running. If this instance
      * is {@link #isActive() not active}, the task is not executed.
      *
+     * @param key The key of the component holder the task acts upon. Tasks
+     *      with the same key are run in the order they are scheduled.
      * @param task The component task to execute
      */
-    public void schedule( Runnable task )
+    public void schedule( Object key, Runnable task )
     {
         if ( isActive() )
         {
             ComponentActorThread cat = m_componentActor;
             if ( cat != null )
             {
-                cat.schedule( task );
+                cat.schedule( key, task );
             }
             else
             {
@@ -19,61 +19,114 @@
 package org.apache.felix.scr.impl;
 
 
+import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.osgi.service.log.LogService;
 
 
 /**
- * The <code>ComponentActorThread</code> is the thread used to act upon registered
+ * The <code>ComponentActorThread</code> runs the tasks acting upon registered
  * components of the service component runtime.
+ * <p>
+ * By default a single thread runs all tasks in the order they are scheduled.
+ * If more than one thread is configured, tasks are run concurrently, except
+ * that tasks scheduled with the same key, which is the component metadata
+ * and thus identifies the component holder, are still run one after the
+ * other in the order they are scheduled. The tasks acquire the locks of the
+ * component managers themselves; no lock is held by this class while a task
+ * runs, so the lock ordering of the component managers is not affected.
  */
-class ComponentActorThread implements Runnable
+class ComponentActorThread
 {
 
-    // sentinel task to terminate this thread
-    private static final Runnable TERMINATION_TASK = new Runnable()
-    {
-        public void run()
-        {
-        }
+    // the name of the threads, which are numbered if there is more than one
+    private static final String THREAD_NAME = "SCR Component Actor";
 
+    // the key of tasks which are run in the order they are scheduled
+    private final Object m_serialKey = new Object();
 
-        public String toString()
-        {
-            return "Component Actor Terminator";
-        }
-    };
+    // the number of threads running tasks
+    private final int m_threadCount;
+
+    // the queues of tasks to be run indexed by key; a key is present as
+    // long as it has pending tasks or one of its tasks is running
+    private final Map<Object, LinkedList<Runnable>> m_queues = new HashMap<Object, LinkedList<Runnable>>();
+
+    // the keys with pending tasks, none of which is running
+    private final LinkedList<Object> m_readyKeys = new LinkedList<Object>();
+
+    // the number of pending tasks, guarded by m_queues
+    private int m_queueDepth;
+
+    // the highest number of pending tasks, guarded by m_queues
+    private int m_maxQueueDepth;
+
+    // set once the threads are asked to terminate, guarded by m_queues
+    private boolean m_terminated;
+
+    // the number of tasks run
+    private final AtomicLong m_taskCount = new AtomicLong();
 
-    // the queue of Runnable instances  to be run
-    private LinkedList tasks;
+    // the time spent running tasks in nanoseconds
+    private final AtomicLong m_taskTime = new AtomicLong();
+
+    // the longest time spent running a task in nanoseconds
+    private final AtomicLong m_maxTaskTime = new AtomicLong();
 
 
     ComponentActorThread()
     {
-        tasks = new LinkedList();
+        this( 1 );
+    }
+
+
+    ComponentActorThread( int threadCount )
+    {
+        m_threadCount = Math.max( 1, threadCount );
     }
 
 
-    // waits on Runnable instances coming into the queue. As instances come
+    // starts the daemon threads running the tasks
+    void start()
+    {
+        for ( int i = 0; i < m_threadCount; i++ )
+        {
+            String name = ( m_threadCount == 1 ) ? THREAD_NAME : THREAD_NAME + " " + ( i + 1 );
+            Thread t = new Thread( new Runnable()
+            {
+                public void run()
+                {
+                    runTasks();
+                }
+            }, name );
+            t.setDaemon( true );
+            t.start();
+        }
+    }
+
+
+    // waits on Runnable instances coming into the queues. As instances come
     // in, this method calls the Runnable.run method, logs any exception
-    // happening and keeps on waiting for the next Runnable. If the Runnable
-    // taken from the queue is this thread instance itself, the thread
-    // terminates.
-    public void run()
+    // happening and keeps on waiting for the next Runnable. Once terminated
+    // and all queues are empty, the thread terminates.
+    private void runTasks()
     {
         Activator.log( LogService.LOG_DEBUG, null, "Starting ComponentActorThread", null );
 
         for ( ;; )
         {
+            final Object key;
             final Runnable task;
-            synchronized ( tasks )
+            synchronized ( m_queues )
             {
-                while ( tasks.isEmpty() )
+                while ( m_readyKeys.isEmpty() && !m_terminated )
                 {
                     try
                     {
-                        tasks.wait();
+                        m_queues.wait();
                     }
                     catch ( InterruptedException ie )
                     {
@@ -82,19 +135,21 @@ class ComponentActorThread implements Runnable
                     }
                 }
 
-                task = ( Runnable ) tasks.removeFirst();
-            }
-
-            try
-            {
-                // return if the task is this thread itself
-                if ( task == TERMINATION_TASK )
+                if ( m_readyKeys.isEmpty() )
                 {
                     Activator.log( LogService.LOG_DEBUG, null, "Shutting down ComponentActorThread", null );
                     return;
                 }
 
-                // otherwise execute the task, log any issues
+                key = m_readyKeys.removeFirst();
+                task = m_queues.get( key ).removeFirst();
+                m_queueDepth--;
+            }
+
+            final long start = System.nanoTime();
+            try
+            {
+                // execute the task, log any issues
                 Activator.log( LogService.LOG_DEBUG, null, "Running task: " + task, null );
                 task.run();
             }
@@ -104,27 +159,48 @@ class ComponentActorThread implements Runnable
             }
             finally
             {
-                synchronized ( tasks )
+                taskDone( System.nanoTime() - start );
+
+                synchronized ( m_queues )
                 {
-                    tasks.notifyAll();
+                    // the next task of the key may run now
+                    if ( m_queues.get( key ).isEmpty() )
+                    {
+                        m_queues.remove( key );
+                    }
+                    else
+                    {
+                        m_readyKeys.add( key );
+                    }
+                    m_queues.notifyAll();
                 }
             }
         }
     }
 
 
-    // cause this thread to terminate by adding this thread to the end
-    // of the queue
+    private void taskDone( long duration )
+    {
+        m_taskCount.incrementAndGet();
+        m_taskTime.addAndGet( duration );
+        long max = m_maxTaskTime.get();
+        while ( duration > max && !m_maxTaskTime.compareAndSet( max, duration ) )
+        {
+            max = m_maxTaskTime.get();
+        }
+    }
+
+
+    // cause the threads to terminate once all scheduled tasks have been run
     void terminate()
     {
-        schedule( TERMINATION_TASK );
-        synchronized ( tasks )
+        synchronized ( m_queues )
         {
-            while ( !tasks.isEmpty() )
+            while ( !m_queues.isEmpty() )
             {
                 try
                 {
-                    tasks.wait();
+                    m_queues.wait();
                 }
                 catch ( InterruptedException e )
                 {
@@ -132,6 +208,9 @@ class ComponentActorThread implements Runnable
                     Activator.log( LogService.LOG_ERROR, null, "Interrupted exception waiting for queue to empty", e );
                 }
             }
+
+            m_terminated = true;
+            m_queues.notifyAll();
         }
     }
 
@@ -139,16 +218,95 @@ class ComponentActorThread implements Runnable
     // queue the given runnable to be run as soon as possible
     void schedule( Runnable task )
     {
-        synchronized ( tasks )
+        schedule( null, task );
+    }
+
+
+    // queue the given runnable to be run as soon as possible, after the
+    // tasks scheduled before with the same key
+    void schedule( Object key, Runnable task )
+    {
+        // with a single thread all tasks run in the order they are scheduled
+        if ( key == null || m_threadCount == 1 )
         {
-            // append to the task queue
-            tasks.add( task );
+            key = m_serialKey;
+        }
+
+        synchronized ( m_queues )
+        {
+            if ( m_terminated )
+            {
+                Activator.log( LogService.LOG_DEBUG, null, "Not running task [{0}] after termination",
+                    new Object[] {task}, null );
+                return;
+            }
+
+            // append to the task queue of the key, which is ready to run
+            // unless it already has pending or running tasks
+            LinkedList<Runnable> queue = m_queues.get( key );
+            if ( queue == null )
+            {
+                queue = new LinkedList<Runnable>();
+                m_queues.put( key, queue );
+                m_readyKeys.add( key );
+            }
+            queue.add( task );
+            m_queueDepth++;
+            m_maxQueueDepth = Math.max( m_maxQueueDepth, m_queueDepth );
 
             Activator.log( LogService.LOG_DEBUG, null, "Adding task [{0}] as #{1} in the queue" 
-                    , new Object[] {task, tasks.size()}, null );
+                    , new Object[] {task, m_queueDepth}, null );
 
-            // notify the waiting thread
-            tasks.notifyAll();
+            // notify the waiting threads
+            m_queues.notifyAll();
         }
     }
+
+
+    //---------- Statistics
+
+    int getThreadCount()
+    {
+        return m_threadCount;
+    }
+
+
+    // the number of tasks waiting to be run
+    int getQueueDepth()
+    {
+        synchronized ( m_queues )
+        {
+            return m_queueDepth;
+        }
+    }
+
+
+    // the highest number of tasks waiting to be run at the same time
+    int getMaxQueueDepth()
+    {
+        synchronized ( m_queues )
+        {
+            return m_maxQueueDepth;
+        }
+    }
+
+
+    long getTaskCount()
+    {
+        return m_taskCount.get();
+    }
+
+
+    // the time spent running tasks in nanoseconds
+    long getTaskTime()
+    {
+        return m_taskTime.get();
+    }
+
+
+    // the longest time spent running a single task in nanoseconds
+    long getMaxTaskTime()
+    {
+        return m_maxTaskTime.get();
+    }
 }
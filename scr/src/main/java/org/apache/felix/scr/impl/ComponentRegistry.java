@@ -30,6 +30,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 
 import org.apache.felix.scr.Component;
 import org.apache.felix.scr.ScrService;
@@ -134,6 +136,14 @@ public class ComponentRegistry implements ScrService, ServiceListener
 
     private final Map<ServiceReference<?>, List<Entry>> m_missingDependencies = new HashMap<ServiceReference<?>, List<Entry>>( );
 
+    /**
+     * The service listeners registered with the framework on behalf of the
+     * dependency managers indexed by the bundle context and the filter. All
+     * dependency managers of a bundle tracking the same interface with the
+     * same target filter share a single framework service listener.
+     */
+    private final Map<ServiceListenerKey, SharedServiceListener> m_serviceListeners = new HashMap<ServiceListenerKey, SharedServiceListener>();
+
     protected ComponentRegistry( BundleContext context )
     {
         m_bundleContext = context;
@@ -171,6 +181,17 @@ public class ComponentRegistry implements ScrService, ServiceListener
     {
         m_bundleContext.removeServiceListener(this);
 
+        final Map<ServiceListenerKey, SharedServiceListener> serviceListeners;
+        synchronized ( m_serviceListeners )
+        {
+            serviceListeners = new HashMap<ServiceListenerKey, SharedServiceListener>( m_serviceListeners );
+            m_serviceListeners.clear();
+        }
+        for ( Map.Entry<ServiceListenerKey, SharedServiceListener> entry : serviceListeners.entrySet() )
+        {
+            entry.getKey().removeServiceListener( entry.getValue() );
+        }
+
         if (configurationSupport != null)
         {
             configurationSupport.dispose();
@@ -665,24 +686,26 @@ public class ComponentRegistry implements ScrService, ServiceListener
         final List<Entry> dependencyManagers = m_missingDependencies.remove( serviceReference );
         if ( dependencyManagers != null )
         {
-            actor.schedule( new Runnable()
+            // schedule the late binding per component, so it is serialized
+            // with the other tasks of the component
+            for ( final Entry entry : dependencyManagers )
             {
-
-                public void run()
+                actor.schedule( entry.getDm().getComponentManager().getComponentMetadata(), new Runnable()
                 {
-                    for ( Entry entry : dependencyManagers )
+
+                    public void run()
                     {
                         entry.getDm().invokeBindMethodLate( serviceReference, entry.getTrackingCount() );
                     }
-                }
 
-                @Override
-                public String toString()
-                {
-                    return "Late binding task of reference " + serviceReference + " for dependencyManagers " + dependencyManagers;
-                }
+                    @Override
+                    public String toString()
+                    {
+                        return "Late binding task of reference " + serviceReference + " for dependencyManager " + entry.getDm();
+                    }
 
-            } );
+                } );
+            }
         }
     }
 
@@ -702,6 +725,241 @@ public class ComponentRegistry implements ScrService, ServiceListener
         dependencyManagers.add( new Entry( dependencyManager, trackingCount ) );
     }
 
+    //---------- shared service listeners
+
+    /**
+     * Adds the <code>listener</code> for service events matching the
+     * <code>filter</code> on behalf of the bundle of the given context.
+     * Instead of registering each listener with the framework, a single
+     * framework service listener is registered per bundle and filter, which
+     * forwards the events to all listeners added for the filter.
+     * <p>
+     * The framework is never called while holding the lock on the shared
+     * listeners: the first listener for a bundle and filter reserves the
+     * entry and then registers the framework service listener, while later
+     * listeners wait for this registration to complete before returning.
+     *
+     * @throws InvalidSyntaxException if the filter is not a valid filter
+     */
+    public void addServiceListener( BundleContext context, String filter, ServiceListener listener )
+        throws InvalidSyntaxException
+    {
+        final ServiceListenerKey key = new ServiceListenerKey( context, filter );
+        final SharedServiceListener sharedListener;
+        final boolean register;
+        synchronized ( m_serviceListeners )
+        {
+            SharedServiceListener existing = m_serviceListeners.get( key );
+            register = existing == null;
+            if ( register )
+            {
+                existing = new SharedServiceListener( context.getBundle() );
+                m_serviceListeners.put( key, existing );
+            }
+            existing.add( listener );
+            sharedListener = existing;
+        }
+
+        if ( !register )
+        {
+            if ( !sharedListener.awaitRegistration() )
+            {
+                // the registration failed and the entry has been dropped,
+                // so try again and register the listener ourselves
+                sharedListener.remove( listener );
+                addServiceListener( context, filter, listener );
+            }
+            return;
+        }
+
+        boolean registered = false;
+        try
+        {
+            context.addServiceListener( sharedListener, filter );
+            registered = true;
+        }
+        finally
+        {
+            if ( !registered )
+            {
+                synchronized ( m_serviceListeners )
+                {
+                    if ( m_serviceListeners.get( key ) == sharedListener )
+                    {
+                        m_serviceListeners.remove( key );
+                    }
+                }
+            }
+            sharedListener.registered( registered );
+        }
+    }
+
+
+    /**
+     * Removes the <code>listener</code> added by the
+     * {@link #addServiceListener(BundleContext, String, ServiceListener)}
+     * method. The framework service listener is unregistered once the last
+     * listener for the bundle and filter has been removed. This is done
+     * outside of the lock on the shared listeners, a listener added for the
+     * same bundle and filter in the meantime registers a new framework
+     * service listener.
+     */
+    public void removeServiceListener( BundleContext context, String filter, ServiceListener listener )
+    {
+        final ServiceListenerKey key = new ServiceListenerKey( context, filter );
+        final SharedServiceListener sharedListener;
+        synchronized ( m_serviceListeners )
+        {
+            sharedListener = m_serviceListeners.get( key );
+            if ( sharedListener == null || !sharedListener.remove( listener ) )
+            {
+                return;
+            }
+            m_serviceListeners.remove( key );
+        }
+        key.removeServiceListener( sharedListener );
+    }
+
+
+    /**
+     * Returns the number of service listeners currently registered with the
+     * framework on behalf of the dependency managers.
+     */
+    public int getServiceListenerCount()
+    {
+        synchronized ( m_serviceListeners )
+        {
+            return m_serviceListeners.size();
+        }
+    }
+
+    private static class ServiceListenerKey
+    {
+        private final BundleContext context;
+        private final String filter;
+
+        private ServiceListenerKey( BundleContext context, String filter )
+        {
+            this.context = context;
+            this.filter = filter;
+        }
+
+        private void removeServiceListener( ServiceListener listener )
+        {
+            try
+            {
+                context.removeServiceListener( listener );
+            }
+            catch ( IllegalStateException ise )
+            {
+                // the bundle has already been stopped
+            }
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode( context ) * 31 + filter.hashCode();
+        }
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( !( obj instanceof ServiceListenerKey ) )
+            {
+                return false;
+            }
+            ServiceListenerKey other = ( ServiceListenerKey ) obj;
+            return context == other.context && filter.equals( other.filter );
+        }
+    }
+
+    /**
+     * The framework service listener forwarding the service events to the
+     * listeners of the dependency managers sharing the same filter.
+     */
+    private static class SharedServiceListener implements ServiceListener
+    {
+        private final Bundle bundle;
+        private final List<ServiceListener> listeners = new CopyOnWriteArrayList<ServiceListener>();
+        private final CountDownLatch registration = new CountDownLatch( 1 );
+        private volatile boolean registered;
+
+        private SharedServiceListener( Bundle bundle )
+        {
+            this.bundle = bundle;
+        }
+
+        /**
+         * Called once the registration with the framework has completed
+         * or failed.
+         */
+        private void registered( boolean registered )
+        {
+            this.registered = registered;
+            registration.countDown();
+        }
+
+        /**
+         * Waits until the registration with the framework has completed and
+         * returns <code>true</code> if it has succeeded.
+         */
+        private boolean awaitRegistration()
+        {
+            boolean interrupted = false;
+            while ( true )
+            {
+                try
+                {
+                    registration.await();
+                    break;
+                }
+                catch ( InterruptedException ie )
+                {
+                    interrupted = true;
+                }
+            }
+            if ( interrupted )
+            {
+                Thread.currentThread().interrupt();
+            }
+            return registered;
+        }
+
+        private void add( ServiceListener listener )
+        {
+            listeners.add( listener );
+        }
+
+        /**
+         * Removes the listener and returns <code>true</code> if no more
+         * listeners are left.
+         */
+        private boolean remove( ServiceListener listener )
+        {
+            listeners.remove( listener );
+            return listeners.isEmpty();
+        }
+
+        public void serviceChanged( ServiceEvent event )
+        {
+            for ( ServiceListener listener : listeners )
+            {
+                // like the framework does not let a failing listener prevent
+                // delivery to other listeners
+                try
+                {
+                    listener.serviceChanged( event );
+                }
+                catch ( RuntimeException re )
+                {
+                    Activator.log( LogService.LOG_ERROR, bundle, "Failure delivering service event " + event.getType()
+                        + " for " + event.getServiceReference() + " to " + listener, re );
+                }
+            }
+        }
+    }
+
     private static class Entry
     {
         private final DependencyManager<?,?> dm;
@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.packageadmin.PackageAdmin;
+
+
+/**
+ * The <code>DescriptorCache</code> keeps the component metadata read from
+ * the component descriptors of a bundle in a compact binary form in the
+ * data area of the SCR bundle. When the components of an unchanged bundle
+ * are loaded again, for example after a framework restart, the metadata
+ * is read from the cache instead of parsing the XML descriptors.
+ * <p>
+ * The cached metadata is the metadata as produced by the
+ * {@link org.apache.felix.scr.impl.metadata.XmlHandler} before validation.
+ * It is validated when loaded from the cache just like freshly parsed
+ * metadata, such that validation failures are reported the same way.
+ */
+public class DescriptorCache
+{
+
+    // version of the file format, increment on incompatible changes
+    private static final int FORMAT_VERSION = 3;
+
+    private static final String FILE_SUFFIX = ".dat";
+
+    // the directory containing one cache file per bundle
+    private final File m_directory;
+
+    // identifies the SCR bundle which wrote the entries, since the binary
+    // form of the metadata may change with the SCR implementation
+    private final String m_scrKey;
+
+
+    public DescriptorCache( File directory, Bundle scrBundle )
+    {
+        m_directory = directory;
+        m_scrKey = scrBundle.getVersion() + ":" + scrBundle.getLastModified();
+    }
+
+
+    /**
+     * Returns the key identifying the descriptors of the given bundle. The
+     * key changes if the bundle or one of its attached fragments is updated
+     * or if the <i>Service-Component</i> header changes. <code>null</code> is
+     * returned if the fragments of the bundle cannot be determined.
+     */
+    static String getKey( Bundle bundle, String descriptorLocations )
+    {
+        PackageAdmin pa = ( PackageAdmin ) Activator.getPackageAdmin();
+        if ( pa == null )
+        {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder();
+        key.append( bundle.getLastModified() ).append( ';' ).append( descriptorLocations );
+
+        Bundle[] fragments = pa.getFragments( bundle );
+        if ( fragments != null )
+        {
+            for ( Bundle fragment : fragments )
+            {
+                key.append( ';' ).append( fragment.getBundleId() ).append( ':' ).append( fragment.getLastModified() );
+            }
+        }
+        return key.toString();
+    }
+
+
+    /**
+     * Returns the cached descriptors of the bundle indexed by descriptor
+     * identifier or <code>null</code> if there is no cache entry for the
+     * bundle or the entry has been written for a different key or by a
+     * different version of the SCR bundle.
+     */
+    Map<String, byte[]> load( long bundleId, String key ) throws IOException
+    {
+        DataInputStream in;
+        try
+        {
+            in = new DataInputStream( new BufferedInputStream( new FileInputStream( getFile( bundleId ) ) ) );
+        }
+        catch ( FileNotFoundException fnfe )
+        {
+            return null;
+        }
+
+        try
+        {
+            if ( in.readInt() != FORMAT_VERSION || !m_scrKey.equals( in.readUTF() )
+                || !key.equals( in.readUTF() ) )
+            {
+                return null;
+            }
+
+            Map<String, byte[]> descriptors = new HashMap<String, byte[]>();
+            for ( int i = in.readInt(); i > 0; i-- )
+            {
+                String descriptorId = in.readUTF();
+                byte[] data = new byte[in.readInt()];
+                in.readFully( data );
+                descriptors.put( descriptorId, data );
+            }
+            return descriptors;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+
+    /**
+     * Replaces the cache entry of the bundle by the given descriptors. The
+     * entry is written to a temporary file first, so a concurrent or
+     * interrupted write never leaves a partially written entry behind.
+     */
+    void store( long bundleId, String key, Map<String, byte[]> descriptors ) throws IOException
+    {
+        m_directory.mkdirs();
+
+        File tmp = new File( m_directory, bundleId + ".tmp" + Thread.currentThread().getId() );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+        try
+        {
+            out.writeInt( FORMAT_VERSION );
+            out.writeUTF( m_scrKey );
+            out.writeUTF( key );
+            out.writeInt( descriptors.size() );
+            for ( Map.Entry<String, byte[]> descriptor : descriptors.entrySet() )
+            {
+                out.writeUTF( descriptor.getKey() );
+                out.writeInt( descriptor.getValue().length );
+                out.write( descriptor.getValue() );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+
+        File file = getFile( bundleId );
+        file.delete();
+        if ( !tmp.renameTo( file ) )
+        {
+            tmp.delete();
+            throw new IOException( "Cannot rename " + tmp + " to " + file );
+        }
+    }
+
+
+    /**
+     * Removes the cache entries of bundles which are not installed any more.
+     */
+    void prune( BundleContext context )
+    {
+        File[] files = m_directory.listFiles();
+        if ( files == null )
+        {
+            return;
+        }
+
+        for ( File file : files )
+        {
+            String name = file.getName();
+            int dot = name.indexOf( '.' );
+            try
+            {
+                long bundleId = Long.parseLong( dot < 0 ? name : name.substring( 0, dot ) );
+                if ( context.getBundle( bundleId ) == null || !name.endsWith( FILE_SUFFIX ) )
+                {
+                    file.delete();
+                }
+            }
+            catch ( NumberFormatException nfe )
+            {
+                file.delete();
+            }
+        }
+    }
+
+
+    /**
+     * Serializes the metadata of a descriptor. This must be called before
+     * the metadata is validated.
+     */
+    static byte[] write( List<ComponentMetadata> metadataList ) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeInt( metadataList.size() );
+        for ( ComponentMetadata metadata : metadataList )
+        {
+            metadata.write( out );
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+
+    /**
+     * Deserializes the metadata of a descriptor serialized by the
+     * {@link #write(List)} method.
+     */
+    static List<ComponentMetadata> read( byte[] data ) throws IOException
+    {
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( data ) );
+        int count = in.readInt();
+        List<ComponentMetadata> metadataList = new ArrayList<ComponentMetadata>( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            metadataList.add( ComponentMetadata.read( in ) );
+        }
+        return metadataList;
+    }
+
+
+    private File getFile( long bundleId )
+    {
+        return new File( m_directory, bundleId + FILE_SUFFIX );
+    }
+}
@@ -36,6 +36,8 @@ import org.apache.felix.scr.Reference;
 import org.apache.felix.scr.ScrInfo;
 import org.apache.felix.scr.ScrService;
 import org.apache.felix.scr.impl.config.ScrConfiguration;
+import org.apache.felix.scr.impl.manager.AbstractComponentManager;
+import org.apache.felix.scr.impl.manager.ComponentStatistics;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -45,8 +47,8 @@ import org.osgi.framework.ServiceRegistration;
 /**
  * The <code>ScrCommand</code> class provides the implementations for the
  * Apache Felix Gogo and legacy Apache Felix Shell commands. The
- * {@link #register(BundleContext, ScrService, ScrConfiguration)} method
- * instantiates and registers the Gogo and Shell commands as possible.
+ * {@link #register(BundleContext, ScrService, ScrConfiguration, ComponentActorThread)}
+ * method instantiates and registers the Gogo and Shell commands as possible.
  */
 public class ScrCommand implements ScrInfo
 {
@@ -54,12 +56,14 @@ public class ScrCommand implements ScrInfo
     private final BundleContext bundleContext;
     private final ScrService scrService;
     private final ScrConfiguration scrConfiguration;
+    private final ComponentActorThread componentActor;
     
     private ServiceRegistration reg;
 
-    static ScrCommand register(BundleContext bundleContext, ScrService scrService, ScrConfiguration scrConfiguration)
+    static ScrCommand register(BundleContext bundleContext, ScrService scrService, ScrConfiguration scrConfiguration,
+        ComponentActorThread componentActor)
     {
-        final ScrCommand cmd = new ScrCommand(bundleContext, scrService, scrConfiguration);
+        final ScrCommand cmd = new ScrCommand(bundleContext, scrService, scrConfiguration, componentActor);
 
         /*
          * Register the Gogo Command as a service of its own class.
@@ -80,7 +84,7 @@ public class ScrCommand implements ScrInfo
             final Hashtable props = new Hashtable();
             props.put("osgi.command.scope", "scr");
             props.put("osgi.command.function", new String[]
-                { "config", "disable", "enable", "info", "list" });
+                { "config", "disable", "enable", "info", "list", "stats" });
             props.put(Constants.SERVICE_DESCRIPTION, "SCR Gogo Shell Support");
             props.put(Constants.SERVICE_VENDOR, "The Apache Software Foundation");
             bundleContext.registerService(scrGogoCommandClassName, gogoCmd, props);
@@ -110,11 +114,13 @@ public class ScrCommand implements ScrInfo
         return cmd;
     }
 
-    private ScrCommand(BundleContext bundleContext, ScrService scrService, ScrConfiguration scrConfiguration)
+    private ScrCommand(BundleContext bundleContext, ScrService scrService, ScrConfiguration scrConfiguration,
+        ComponentActorThread componentActor)
     {
         this.bundleContext = bundleContext;
         this.scrService = scrService;
         this.scrConfiguration = scrConfiguration;
+        this.componentActor = componentActor;
     }
 
     // ---------- Actual implementation
@@ -461,6 +467,97 @@ public class ScrCommand implements ScrInfo
         out.println(scrConfiguration.lockTimeout());
         out.print("Info Service registered: ");
         out.println(scrConfiguration.infoAsService() ? "Supported" : "Unsupported");
+        out.print("Component actor threads: ");
+        out.println(componentActor.getThreadCount());
+        out.print("Component actor queue depth: ");
+        out.println(componentActor.getQueueDepth() + " (max " + componentActor.getMaxQueueDepth() + ")");
+        final long taskCount = componentActor.getTaskCount();
+        out.print("Component actor tasks: ");
+        out.println(taskCount + " (average " + (taskCount == 0 ? 0 : componentActor.getTaskTime() / taskCount / 1000000)
+            + "ms, max " + (componentActor.getMaxTaskTime() / 1000000) + "ms)");
+        out.flush();
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.felix.scr.ScrInfo#stats(java.lang.String, java.io.PrintWriter)
+     */
+    public void stats(final String componentId, final PrintWriter out)
+    {
+        Component[] components = getComponentFromArg(componentId);
+        if (components == null)
+        {
+            out.println("No components registered");
+            return;
+        }
+
+        if (componentId == null)
+        {
+            // summary of all components, most expensive activations first
+            Arrays.sort( components, new Comparator<Component>()
+                    {
+
+                        public int compare(Component c1, Component c2)
+                        {
+                            return Long.signum(getActivationTime(c2) - getActivationTime(c1));
+                        }
+
+                    });
+
+            out.println(" Id   Activations Activation(ms) Deactivations  Binds Unbinds LockWait(ms) Timeouts Name");
+            for ( Component component : components )
+            {
+                if ( component instanceof AbstractComponentManager )
+                {
+                    ComponentStatistics stats = ( ( AbstractComponentManager<?> ) component ).getStatistics();
+                    out.println( String.format( "[%1$4d] %2$11d %3$14.3f %4$13d %5$6d %6$7d %7$12.3f %8$8d %9$s",
+                        component.getId(), stats.getActivation().getCount(), stats.getActivation().getTime() / 1e6,
+                        stats.getDeactivation().getCount(), stats.getBindCount(), stats.getUnbindCount(),
+                        ( stats.getActivationLockWait().getTime() + stats.getStateLockWait().getTime() ) / 1e6,
+                        stats.getLockTimeoutCount(), component.getName() ) );
+                }
+            }
+        }
+        else
+        {
+            for ( Component component : components )
+            {
+                if ( component instanceof AbstractComponentManager )
+                {
+                    ComponentStatistics stats = ( ( AbstractComponentManager<?> ) component ).getStatistics();
+                    out.print( "ID: " );
+                    out.println( component.getId() );
+                    out.print( "Name: " );
+                    out.println( component.getName() );
+                    out.print( "Activations: " );
+                    out.println( stats.getActivation() );
+                    out.print( "Deactivations: " );
+                    out.println( stats.getDeactivation() );
+                    out.print( "Service Creations: " );
+                    out.println( stats.getServiceCreation() );
+                    out.print( "Binds: " );
+                    out.println( stats.getBindCount() );
+                    out.print( "Unbinds: " );
+                    out.println( stats.getUnbindCount() );
+                    out.print( "Activation Lock Waits: " );
+                    out.println( stats.getActivationLockWait() );
+                    out.print( "State Lock Waits: " );
+                    out.println( stats.getStateLockWait() );
+                    out.print( "Lock Timeouts: " );
+                    out.println( stats.getLockTimeoutCount() );
+                    out.println();
+                }
+            }
+        }
+        out.flush();
+    }
+
+    private static long getActivationTime(Component component)
+    {
+        if ( component instanceof AbstractComponentManager )
+        {
+            return ( ( AbstractComponentManager<?> ) component ).getStatistics().getActivation().getTime();
+        }
+        return 0;
     }
 
     private String toStateString(int state)
@@ -37,6 +37,8 @@ import org.apache.felix.service.command.Descriptor;
  * <dd>Disable a component</dd>
  * <dt><code>scr:config</code></dt>
  * <dd>Print configuration of the Apache Felix Declarative Services bundle</dd>
+ * <dt><code>scr:stats</code></dt>
+ * <dd>Print runtime statistics of all components or of a single component</dd>
  * </dl>
  * <p>
  * This class uses Java 5 annotations to provide descriptions for the commands
@@ -127,4 +129,23 @@ class ScrGogoCommand
         scrCommand.config(new PrintWriter(System.out));
     }
 
+    @Descriptor("Show the runtime statistics of all components")
+    public void stats()
+    {
+        scrCommand.stats(null, new PrintWriter(System.out));
+    }
+
+    @Descriptor("Show the runtime statistics of a component")
+    public void stats(@Descriptor("Name or ID of the component") final String componentIdentifier)
+    {
+        try
+        {
+            scrCommand.stats(componentIdentifier, new PrintWriter(System.out));
+        }
+        catch ( IllegalArgumentException e )
+        {
+            System.err.println(e.getMessage());
+        }
+    }
+
 }
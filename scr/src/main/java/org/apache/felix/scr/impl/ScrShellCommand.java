@@ -37,6 +37,7 @@ class ScrShellCommand implements Command
     private static final String ENABLE_CMD = "enable";
     private static final String DISABLE_CMD = "disable";
     private static final String CONFIG_CMD = "config";
+    private static final String STATS_CMD = "stats";
 
     private final ScrCommand scrCommand;
 
@@ -99,6 +100,10 @@ class ScrShellCommand implements Command
                 {
                     scrCommand.config(pw);
                 }
+                else if (command.equals(STATS_CMD))
+                {
+                    scrCommand.stats(arg, pw);
+                }
                 else
                 {
                     err.println("Unknown command: " + command);
@@ -155,6 +160,16 @@ class ScrShellCommand implements Command
             out.println("This command lists the current SCR configuration.");
             out.println("");
         }
+        else if (command.equals(STATS_CMD))
+        {
+            out.println("");
+            out.println("scr " + STATS_CMD + " [ <componentId> ]");
+            out.println("");
+            out.println("This command lists the runtime statistics of the components\n"
+                + "sorted by activation time. If a component ID is added, the\n"
+                + "statistics of the selected components are listed in detail.");
+            out.println("");
+        }
         else
         {
             out.println("scr " + HELP_CMD + " [" + LIST_CMD + "]");
@@ -163,6 +178,7 @@ class ScrShellCommand implements Command
             out.println("scr " + ENABLE_CMD + " <componentId>");
             out.println("scr " + DISABLE_CMD + " <componentId>");
             out.println("scr " + CONFIG_CMD);
+            out.println("scr " + STATS_CMD + " [ <componentId> ]");
         }
     }
 }
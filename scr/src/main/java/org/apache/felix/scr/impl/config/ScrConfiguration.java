@@ -68,6 +68,10 @@ public class ScrConfiguration
 
     public static final String PROP_STOP_TIMEOUT = "ds.stop.timeout.milliseconds";
 
+    public static final String PROP_CACHE_DESCRIPTORS = "ds.cache.descriptors";
+
+    public static final String PROP_ACTOR_THREADS = "ds.actor.threads";
+
     public static final long DEFAULT_LOCK_TIMEOUT_MILLISECONDS = 5000;
 
     public static final long DEFAULT_STOP_TIMEOUT_MILLISECONDS = 60000;
@@ -98,6 +102,10 @@ public class ScrConfiguration
 
     private long stopTimeout = DEFAULT_STOP_TIMEOUT_MILLISECONDS;
 
+    private boolean cacheDescriptors;
+
+    private int actorThreads = 1;
+
     private BundleContext bundleContext;
 
     private ServiceRegistration managedService;
@@ -153,6 +161,8 @@ public class ScrConfiguration
                 infoAsService = false;
                 lockTimeout = DEFAULT_LOCK_TIMEOUT_MILLISECONDS;
                 stopTimeout = DEFAULT_STOP_TIMEOUT_MILLISECONDS;
+                cacheDescriptors = true;
+                actorThreads = 1;
             }
             else
             {
@@ -162,6 +172,8 @@ public class ScrConfiguration
                 infoAsService = getDefaultInfoAsService();
                 lockTimeout = getDefaultLockTimeout();
                 stopTimeout = getDefaultStopTimeout();
+                cacheDescriptors = getDefaultCacheDescriptors();
+                actorThreads = getDefaultActorThreads();
             }
         }
         else
@@ -174,6 +186,9 @@ public class ScrConfiguration
             lockTimeout = timeout == null? DEFAULT_LOCK_TIMEOUT_MILLISECONDS: timeout;
             timeout = ( Long ) config.get( PROP_STOP_TIMEOUT );
             stopTimeout = timeout == null? DEFAULT_STOP_TIMEOUT_MILLISECONDS: timeout;
+            cacheDescriptors = !"false".equalsIgnoreCase( String.valueOf( config.get( PROP_CACHE_DESCRIPTORS ) ) );
+            Integer threads = ( Integer ) config.get( PROP_ACTOR_THREADS );
+            actorThreads = threads == null? 1: threads;
         }
         if ( scrCommand != null )
         {
@@ -217,6 +232,30 @@ public class ScrConfiguration
         return stopTimeout;
     }
 
+    /**
+     * Returns whether the component metadata read from the component
+     * descriptors is cached in the data area of the SCR bundle to not
+     * parse the descriptors again when the components of an unchanged
+     * bundle are loaded. This is enabled unless the
+     * <code>ds.cache.descriptors</code> property is set to <code>false</code>.
+     */
+    public boolean cacheDescriptors()
+    {
+        return cacheDescriptors;
+    }
+
+    /**
+     * Returns the number of threads running the asynchronous component
+     * tasks like activation. With more than one thread, components are
+     * activated concurrently while the tasks of each component are still
+     * run one after the other. This setting is only applied when the
+     * Declarative Services implementation is started.
+     */
+    public int actorThreads()
+    {
+        return actorThreads;
+    }
+
     private boolean getDefaultFactoryEnabled()
     {
         return VALUE_TRUE.equals( bundleContext.getProperty( PROP_FACTORY_ENABLED ) );
@@ -239,6 +278,21 @@ public class ScrConfiguration
         return VALUE_TRUE.equalsIgnoreCase( bundleContext.getProperty( PROP_INFO_SERVICE) );
     }
 
+    private boolean getDefaultCacheDescriptors()
+    {
+        return !"false".equalsIgnoreCase( bundleContext.getProperty( PROP_CACHE_DESCRIPTORS ) );
+    }
+
+    private int getDefaultActorThreads()
+    {
+        String val = bundleContext.getProperty( PROP_ACTOR_THREADS );
+        if ( val == null )
+        {
+            return 1;
+        }
+        return Integer.parseInt( val );
+    }
+
     private long getDefaultLockTimeout()
     {
         String val = bundleContext.getProperty( PROP_LOCK_TIMEOUT);
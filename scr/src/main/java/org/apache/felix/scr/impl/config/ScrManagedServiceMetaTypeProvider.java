@@ -116,6 +116,23 @@ class ScrManagedServiceMetaTypeProvider extends ScrManagedService
                 new String[] { String.valueOf(this.getScrConfiguration().lockTimeout())}, 
                 0, null, null) );
 
+        adList.add( new AttributeDefinitionImpl(
+                ScrConfiguration.PROP_CACHE_DESCRIPTORS,
+                "Cache Component Descriptors",
+                "Whether to keep the metadata read from component descriptors in the data area of the SCR bundle "
+                    + "to not parse the descriptors of unchanged bundles again when their components are loaded.",
+                this.getScrConfiguration().cacheDescriptors() ) );
+
+        adList.add( new AttributeDefinitionImpl(
+                ScrConfiguration.PROP_ACTOR_THREADS,
+                "Component Actor Threads",
+                "Number of threads activating components asynchronously. With more than one thread components are "
+                    + "activated concurrently, while the tasks of a single component are still run in order. "
+                    + "Changes are applied when the Declarative Services implementation is restarted.",
+                AttributeDefinition.INTEGER,
+                new String[] { String.valueOf(this.getScrConfiguration().actorThreads())},
+                0, null, null) );
+
         return new ObjectClassDefinition()
         {
 
@@ -109,7 +109,12 @@ public class ActivateMethod extends BaseMethod
 
     protected Object[] getParameters( Method method, Object rawParameter )
     {
-        final Class[] parameterTypes = method.getParameterTypes();
+        final Class[] parameterTypes = getParameterTypes();
+        if ( parameterTypes.length == 0 )
+        {
+            return NO_PARAMETERS;
+        }
+
         final ActivatorParameter ap = ( ActivatorParameter ) rawParameter;
         final Object[] param = new Object[parameterTypes.length];
         for ( int i = 0; i < param.length; i++ )
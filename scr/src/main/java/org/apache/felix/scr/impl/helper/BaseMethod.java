@@ -46,6 +46,9 @@ abstract class BaseMethod
     protected static final Class MAP_CLASS = Map.class;
     protected static final Class INTEGER_CLASS = Integer.class;
 
+    // shared argument array for methods without parameters
+    protected static final Object[] NO_PARAMETERS = new Object[0];
+
     private final boolean isDS11;
     private final boolean isDS12Felix;
 
@@ -54,6 +57,9 @@ abstract class BaseMethod
 
     private volatile Method m_method;
 
+    // parameter types of m_method, cached since Method.getParameterTypes clones them
+    private volatile Class[] m_parameterTypes;
+
     private final boolean m_methodRequired;
 
     private volatile State m_state;
@@ -105,6 +111,15 @@ abstract class BaseMethod
         return m_method;
     }
 
+    /**
+     * Returns the parameter types of the resolved method. The returned
+     * array is shared and must not be modified.
+     */
+    protected final Class[] getParameterTypes()
+    {
+        return m_parameterTypes;
+    }
+
     protected final Class getComponentClass()
     {
         return m_componentClass;
@@ -113,6 +128,7 @@ abstract class BaseMethod
 
     void setMethod( Method method, SimpleLogger logger )
     {
+        this.m_parameterTypes = ( method != null ) ? method.getParameterTypes() : null;
         this.m_method = method;
 
         if ( method != null )
@@ -221,17 +237,31 @@ abstract class BaseMethod
     private MethodResult invokeMethod( final Object componentInstance, final Object rawParameter, SimpleLogger logger )
         throws InvocationTargetException
     {
-        logger.log( LogService.LOG_DEBUG, "invoking {0}: {1}", new Object[]
-            { getMethodNamePrefix(), getMethodName() }, null );
+        // this is the hot path for bind and unbind calls, so only build
+        // the log message arguments if they are actually logged
+        final boolean debug = logger.isLogEnabled( LogService.LOG_DEBUG );
+        if ( debug )
+        {
+            logger.log( LogService.LOG_DEBUG, "invoking {0}: {1}", new Object[]
+                { getMethodNamePrefix(), getMethodName() }, null );
+        }
         try
         {
             if ( componentInstance != null )
             {
-                final Object[] params = getParameters(m_method, rawParameter);
-                Object result = m_method.invoke(componentInstance, params);
-                logger.log( LogService.LOG_DEBUG, "invoked {0}: {1}: parameters {2}", new Object[]
-                    { getMethodNamePrefix(), getMethodName(), Arrays.asList( params ) }, null );
-                return new MethodResult((m_method.getReturnType() != Void.TYPE), (Map) result);
+                final Method method = m_method;
+                final Object[] params = getParameters(method, rawParameter);
+                Object result = method.invoke(componentInstance, params);
+                if ( debug )
+                {
+                    logger.log( LogService.LOG_DEBUG, "invoked {0}: {1}: parameters {2}", new Object[]
+                        { getMethodNamePrefix(), getMethodName(), Arrays.asList( params ) }, null );
+                }
+                if ( method.getReturnType() == Void.TYPE )
+                {
+                    return MethodResult.VOID;
+                }
+                return new MethodResult(true, (Map) result);
             }
             else
             {
@@ -555,7 +585,21 @@ abstract class BaseMethod
         private static final State INSTANCE = new NotResolved();
 
 
-        private synchronized void resolve( final BaseMethod baseMethod, SimpleLogger logger )
+        private void resolve( final BaseMethod baseMethod, SimpleLogger logger )
+        {
+            // resolve each method once, concurrent callers wait for the
+            // first one instead of repeating the class hierarchy search
+            synchronized ( baseMethod )
+            {
+                if ( baseMethod.getState() == this )
+                {
+                    doResolve( baseMethod, logger );
+                }
+            }
+        }
+
+
+        private void doResolve( final BaseMethod baseMethod, SimpleLogger logger )
         {
             logger.log( LogService.LOG_DEBUG, "getting {0}: {1}", new Object[]
                     {baseMethod.getMethodNamePrefix(), baseMethod.getMethodName()}, null );
@@ -126,6 +126,8 @@ public abstract class AbstractComponentManager<S> implements Component, SimpleLo
     
     protected final ReentrantReadWriteLock m_activationLock = new ReentrantReadWriteLock();
 
+    private final ComponentStatistics m_statistics = new ComponentStatistics();
+
     /**
      * The constructor receives both the activator and the metadata
      *
@@ -188,14 +190,14 @@ public abstract class AbstractComponentManager<S> implements Component, SimpleLo
         return ScrConfiguration.DEFAULT_LOCK_TIMEOUT_MILLISECONDS;
     }
 
-    private void obtainLock( Lock lock, String source )
+    private void obtainLock( Lock lock, ComponentStatistics.Timing lockWait, String source )
     {
+        final long start = System.nanoTime();
         try
         {
             if (!lock.tryLock( getLockTimeout(), TimeUnit.MILLISECONDS ) )
             {
-                dumpThreads();
-                throw new IllegalStateException( "Could not obtain lock" );
+                lockTimedOut();
             }
         }
         catch ( InterruptedException e )
@@ -204,8 +206,7 @@ public abstract class AbstractComponentManager<S> implements Component, SimpleLo
             {
                 if (!lock.tryLock( getLockTimeout(), TimeUnit.MILLISECONDS ) )
                 {
-                    dumpThreads();
-                    throw new IllegalStateException( "Could not obtain lock" );
+                    lockTimedOut();
                 }
             }
             catch ( InterruptedException e1 )
@@ -216,11 +217,19 @@ public abstract class AbstractComponentManager<S> implements Component, SimpleLo
             }
             Thread.currentThread().interrupt();
         }
+        lockWait.record( System.nanoTime() - start );
+    }
+
+    private void lockTimedOut()
+    {
+        m_statistics.lockTimedOut();
+        dumpThreads();
+        throw new IllegalStateException( "Could not obtain lock" );
     }
     
     final void obtainActivationReadLock( String source )
     {
-        obtainLock( m_activationLock.readLock(), source);
+        obtainLock( m_activationLock.readLock(), m_statistics.getActivationLockWait(), source);
     }
 
     final void releaseActivationReadLock( String source )
@@ -230,7 +239,7 @@ public abstract class AbstractComponentManager<S> implements Component, SimpleLo
     
     final void obtainActivationWriteLock( String source )
     {
-        obtainLock( m_activationLock.writeLock(), source);
+        obtainLock( m_activationLock.writeLock(), m_statistics.getActivationLockWait(), source);
     }
 
     final void releaseActivationWriteeLock( String source )
@@ -243,7 +252,7 @@ public abstract class AbstractComponentManager<S> implements Component, SimpleLo
     
     final void obtainStateLock( String source )
     {
-        obtainLock( m_stateLock, source );
+        obtainLock( m_stateLock, m_statistics.getStateLockWait(), source );
     }
 
     final void releaseStateLock( String source )
@@ -431,7 +440,7 @@ public abstract class AbstractComponentManager<S> implements Component, SimpleLo
         if ( async )
         {
             final CountDownLatch latch = enableLatch;
-            m_activator.schedule( new Runnable()
+            m_activator.schedule( getComponentMetadata(), new Runnable()
             {
 
                 long count = taskCounter.incrementAndGet();
@@ -534,7 +543,7 @@ public abstract class AbstractComponentManager<S> implements Component, SimpleLo
         if ( async )
         {
             final CountDownLatch latch = enableLatch;
-            m_activator.schedule( new Runnable()
+            m_activator.schedule( getComponentMetadata(), new Runnable()
             {
 
                 long count = taskCounter.incrementAndGet();
@@ -1148,6 +1157,15 @@ public abstract class AbstractComponentManager<S> implements Component, SimpleLo
     }
 
 
+    /**
+     * Returns the runtime statistics of this component manager.
+     */
+    public ComponentStatistics getStatistics()
+    {
+        return m_statistics;
+    }
+
+
     boolean isActivatorActive()
     {
         BundleComponentActivator activator = getActivator();
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.manager;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * The <code>ComponentStatistics</code> class collects runtime statistics
+ * of a component manager: how often and how long the component has been
+ * activated and deactivated, how often references have been bound and
+ * unbound, how long creating the service object took and how long threads
+ * waited for the locks of the component manager.
+ * <p>
+ * All times are measured in nanoseconds.
+ */
+public class ComponentStatistics
+{
+
+    private final Timing m_activation = new Timing();
+
+    private final Timing m_deactivation = new Timing();
+
+    private final Timing m_serviceCreation = new Timing();
+
+    private final Timing m_activationLockWait = new Timing();
+
+    private final Timing m_stateLockWait = new Timing();
+
+    private final AtomicLong m_bindCount = new AtomicLong();
+
+    private final AtomicLong m_unbindCount = new AtomicLong();
+
+    private final AtomicLong m_lockTimeoutCount = new AtomicLong();
+
+
+    /**
+     * Returns the statistics of creating the component instance including
+     * binding its references and calling the activate method.
+     */
+    public Timing getActivation()
+    {
+        return m_activation;
+    }
+
+
+    /**
+     * Returns the statistics of disposing the component instance including
+     * calling the deactivate method and unbinding its references.
+     */
+    public Timing getDeactivation()
+    {
+        return m_deactivation;
+    }
+
+
+    /**
+     * Returns the statistics of the <code>getService</code> calls which
+     * created a new service object.
+     */
+    public Timing getServiceCreation()
+    {
+        return m_serviceCreation;
+    }
+
+
+    /**
+     * Returns the time threads waited to acquire the activation lock.
+     */
+    public Timing getActivationLockWait()
+    {
+        return m_activationLockWait;
+    }
+
+
+    /**
+     * Returns the time threads waited to acquire the state lock.
+     */
+    public Timing getStateLockWait()
+    {
+        return m_stateLockWait;
+    }
+
+
+    public long getBindCount()
+    {
+        return m_bindCount.get();
+    }
+
+
+    public long getUnbindCount()
+    {
+        return m_unbindCount.get();
+    }
+
+
+    /**
+     * Returns the number of times a lock could not be acquired within the
+     * lock timeout.
+     */
+    public long getLockTimeoutCount()
+    {
+        return m_lockTimeoutCount.get();
+    }
+
+
+    void bound()
+    {
+        m_bindCount.incrementAndGet();
+    }
+
+
+    void unbound()
+    {
+        m_unbindCount.incrementAndGet();
+    }
+
+
+    void lockTimedOut()
+    {
+        m_lockTimeoutCount.incrementAndGet();
+    }
+
+    /**
+     * The <code>Timing</code> class counts the occurrences of an operation
+     * and records their accumulated and maximum duration.
+     */
+    public static class Timing
+    {
+
+        private final AtomicLong m_count = new AtomicLong();
+
+        private final AtomicLong m_time = new AtomicLong();
+
+        private final AtomicLong m_maxTime = new AtomicLong();
+
+
+        void record( long time )
+        {
+            m_count.incrementAndGet();
+            m_time.addAndGet( time );
+            long max = m_maxTime.get();
+            while ( time > max && !m_maxTime.compareAndSet( max, time ) )
+            {
+                max = m_maxTime.get();
+            }
+        }
+
+
+        public long getCount()
+        {
+            return m_count.get();
+        }
+
+
+        public long getTime()
+        {
+            return m_time.get();
+        }
+
+
+        public long getMaxTime()
+        {
+            return m_maxTime.get();
+        }
+
+
+        public long getAverageTime()
+        {
+            final long count = getCount();
+            return count == 0 ? 0 : getTime() / count;
+        }
+
+
+        public String toString()
+        {
+            return String.format( "%d (total %.3fms, average %.3fms, max %.3fms)", getCount(), getTime() / 1e6,
+                getAverageTime() / 1e6, getMaxTime() / 1e6 );
+        }
+    }
+}
@@ -39,6 +39,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import org.apache.felix.scr.Component;
 import org.apache.felix.scr.Reference;
 import org.apache.felix.scr.impl.BundleComponentActivator;
+import org.apache.felix.scr.impl.ComponentRegistry;
 import org.apache.felix.scr.impl.helper.BindMethod;
 import org.apache.felix.scr.impl.helper.BindMethods;
 import org.apache.felix.scr.impl.helper.Coercions;
@@ -1433,6 +1434,15 @@ public class DependencyManager<S, T> implements Reference
     }
 
 
+    /**
+     * Returns the component manager owning this dependency manager.
+     */
+    public AbstractComponentManager<S> getComponentManager()
+    {
+        return m_componentManager;
+    }
+
+
     /**
      * Returns <code>true</code> if this dependency manager is satisfied, that
      * is if either the dependency is optional or the number of services
@@ -1637,6 +1647,10 @@ public class DependencyManager<S, T> implements Reference
         {
             return false;
         }
+        if ( m_dependencyMetadata.getBind() != null )
+        {
+            m_componentManager.getStatistics().bound();
+        }
         m_componentManager.setServiceProperties( result );
         return true;
     }
@@ -1744,6 +1758,10 @@ public class DependencyManager<S, T> implements Reference
             MethodResult methodResult = m_bindMethods.getUnbind().invoke( componentInstance, refPair, MethodResult.VOID, m_componentManager );
             if ( methodResult != null )
             {
+                if ( m_dependencyMetadata.getUnbind() != null )
+                {
+                    m_componentManager.getStatistics().unbound();
+                }
                 m_componentManager.setServiceProperties( methodResult );
             }
         }
@@ -1960,7 +1978,10 @@ public class DependencyManager<S, T> implements Reference
         boolean initialActive = oldTracker != null && oldTracker.isActive();
         m_componentManager.log( LogService.LOG_DEBUG, "New service tracker for {0}, initial active: {1}, previous references: {2}", new Object[]
                 {getName(), initialActive, refMap}, null );
-        ServiceTracker<T, RefPair<T>> tracker = new ServiceTracker<T, RefPair<T>>( bundleContext, m_targetFilter, m_customizer, initialActive );
+        // share the service listener with the other dependency managers of the bundle using the same filter
+        BundleComponentActivator bca = m_componentManager.getActivator();
+        ComponentRegistry registry = ( bca != null ) ? bca.getComponentRegistry() : null;
+        ServiceTracker<T, RefPair<T>> tracker = new ServiceTracker<T, RefPair<T>>( bundleContext, m_targetFilter, m_customizer, initialActive, registry );
         m_customizer.setTracker( tracker );
         //set minimum cardinality
         m_minCardinality = minimumCardinality;
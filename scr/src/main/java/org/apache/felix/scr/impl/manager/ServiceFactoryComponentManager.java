@@ -111,6 +111,7 @@ public class ServiceFactoryComponentManager<S> extends SingleComponentManager<S>
         log( LogService.LOG_DEBUG, "ServiceFactory.getService()", null );
 
         // When the getServiceMethod is called, the implementation object must be created
+        final long start = System.nanoTime();
 
         try
         {
@@ -162,6 +163,10 @@ public class ServiceFactoryComponentManager<S> extends SingleComponentManager<S>
             // know why at this moment; this should already have been logged)
             log( LogService.LOG_ERROR, "Failed creating the component instance; see log for reason", null );
         }
+        else
+        {
+            getStatistics().getServiceCreation().record( System.nanoTime() - start );
+        }
 
         return service;
     }
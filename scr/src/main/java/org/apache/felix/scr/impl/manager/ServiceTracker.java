@@ -27,6 +27,7 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.felix.scr.impl.ComponentRegistry;
 import org.osgi.framework.AllServiceListener;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -111,6 +112,12 @@ public class ServiceTracker<S, T> {
 	 * {@code ServiceListener} object
 	 */
 	private volatile Tracked				tracked;
+	/**
+	 * The registry sharing the framework service listener with other
+	 * trackers of the same bundle and filter or {@code null} if this
+	 * tracker registers its own service listener.
+	 */
+	private final ComponentRegistry			registry;
 
 
     /**
@@ -165,6 +172,7 @@ public class ServiceTracker<S, T> {
 		this.context = context;
 		this.trackReference = reference;
 		this.trackClass = null;
+		this.registry = null;
 		this.customizer = customizer;
 		this.listenerFilter = "(" + Constants.SERVICE_ID + "=" + reference.getProperty(Constants.SERVICE_ID).toString() + ")";
 		try {
@@ -201,6 +209,7 @@ public class ServiceTracker<S, T> {
 		this.context = context;
 		this.trackReference = null;
 		this.trackClass = clazz;
+		this.registry = null;
 		this.customizer = customizer;
 		// we call clazz.toString to verify clazz is non-null!
 		this.listenerFilter = "(" + Constants.OBJECTCLASS + "=" + clazz + ")";
@@ -233,12 +242,17 @@ public class ServiceTracker<S, T> {
 	 *        {@code ServiceTrackerCustomizer} and this {@code ServiceTracker}
 	 *        will call the {@code ServiceTrackerCustomizer} methods on itself.
 	 * @param initialActive Initial active state of the tracker.
+	 * @param registry The registry providing the service listener shared
+	 *        with other trackers of the bundle using the same filter. If
+	 *        registry is {@code null}, then this {@code ServiceTracker}
+	 *        registers its own service listener.
 	 * @since 1.1
 	 */
-	public ServiceTracker(final BundleContext context, final Filter filter, final ServiceTrackerCustomizer<S, T> customizer, boolean initialActive) {
+	public ServiceTracker(final BundleContext context, final Filter filter, final ServiceTrackerCustomizer<S, T> customizer, boolean initialActive, final ComponentRegistry registry) {
 		this.context = context;
 		this.trackReference = null;
 		this.trackClass = null;
+		this.registry = registry;
 		this.listenerFilter = filter.toString();
 		this.filter = filter;
 		this.customizer = customizer;
@@ -320,7 +334,11 @@ public class ServiceTracker<S, T> {
 			t = trackAllServices ? new AllTracked( trackingCount ) : new Tracked( trackingCount );
 			synchronized (t) {
 				try {
-					context.addServiceListener(t, listenerFilter);
+					if (isShared(t)) {
+						registry.addServiceListener(context, listenerFilter, t);
+					} else {
+						context.addServiceListener(t, listenerFilter);
+					}
 					ServiceReference<S>[] references = null;
 					if (trackClass != null) {
 						references = getInitialReferences(trackAllServices, trackClass, null);
@@ -346,6 +364,15 @@ public class ServiceTracker<S, T> {
 		t.trackInitial(); /* process the initial references */
 	}
 
+	/**
+	 * Returns whether the service listener of the given tracked object is
+	 * shared with other trackers. Listeners tracking all services are never
+	 * shared since they are delivered different events.
+	 */
+	private boolean isShared(final Tracked t) {
+		return registry != null && !(t instanceof AllServiceListener);
+	}
+
 	/**
 	 * Returns the list of initial {@code ServiceReference}s that will be
 	 * tracked by this {@code ServiceTracker}.
@@ -397,7 +424,11 @@ public class ServiceTracker<S, T> {
 //			references = getServiceReferences();
 //			tracked = null;
 			try {
-				context.removeServiceListener(outgoing);
+				if (isShared(outgoing)) {
+					registry.removeServiceListener(context, listenerFilter, outgoing);
+				} else {
+					context.removeServiceListener(outgoing);
+				}
 			} catch (IllegalStateException e) {
 				/* In case the context was stopped. */
 			}
@@ -230,6 +230,7 @@ public class SingleComponentManager<S> extends AbstractComponentManager<S> imple
 
     protected S createImplementationObject( Bundle usingBundle, SetImplementationObject setter )
     {
+        final long start = System.nanoTime();
         final Class<S> implementationObjectClass;
         final S implementationObject;
 
@@ -336,6 +337,7 @@ public class SingleComponentManager<S> extends AbstractComponentManager<S> imple
             setServiceProperties( result );
         }
 
+        getStatistics().getActivation().record( System.nanoTime() - start );
         return implementationObject;
     }
 
@@ -348,6 +350,8 @@ public class SingleComponentManager<S> extends AbstractComponentManager<S> imple
 
         if ( implementationObject != null )
         {
+            final long start = System.nanoTime();
+
             // 1. Call the deactivate method, if present
             // don't care for the result, the error (acccording to 112.5.12 If the deactivate
             // method throws an exception, SCR must log an error message containing the
@@ -363,6 +367,8 @@ public class SingleComponentManager<S> extends AbstractComponentManager<S> imple
             {
                 md.close( implementationObject, componentContext.getEdgeInfo( md ) );
             }
+
+            getStatistics().getDeactivation().record( System.nanoTime() - start );
         }
 
     }
@@ -802,6 +808,7 @@ public class SingleComponentManager<S> extends AbstractComponentManager<S> imple
             boolean success = true;
             if ( m_componentContext == null )
             {
+                final long start = System.nanoTime();
                 try
                 {
                     if ( !collectDependencies() )
@@ -843,6 +850,7 @@ public class SingleComponentManager<S> extends AbstractComponentManager<S> imple
                         else
                         {
                             m_activated = true;
+                            getStatistics().getServiceCreation().record( System.nanoTime() - start );
                         }
                     }
                 }
@@ -19,6 +19,9 @@
 package org.apache.felix.scr.impl.metadata;
 
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.HashSet;
@@ -834,6 +837,148 @@ public class ComponentMetadata
     }
 
 
+    /////////////////////////////////////////// PERSISTENCE //////////////////////////////////
+
+    /**
+     * Writes this metadata as read from the component descriptor to the
+     * given output. This must be called before the metadata is validated
+     * because validation replaces unset attributes by their defaults and
+     * converts the property values. Metadata read back by the
+     * {@link #read(DataInput)} method is validated like freshly parsed
+     * metadata.
+     *
+     * @throws IllegalStateException if this metadata has already been validated
+     */
+    public void write( DataOutput out ) throws IOException
+    {
+        if ( m_validated )
+        {
+            throw new IllegalStateException( "Component " + getName() + " has already been validated" );
+        }
+
+        out.writeInt( m_namespaceCode );
+        writeString( out, m_name );
+        out.writeBoolean( m_enabled );
+        writeString( out, m_factory );
+        out.writeByte( m_immediate == null ? -1 : ( m_immediate.booleanValue() ? 1 : 0 ) );
+        out.writeBoolean( m_implementationClassName == IMPLEMENTATION_CLASS_DUPLICATE );
+        if ( m_implementationClassName != IMPLEMENTATION_CLASS_DUPLICATE )
+        {
+            writeString( out, m_implementationClassName );
+        }
+        out.writeBoolean( m_activateDeclared );
+        writeString( out, m_activate );
+        out.writeBoolean( m_deactivateDeclared );
+        writeString( out, m_deactivate );
+        writeString( out, m_modified );
+        writeString( out, m_configurationPolicy );
+        writeString( out, m_configurationPid );
+
+        out.writeInt( m_propertyMetaData.size() );
+        for ( PropertyMetadata property : m_propertyMetaData )
+        {
+            property.write( out );
+        }
+
+        if ( m_service == null )
+        {
+            out.writeByte( 0 );
+        }
+        else if ( m_service == SERVICE_DUPLICATE )
+        {
+            out.writeByte( 2 );
+        }
+        else
+        {
+            out.writeByte( 1 );
+            m_service.write( out );
+        }
+
+        out.writeInt( m_references.size() );
+        for ( ReferenceMetadata reference : m_references )
+        {
+            reference.write( out );
+        }
+    }
+
+
+    /**
+     * Reads metadata written by the {@link #write(DataOutput)} method. The
+     * returned metadata has not been validated yet.
+     */
+    public static ComponentMetadata read( DataInput in ) throws IOException
+    {
+        ComponentMetadata metadata = new ComponentMetadata( in.readInt() );
+        metadata.m_name = readString( in );
+        metadata.m_enabled = in.readBoolean();
+        metadata.m_factory = readString( in );
+        byte immediate = in.readByte();
+        metadata.m_immediate = immediate < 0 ? null : Boolean.valueOf( immediate > 0 );
+        metadata.m_implementationClassName = in.readBoolean() ? IMPLEMENTATION_CLASS_DUPLICATE : readString( in );
+        metadata.m_activateDeclared = in.readBoolean();
+        metadata.m_activate = readString( in );
+        metadata.m_deactivateDeclared = in.readBoolean();
+        metadata.m_deactivate = readString( in );
+        metadata.m_modified = readString( in );
+        metadata.m_configurationPolicy = readString( in );
+        metadata.m_configurationPid = readString( in );
+
+        for ( int i = in.readInt(); i > 0; i-- )
+        {
+            metadata.m_propertyMetaData.add( PropertyMetadata.read( in ) );
+        }
+
+        switch ( in.readByte() )
+        {
+            case 1:
+                metadata.m_service = ServiceMetadata.read( in );
+                break;
+            case 2:
+                metadata.m_service = SERVICE_DUPLICATE;
+                break;
+        }
+
+        for ( int i = in.readInt(); i > 0; i-- )
+        {
+            metadata.m_references.add( ReferenceMetadata.read( in ) );
+        }
+        return metadata;
+    }
+
+
+    /**
+     * Writes a possibly <code>null</code> string as its length followed by
+     * its UTF-8 bytes. Unlike <code>DataOutput.writeUTF</code> this is not
+     * limited to strings of at most 65535 encoded bytes.
+     */
+    static void writeString( DataOutput out, String value ) throws IOException
+    {
+        out.writeBoolean( value != null );
+        if ( value != null )
+        {
+            byte[] bytes = value.getBytes( "UTF-8" );
+            out.writeInt( bytes.length );
+            out.write( bytes );
+        }
+    }
+
+
+    /**
+     * Reads a string written by the {@link #writeString(DataOutput, String)}
+     * method.
+     */
+    static String readString( DataInput in ) throws IOException
+    {
+        if ( !in.readBoolean() )
+        {
+            return null;
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+        return new String( bytes, "UTF-8" );
+    }
+
+
     /**
      * Returns a <code>ComponentException</code> for this compeonent with the
      * given explanation for failure.
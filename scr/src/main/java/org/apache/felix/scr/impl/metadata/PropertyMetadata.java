@@ -18,6 +18,9 @@
  */
 package org.apache.felix.scr.impl.metadata;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
@@ -130,6 +133,68 @@ public class PropertyMetadata {
         return m_value;
     }
 
+    /**
+     * Writes this property as read from the component descriptor.
+     *
+     * @see ComponentMetadata#write(DataOutput)
+     */
+    void write( DataOutput out ) throws IOException
+    {
+        ComponentMetadata.writeString( out, m_name );
+        ComponentMetadata.writeString( out, m_type );
+        if ( m_value instanceof String[] )
+        {
+            String[] values = ( String[] ) m_value;
+            out.writeByte( 2 );
+            out.writeInt( values.length );
+            for ( String value : values )
+            {
+                ComponentMetadata.writeString( out, value );
+            }
+        }
+        else if ( m_value instanceof String )
+        {
+            out.writeByte( 1 );
+            ComponentMetadata.writeString( out, ( String ) m_value );
+        }
+        else if ( m_value != null )
+        {
+            // only the unconverted values of the descriptor can be cached
+            throw new IOException( "Cannot cache value of type " + m_value.getClass().getName() + " of property "
+                + m_name );
+        }
+        else
+        {
+            out.writeByte( 0 );
+        }
+    }
+
+
+    /**
+     * Reads a property written by the {@link #write(DataOutput)} method.
+     */
+    static PropertyMetadata read( DataInput in ) throws IOException
+    {
+        PropertyMetadata property = new PropertyMetadata();
+        property.m_name = ComponentMetadata.readString( in );
+        property.m_type = ComponentMetadata.readString( in );
+        switch ( in.readByte() )
+        {
+            case 1:
+                property.m_value = ComponentMetadata.readString( in );
+                break;
+            case 2:
+                String[] values = new String[in.readInt()];
+                for ( int i = 0; i < values.length; i++ )
+                {
+                    values[i] = ComponentMetadata.readString( in );
+                }
+                property.m_value = values;
+                break;
+        }
+        return property;
+    }
+
     /**
      * Method used to verify if the semantics of this metadata are correct
      */
@@ -18,6 +18,9 @@
  */
 package org.apache.felix.scr.impl.metadata;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -441,6 +444,58 @@ public class ReferenceMetadata
     }
 
 
+    /**
+     * Writes this reference as read from the component descriptor.
+     *
+     * @see ComponentMetadata#write(DataOutput)
+     */
+    void write( DataOutput out ) throws IOException
+    {
+        ComponentMetadata.writeString( out, m_name );
+        ComponentMetadata.writeString( out, m_interface );
+        ComponentMetadata.writeString( out, m_cardinality );
+        ComponentMetadata.writeString( out, m_target );
+        ComponentMetadata.writeString( out, m_bind );
+        ComponentMetadata.writeString( out, m_updated );
+        ComponentMetadata.writeString( out, m_unbind );
+        ComponentMetadata.writeString( out, m_policy );
+        ComponentMetadata.writeString( out, m_policy_option );
+    }
+
+
+    /**
+     * Reads a reference written by the {@link #write(DataOutput)} method.
+     */
+    static ReferenceMetadata read( DataInput in ) throws IOException
+    {
+        ReferenceMetadata reference = new ReferenceMetadata();
+        reference.m_name = ComponentMetadata.readString( in );
+        reference.m_interface = ComponentMetadata.readString( in );
+        reference.m_cardinality = ComponentMetadata.readString( in );
+        reference.m_target = ComponentMetadata.readString( in );
+        reference.m_bind = ComponentMetadata.readString( in );
+        reference.m_updated = ComponentMetadata.readString( in );
+        reference.m_unbind = ComponentMetadata.readString( in );
+        reference.m_policy = ComponentMetadata.readString( in );
+        reference.m_policy_option = ComponentMetadata.readString( in );
+
+        // secondary properties are only derived if the attributes are set
+        if ( reference.m_cardinality != null )
+        {
+            reference.setCardinality( reference.m_cardinality );
+        }
+        if ( reference.m_policy != null )
+        {
+            reference.setPolicy( reference.m_policy );
+        }
+        if ( reference.m_policy_option != null )
+        {
+            reference.setPolicyOption( reference.m_policy_option );
+        }
+        return reference;
+    }
+
+
     /**
      *  Method used to verify if the semantics of this metadata are correct
      *
@@ -18,6 +18,9 @@
  */
 package org.apache.felix.scr.impl.metadata;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -82,6 +85,35 @@ public class ServiceMetadata {
         return m_provides.toArray( new String[m_provides.size()] );
     }
 
+    /**
+     * Writes this service as read from the component descriptor.
+     *
+     * @see ComponentMetadata#write(DataOutput)
+     */
+    void write( DataOutput out ) throws IOException
+    {
+        out.writeBoolean( m_serviceFactory );
+        out.writeInt( m_provides.size() );
+        for ( String provide : m_provides )
+        {
+            ComponentMetadata.writeString( out, provide );
+        }
+    }
+
+    /**
+     * Reads a service written by the {@link #write(DataOutput)} method.
+     */
+    static ServiceMetadata read( DataInput in ) throws IOException
+    {
+        ServiceMetadata service = new ServiceMetadata();
+        service.m_serviceFactory = in.readBoolean();
+        for ( int i = in.readInt(); i > 0; i-- )
+        {
+            service.m_provides.add( ComponentMetadata.readString( in ) );
+        }
+        return service;
+    }
+
     /**
      * Verify if the semantics of this metadata are correct
      *
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+
+public class ComponentActorThreadTest extends TestCase
+{
+
+    public void test_serial_order() throws Exception
+    {
+        final ComponentActorThread actor = new ComponentActorThread();
+        final List<String> order = Collections.synchronizedList( new ArrayList<String>() );
+        final CountDownLatch blocked = new CountDownLatch( 1 );
+
+        // keep the thread busy once started
+        actor.schedule( "a", new Runnable()
+        {
+            public void run()
+            {
+                await( blocked );
+            }
+        } );
+        actor.schedule( "a", record( order, "a1" ) );
+        actor.schedule( "a", record( order, "a2" ) );
+        actor.schedule( "b", record( order, "b1" ) );
+        actor.schedule( record( order, "c1" ) );
+        assertEquals( 5, actor.getQueueDepth() );
+
+        actor.start();
+        blocked.countDown();
+        actor.terminate();
+
+        assertEquals( Arrays.asList( "a1", "a2", "b1", "c1" ), order );
+        assertEquals( 0, actor.getQueueDepth() );
+        assertEquals( 5, actor.getMaxQueueDepth() );
+        assertEquals( 5, actor.getTaskCount() );
+    }
+
+
+    public void test_concurrent_keys() throws Exception
+    {
+        final ComponentActorThread actor = new ComponentActorThread( 2 );
+        actor.start();
+
+        // both tasks only complete if they run at the same time
+        final CountDownLatch started = new CountDownLatch( 2 );
+        final AtomicInteger completed = new AtomicInteger();
+        for ( String key : new String[] { "a", "b" } )
+        {
+            actor.schedule( key, new Runnable()
+            {
+                public void run()
+                {
+                    started.countDown();
+                    if ( await( started ) )
+                    {
+                        completed.incrementAndGet();
+                    }
+                }
+            } );
+        }
+
+        actor.terminate();
+        assertEquals( 2, completed.get() );
+    }
+
+
+    public void test_serial_per_key() throws Exception
+    {
+        final ComponentActorThread actor = new ComponentActorThread( 4 );
+        actor.start();
+
+        final List<String> order = Collections.synchronizedList( new ArrayList<String>() );
+        final AtomicBoolean running = new AtomicBoolean();
+        final AtomicBoolean overlap = new AtomicBoolean();
+        for ( int i = 0; i < 20; i++ )
+        {
+            final String name = "a" + i;
+            actor.schedule( "a", new Runnable()
+            {
+                public void run()
+                {
+                    if ( !running.compareAndSet( false, true ) )
+                    {
+                        overlap.set( true );
+                    }
+                    order.add( name );
+                    Thread.yield();
+                    running.set( false );
+                }
+            } );
+            actor.schedule( "b" + i, record( new ArrayList<String>(), "b" + i ) );
+        }
+
+        actor.terminate();
+        assertFalse( overlap.get() );
+        assertEquals( 20, order.size() );
+        for ( int i = 0; i < 20; i++ )
+        {
+            assertEquals( "a" + i, order.get( i ) );
+        }
+        assertEquals( 40, actor.getTaskCount() );
+        assertTrue( actor.getMaxTaskTime() <= actor.getTaskTime() );
+    }
+
+
+    public void test_terminated() throws Exception
+    {
+        final ComponentActorThread actor = new ComponentActorThread( 2 );
+        actor.start();
+        actor.terminate();
+
+        final List<String> order = new ArrayList<String>();
+        actor.schedule( "a", record( order, "a1" ) );
+        assertEquals( 0, actor.getQueueDepth() );
+        assertTrue( order.isEmpty() );
+    }
+
+
+    private static Runnable record( final List<String> order, final String name )
+    {
+        return new Runnable()
+        {
+            public void run()
+            {
+                order.add( name );
+            }
+        };
+    }
+
+
+    private static boolean await( CountDownLatch latch )
+    {
+        try
+        {
+            return latch.await( 5, TimeUnit.SECONDS );
+        }
+        catch ( InterruptedException ie )
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
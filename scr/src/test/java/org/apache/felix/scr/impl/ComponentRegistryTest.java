@@ -0,0 +1,242 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+
+public class ComponentRegistryTest extends TestCase
+{
+
+    private static final String FILTER = "(objectClass=org.example.Service)";
+
+    // the listeners registered with the framework indexed by filter
+    private Map<String, List<ServiceListener>> frameworkListeners;
+
+    // called by the framework when a service listener is added
+    private Runnable onAddServiceListener;
+
+    private BundleContext context;
+
+    private ComponentRegistry registry;
+
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        frameworkListeners = new HashMap<String, List<ServiceListener>>();
+        context = ( BundleContext ) Proxy.newProxyInstance( getClass().getClassLoader(), new Class[]
+            { BundleContext.class }, new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args ) throws Throwable
+            {
+                if ( method.getName().equals( "addServiceListener" ) && args.length == 2 )
+                {
+                    if ( "(invalid".equals( args[1] ) )
+                    {
+                        throw new InvalidSyntaxException( "invalid", ( String ) args[1] );
+                    }
+                    if ( onAddServiceListener != null )
+                    {
+                        onAddServiceListener.run();
+                    }
+                    List<ServiceListener> listeners = frameworkListeners.get( args[1] );
+                    if ( listeners == null )
+                    {
+                        listeners = new ArrayList<ServiceListener>();
+                        frameworkListeners.put( ( String ) args[1], listeners );
+                    }
+                    listeners.add( ( ServiceListener ) args[0] );
+                }
+                else if ( method.getName().equals( "removeServiceListener" ) )
+                {
+                    for ( List<ServiceListener> listeners : frameworkListeners.values() )
+                    {
+                        listeners.remove( args[0] );
+                    }
+                }
+                return null;
+            }
+        } );
+
+        registry = new ComponentRegistry( context );
+    }
+
+
+    public void test_shared_service_listener() throws Exception
+    {
+        final List<ServiceEvent> events1 = new ArrayList<ServiceEvent>();
+        final List<ServiceEvent> events2 = new ArrayList<ServiceEvent>();
+        final ServiceListener listener1 = new RecordingListener( events1 );
+        final ServiceListener listener2 = new RecordingListener( events2 );
+
+        registry.addServiceListener( context, FILTER, listener1 );
+        registry.addServiceListener( context, FILTER, listener2 );
+        assertEquals( 1, registry.getServiceListenerCount() );
+        assertEquals( 1, frameworkListeners.get( FILTER ).size() );
+
+        final ServiceEvent event = new ServiceEvent( ServiceEvent.REGISTERED, createServiceReference() );
+        frameworkListeners.get( FILTER ).get( 0 ).serviceChanged( event );
+        assertEquals( 1, events1.size() );
+        assertEquals( 1, events2.size() );
+
+        registry.removeServiceListener( context, FILTER, listener1 );
+        assertEquals( 1, frameworkListeners.get( FILTER ).size() );
+        frameworkListeners.get( FILTER ).get( 0 ).serviceChanged( event );
+        assertEquals( 1, events1.size() );
+        assertEquals( 2, events2.size() );
+
+        registry.removeServiceListener( context, FILTER, listener2 );
+        assertEquals( 0, registry.getServiceListenerCount() );
+        assertTrue( frameworkListeners.get( FILTER ).isEmpty() );
+    }
+
+
+    public void test_service_listener_per_filter() throws Exception
+    {
+        final String otherFilter = "(&" + FILTER + "(target=true))";
+        final ServiceListener listener1 = new RecordingListener( new ArrayList<ServiceEvent>() );
+        final ServiceListener listener2 = new RecordingListener( new ArrayList<ServiceEvent>() );
+
+        registry.addServiceListener( context, FILTER, listener1 );
+        registry.addServiceListener( context, otherFilter, listener2 );
+        assertEquals( 2, registry.getServiceListenerCount() );
+        assertEquals( 1, frameworkListeners.get( FILTER ).size() );
+        assertEquals( 1, frameworkListeners.get( otherFilter ).size() );
+
+        registry.dispose();
+        assertEquals( 0, registry.getServiceListenerCount() );
+        assertTrue( frameworkListeners.get( FILTER ).isEmpty() );
+        assertTrue( frameworkListeners.get( otherFilter ).isEmpty() );
+    }
+
+
+    public void test_failing_listener() throws Exception
+    {
+        final List<ServiceEvent> events = new ArrayList<ServiceEvent>();
+        registry.addServiceListener( context, FILTER, new ServiceListener()
+        {
+            public void serviceChanged( ServiceEvent event )
+            {
+                throw new IllegalStateException( "failure" );
+            }
+        } );
+        registry.addServiceListener( context, FILTER, new RecordingListener( events ) );
+
+        frameworkListeners.get( FILTER ).get( 0 ).serviceChanged(
+            new ServiceEvent( ServiceEvent.REGISTERED, createServiceReference() ) );
+        assertEquals( 1, events.size() );
+    }
+
+    public void test_register_outside_of_lock() throws Exception
+    {
+        // the framework calls back into the registry on another thread while
+        // the listener is registered, which blocks if the lock is held
+        final int[] count = { -1 };
+        onAddServiceListener = new Runnable()
+        {
+            public void run()
+            {
+                Thread thread = new Thread()
+                {
+                    public void run()
+                    {
+                        count[0] = registry.getServiceListenerCount();
+                    }
+                };
+                thread.start();
+                try
+                {
+                    thread.join( 5000 );
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        registry.addServiceListener( context, FILTER, new RecordingListener( new ArrayList<ServiceEvent>() ) );
+        assertEquals( 1, count[0] );
+        assertEquals( 1, frameworkListeners.get( FILTER ).size() );
+    }
+
+
+    public void test_invalid_filter() throws Exception
+    {
+        final ServiceListener listener = new RecordingListener( new ArrayList<ServiceEvent>() );
+        try
+        {
+            registry.addServiceListener( context, "(invalid", listener );
+            fail( "Expected InvalidSyntaxException" );
+        }
+        catch ( InvalidSyntaxException ise )
+        {
+            // expected
+        }
+
+        // the reserved entry has been dropped again
+        assertEquals( 0, registry.getServiceListenerCount() );
+        registry.addServiceListener( context, FILTER, listener );
+        assertEquals( 1, registry.getServiceListenerCount() );
+    }
+
+    private ServiceReference createServiceReference()
+    {
+        return ( ServiceReference ) Proxy.newProxyInstance( getClass().getClassLoader(), new Class[]
+            { ServiceReference.class }, new InvocationHandler()
+        {
+            public Object invoke( Object proxy, Method method, Object[] args )
+            {
+                return null;
+            }
+        } );
+    }
+
+    private static class RecordingListener implements ServiceListener
+    {
+        private final List<ServiceEvent> events;
+
+        RecordingListener( List<ServiceEvent> events )
+        {
+            this.events = events;
+        }
+
+        public void serviceChanged( ServiceEvent event )
+        {
+            events.add( event );
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.PropertyMetadata;
+import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
+import org.apache.felix.scr.impl.metadata.XmlHandler;
+import org.apache.felix.scr.impl.parser.KXml2SAXParser;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Version;
+import org.osgi.service.component.ComponentException;
+
+
+public class DescriptorCacheTest extends TestCase
+{
+    private MockLogger logger;
+
+    private File directory;
+
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        logger = new MockLogger();
+
+        directory = File.createTempFile( "scr-descriptors", ".dir" );
+        directory.delete();
+    }
+
+
+    protected void tearDown() throws Exception
+    {
+        File[] files = directory.listFiles();
+        if ( files != null )
+        {
+            for ( File file : files )
+            {
+                file.delete();
+            }
+        }
+        directory.delete();
+
+        super.tearDown();
+    }
+
+
+    public void test_all_elements() throws Exception
+    {
+        final List<ComponentMetadata> metadataList = readMetadata( "/components_all_elements_10.xml" );
+        final List<ComponentMetadata> cachedList = DescriptorCache.read( DescriptorCache.write( metadataList ) );
+        assertEquals( "Component Descriptors", 1, cachedList.size() );
+
+        final ComponentMetadata cm = cachedList.get( 0 );
+        assertEquals( "components.all.name", cm.getName() );
+        assertEquals( "components.all.factory", cm.getFactoryIdentifier() );
+        assertEquals( "components.all.impl", cm.getImplementationClassName() );
+        assertEquals( metadataList.get( 0 ).getNamespaceCode(), cm.getNamespaceCode() );
+        assertTrue( cm.isEnabled() );
+        assertTrue( cm.isImmediate() );
+        assertEquals( "myactivate", cm.getActivate() );
+        assertTrue( cm.isActivateDeclared() );
+        assertEquals( "mydeactivate", cm.getDeactivate() );
+        assertTrue( cm.isDeactivateDeclared() );
+        assertEquals( "mymodified", cm.getModified() );
+        assertEquals( "ignore", cm.getConfigurationPolicy() );
+        assertFalse( cm.isConfigurationPidDeclared() );
+
+        assertTrue( cm.getServiceMetadata().isServiceFactory() );
+        assertEquals( 1, cm.getServiceMetadata().getProvides().length );
+        assertEquals( "components.all.service", cm.getServiceMetadata().getProvides()[0] );
+
+        final List<ReferenceMetadata> references = cm.getDependencies();
+        assertEquals( 7, references.size() );
+        final ReferenceMetadata rm = references.get( 0 );
+        assertEquals( "ref.name", rm.getName() );
+        assertEquals( "ref.service", rm.getInterface() );
+        assertEquals( "0..n", rm.getCardinality() );
+        assertEquals( "dynamic", rm.getPolicy() );
+        assertEquals( "ref.target", rm.getTarget() );
+        assertEquals( "ref_bind", rm.getBind() );
+        assertEquals( "ref_unbind", rm.getUnbind() );
+        assertTrue( rm.isOptional() );
+        assertTrue( rm.isMultiple() );
+        assertFalse( rm.isStatic() );
+
+        // secondary properties of the references
+        assertFalse( references.get( 2 ).isOptional() );
+        assertFalse( references.get( 2 ).isMultiple() );
+        assertTrue( references.get( 4 ).isMultiple() );
+        assertTrue( references.get( 5 ).isStatic() );
+        assertFalse( references.get( 6 ).isStatic() );
+    }
+
+
+    public void test_validation_after_read() throws Exception
+    {
+        final List<ComponentMetadata> metadataList = readMetadata( "/components_properties_11.xml" );
+        final ComponentMetadata cm = DescriptorCache.read( DescriptorCache.write( metadataList ) ).get( 0 );
+
+        // defaults are only applied by validation
+        assertNull( cm.getConfigurationPolicy() );
+        cm.validate( logger );
+
+        assertEquals( "DummyClass", cm.getName() );
+        assertEquals( ComponentMetadata.CONFIGURATION_POLICY_OPTIONAL, cm.getConfigurationPolicy() );
+        assertEquals( "activate", cm.getActivate() );
+        assertFalse( cm.isActivateDeclared() );
+
+        final Object value = cm.getProperties().get( "char_array_property" );
+        assertTrue( value instanceof char[] );
+        assertTrue( Arrays.equals( new char[] { 'A', 'B' }, ( char[] ) value ) );
+    }
+
+
+    public void test_duplicate_elements() throws Exception
+    {
+        final List<ComponentMetadata> implementations = readMetadata( "/components_duplicate_implementation_11.xml" );
+        assertValidationFailure( DescriptorCache.read( DescriptorCache.write( implementations ) ).get( 0 ) );
+
+        final List<ComponentMetadata> services = readMetadata( "/components_duplicate_service_11.xml" );
+        assertValidationFailure( DescriptorCache.read( DescriptorCache.write( services ) ).get( 0 ) );
+    }
+
+
+    public void test_write_validated() throws Exception
+    {
+        final List<ComponentMetadata> metadataList = readMetadata( "/components_properties_11.xml" );
+        metadataList.get( 0 ).validate( logger );
+        try
+        {
+            DescriptorCache.write( metadataList );
+            fail( "Expected validated metadata to not be written" );
+        }
+        catch ( IllegalStateException ise )
+        {
+            // expected
+        }
+    }
+
+
+    public void test_large_property_value() throws Exception
+    {
+        final StringBuilder buf = new StringBuilder();
+        while ( buf.length() < 70000 )
+        {
+            buf.append( "value\u00e4" );
+        }
+        final String large = buf.toString();
+
+        final List<ComponentMetadata> metadataList = readMetadata( "/components_properties_11.xml" );
+        final PropertyMetadata property = new PropertyMetadata();
+        property.setName( "large_property" );
+        property.setValue( large );
+        metadataList.get( 0 ).addProperty( property );
+
+        final ComponentMetadata cm = DescriptorCache.read( DescriptorCache.write( metadataList ) ).get( 0 );
+        cm.validate( logger );
+        assertEquals( large, cm.getProperties().get( "large_property" ) );
+    }
+
+
+    public void test_store_load() throws Exception
+    {
+        final DescriptorCache cache = new DescriptorCache( directory, createScrBundle( "1.8.0" ) );
+        assertNull( cache.load( 5, "key" ) );
+
+        final Map<String, byte[]> descriptors = new HashMap<String, byte[]>();
+        descriptors.put( "OSGI-INF/*.xml#0", DescriptorCache.write( readMetadata( "/components_properties_11.xml" ) ) );
+        descriptors.put( "OSGI-INF/*.xml#1", DescriptorCache.write( readMetadata( "/components_all_elements_10.xml" ) ) );
+        cache.store( 5, "key", descriptors );
+
+        final Map<String, byte[]> loaded = cache.load( 5, "key" );
+        assertEquals( descriptors.keySet(), loaded.keySet() );
+        for ( Map.Entry<String, byte[]> descriptor : descriptors.entrySet() )
+        {
+            assertTrue( Arrays.equals( descriptor.getValue(), loaded.get( descriptor.getKey() ) ) );
+        }
+
+        // a modified bundle has a different key
+        assertNull( cache.load( 5, "other" ) );
+        assertNull( cache.load( 6, "key" ) );
+
+        // another version of SCR ignores the entries
+        assertNotNull( new DescriptorCache( directory, createScrBundle( "1.8.0" ) ).load( 5, "key" ) );
+        assertNull( new DescriptorCache( directory, createScrBundle( "1.8.2" ) ).load( 5, "key" ) );
+    }
+
+
+    //---------- helper
+
+    private Bundle createScrBundle( final String version )
+    {
+        return new MockBundle()
+        {
+            public Version getVersion()
+            {
+                return new Version( version );
+            }
+        };
+    }
+
+
+    private void assertValidationFailure( final ComponentMetadata cm )
+    {
+        try
+        {
+            cm.validate( logger );
+            fail( "Expected validation failure" );
+        }
+        catch ( ComponentException ce )
+        {
+            // expected
+        }
+    }
+
+
+    private List<ComponentMetadata> readMetadata( final String filename ) throws Exception
+    {
+        BufferedReader in = new BufferedReader( new InputStreamReader( getClass().getResourceAsStream( filename ),
+            "UTF-8" ) );
+        try
+        {
+            final KXml2SAXParser parser = new KXml2SAXParser( in );
+
+            XmlHandler handler = new XmlHandler( new MockBundle(), logger );
+            parser.parseXML( handler );
+
+            return handler.getComponentMetadataList();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
@@ -237,6 +237,32 @@ public class ActivateMethodTest extends TestCase
         checkMethod( level2, "activate_precedence_2", "activate_precedence_2_empty" );
     }
 
+    public void test_resolved_once() throws Exception
+    {
+        ComponentMetadata metadata = new ComponentMetadata( 0 )
+        {
+            public boolean isDS11()
+            {
+                return true;
+            }
+        };
+        SingleComponentManager icm = new SingleComponentManager( null, null, metadata, new ComponentMethods() );
+        ActivateMethod am = new ActivateMethod( "activate_no_arg", true, base.getClass(), true, false );
+
+        // void methods share the VOID result, also without parameters
+        MethodResult result = am.invoke( base, new ActivateMethod.ActivatorParameter( m_ctx, -1 ), null, icm );
+        assertSame( MethodResult.VOID, result );
+        assertEquals( "activate_no_arg", base.getCalledMethod() );
+        Method m = get( am, "m_method" );
+
+        // the method is not searched again for further invocations
+        result = am.invoke( base, new ActivateMethod.ActivatorParameter( m_ctx, -1 ), null, icm );
+        assertSame( MethodResult.VOID, result );
+        assertSame( m, get( am, "m_method" ) );
+        assertEquals( 0, am.getParameterTypes().length );
+    }
+
+
     //---------- internal
 
     /**
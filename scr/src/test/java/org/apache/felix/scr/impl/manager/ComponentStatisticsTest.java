@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.manager;
+
+import junit.framework.TestCase;
+
+public class ComponentStatisticsTest extends TestCase
+{
+
+    public void test_timing()
+    {
+        final ComponentStatistics.Timing timing = new ComponentStatistics.Timing();
+        assertEquals( 0, timing.getCount() );
+        assertEquals( 0, timing.getAverageTime() );
+
+        timing.record( 3000000 );
+        timing.record( 1000000 );
+        timing.record( 2000000 );
+        assertEquals( 3, timing.getCount() );
+        assertEquals( 6000000, timing.getTime() );
+        assertEquals( 3000000, timing.getMaxTime() );
+        assertEquals( 2000000, timing.getAverageTime() );
+        assertTrue( timing.toString().startsWith( "3 (total 6" ) );
+    }
+
+    public void test_counters()
+    {
+        final ComponentStatistics statistics = new ComponentStatistics();
+        statistics.bound();
+        statistics.bound();
+        statistics.unbound();
+        statistics.lockTimedOut();
+        assertEquals( 2, statistics.getBindCount() );
+        assertEquals( 1, statistics.getUnbindCount() );
+        assertEquals( 1, statistics.getLockTimeoutCount() );
+        assertEquals( 0, statistics.getActivation().getCount() );
+    }
+
+}